@@ -75,6 +75,34 @@ public interface CordraClient extends AutoCloseable, CordraStorage {
     }
     CordraObject update(CordraObject d, Options options) throws CordraException;
 
+    /**
+     * Creates the given objects in batches.  Payloads are not supported.  Returns one result per object, in order;
+     * a failure of one object does not prevent the others from being created.
+     */
+    default List<BulkWriteResult> bulkCreate(List<CordraObject> objects) throws CordraException {
+        return bulkCreate(objects, new Options().setUseDefaultCredentials(true));
+    }
+    default List<BulkWriteResult> bulkCreate(List<CordraObject> objects, String username, String password) throws CordraException {
+        return bulkCreate(objects, new Options().setUsername(username).setPassword(password));
+    }
+    default List<BulkWriteResult> bulkCreate(List<CordraObject> objects, Options options) throws CordraException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Updates the given objects in batches.  Payloads are not supported.  Returns one result per object, in order;
+     * a failure of one object does not prevent the others from being updated.
+     */
+    default List<BulkWriteResult> bulkUpdate(List<CordraObject> objects) throws CordraException {
+        return bulkUpdate(objects, new Options().setUseDefaultCredentials(true));
+    }
+    default List<BulkWriteResult> bulkUpdate(List<CordraObject> objects, String username, String password) throws CordraException {
+        return bulkUpdate(objects, new Options().setUsername(username).setPassword(password));
+    }
+    default List<BulkWriteResult> bulkUpdate(List<CordraObject> objects, Options options) throws CordraException {
+        throw new UnsupportedOperationException();
+    }
+
     default List<String> listMethods(String objectId) throws CordraException {
         return listMethods(objectId, new Options().setUseDefaultCredentials(true));
     }
@@ -276,6 +276,16 @@ public class EmbeddedServerCordraClient implements CordraClient {
         return client.update(d, options);
     }
 
+    @Override
+    public List<BulkWriteResult> bulkCreate(List<CordraObject> objects, Options options) throws CordraException {
+        return client.bulkCreate(objects, options);
+    }
+
+    @Override
+    public List<BulkWriteResult> bulkUpdate(List<CordraObject> objects, Options options) throws CordraException {
+        return client.bulkUpdate(objects, options);
+    }
+
     @Override
     public List<String> listMethods(String objectId) throws CordraException {
         return client.listMethods(objectId);
@@ -372,6 +372,66 @@ public class HttpCordraClient implements CordraClient {
         return createOrUpdate(d, false, options);
     }
 
+    @Override
+    public List<BulkWriteResult> bulkCreate(List<CordraObject> objects, Options options) throws CordraException {
+        return bulkWrite(objects, true, options);
+    }
+
+    @Override
+    public List<BulkWriteResult> bulkUpdate(List<CordraObject> objects, Options options) throws CordraException {
+        return bulkWrite(objects, false, options);
+    }
+
+    @SuppressWarnings("resource")
+    private List<BulkWriteResult> bulkWrite(List<CordraObject> objects, boolean isCreate, Options options) throws CordraException {
+        StringBuilder sb = new StringBuilder();
+        for (CordraObject d : objects) {
+            if (d.payloads != null && !d.payloads.isEmpty()) {
+                throw new BadRequestCordraException("Payloads are not supported in bulk writes");
+            }
+            sb.append(gson.toJson(d)).append('\n');
+        }
+        String body = sb.toString();
+        CloseableHttpResponse response = null;
+        HttpEntity entity = null;
+        try {
+            response = sendHttpRequestWithCredentials(() -> buildBulkWriteRequest(body, isCreate, options.requestContext), options);
+            entity = response.getEntity();
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode != 200) {
+                String responseString = EntityUtils.toString(entity);
+                throw CordraException.fromStatusCode(statusCode, responseString);
+            }
+            List<BulkWriteResult> results = new ArrayList<>();
+            String responseString = EntityUtils.toString(entity, StandardCharsets.UTF_8);
+            for (String line : responseString.split("\n")) {
+                if (line.trim().isEmpty()) continue;
+                results.add(gson.fromJson(line, BulkWriteResult.class));
+            }
+            return results;
+        } catch (IOException e) {
+            throw new InternalErrorCordraException(e);
+        } finally {
+            closeQuietly(entity, response);
+        }
+    }
+
+    protected HttpUriRequest buildBulkWriteRequest(String body, boolean isCreate, JsonObject requestContext) {
+        HttpEntityEnclosingRequestBase request;
+        String uri = baseUri + "objects/";
+        if (requestContext != null) {
+            uri += "?requestContext=" + StringUtils.encodeURLComponent(gson.toJson(requestContext));
+        }
+        if (isCreate) {
+            request = new HttpPost(uri);
+        } else {
+            request = new HttpPut(uri);
+        }
+        addRequestIdHeader(request);
+        request.setEntity(new StringEntity(body, ContentType.create("application/x-ndjson", StandardCharsets.UTF_8)));
+        return request;
+    }
+
     private static final Type LIST_STRING_TYPE = new TypeToken<List<String>>(){}.getType();
 
     @Override
@@ -789,6 +849,12 @@ public class HttpCordraClient implements CordraClient {
                 result += StringUtils.encodeURLComponent(listOfStringsToString(sortFieldsForTransport, ","));
             }
         }
+        if (params.getCursor() != null) {
+            result += "&cursor=" + StringUtils.encodeURLComponent(params.getCursor());
+        }
+        if (params.hasFacets()) {
+            result += "&facets=" + StringUtils.encodeURLComponent(new Gson().toJson(params.getFacets()));
+        }
         return result;
     }
 
@@ -3,6 +3,7 @@ package net.cnri.cordra.api;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 import org.apache.http.HttpEntity;
@@ -10,6 +11,7 @@ import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.util.EntityUtils;
 
 import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
 import com.google.gson.stream.JsonReader;
 
 public class HttpCordraObjectSearchResults implements SearchResults<CordraObject> {
@@ -18,6 +20,8 @@ public class HttpCordraObjectSearchResults implements SearchResults<CordraObject
     private final HttpEntity entity;
     private final JsonReader jsonReader;
     private final int size;
+    private final String nextCursor;
+    private final List<FacetResult> facets;
     private boolean closed = false;
 
     public HttpCordraObjectSearchResults(CloseableHttpResponse response, HttpEntity entity) throws CordraException {
@@ -27,10 +31,16 @@ public class HttpCordraObjectSearchResults implements SearchResults<CordraObject
             this.jsonReader = new JsonReader(new InputStreamReader(this.entity.getContent(), "UTF-8"));
             jsonReader.beginObject();
             @SuppressWarnings("hiding") int size = -1;
+            @SuppressWarnings("hiding") String nextCursor = null;
+            @SuppressWarnings("hiding") List<FacetResult> facets = null;
             while (jsonReader.hasNext()) {
                 String name = jsonReader.nextName();
                 if ("size".equals(name)) {
                     size = jsonReader.nextInt();
+                } else if ("nextCursor".equals(name)) {
+                    nextCursor = jsonReader.nextString();
+                } else if ("facets".equals(name)) {
+                    facets = gson.fromJson(jsonReader, new TypeToken<List<FacetResult>>(){}.getType());
                 } else if ("results".equals(name)) {
                     jsonReader.beginArray();
                     break;
@@ -39,6 +49,8 @@ public class HttpCordraObjectSearchResults implements SearchResults<CordraObject
                 }
             }
             this.size = size;
+            this.nextCursor = nextCursor;
+            this.facets = facets;
         } catch (IOException e) {
             throw new InternalErrorCordraException(e);
         }
@@ -49,6 +61,16 @@ public class HttpCordraObjectSearchResults implements SearchResults<CordraObject
         return size;
     }
 
+    @Override
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    @Override
+    public List<FacetResult> getFacets() {
+        return facets;
+    }
+
     @Override
     public Iterator<CordraObject> iterator() {
         return new JsonReaderIterator();
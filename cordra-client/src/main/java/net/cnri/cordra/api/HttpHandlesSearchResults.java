@@ -1,6 +1,7 @@
 package net.cnri.cordra.api;
 
 import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
 
@@ -11,6 +12,7 @@ import org.apache.http.util.EntityUtils;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 public class HttpHandlesSearchResults implements SearchResults<String> {
@@ -19,6 +21,8 @@ public class HttpHandlesSearchResults implements SearchResults<String> {
     private final HttpEntity entity;
     private final JsonReader jsonReader;
     private final int size;
+    private final String nextCursor;
+    private final List<FacetResult> facets;
     private boolean closed = false;
     private boolean isCordraObjectsInResults = false;
 
@@ -29,10 +33,16 @@ public class HttpHandlesSearchResults implements SearchResults<String> {
             this.jsonReader = new JsonReader(new InputStreamReader(this.entity.getContent(), "UTF-8"));
             jsonReader.beginObject();
             @SuppressWarnings("hiding") int size = -1;
+            @SuppressWarnings("hiding") String nextCursor = null;
+            @SuppressWarnings("hiding") List<FacetResult> facets = null;
             while (jsonReader.hasNext()) {
                 String name = jsonReader.nextName();
                 if ("size".equals(name)) {
                     size = jsonReader.nextInt();
+                } else if ("nextCursor".equals(name)) {
+                    nextCursor = jsonReader.nextString();
+                } else if ("facets".equals(name)) {
+                    facets = gson.fromJson(jsonReader, new TypeToken<List<FacetResult>>(){}.getType());
                 } else if ("results".equals(name)) {
                     jsonReader.beginArray();
                     break;
@@ -41,6 +51,8 @@ public class HttpHandlesSearchResults implements SearchResults<String> {
                 }
             }
             this.size = size;
+            this.nextCursor = nextCursor;
+            this.facets = facets;
             JsonToken typeInResults = jsonReader.peek();
             if (typeInResults == JsonToken.BEGIN_OBJECT) {
                 isCordraObjectsInResults = true;
@@ -55,6 +67,16 @@ public class HttpHandlesSearchResults implements SearchResults<String> {
         return size;
     }
 
+    @Override
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    @Override
+    public List<FacetResult> getFacets() {
+        return facets;
+    }
+
     @Override
     public Iterator<String> iterator() {
         return new JsonReaderIterator();
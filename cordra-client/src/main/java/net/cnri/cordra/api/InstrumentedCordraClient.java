@@ -517,6 +517,48 @@ public class InstrumentedCordraClient implements CordraClient {
         });
     }
 
+    @Override
+    public List<BulkWriteResult> bulkCreate(List<CordraObject> objects) throws CordraException {
+        return run(() -> {
+            return delegate.bulkCreate(objects);
+        });
+    }
+
+    @Override
+    public List<BulkWriteResult> bulkCreate(List<CordraObject> objects, String username, String password) throws CordraException {
+        return run(() -> {
+            return delegate.bulkCreate(objects, username, password);
+        });
+    }
+
+    @Override
+    public List<BulkWriteResult> bulkCreate(List<CordraObject> objects, Options options) throws CordraException {
+        return run(() -> {
+            return delegate.bulkCreate(objects, options);
+        });
+    }
+
+    @Override
+    public List<BulkWriteResult> bulkUpdate(List<CordraObject> objects) throws CordraException {
+        return run(() -> {
+            return delegate.bulkUpdate(objects);
+        });
+    }
+
+    @Override
+    public List<BulkWriteResult> bulkUpdate(List<CordraObject> objects, String username, String password) throws CordraException {
+        return run(() -> {
+            return delegate.bulkUpdate(objects, username, password);
+        });
+    }
+
+    @Override
+    public List<BulkWriteResult> bulkUpdate(List<CordraObject> objects, Options options) throws CordraException {
+        return run(() -> {
+            return delegate.bulkUpdate(objects, options);
+        });
+    }
+
     @Override
     public void delete(String id, Options options) throws CordraException {
         run(() -> {
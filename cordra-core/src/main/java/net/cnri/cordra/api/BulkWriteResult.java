@@ -0,0 +1,17 @@
+package net.cnri.cordra.api;
+
+/**
+ * The outcome of writing one object of a bulk create or update.
+ */
+public class BulkWriteResult {
+    public int index;
+    public String id;
+    public String type;
+    public Long txnId;
+    public int statusCode;
+    public String message;
+
+    public boolean isSuccess() {
+        return statusCode == 200;
+    }
+}
@@ -0,0 +1,17 @@
+package net.cnri.cordra.api;
+
+/**
+ * The number of objects matching a search which have a given value of a faceted field.
+ */
+public class FacetBucket {
+    public String value;
+    public long count;
+
+    public FacetBucket() {
+    }
+
+    public FacetBucket(String value, long count) {
+        this.value = value;
+        this.count = count;
+    }
+}
@@ -0,0 +1,20 @@
+package net.cnri.cordra.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The counts of the objects matching a search by the values of one field, highest counts first.
+ */
+public class FacetResult {
+    public String field;
+    public List<FacetBucket> buckets = new ArrayList<>();
+
+    public FacetResult() {
+    }
+
+    public FacetResult(String field, List<FacetBucket> buckets) {
+        this.field = field;
+        this.buckets = buckets;
+    }
+}
@@ -0,0 +1,41 @@
+package net.cnri.cordra.api;
+
+/**
+ * A field for which a search should return counts of the matching objects by value (see {@link QueryParams#getFacets()}).
+ * Facets are available for "type", "createdBy", and any JSON pointer whose schema has {@code "cordra": { "search": { "facet": true } } }.
+ */
+public class FacetSpecification {
+    public static final int DEFAULT_MAX_BUCKETS = 10;
+    /** The largest maxBuckets accepted in a search request. */
+    public static final int MAX_BUCKETS_LIMIT = 1000;
+
+    private String field;
+    private int maxBuckets = DEFAULT_MAX_BUCKETS;
+
+    @SuppressWarnings("unused")
+    private FacetSpecification() {
+        // for Gson
+    }
+
+    public FacetSpecification(String field) {
+        this(field, DEFAULT_MAX_BUCKETS);
+    }
+
+    /**
+     * Construct a FacetSpecification.
+     * @param field the field to count by
+     * @param maxBuckets the maximum number of values to return counts for; the values with the highest counts are returned
+     */
+    public FacetSpecification(String field, int maxBuckets) {
+        this.field = field;
+        this.maxBuckets = maxBuckets;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public int getMaxBuckets() {
+        return maxBuckets;
+    }
+}
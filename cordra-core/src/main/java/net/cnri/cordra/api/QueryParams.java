@@ -4,7 +4,7 @@ import java.util.Collections;
 import java.util.List;
 
 /**
- * Parameters to a repository search, such as pagination and sorting.
+ * Parameters to a repository search, such as pagination, sorting, and facets.
  */
 public class QueryParams {
     /**
@@ -12,10 +12,17 @@ public class QueryParams {
      */
     public static final QueryParams DEFAULT = new QueryParams(0, -1);
 
+    /**
+     * The cursor which requests the first page of a search paginated by cursor.
+     */
+    public static final String INITIAL_CURSOR = "*";
 
     private final List<SortField> sortFields;
     private final int pageNumber;
     private final int pageSize;
+    private final String cursor;
+    private final List<FacetSpecification> facets;
+
     /**
      * Construct a QueryParams.
      * @param pageNumber the page number to return.  Starts at 0.  Ignored if pageSize &lt;= 0.
@@ -26,9 +33,38 @@ public class QueryParams {
     }
 
     public QueryParams(int pageNumber, int pageSize, List<SortField> sortFields) {
+        this(pageNumber, pageSize, sortFields, null);
+    }
+
+    /**
+     * Construct a QueryParams.
+     * @param pageNumber the page number to return.  Starts at 0.  Ignored if pageSize &lt;= 0 or if cursor is not null.
+     * @param pageSize the number of objects to return.  PageSize of &lt; 0 means return all.
+     * @param sortFields the fields to sort by, or null
+     * @param cursor if not null, paginate by cursor instead of by page number:
+     *               {@link #INITIAL_CURSOR} for the first page, then the value of {@link SearchResults#getNextCursor()}
+     *               from the previous page.  The cost of a page does not grow with its depth.  Ignored if pageSize &lt;= 0.
+     */
+    public QueryParams(int pageNumber, int pageSize, List<SortField> sortFields, String cursor) {
+        this(pageNumber, pageSize, sortFields, cursor, null);
+    }
+
+    /**
+     * Construct a QueryParams.
+     * @param pageNumber the page number to return.  Starts at 0.  Ignored if pageSize &lt;= 0 or if cursor is not null.
+     * @param pageSize the number of objects to return.  PageSize of &lt; 0 means return all.
+     * @param sortFields the fields to sort by, or null
+     * @param cursor if not null, paginate by cursor instead of by page number; see {@link #getCursor()}
+     * @param facets the fields to count all matching objects by, or null; the counts are returned by
+     *               {@link SearchResults#getFacets()}, regardless of pagination.  When paginating by cursor, the
+     *               counts are returned only with the first page.
+     */
+    public QueryParams(int pageNumber, int pageSize, List<SortField> sortFields, String cursor, List<FacetSpecification> facets) {
         this.pageNumber = pageNumber;
         this.pageSize = pageSize;
         this.sortFields = sortFields;
+        this.cursor = cursor;
+        this.facets = facets;
     }
 
     public int getPageNumber() {
@@ -42,4 +78,34 @@ public class QueryParams {
     public List<SortField> getSortFields() {
         return sortFields;
     }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public List<FacetSpecification> getFacets() {
+        return facets;
+    }
+
+    /**
+     * Returns true if these parameters request facet counts.
+     */
+    public boolean hasFacets() {
+        return facets != null && !facets.isEmpty();
+    }
+
+    /**
+     * Returns true if facet counts should be computed for this page: facets are requested, and this is not a later
+     * page of a search paginated by cursor, whose counts were returned with the first page.
+     */
+    public boolean isCountFacets() {
+        return hasFacets() && !(isCursorPaginated() && !INITIAL_CURSOR.equals(cursor));
+    }
+
+    /**
+     * Returns true if these parameters request a page of a search paginated by cursor.
+     */
+    public boolean isCursorPaginated() {
+        return cursor != null && pageSize > 0;
+    }
 }
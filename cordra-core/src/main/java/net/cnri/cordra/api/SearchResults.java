@@ -1,6 +1,7 @@
 package net.cnri.cordra.api;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.stream.Stream;
@@ -13,6 +14,22 @@ public interface SearchResults<T> extends Iterable<T>, AutoCloseable {
     @Override
     void close();
 
+    /**
+     * Returns the cursor for the next page of a search paginated by cursor (see {@link QueryParams#getCursor()}),
+     * or null if there are no more results, or if the search was not paginated by cursor.
+     */
+    default String getNextCursor() {
+        return null;
+    }
+
+    /**
+     * Returns the counts of all matching objects by value of each field requested by {@link QueryParams#getFacets()},
+     * in the order requested, or null if no facets were requested.
+     */
+    default List<FacetResult> getFacets() {
+        return null;
+    }
+
     @Override
     default Spliterator<T> spliterator() {
         int characteristics = Spliterator.IMMUTABLE | Spliterator.NONNULL | Spliterator.ORDERED;
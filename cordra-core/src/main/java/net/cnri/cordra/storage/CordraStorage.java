@@ -2,6 +2,7 @@ package net.cnri.cordra.storage;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
@@ -33,6 +34,15 @@ public interface CordraStorage {
         return result;
     }
 
+    /**
+     * Returns the txnId of the current version of an object, if this storage knows it without a read from the
+     * underlying store, for instance from a cache; otherwise null.  Used to check whether a copy of the object kept
+     * elsewhere, such as source stored in the index, is current.
+     */
+    default Long getKnownTxnId(@SuppressWarnings("unused") String id) {
+        return null;
+    }
+
     InputStream getPayload(String id, String payloadName) throws CordraException;
 
     InputStream getPartialPayload(String id, String payloadName, Long start, Long end) throws CordraException;
@@ -41,6 +51,34 @@ public interface CordraStorage {
 
     CordraObject update(CordraObject d) throws CordraException;
 
+    /**
+     * Creates a batch of objects.  Equivalent to calling {@link #create} on each object in turn, but storage modules
+     * may write the batch together.  If an exception is thrown, some of the objects may have been stored.
+     *
+     * @return the stored objects, in the same order
+     */
+    default List<CordraObject> createAll(List<CordraObject> objects) throws CordraException {
+        List<CordraObject> result = new ArrayList<>(objects.size());
+        for (CordraObject co : objects) {
+            result.add(create(co));
+        }
+        return result;
+    }
+
+    /**
+     * Updates a batch of objects.  Equivalent to calling {@link #update} on each object in turn, but storage modules
+     * may write the batch together.  If an exception is thrown, some of the objects may have been stored.
+     *
+     * @return the stored objects, in the same order
+     */
+    default List<CordraObject> updateAll(List<CordraObject> objects) throws CordraException {
+        List<CordraObject> result = new ArrayList<>(objects.size());
+        for (CordraObject co : objects) {
+            result.add(update(co));
+        }
+        return result;
+    }
+
     void delete(String id) throws CordraException;
 
     SearchResults<CordraObject> list() throws CordraException;
@@ -59,5 +97,16 @@ public interface CordraStorage {
         return result;
     }
 
+    /**
+     * Lists the objects whose {@code metadata.txnId} is greater than the given transaction id, that is, the objects
+     * created or modified since that transaction.  Deleted objects are not listed.  Storage modules which can
+     * look up objects by txnId should override the default, which scans every object.
+     */
+    @SuppressWarnings("resource")
+    default SearchResults<CordraObject> listModifiedSince(long txnId) throws CordraException {
+        SearchResults<CordraObject> result = new SearchResultsFromStream<>(-1, list().stream().filter(co -> co.metadata != null && co.metadata.txnId != null && co.metadata.txnId > txnId));
+        return result;
+    }
+
     void close() throws IOException, CordraException;
 }
\ No newline at end of file
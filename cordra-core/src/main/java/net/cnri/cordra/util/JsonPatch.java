@@ -0,0 +1,288 @@
+package net.cnri.cordra.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+
+/**
+ * Computes and applies JSON Patch documents (RFC 6902) on Gson elements.
+ *
+ * <p>{@link #diff} produces only add, remove and replace operations.  Objects are compared member by member; arrays
+ * are compared element by element by index, with elements added or removed at the end, so an insertion near the
+ * start of an array produces a replace for each following element.  {@link #apply} supports all six operations.
+ *
+ * <p>Member order is kept, so that a patched document serializes exactly as its target.  A replace keeps an object
+ * member in place.  Where the target's members are in a different order from the source's, {@link #diff} moves each
+ * member from the first difference on to the end, in target order, with a move to its own path, which
+ * {@link #apply} treats as a remove followed by an add.
+ */
+public class JsonPatch {
+
+    private JsonPatch() { }
+
+    public static JsonArray diff(JsonElement source, JsonElement target) {
+        JsonArray patch = new JsonArray();
+        diff("", nullToJsonNull(source), nullToJsonNull(target), patch);
+        return patch;
+    }
+
+    private static void diff(String path, JsonElement source, JsonElement target, JsonArray patch) {
+        // JsonObject equality ignores member order
+        if (source.equals(target) && hasSameMemberOrder(source, target)) return;
+        if (source.isJsonObject() && target.isJsonObject()) {
+            JsonObject sourceObject = source.getAsJsonObject();
+            JsonObject targetObject = target.getAsJsonObject();
+            List<String> keptKeys = new ArrayList<>();
+            for (Map.Entry<String, JsonElement> entry : sourceObject.entrySet()) {
+                if (targetObject.has(entry.getKey())) {
+                    keptKeys.add(entry.getKey());
+                } else {
+                    patch.add(operation("remove", path + "/" + escape(entry.getKey()), null));
+                }
+            }
+            // members up to the first difference in order stay in place; the rest are added or moved to the end
+            int inPlace = 0;
+            for (String key : targetObject.keySet()) {
+                if (inPlace >= keptKeys.size() || !keptKeys.get(inPlace).equals(key)) break;
+                inPlace++;
+            }
+            int index = 0;
+            for (Map.Entry<String, JsonElement> entry : targetObject.entrySet()) {
+                String childPath = path + "/" + escape(entry.getKey());
+                if (sourceObject.has(entry.getKey())) {
+                    diff(childPath, sourceObject.get(entry.getKey()), entry.getValue(), patch);
+                    if (index >= inPlace) patch.add(move(childPath, childPath));
+                } else {
+                    patch.add(operation("add", childPath, entry.getValue()));
+                }
+                index++;
+            }
+        } else if (source.isJsonArray() && target.isJsonArray()) {
+            JsonArray sourceArray = source.getAsJsonArray();
+            JsonArray targetArray = target.getAsJsonArray();
+            int common = Math.min(sourceArray.size(), targetArray.size());
+            for (int i = 0; i < common; i++) {
+                diff(path + "/" + i, sourceArray.get(i), targetArray.get(i), patch);
+            }
+            for (int i = sourceArray.size() - 1; i >= targetArray.size(); i--) {
+                patch.add(operation("remove", path + "/" + i, null));
+            }
+            for (int i = sourceArray.size(); i < targetArray.size(); i++) {
+                patch.add(operation("add", path + "/" + i, targetArray.get(i)));
+            }
+        } else {
+            patch.add(operation("replace", path, target));
+        }
+    }
+
+    private static boolean hasSameMemberOrder(JsonElement source, JsonElement target) {
+        if (source.isJsonObject() && target.isJsonObject()) {
+            Iterator<Map.Entry<String, JsonElement>> sourceIter = source.getAsJsonObject().entrySet().iterator();
+            Iterator<Map.Entry<String, JsonElement>> targetIter = target.getAsJsonObject().entrySet().iterator();
+            while (sourceIter.hasNext() && targetIter.hasNext()) {
+                Map.Entry<String, JsonElement> sourceEntry = sourceIter.next();
+                Map.Entry<String, JsonElement> targetEntry = targetIter.next();
+                if (!sourceEntry.getKey().equals(targetEntry.getKey())) return false;
+                if (!hasSameMemberOrder(sourceEntry.getValue(), targetEntry.getValue())) return false;
+            }
+            return !sourceIter.hasNext() && !targetIter.hasNext();
+        } else if (source.isJsonArray() && target.isJsonArray()) {
+            JsonArray sourceArray = source.getAsJsonArray();
+            JsonArray targetArray = target.getAsJsonArray();
+            if (sourceArray.size() != targetArray.size()) return false;
+            for (int i = 0; i < sourceArray.size(); i++) {
+                if (!hasSameMemberOrder(sourceArray.get(i), targetArray.get(i))) return false;
+            }
+        }
+        return true;
+    }
+
+    private static JsonObject move(String from, String path) {
+        JsonObject operation = operation("move", path, null);
+        operation.addProperty("from", from);
+        return operation;
+    }
+
+    private static JsonObject operation(String op, String path, JsonElement value) {
+        JsonObject operation = new JsonObject();
+        operation.addProperty("op", op);
+        operation.addProperty("path", path);
+        if (value != null) operation.add("value", value.deepCopy());
+        return operation;
+    }
+
+    /**
+     * Returns the result of applying the patch to a copy of the document; the document itself is not modified.
+     *
+     * @throws IllegalArgumentException if the patch is malformed, does not apply to the document, or a test fails
+     */
+    public static JsonElement apply(JsonElement document, JsonArray patch) {
+        JsonElement result = nullToJsonNull(document).deepCopy();
+        for (JsonElement operationElement : patch) {
+            if (!operationElement.isJsonObject()) throw new IllegalArgumentException("Patch operation is not an object");
+            JsonObject operation = operationElement.getAsJsonObject();
+            String op = getString(operation, "op");
+            String path = getString(operation, "path");
+            switch (op) {
+            case "add":
+                result = add(result, path, getValue(operation));
+                break;
+            case "remove":
+                get(result, path);
+                result = remove(result, path);
+                break;
+            case "replace":
+                get(result, path);
+                result = replace(result, path, getValue(operation));
+                break;
+            case "move": {
+                String from = getString(operation, "from");
+                if (path.startsWith(from + "/")) throw new IllegalArgumentException("Cannot move " + from + " into itself");
+                JsonElement value = get(result, from);
+                result = remove(result, from);
+                result = add(result, path, value);
+                break;
+            }
+            case "copy":
+                result = add(result, path, get(result, getString(operation, "from")).deepCopy());
+                break;
+            case "test":
+                if (!get(result, path).equals(getValue(operation))) throw new IllegalArgumentException("Test failed at " + path);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown patch operation " + op);
+            }
+        }
+        return result;
+    }
+
+    private static String getString(JsonObject operation, String name) {
+        JsonElement element = operation.get(name);
+        if (element == null || !element.isJsonPrimitive()) throw new IllegalArgumentException("Patch operation missing " + name);
+        return element.getAsString();
+    }
+
+    private static JsonElement getValue(JsonObject operation) {
+        if (!operation.has("value")) throw new IllegalArgumentException("Patch operation missing value");
+        return nullToJsonNull(operation.get("value")).deepCopy();
+    }
+
+    private static JsonElement get(JsonElement root, String path) {
+        JsonElement current = root;
+        for (String token : parse(path)) {
+            if (current.isJsonObject()) {
+                current = current.getAsJsonObject().get(token);
+            } else if (current.isJsonArray()) {
+                JsonArray array = current.getAsJsonArray();
+                current = array.get(index(token, array.size() - 1));
+            } else {
+                current = null;
+            }
+            if (current == null) throw new IllegalArgumentException("No value at " + path);
+        }
+        return current;
+    }
+
+    private static JsonElement add(JsonElement root, String path, JsonElement value) {
+        String[] tokens = parse(path);
+        if (tokens.length == 0) return value;
+        JsonElement parent = getParent(root, path, tokens);
+        String last = tokens[tokens.length - 1];
+        if (parent.isJsonObject()) {
+            parent.getAsJsonObject().add(last, value);
+        } else if (parent.isJsonArray()) {
+            JsonArray array = parent.getAsJsonArray();
+            int index = "-".equals(last) ? array.size() : index(last, array.size());
+            array.add(value);
+            for (int i = array.size() - 1; i > index; i--) {
+                array.set(i, array.get(i - 1));
+            }
+            array.set(index, value);
+        } else {
+            throw new IllegalArgumentException("No container at " + path);
+        }
+        return root;
+    }
+
+    private static JsonElement replace(JsonElement root, String path, JsonElement value) {
+        String[] tokens = parse(path);
+        if (tokens.length == 0) return value;
+        JsonElement parent = getParent(root, path, tokens);
+        String last = tokens[tokens.length - 1];
+        if (parent.isJsonObject()) {
+            // adding an existing member keeps its position
+            parent.getAsJsonObject().add(last, value);
+        } else {
+            JsonArray array = parent.getAsJsonArray();
+            array.set(index(last, array.size() - 1), value);
+        }
+        return root;
+    }
+
+    private static JsonElement remove(JsonElement root, String path) {
+        String[] tokens = parse(path);
+        if (tokens.length == 0) return JsonNull.INSTANCE;
+        JsonElement parent = getParent(root, path, tokens);
+        String last = tokens[tokens.length - 1];
+        if (parent.isJsonObject()) {
+            parent.getAsJsonObject().remove(last);
+        } else {
+            JsonArray array = parent.getAsJsonArray();
+            array.remove(index(last, array.size() - 1));
+        }
+        return root;
+    }
+
+    private static JsonElement getParent(JsonElement root, String path, String[] tokens) {
+        JsonElement parent = root;
+        for (int i = 0; i < tokens.length - 1; i++) {
+            String token = tokens[i];
+            if (parent.isJsonObject()) {
+                parent = parent.getAsJsonObject().get(token);
+            } else if (parent.isJsonArray()) {
+                JsonArray array = parent.getAsJsonArray();
+                parent = array.get(index(token, array.size() - 1));
+            } else {
+                parent = null;
+            }
+            if (parent == null) throw new IllegalArgumentException("No value at " + path);
+        }
+        return parent;
+    }
+
+    private static int index(String token, int max) {
+        if (token.isEmpty() || (token.length() > 1 && token.startsWith("0"))) throw new IllegalArgumentException("Invalid array index " + token);
+        int index;
+        try {
+            index = Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid array index " + token);
+        }
+        if (index < 0 || index > max) throw new IllegalArgumentException("Array index out of bounds " + token);
+        return index;
+    }
+
+    private static String[] parse(String path) {
+        if (path.isEmpty()) return new String[0];
+        if (!path.startsWith("/")) throw new IllegalArgumentException("Invalid JSON pointer " + path);
+        String[] tokens = path.substring(1).split("/", -1);
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = tokens[i].replace("~1", "/").replace("~0", "~");
+        }
+        return tokens;
+    }
+
+    private static String escape(String token) {
+        return token.replace("~", "~0").replace("/", "~1");
+    }
+
+    private static JsonElement nullToJsonNull(JsonElement element) {
+        return element == null ? JsonNull.INSTANCE : element;
+    }
+}
@@ -0,0 +1,80 @@
+package net.cnri.cordra.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+public class JsonPatchTest {
+    private static final Gson gson = new GsonBuilder().serializeNulls().create();
+
+    private static void assertRoundTrip(String source, String target) {
+        JsonElement sourceElement = new JsonParser().parse(source);
+        JsonElement targetElement = new JsonParser().parse(target);
+        JsonArray patch = JsonPatch.diff(sourceElement, targetElement);
+        JsonElement result = JsonPatch.apply(sourceElement, patch);
+        // compare serializations, since JsonObject equality ignores member order
+        assertEquals(gson.toJson(targetElement), gson.toJson(result));
+        assertEquals(new JsonParser().parse(source), sourceElement);
+    }
+
+    @Test
+    public void testIdentical() {
+        String doc = "{\"a\":1,\"b\":[1,2,{\"c\":null}]}";
+        assertEquals(0, JsonPatch.diff(new JsonParser().parse(doc), new JsonParser().parse(doc)).size());
+        assertRoundTrip(doc, doc);
+    }
+
+    @Test
+    public void testReplaceKeepsMemberOrder() {
+        assertRoundTrip("{\"a\":1,\"b\":2,\"c\":3}", "{\"a\":1,\"b\":\"two\",\"c\":3}");
+        assertRoundTrip("{\"a\":{\"x\":1},\"b\":2}", "{\"a\":[1],\"b\":2}");
+        assertRoundTrip("{\"a\":{\"x\":1,\"y\":2},\"b\":2}", "{\"a\":{\"x\":1,\"y\":3},\"b\":2}");
+    }
+
+    @Test
+    public void testAddAndRemoveMembers() {
+        assertRoundTrip("{\"a\":1,\"b\":2}", "{\"a\":1,\"b\":2,\"c\":3}");
+        assertRoundTrip("{\"a\":1,\"b\":2,\"c\":3}", "{\"a\":1,\"c\":3}");
+        assertRoundTrip("{\"a\":1,\"c\":3}", "{\"a\":1,\"b\":2,\"c\":3}");
+        assertRoundTrip("{\"a\":1,\"b\":2}", "{}");
+        assertRoundTrip("{}", "{\"a\":1,\"b\":2}");
+    }
+
+    @Test
+    public void testReorderedMembers() {
+        assertRoundTrip("{\"a\":1,\"b\":2,\"c\":3}", "{\"c\":3,\"a\":1,\"b\":2}");
+        assertRoundTrip("{\"a\":1,\"b\":2,\"c\":3}", "{\"a\":1,\"c\":4,\"b\":2}");
+        assertRoundTrip("{\"a\":1,\"b\":2,\"c\":3}", "{\"d\":0,\"b\":2,\"a\":1}");
+    }
+
+    @Test
+    public void testEscapedKeys() {
+        assertRoundTrip("{\"a/b\":1,\"c~d\":2,\"~1\":3}", "{\"a/b\":10,\"c~d\":2,\"~1\":30,\"e/~f\":4}");
+        assertRoundTrip("{\"x\":{\"a/b\":{\"c~d\":1}}}", "{\"x\":{\"a/b\":{\"c~d\":2}}}");
+        assertRoundTrip("{\"a/b\":1,\"~0\":2}", "{\"~0\":2}");
+    }
+
+    @Test
+    public void testArrays() {
+        assertRoundTrip("[1,2,3,4,5]", "[1,2]");
+        assertRoundTrip("[1,2]", "[1,2,3,4,5]");
+        assertRoundTrip("[1,2,3]", "[0,1,2,3]");
+        assertRoundTrip("{\"a\":[{\"x\":1},{\"y\":2}]}", "{\"a\":[{\"x\":1,\"z\":3}]}");
+        assertRoundTrip("{\"a\":[]}", "{\"a\":[[1],[2,[3]]]}");
+    }
+
+    @Test
+    public void testRootReplacement() {
+        assertRoundTrip("{\"a\":1}", "[1,2]");
+        assertRoundTrip("[1,2]", "\"text\"");
+        assertRoundTrip("1", "{\"a\":1}");
+        assertRoundTrip("null", "{\"a\":null}");
+        assertRoundTrip("{\"a\":null}", "null");
+    }
+}
@@ -306,12 +306,17 @@ public class CordraClientDoipProcessor implements DoipProcessor {
             String sortFieldsString = attributes.get("sortFields").getAsString();
             sortFields = getSortFieldsFromString(sortFieldsString);
         }
-        QueryParams params = new QueryParams(pageNum, pageSize, sortFields);
+        String cursor = req.getAttributeAsString("cursor");
         Gson gson = GsonUtility.getGson();
+        List<FacetSpecification> facets = null;
+        if (attributes.has("facets")) {
+            facets = getFacetsFromAttribute(gson, attributes.get("facets"));
+        }
+        QueryParams params = new QueryParams(pageNum, pageSize, sortFields, cursor, facets);
         if ("id".equals(type)) {
             try (SearchResults<String> results = cordraClient.searchHandles(query, params, options)) {
                 try (JsonWriter writer = new JsonWriter(resp.getOutput().getJsonWriter())) {
-                    writeBeginResults(writer, results.size());
+                    writeBeginResults(gson, writer, results.size(), results.getNextCursor(), results.getFacets());
                     for (String id : results) {
                         writer.value(id);
                     }
@@ -322,7 +327,7 @@ public class CordraClientDoipProcessor implements DoipProcessor {
         } else {
             try (SearchResults<CordraObject> results = cordraClient.search(query, params, options)) {
                 try (JsonWriter writer = new JsonWriter(resp.getOutput().getJsonWriter())) {
-                    writeBeginResults(writer, results.size());
+                    writeBeginResults(gson, writer, results.size(), results.getNextCursor(), results.getFacets());
                     for (CordraObject co : results) {
                         DigitalObject dobj = DoipUtil.ofCordraObject(co);
                         JsonElement dobjJson = gson.toJsonTree(dobj);
@@ -335,13 +340,42 @@ public class CordraClientDoipProcessor implements DoipProcessor {
         }
     }
 
-    private void writeBeginResults(JsonWriter writer, int size) throws IOException {
+    private void writeBeginResults(Gson gson, JsonWriter writer, int size, String nextCursor, List<FacetResult> facets) throws IOException {
         writer.setIndent("  ");
         writer.beginObject();
         writer.name("size").value(size);
+        if (nextCursor != null) writer.name("nextCursor").value(nextCursor);
+        if (facets != null) {
+            writer.name("facets");
+            gson.toJson(gson.toJsonTree(facets), writer);
+        }
         writer.name("results").beginArray();
     }
 
+    // a JSON array of objects with "field" and optional "maxBuckets", or a string of the same
+    private List<FacetSpecification> getFacetsFromAttribute(Gson gson, JsonElement facetsElement) throws BadRequestCordraException {
+        List<FacetSpecification> facets = new ArrayList<>();
+        try {
+            if (facetsElement.isJsonPrimitive()) {
+                facetsElement = gson.fromJson(facetsElement.getAsString(), JsonElement.class);
+            }
+            if (facetsElement == null || facetsElement.isJsonNull()) return null;
+            for (JsonElement facetElement : facetsElement.getAsJsonArray()) {
+                FacetSpecification facet = gson.fromJson(facetElement, FacetSpecification.class);
+                if (facet == null || facet.getField() == null || facet.getMaxBuckets() <= 0) {
+                    throw new BadRequestCordraException("Invalid facets");
+                }
+                if (facet.getMaxBuckets() > FacetSpecification.MAX_BUCKETS_LIMIT) {
+                    throw new BadRequestCordraException("Invalid facets: maxBuckets may be at most " + FacetSpecification.MAX_BUCKETS_LIMIT);
+                }
+                facets.add(facet);
+            }
+        } catch (RuntimeException e) {
+            throw new BadRequestCordraException("Invalid facets");
+        }
+        return facets;
+    }
+
     private List<SortField> getSortFieldsFromString(String sortFields) {
         if (sortFields == null || "".equals(sortFields)) {
             return null;
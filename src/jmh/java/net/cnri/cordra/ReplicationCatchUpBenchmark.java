@@ -0,0 +1,147 @@
+package net.cnri.cordra;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonObject;
+
+import net.cnri.cordra.api.CordraObject;
+import net.cnri.cordra.api.SearchResults;
+import net.cnri.cordra.indexer.CordraObjectWithIndexDetails;
+import net.cnri.cordra.indexer.lucene.LuceneIndexer;
+import net.cnri.cordra.storage.memory.MemoryStorage;
+import net.cnri.cordra.sync.local.MemoryNameLocker;
+
+/**
+ * Measures the objects per second a replica applies while catching up on replicated updates, writing to
+ * MemoryStorage and an in-memory Lucene index.  {@code applyIndividually} looks up, stores and indexes one object at
+ * a time, as CordraService.applyReplicationMessage does; {@code applyInBatch} does one lookup, one bulk storage write
+ * and one indexObjects call per batch, as CordraService.applyReplicationMessages does for ordinary updates.  Object
+ * locking and transaction records are the same per object in both and are left out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ReplicationCatchUpBenchmark {
+    private static final String CORDRA_SERVICE_ID = "benchmark";
+    private static final int BATCH_SIZE = 500;
+
+    @Param({ "10000" })
+    public int numObjects;
+
+    private MemoryStorage storage;
+    private LuceneIndexer indexer;
+    private long version;
+    private int nextObject;
+
+    @Setup
+    public void setUp() throws Exception {
+        storage = new MemoryStorage();
+        indexer = new LuceneIndexer(storage, new MemoryNameLocker());
+        List<CordraObjectWithIndexDetails> batch = new ArrayList<>();
+        for (int i = 0; i < numObjects; i++) {
+            CordraObject co = storage.create(newObject(i));
+            batch.add(new CordraObjectWithIndexDetails(co, Collections.emptyMap(), false));
+            if (batch.size() == BATCH_SIZE) {
+                indexer.indexObjects(CORDRA_SERVICE_ID, batch);
+                batch = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty()) indexer.indexObjects(CORDRA_SERVICE_ID, batch);
+        indexer.ensureIndexUpToDate();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        indexer.close();
+        storage.close();
+    }
+
+    private CordraObject newObject(int i) {
+        version++;
+        JsonObject content = new JsonObject();
+        content.addProperty("name", "Object " + i);
+        content.addProperty("description", "Version " + version + " of a replicated object");
+        content.addProperty("version", version);
+        CordraObject co = new CordraObject("Document", content);
+        co.id = "test/" + i;
+        co.metadata = new CordraObject.Metadata();
+        co.metadata.createdOn = co.metadata.modifiedOn = System.currentTimeMillis();
+        co.metadata.createdBy = co.metadata.modifiedBy = "admin";
+        co.metadata.txnId = version;
+        return co;
+    }
+
+    private List<CordraObject> nextBatch() {
+        List<CordraObject> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(newObject(nextObject));
+            nextObject = (nextObject + 1) % numObjects;
+        }
+        return batch;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void applyIndividually() throws Exception {
+        for (CordraObject co : nextBatch()) {
+            CordraObject existingCo = storage.get(co.id);
+            CordraObject stored = existingCo == null ? storage.create(co) : storage.update(co);
+            indexer.indexObject(CORDRA_SERVICE_ID, stored, false, Collections.emptyMap());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void applyInBatch() throws Exception {
+        List<CordraObject> batch = nextBatch();
+        List<String> ids = new ArrayList<>(batch.size());
+        for (CordraObject co : batch) {
+            ids.add(co.id);
+        }
+        Set<String> existingIds = new HashSet<>();
+        try (SearchResults<CordraObject> results = storage.get(ids)) {
+            for (CordraObject co : results) {
+                existingIds.add(co.id);
+            }
+        }
+        List<CordraObject> creates = new ArrayList<>();
+        List<CordraObject> updates = new ArrayList<>();
+        for (CordraObject co : batch) {
+            if (existingIds.contains(co.id)) {
+                updates.add(co);
+            } else {
+                creates.add(co);
+            }
+        }
+        List<CordraObject> stored = new ArrayList<>(batch.size());
+        if (!creates.isEmpty()) stored.addAll(storage.createAll(creates));
+        if (!updates.isEmpty()) stored.addAll(storage.updateAll(updates));
+        List<CordraObjectWithIndexDetails> batchWithDetails = new ArrayList<>(stored.size());
+        for (CordraObject co : stored) {
+            batchWithDetails.add(new CordraObjectWithIndexDetails(co, Collections.emptyMap(), false));
+        }
+        indexer.indexObjects(CORDRA_SERVICE_ID, batchWithDetails);
+    }
+}
@@ -0,0 +1,139 @@
+package net.cnri.cordra.storage.hds;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * Measures concurrent reads of different objects from a HashDirectoryStorage, which should scale with the number of
+ * threads now that reads no longer share one digest monitor or lock on interned ids.  Runs on all processors by
+ * default; compare with {@code -t 1} to see the scaling.
+ *
+ * <p>The {@code hashAndLock} benchmarks isolate the per-read cost that changed: {@code Shared} hashes the id with one
+ * synchronized MessageDigest and locks on the interned lowercased id, as HashDirectoryStorage did before;
+ * {@code PerThread} hashes with a per-thread MessageDigest and locks a stripe of a Striped lock, as it does now.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(Threads.MAX)
+public class HashDirectoryStorageBenchmark {
+    private static final String ELEMENT_ID = "payload";
+
+    @Param({ "10000" })
+    public int numObjects;
+
+    private File baseDirectory;
+    private HashDirectoryStorage storage;
+    private String[] ids;
+
+    private final MessageDigest sharedDigest = newDigest();
+    private final ThreadLocal<MessageDigest> perThreadDigest = ThreadLocal.withInitial(HashDirectoryStorageBenchmark::newDigest);
+    private final Striped<Lock> stripedLocks = Striped.lock(1024);
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        baseDirectory = Files.createTempDirectory("hds-benchmark").toFile();
+        storage = new HashDirectoryStorage();
+        storage.initWithDirectory(baseDirectory);
+        byte[] data = new byte[4096];
+        ThreadLocalRandom.current().nextBytes(data);
+        ids = new String[numObjects];
+        for (int i = 0; i < numObjects; i++) {
+            ids[i] = "test/" + i;
+            storage.createObject(ids[i]);
+            HeaderSet attributes = new HeaderSet();
+            attributes.addHeader("type", "Document");
+            attributes.addHeader("name", "Object " + i);
+            storage.setAttributes(ids[i], null, attributes);
+            storage.storeDataElement(ids[i], ELEMENT_ID, new ByteArrayInputStream(data), false);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        storage.close();
+        FileUtils.deleteDirectory(baseDirectory);
+    }
+
+    private String randomId() {
+        return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    }
+
+    @Benchmark
+    public HeaderSet getAttributes() throws Exception {
+        return storage.getAttributes(randomId(), null, null);
+    }
+
+    @Benchmark
+    public long getDataElement() throws Exception {
+        long total = 0;
+        byte[] buf = new byte[4096];
+        try (InputStream in = storage.getDataElement(randomId(), ELEMENT_ID)) {
+            int r;
+            while ((r = in.read(buf)) > 0) {
+                total += r;
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public byte[] hashAndLockShared() {
+        String id = randomId();
+        synchronized (id.toLowerCase().intern()) {
+            synchronized (sharedDigest) {
+                sharedDigest.reset();
+                return sharedDigest.digest(id.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Benchmark
+    public byte[] hashAndLockPerThread() {
+        String id = randomId();
+        Lock lock = stripedLocks.get(id.toLowerCase());
+        lock.lock();
+        try {
+            MessageDigest digest = perThreadDigest.get();
+            digest.reset();
+            return digest.digest(id.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            lock.unlock();
+        }
+    }
+}
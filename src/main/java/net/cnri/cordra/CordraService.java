@@ -24,14 +24,16 @@ import net.cnri.cordra.indexer.*;
 import net.cnri.cordra.javascript.CordraRequireLookup;
 import net.cnri.cordra.javascript.JavaScriptLifeCycleHooks;
 import net.cnri.cordra.model.*;
+import net.cnri.cordra.replication.kafka.BinaryReplicationRecords;
 import net.cnri.cordra.replication.kafka.CordraObjectWithPayloadsAsStrings;
+import net.cnri.cordra.replication.kafka.KafkaReplicationConsumer;
 import net.cnri.cordra.replication.kafka.ReplicationMessage;
 import net.cnri.cordra.replication.kafka.ReplicationProducer;
+import net.cnri.cordra.storage.CachingCordraStorage;
 import net.cnri.cordra.storage.CordraStorage;
 import net.cnri.cordra.sync.*;
+import net.cnri.cordra.util.JsonPatch;
 import net.cnri.microservices.Alerter;
-import net.cnri.microservices.MultithreadedKafkaConsumer;
-import net.cnri.microservices.StripedExecutorService;
 import net.cnri.servletcontainer.sessions.HttpSessionManager;
 import net.cnri.util.StreamUtil;
 import net.cnri.util.ThrottledExecutorService;
@@ -59,9 +61,13 @@ import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
@@ -88,13 +94,13 @@ public class CordraService {
     final CordraIndexer indexer;
     final Reindexer reindexer;
     final ReplicationProducer replicationProducer;
-    final StripedExecutorService stripedTaskRunner;
-    final MultithreadedKafkaConsumer replicationConsumer;
+    final KafkaReplicationConsumer replicationConsumer;
     final PrivateKey privateKey;
     PrivateKey handlePrivateKey;
     PublicKey handlePublicKey;
     final CordraConfig cordraConfig;
     final DoipSetupProvider doipSetupProvider;
+    private final boolean isSearchConsistencyByToken;
 
     final CordraObjectSchemaValidator validator;
     final VersionManager versionManager;
@@ -119,8 +125,8 @@ public class CordraService {
     private final LeadershipManager leadershipManager;
     private final SingleThreadReadWriteCheckableLocker designLocker;
     private final SignalWatcher signalWatcher;
-    private final CheckableLocker schemaNameLocker;
-    private final CheckableLocker usernameLocker;
+    private final CachingCordraStorage storageCache;
+    private final NameLocker uniqueNameLocker;
     final NameLocker objectLocker;
     private final TransactionReprocessingQueue transactionReprocessingQueue;
 
@@ -136,17 +142,21 @@ public class CordraService {
     private final AtomicLong authObjectChangeCount = new AtomicLong();
     private final AtomicLong authObjectChangeIndexed = new AtomicLong();
     private final AuthCache authCache;
+    private final GroupMembershipGraph groupMembershipGraph;
     private final ExecutorService preCacheExecutorService = new ThrottledExecutorService(120_000, 10_000);
+    // closes transactions once their delayed replication messages are sent; null unless the producer delays sends
+    private final ExecutorService replicationCompletionExecutorService;
 
     public CordraService(String cordraServiceId, String cordraClusterId, CordraStorage storage, CordraIndexer indexer,
                          ReplicationProducer replicationProducer,
-                         HttpSessionManager sessionManager, StripedExecutorService stripedTaskRunner,
-                         MultithreadedKafkaConsumer replicationConsumer,
+                         HttpSessionManager sessionManager,
+                         KafkaReplicationConsumer replicationConsumer,
                          PrivateKey handlePrivateKey, PublicKey handlePublicKey,
                          PrivateKey privateKey, boolean isReadOnly,
                          SyncObjects syncObjects, CordraConfig cordraConfig,
                          DoipSetupProvider doipSetupProvider) {
         this.cordraConfig = cordraConfig;
+        this.isSearchConsistencyByToken = cordraConfig.index != null && "token".equalsIgnoreCase(cordraConfig.index.searchConsistency);
         this.cordraServiceId = cordraServiceId;
         this.cordraClusterId = cordraClusterId;
         this.isReadOnly = isReadOnly;
@@ -154,7 +164,15 @@ public class CordraService {
         this.storage = storage;
         this.indexer = indexer;
         this.replicationProducer = replicationProducer;
-        this.stripedTaskRunner = stripedTaskRunner;
+        if (replicationProducer != null && replicationProducer.isSendDelayed()) {
+            this.replicationCompletionExecutorService = Executors.newFixedThreadPool(4, r -> {
+                Thread thread = new Thread(r, "replication-completion");
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.replicationCompletionExecutorService = null;
+        }
         this.replicationConsumer = replicationConsumer;
         this.sessionManager = sessionManager;
         this.authInfo = null;
@@ -164,24 +182,35 @@ public class CordraService {
         this.doipSetupProvider = doipSetupProvider;
         this.validator = new CordraObjectSchemaValidator(this);
         this.authCache = new MemoryAuthCache();
-        this.aclEnforcer = new AclEnforcer(this, storage, indexer, authCache);
+        this.groupMembershipGraph = new GroupMembershipGraph(authCache);
+        this.aclEnforcer = new AclEnforcer(this, storage, indexer, authCache, groupMembershipGraph);
         this.handlesUpdater = new AllHandlesUpdater(syncObjects.getAllHandlesUpdaterSync());
         this.cordraRequireLookup = new CordraRequireLookup(this);
         this.javaScriptEnvironment = new JavaScriptEnvironment(cordraRequireLookup);
         this.javaScriptHooks = new JavaScriptLifeCycleHooks(javaScriptEnvironment, cordraConfig.traceRequests, cordraRequireLookup, this::getDesign);
 
         AdminPasswordCheckerInterface adminPasswordChecker = new StoredInRepoAdminPasswordChecker(this);
-        this.authenticator = new Authenticator(adminPasswordChecker, this, authCache, syncObjects.getKeyPairAuthJtiChecker(), true);
+        VerifiedCredentialsCache verifiedCredentialsCache = null;
+        if (cordraConfig.credentialCache != null && Boolean.TRUE.equals(cordraConfig.credentialCache.enabled)) {
+            verifiedCredentialsCache = new VerifiedCredentialsCache(cordraConfig.credentialCache);
+        }
+        this.authenticator = new Authenticator(adminPasswordChecker, this, authCache, syncObjects.getKeyPairAuthJtiChecker(), true, verifiedCredentialsCache);
         this.transactionManager = syncObjects.getTransactionManager();
         this.leadershipManager = syncObjects.getLeadershipManager();
         this.designLocker = syncObjects.getDesignLocker();
         this.handleMinter = new HandleMinter(null); // prefix will be set later
         this.versionManager = new VersionManager(storage, indexer, handleMinter);
         this.alerter = syncObjects.getAlerter();
-        this.schemaNameLocker = syncObjects.getSchemaNameLocker();
-        this.usernameLocker = syncObjects.getUsernameLocker();
+        this.uniqueNameLocker = syncObjects.getUniqueNameLocker();
         this.objectLocker = syncObjects.getObjectLocker();
         this.signalWatcher = syncObjects.getSignalWatcher();
+        if (storage instanceof CachingCordraStorage) {
+            this.storageCache = (CachingCordraStorage) storage;
+            this.storageCache.setSignalWatcher(signalWatcher, alerter);
+        } else {
+            this.storageCache = null;
+        }
+        this.signalWatcher.setAuthChangeCallback(this::receiveAuthChangeSignal);
         this.reindexer = new Reindexer(storage, indexer, transactionManager, cordraConfig, this, cordraServiceId, objectLocker, alerter);
 
         TransactionReprocessingQueue delegateTransactionReprocessingQueue = syncObjects.getTransactionReprocessingQueue();
@@ -219,12 +248,13 @@ public class CordraService {
 
     public void startReplication() {
         if (replicationConsumer != null) {
-            replicationConsumer.start(this::applyReplicationMessage, this::stripePicker);
+            replicationConsumer.start(this::applyReplicationMessage, this::applyReplicationMessages);
         }
     }
 
     public void receiveSignal(SignalWatcher.Signal signal) {
         if (signal == SignalWatcher.Signal.DESIGN) {
+            if (storageCache != null) storageCache.invalidateAllLocally();
             try {
                 loadStatefulData();
             } catch (CordraException e) {
@@ -232,87 +262,73 @@ public class CordraService {
                 logger.error("Error refreshing state data", e);
             }
         } else if (signal == SignalWatcher.Signal.AUTH_CHANGE) {
+            // the changed objects are unknown, so the graph must be rebuilt in full
             authObjectChangeCount.incrementAndGet();
-            authCache.clearAllGroupsForUserValues();
-            authCache.clearAllUserIdForUsernameValues();
+            groupMembershipGraph.invalidate();
+            authenticator.invalidateAllVerifiedCredentials();
             preCache();
         } else if (signal == SignalWatcher.Signal.JAVASCRIPT_CLEAR_CACHE) {
             cordraRequireLookup.clearAllObjectIdsForModuleValues();
             javaScriptEnvironment.clearCache();
+        } else if (signal == SignalWatcher.Signal.OBJECT_CHANGE) {
+            if (storageCache != null) storageCache.invalidateAllLocally();
+        }
+    }
+
+    private void receiveAuthChangeSignal(Collection<String> ids) {
+        authObjectChangeCount.incrementAndGet();
+        if (storageCache != null) storageCache.invalidateLocally(ids);
+        try {
+            for (String id : ids) {
+                CordraObject co = storage.get(id);
+                applyAuthObjectChange(id, co);
+            }
+        } catch (Exception e) {
+            logger.error("Error applying auth change signal; rebuilding group membership", e);
+            groupMembershipGraph.invalidate();
+            authenticator.invalidateAllVerifiedCredentials();
+            preCache();
         }
     }
 
+    private void applyAuthObjectChange(String id, CordraObject co) {
+        if (co == null) {
+            groupMembershipGraph.remove(id);
+        } else {
+            groupMembershipGraph.update(co);
+        }
+        authenticator.invalidateVerifiedCredentials(id);
+    }
+
     private void preCache() {
         preCacheExecutorService.execute(this::preCacheNow);
     }
 
+    /**
+     * Rebuilds the group membership graph from all users and groups, and pushes it into the auth cache.  Runs at
+     * startup and whenever the changed users and groups are not known; otherwise changes are applied incrementally.
+     */
     public void preCacheNow() {
-        //if (true) return;
+        GroupMembershipGraph.Builder builder = groupMembershipGraph.startBuild();
         try {
-            long authObjectChangeCountAtStart = authObjectChangeCount.get();
             ensureIndexUpToDateWhenAuthChange();
-            Map<String, List<String>> userToGroupsMap = new HashMap<>();
             String q = "username:[* TO *] users:[* TO *]";
             try (SearchResults<CordraObject> results = searchRepo(q)) {
                 for (CordraObject co : results) {
-                    if (authObjectChangeCount.get() > authObjectChangeCountAtStart) return;
-                    JsonElement username = co.metadata.internalMetadata.get("username");
-                    if (username != null) {
-                        authCache.setUserIdForUsername(username.getAsString(), co.id);
-                    }
-                    JsonElement groupMember = co.metadata.internalMetadata.get("users");
-                    if (groupMember != null) {
-                        for (String member : groupMember.getAsString().split("\n")) {
-                            if (member.isEmpty()) continue;
-                            userToGroupsMap
-                            .computeIfAbsent(member, unused -> new ArrayList<>())
-                            .add(co.id);
-                        }
-                    }
+                    builder.add(co);
                 }
             }
-            Map<String, Set<String>> recursiveUserToGroupsMap = calculateRecursiveUserToGroupsMap(userToGroupsMap);
-            for (Map.Entry<String, Set<String>> entry : recursiveUserToGroupsMap.entrySet()) {
-                if (authObjectChangeCount.get() > authObjectChangeCountAtStart) return;
-                authCache.setGroupsForUser(entry.getKey(), entry.getValue());
+            Set<String> changedDuringBuild = groupMembershipGraph.finishBuild(builder);
+            for (String id : changedDuringBuild) {
+                CordraObject co = storage.get(id);
+                applyAuthObjectChange(id, co);
             }
         } catch (Exception e) {
-            // something went wrong, just give up
-            return;
-        }
-    }
-
-    Map<String, Set<String>> calculateRecursiveUserToGroupsMap(Map<String, List<String>> userToGroupsMap) {
-        Map<String, Set<String>> recursiveUserToGroupsMap = new HashMap<>();
-        for (String memberId : userToGroupsMap.keySet()) {
-            Set<String> accumulation = getGroupsForUserRecursive(memberId, userToGroupsMap, recursiveUserToGroupsMap, new HashSet<String>());
-            recursiveUserToGroupsMap.put(memberId, accumulation);
-        }
-        return recursiveUserToGroupsMap;
-    }
-
-    Set<String> getGroupsForUserRecursive(String memberId, Map<String, List<String>> userToGroupsMap, Map<String, Set<String>> recursiveUserToGroupsMap, Set<String> seen) {
-        Set<String> accumulation = new HashSet<>();
-        Set<String> recursiveResult = recursiveUserToGroupsMap.get(memberId);
-        if (recursiveResult != null) {
-            accumulation.addAll(recursiveResult);
-            return accumulation;
-        }
-        List<String> groupsForUser = userToGroupsMap.get(memberId);
-        if (groupsForUser == null || groupsForUser.isEmpty()) {
-            recursiveUserToGroupsMap.put(memberId, Collections.emptySet());
-        } else {
-            for (String groupId : groupsForUser) {
-                if (!seen.contains(groupId)) {
-                    seen.add(groupId);
-                    Set<String> parentGroups = getGroupsForUserRecursive(groupId, userToGroupsMap, recursiveUserToGroupsMap, seen);
-                    //recursiveUserToGroupsMap.put(groupId, parentGroups);
-                    accumulation.add(groupId);
-                    accumulation.addAll(parentGroups);
-                }
-            }
+            // something went wrong, just give up; the auth cache is filled lazily instead
+            logger.error("Error building group membership graph", e);
+            groupMembershipGraph.abortBuild();
+            groupMembershipGraph.invalidate();
         }
-        return accumulation;
     }
 
     public void processPendingTransactions() {
@@ -590,6 +606,8 @@ public class CordraService {
                 restartDoipServiceAfterConfigChange();
             }
             this.authenticator.setBackOffEnabled(!Boolean.TRUE.equals(design.disableAuthenticationBackOff));
+            // the admin password is stored in the design object
+            this.authenticator.invalidateVerifiedCredentials("admin");
         } catch (ProcessingException e) {
             throw new InternalErrorCordraException(e);
         } finally {
@@ -772,12 +790,49 @@ public class CordraService {
                 }
             }
         }
+        if (cordraConfig.reindexing.incremental) {
+            if (!reindexer.reindexModifiedSinceIndexed(isBrandNewDesignObject)) {
+                logger.warn("Index module cannot determine the highest indexed txnId; skipping incremental reindex");
+            }
+        }
     }
 
     public void reindexBatchIds(List<String> batch, boolean lockObjects) throws CordraException {
         reindexer.indexBatch(batch, lockObjects);
     }
 
+    public void reindexEverythingIntoShadowIndex() throws CordraException {
+        if (!indexer.isShadowIndexSupported()) {
+            throw new BadRequestCordraException("Index module does not support rebuilding into a shadow index");
+        }
+        if (reindexer.getIsReindexInProcess() || transactionManager.isReindexInProcess()) {
+            throw new ConflictCordraException("Reindex in process");
+        }
+        if (indexer.hasShadowIndex()) {
+            throw new ConflictCordraException("Shadow index already exists");
+        }
+        reindexer.reindexEverythingIntoShadowIndexInBackground();
+    }
+
+    public boolean isShadowIndexSupported() {
+        return indexer.isShadowIndexSupported();
+    }
+
+    public boolean hasShadowIndex() throws CordraException {
+        return indexer.hasShadowIndex();
+    }
+
+    public boolean isShadowReindexInProcess() {
+        return reindexer.getIsShadowReindexInProcess();
+    }
+
+    public void discardShadowIndex() throws CordraException {
+        if (reindexer.getIsShadowReindexInProcess()) {
+            throw new ConflictCordraException("Shadow index rebuild in process");
+        }
+        indexer.discardShadowIndex();
+    }
+
     public CordraStorage getStorage() {
         return storage;
     }
@@ -1211,6 +1266,21 @@ public class CordraService {
         return aclEnforcer;
     }
 
+    /**
+     * Returns operational metrics of this instance, keyed by component, as reported by the /metrics endpoint.
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        if (storageCache != null) metrics.put("storageCache", storageCache.getStats());
+        VerifiedCredentialsCache.Stats credentialCacheStats = authenticator.getVerifiedCredentialsCacheStats();
+        if (credentialCacheStats != null) metrics.put("credentialCache", credentialCacheStats);
+        Object objectLockerStats = objectLocker.getStats();
+        if (objectLockerStats != null) metrics.put("objectLocker", objectLockerStats);
+        Object indexerStats = indexer.getStats();
+        if (indexerStats != null) metrics.put("indexer", indexerStats);
+        return metrics;
+    }
+
     public boolean isKnownType(String type) {
         return type != null && schemas.containsKey(type);
     }
@@ -1515,18 +1585,17 @@ public class CordraService {
                 }
             }
             indexer.deleteObject(objectId);
-            if (isNeedToReplicate) sendDeleteReplicationMessage(objectId);
+            CompletableFuture<Void> replicated = isNeedToReplicate ? sendDeleteReplicationMessageAsync(objectId) : CompletableFuture.completedFuture(null);
+            if (replicationCompletionExecutorService == null) awaitReplication(replicated);
             if (isUserOrGroup(co)) {
                 authObjectChangeCount.incrementAndGet();
-                authCache.clearAllGroupsForUserValues();
-                authCache.clearAllUserIdForUsernameValues();
-                signalWatcher.sendSignal(SignalWatcher.Signal.AUTH_CHANGE);
+                applyAuthObjectChange(objectId, null);
+                signalWatcher.sendAuthChangeSignal(Collections.singletonList(objectId));
                 if (co != null && !isUserAccountActive(co)) {
                     invalidateSessionsForUser(co.id);
                 }
-                preCache();
             }
-            transactionManager.closeTransaction(txn.txnId, cordraServiceId);
+            closeTransactionWhenReplicated(txn, replicated);
         } catch (Exception e) {
             if (txn != null) {
                 try {
@@ -1676,8 +1745,8 @@ public class CordraService {
             boolean isSchema = "Schema".equals(type);
             boolean isUser = UserProcessor.isUser(pointerToSchemaMap);
             boolean isDesign = DESIGN_OBJECT_ID.equals(objectId);
-            if (isSchema) schemaNameLocker.acquire();
-            if (isUser) usernameLocker.acquire();
+            List<String> uniqueNames = getUniqueNamesToLock(isSchema, isUser, jsonNode, pointerToSchemaMap);
+            if (!uniqueNames.isEmpty()) uniqueNameLocker.lockInOrder(uniqueNames);
             if (isDesign) designLocker.writeLock().acquire();
             ProcessObjectResult processObjectResult;
             try {
@@ -1691,20 +1760,17 @@ public class CordraService {
                     loadStatefulData();
                 }
             } finally {
-                if (isUser) usernameLocker.release();
-                if (isSchema) schemaNameLocker.release();
+                if (!uniqueNames.isEmpty()) uniqueNameLocker.releaseAll(uniqueNames);
                 if (isDesign) designLocker.writeLock().release();
             }
             if (!isDryRun) {
                 if (processObjectResult.isUserOrGroup) {
                     authObjectChangeCount.incrementAndGet();
-                    authCache.clearAllGroupsForUserValues();
-                    authCache.clearAllUserIdForUsernameValues();
-                    signalWatcher.sendSignal(SignalWatcher.Signal.AUTH_CHANGE);
+                    applyAuthObjectChange(co.id, co);
+                    signalWatcher.sendAuthChangeSignal(Collections.singletonList(co.id));
                     if (isUser && !isUserAccountActive(co)) {
                         invalidateSessionsForUser(co.id);
                     }
-                    preCache();
                 }
                 if (validator.hasJavaScriptModules(pointerToSchemaMap)) {
                     signalWatcher.sendSignal(SignalWatcher.Signal.JAVASCRIPT_CLEAR_CACHE);
@@ -1731,26 +1797,32 @@ public class CordraService {
     }
 
     public CordraObject writeJsonAndPayloadsIntoCordraObjectIfValid(String type, String jsonData, CordraObject.AccessControlList acl, JsonObject userMetadata, List<Payload> payloads, String handle, String creatorId, boolean isDryRun) throws CordraException, InvalidException, ReadOnlyCordraException {
+        return writeJsonAndPayloadsIntoCordraObjectIfValid(type, jsonData, acl, userMetadata, payloads, handle, creatorId, isDryRun, false);
+    }
+
+    private CordraObject writeJsonAndPayloadsIntoCordraObjectIfValid(String type, String jsonData, CordraObject.AccessControlList acl, JsonObject userMetadata, List<Payload> payloads, String handle, String creatorId, boolean isDryRun, boolean bypassBeforeSchemaValidation) throws CordraException, InvalidException, ReadOnlyCordraException {
         if (isReadOnly && !isDryRun) throw new ReadOnlyCordraException();
         ObjectDelta objectDelta = new ObjectDelta(handle, type, jsonData, acl, userMetadata, payloads, null);
-        try {
-            Map<String, Object> context = new HashMap<>();
-            context.put("objectId", handle);
-            context.put("userId", creatorId);
-            context.put("groups", getGroupsForUser(creatorId));
-            context.put("aclCreate", Collections.unmodifiableList(getAclEnforcer().getDefaultAcls(type).aclCreate));
-            context.put("isNew", true);
-            objectDelta = javaScriptHooks.beforeSchemaValidation(type, null, objectDelta, context);
-            handle = objectDelta.id;
-            type = objectDelta.type;
-            jsonData = objectDelta.jsonData;
-            acl = objectDelta.acl;
-            userMetadata = objectDelta.userMetadata;
-            payloads = objectDelta.payloads;
-        } catch (CordraException | InvalidException e) {
-            throw e;
-        } catch (Exception e) {
-            throw new InternalErrorCordraException(e);
+        if (!bypassBeforeSchemaValidation) {
+            try {
+                Map<String, Object> context = new HashMap<>();
+                context.put("objectId", handle);
+                context.put("userId", creatorId);
+                context.put("groups", getGroupsForUser(creatorId));
+                context.put("aclCreate", Collections.unmodifiableList(getAclEnforcer().getDefaultAcls(type).aclCreate));
+                context.put("isNew", true);
+                objectDelta = javaScriptHooks.beforeSchemaValidation(type, null, objectDelta, context);
+                handle = objectDelta.id;
+                type = objectDelta.type;
+                jsonData = objectDelta.jsonData;
+                acl = objectDelta.acl;
+                userMetadata = objectDelta.userMetadata;
+                payloads = objectDelta.payloads;
+            } catch (CordraException | InvalidException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new InternalErrorCordraException(e);
+            }
         }
         if (DESIGN_OBJECT_ID.equals(handle)) {
             throw new InternalErrorCordraException("Object not valid for creation: " + handle);
@@ -1770,8 +1842,8 @@ public class CordraService {
         try {
             boolean isSchema = "Schema".equals(type);
             boolean isUser = UserProcessor.isUser(pointerToSchemaMap);
-            if (isSchema) schemaNameLocker.acquire();
-            if (isUser) usernameLocker.acquire();
+            List<String> uniqueNames = getUniqueNamesToLock(isSchema, isUser, jsonNode, pointerToSchemaMap);
+            if (!uniqueNames.isEmpty()) uniqueNameLocker.lockInOrder(uniqueNames);
             ProcessObjectResult processObjectResult;
             try {
                 processObjectResult = processObjectBasedOnJsonAndType(proto, type, jsonNode, schema.schemaNode, pointerToSchemaMap, creatorId, isDryRun);
@@ -1781,19 +1853,16 @@ public class CordraService {
                 co = updateCordraObject(proto, true, type, jsonData, acl, userMetadata, Collections.<String>emptyList(), payloads, creatorId, pointerToSchemaMap, isDryRun);
 
             } finally {
-                if (isUser) usernameLocker.release();
-                if (isSchema) schemaNameLocker.release();
+                if (!uniqueNames.isEmpty()) uniqueNameLocker.releaseAll(uniqueNames);
             }
             if (!isDryRun) {
                 if (processObjectResult.isUserOrGroup) {
                     authObjectChangeCount.incrementAndGet();
-                    authCache.clearAllGroupsForUserValues();
-                    authCache.clearAllUserIdForUsernameValues();
-                    signalWatcher.sendSignal(SignalWatcher.Signal.AUTH_CHANGE);
+                    applyAuthObjectChange(co.id, co);
+                    signalWatcher.sendAuthChangeSignal(Collections.singletonList(co.id));
                     if (isUser && !isUserAccountActive(co)) {
                         invalidateSessionsForUser(co.id);
                     }
-                    preCache();
                 }
                 if (validator.hasJavaScriptModules(pointerToSchemaMap)) {
                     signalWatcher.sendSignal(SignalWatcher.Signal.JAVASCRIPT_CLEAR_CACHE);
@@ -1819,6 +1888,539 @@ public class CordraService {
         return co;
     }
 
+    /**
+     * Creates or updates a batch of objects.  Each object is validated and processed as by
+     * {@link #writeJsonAndPayloadsIntoCordraObjectIfValid} or {@link #writeJsonAndPayloadsIntoCordraObjectIfValidAsUpdate},
+     * but the objects of the batch are locked together, and are written to storage, indexed, and replicated in bulk.
+     * Schemas, users, the design object, and objects whose ids come from a JavaScript generateId function
+     * are instead written one at a time after the rest of the batch.
+     *
+     * <p>A failure of one object does not prevent the others from being written.
+     *
+     * @param objects the objects to write, each with type, content, and optionally id, acl, userMetadata, and payloads
+     *                (for update, the id is required, and payloads to delete are taken from {@link CordraObject#getPayloadsToDelete()})
+     * @param isCreate whether to create new objects or update existing ones
+     * @return a result for each object, in the same order
+     */
+    public List<BulkWriteResult> bulkWrite(List<CordraObject> objects, boolean isCreate, String userId, boolean hasUserObject) throws CordraException, ReadOnlyCordraException {
+        if (isReadOnly) throw new ReadOnlyCordraException();
+        List<BulkWriteItem> items = new ArrayList<>(objects.size());
+        for (int i = 0; i < objects.size(); i++) {
+            items.add(new BulkWriteItem(i, objects.get(i), isCreate));
+        }
+        List<String> groups = getGroupsForUser(userId);
+        if (isCreate) {
+            boolean hasGenerateIdFunction = hasJavaScriptGenerateIdFunction();
+            for (BulkWriteItem item : items) {
+                try {
+                    prepareBulkCreate(item, userId, groups, hasGenerateIdFunction);
+                } catch (Exception e) {
+                    item.fail(e);
+                }
+            }
+        } else {
+            for (BulkWriteItem item : items) {
+                if (item.input.id == null || item.input.id.isEmpty()) {
+                    item.fail(new BadRequestCordraException("Missing object id"));
+                } else {
+                    item.id = item.input.id;
+                }
+            }
+        }
+        List<String> lockedIds = new ArrayList<>();
+        Set<String> seenIds = new HashSet<>();
+        for (BulkWriteItem item : items) {
+            if (item.result != null || item.isIndividual) continue;
+            if (!seenIds.add(item.id)) {
+                item.fail(new ConflictCordraException("Object " + item.id + " appears more than once in batch"));
+                continue;
+            }
+            lockedIds.add(item.id);
+        }
+        objectLocker.lockInOrder(lockedIds);
+        try {
+            Map<String, CordraObject> existingObjects = new HashMap<>();
+            try (SearchResults<CordraObject> results = storage.get(lockedIds)) {
+                for (CordraObject co : results) {
+                    existingObjects.put(co.id, co);
+                }
+            }
+            List<BulkWriteItem> batch = new ArrayList<>();
+            for (BulkWriteItem item : items) {
+                if (item.result != null || item.isIndividual) continue;
+                try {
+                    CordraObject existing = existingObjects.get(item.id);
+                    if (isCreate) {
+                        prepareBulkCreateAfterLock(item, existing, userId);
+                    } else {
+                        prepareBulkUpdateAfterLock(item, existing, userId, groups);
+                    }
+                    if (!item.isIndividual) batch.add(item);
+                } catch (Exception e) {
+                    item.fail(e);
+                }
+            }
+            writeBulkBatch(batch, isCreate, userId);
+        } finally {
+            objectLocker.releaseAll(lockedIds);
+        }
+        for (BulkWriteItem item : items) {
+            if (item.result != null || !item.isIndividual) continue;
+            try {
+                ObjectDelta delta = item.delta;
+                CordraObject co;
+                if (isCreate) {
+                    co = writeJsonAndPayloadsIntoCordraObjectIfValid(delta.type, delta.jsonData, delta.acl, delta.userMetadata, delta.payloads, item.id, userId, false, true);
+                } else {
+                    co = writeJsonAndPayloadsIntoCordraObjectIfValidAsUpdate(item.id, delta.type, delta.jsonData, delta.acl, delta.userMetadata, delta.payloads, userId, hasUserObject, delta.payloadsToDelete, false, true);
+                }
+                item.succeed(co);
+            } catch (Exception e) {
+                item.fail(e);
+            }
+        }
+        List<BulkWriteResult> results = new ArrayList<>(items.size());
+        for (BulkWriteItem item : items) {
+            results.add(item.result);
+        }
+        return results;
+    }
+
+    private static class BulkWriteItem {
+        final int index;
+        final CordraObject input;
+        final boolean isCreate;
+        String id;
+        boolean isExplicitId;
+        boolean isIndividual;
+        ObjectDelta delta;
+        SchemaAndNode schema;
+        JsonNode jsonNode;
+        Map<String, JsonNode> pointerToSchemaMap;
+        CordraObject co;
+        boolean isUserOrGroup;
+        CordraTransaction txn;
+        BulkWriteResult result;
+
+        BulkWriteItem(int index, CordraObject input, boolean isCreate) {
+            this.index = index;
+            this.input = input;
+            this.isCreate = isCreate;
+        }
+
+        void succeed(CordraObject written) {
+            result = new BulkWriteResult();
+            result.index = index;
+            result.id = written.id;
+            result.type = written.type;
+            if (written.metadata != null) result.txnId = written.metadata.txnId;
+            result.statusCode = 200;
+        }
+
+        void fail(Exception e) {
+            result = new BulkWriteResult();
+            result.index = index;
+            result.id = id != null ? id : input.id;
+            result.type = delta != null ? delta.type : input.type;
+            if (e instanceof ReadOnlyCordraException) {
+                result.statusCode = 400;
+                result.message = "Cordra is read-only";
+            } else if (e instanceof InvalidException || e instanceof BadRequestCordraException) {
+                result.statusCode = 400;
+                result.message = e.getMessage();
+            } else if (e instanceof UnauthorizedCordraException) {
+                result.statusCode = 401;
+                result.message = e.getMessage();
+            } else if (e instanceof ForbiddenCordraException) {
+                result.statusCode = 403;
+                result.message = e.getMessage();
+            } else if (e instanceof NotFoundCordraException) {
+                result.statusCode = 404;
+                result.message = "Missing object";
+            } else if (e instanceof ConflictCordraException) {
+                result.statusCode = 409;
+                result.message = e.getMessage();
+            } else {
+                logger.error("Error in bulk " + (isCreate ? "create" : "update") + " of " + result.id, e);
+                result.statusCode = 500;
+                result.message = "Something went wrong. Contact your sysadmin.";
+            }
+        }
+    }
+
+    private boolean hasJavaScriptGenerateIdFunction() throws CordraException {
+        JavaScriptRunner runner = javaScriptHooks.getJavascriptRunner();
+        try {
+            return javaScriptHooks.hasJavaScriptGenerateIdFunction(runner).hasFunction;
+        } catch (CordraException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new InternalErrorCordraException(e);
+        } finally {
+            javaScriptHooks.recycleJavascriptRunner(runner);
+        }
+    }
+
+    private static List<Payload> getNewPayloads(CordraObject input) {
+        List<Payload> payloads = new ArrayList<>();
+        if (input.payloads != null) {
+            for (Payload payload : input.payloads) {
+                if (payload.getInputStream() != null) payloads.add(payload);
+            }
+        }
+        return payloads;
+    }
+
+    private void prepareBulkCreate(BulkWriteItem item, String creatorId, List<String> groups, boolean hasGenerateIdFunction) throws CordraException, InvalidException, ReadOnlyCordraException {
+        CordraObject input = item.input;
+        if (input.type == null || input.type.isEmpty()) {
+            throw new BadRequestCordraException("Missing object type");
+        }
+        if (input.content == null) {
+            throw new BadRequestCordraException("Missing JSON");
+        }
+        ObjectDelta objectDelta = new ObjectDelta(input.id, input.type, input.getContentAsString(), input.acl, input.userMetadata, getNewPayloads(input), null);
+        try {
+            Map<String, Object> context = new HashMap<>();
+            context.put("objectId", input.id);
+            context.put("userId", creatorId);
+            context.put("groups", groups);
+            context.put("aclCreate", Collections.unmodifiableList(getAclEnforcer().getDefaultAcls(input.type).aclCreate));
+            context.put("isNew", true);
+            objectDelta = javaScriptHooks.beforeSchemaValidation(input.type, null, objectDelta, context);
+        } catch (CordraException | InvalidException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new InternalErrorCordraException(e);
+        }
+        item.delta = objectDelta;
+        String handle = objectDelta.id;
+        if (DESIGN_OBJECT_ID.equals(handle)) {
+            throw new InternalErrorCordraException("Object not valid for creation: " + handle);
+        }
+        validateBulkItem(item);
+        if ("Schema".equals(objectDelta.type) || UserProcessor.isUser(item.pointerToSchemaMap)) {
+            item.isIndividual = true;
+            item.id = handle;
+            return;
+        }
+        preprocessObjectBasedOnJsonAndType(null, objectDelta.type, item.jsonNode, item.pointerToSchemaMap, false);
+        if (handle != null && !handle.isEmpty()) {
+            if (!isValidHandle(handle)) {
+                throw new BadRequestCordraException("Invalid handle: " + handle);
+            }
+            item.isExplicitId = true;
+        } else if (hasGenerateIdFunction) {
+            item.isIndividual = true;
+            return;
+        } else {
+            String primaryData = getPrimaryData(item.jsonNode, item.pointerToSchemaMap);
+            if (primaryData != null) {
+                handle = handleMinter.mint(primaryData);
+            } else {
+                handle = handleMinter.mintByTimestamp();
+            }
+        }
+        item.id = handle;
+    }
+
+    private void prepareBulkCreateAfterLock(BulkWriteItem item, CordraObject existing, String creatorId) throws CordraException {
+        if (existing != null) {
+            if (item.isExplicitId) {
+                throw new ConflictCordraException("Object already exists: " + item.id);
+            }
+            // a minted id is taken; let the single-object path mint another
+            item.isIndividual = true;
+            item.id = null;
+            return;
+        }
+        CordraObject co = new CordraObject();
+        co.id = item.id;
+        co.metadata = new CordraObject.Metadata();
+        co.metadata.internalMetadata = new JsonObject();
+        if (creatorId == null) {
+            creatorId = "anonymous";
+        }
+        long now = System.currentTimeMillis();
+        co.metadata.createdOn = now;
+        co.metadata.modifiedOn = now;
+        co.metadata.createdBy = creatorId;
+        co.metadata.modifiedBy = creatorId;
+        item.co = co;
+    }
+
+    private void prepareBulkUpdateAfterLock(BulkWriteItem item, CordraObject co, String userId, List<String> groups) throws CordraException, InvalidException {
+        if (co == null) {
+            throw new NotFoundCordraException(item.id);
+        }
+        if (isAttemptToModifyImmutableVersion(co)) throw new BadRequestCordraException("Objects versions cannot be edited");
+        CordraObject input = item.input;
+        String type = input.type;
+        if (type == null) {
+            type = co.type;
+        }
+        if (type == null) {
+            throw new NotFoundCordraException(item.id);
+        }
+        if (schemas.get(type) == null) {
+            throw new InvalidException("Unknown type " + type);
+        }
+        String jsonData = input.content == null ? co.getContentAsString() : input.getContentAsString();
+        List<Payload> newPayloads = getNewPayloads(input);
+        Collection<String> payloadsToDelete = new ArrayList<>();
+        if (input.getPayloadsToDelete() != null) payloadsToDelete.addAll(input.getPayloadsToDelete());
+        for (Payload payload : newPayloads) {
+            payloadsToDelete.remove(payload.name);
+        }
+        ObjectDelta objectDelta = new ObjectDelta(item.id, type, jsonData, input.acl, input.userMetadata, newPayloads, payloadsToDelete);
+        try {
+            Map<String, Object> context = new HashMap<>();
+            context.put("objectId", item.id);
+            context.put("userId", userId);
+            context.put("groups", groups);
+            context.put("effectiveAcl", getAclEnforcer().getEffectiveAcl(co));
+            context.put("newPayloads", newPayloads);
+            context.put("payloadsToDelete", payloadsToDelete);
+            context.put("isNew", false);
+            objectDelta = javaScriptHooks.beforeSchemaValidation(type, co, objectDelta, context);
+        } catch (CordraException | InvalidException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new InternalErrorCordraException(e);
+        }
+        item.delta = objectDelta;
+        validateBulkItem(item);
+        if (DESIGN_OBJECT_ID.equals(item.id) || "Schema".equals(objectDelta.type) || UserProcessor.isUser(item.pointerToSchemaMap)) {
+            item.isIndividual = true;
+            return;
+        }
+        item.co = co;
+    }
+
+    private void validateBulkItem(BulkWriteItem item) throws CordraException, InvalidException {
+        ObjectDelta objectDelta = item.delta;
+        item.schema = schemas.get(objectDelta.type);
+        if (item.schema == null) {
+            throw new InvalidException("Unknown type " + objectDelta.type);
+        }
+        item.jsonNode = JsonUtil.parseJson(objectDelta.jsonData);
+        item.pointerToSchemaMap = validator.schemaValidateAndReturnKeywordsMap(item.jsonNode, item.schema.schemaNode, item.schema.schema);
+        validator.postSchemaValidate(item.jsonNode, item.pointerToSchemaMap);
+        validator.validatePayloads(objectDelta.payloads);
+    }
+
+    private void writeBulkBatch(List<BulkWriteItem> batch, boolean isCreate, String userId) {
+        List<BulkWriteItem> processed = new ArrayList<>();
+        for (BulkWriteItem item : batch) {
+            try {
+                ObjectDelta delta = item.delta;
+                ProcessObjectResult processObjectResult = processObjectBasedOnJsonAndType(item.co, delta.type, item.jsonNode, item.schema.schemaNode, item.pointerToSchemaMap, userId, false);
+                if (processObjectResult.changedJson) {
+                    delta.jsonData = JsonUtil.printJson(item.jsonNode);
+                }
+                item.isUserOrGroup = processObjectResult.isUserOrGroup;
+                processed.add(item);
+            } catch (Exception e) {
+                item.fail(e);
+            }
+        }
+        if (processed.isEmpty()) return;
+        List<CordraTransaction> txns = new ArrayList<>();
+        try {
+            long now = System.currentTimeMillis();
+            for (BulkWriteItem item : processed) {
+                long txnId = transactionManager.getAndIncrementNextTransactionId();
+                item.txn = new CordraTransaction(txnId, now, item.id, CordraTransaction.OP.UPDATE, true);
+                txns.add(item.txn);
+            }
+            transactionManager.openTransactions(txns, cordraServiceId);
+        } catch (Exception e) {
+            for (BulkWriteItem item : processed) {
+                item.fail(e);
+            }
+            return;
+        }
+        List<BulkWriteItem> prepared = new ArrayList<>();
+        List<Long> unusedTxnIds = new ArrayList<>();
+        for (BulkWriteItem item : processed) {
+            try {
+                ObjectDelta delta = item.delta;
+                prepareCordraObjectForStorage(item.co, isCreate, delta.type, delta.jsonData, delta.acl, delta.userMetadata, delta.payloadsToDelete, delta.payloads, userId, item.txn.txnId);
+                prepared.add(item);
+            } catch (Exception e) {
+                cleanupPayloads(item.co);
+                unusedTxnIds.add(item.txn.txnId);
+                item.fail(e);
+            }
+        }
+        closeBulkTransactions(unusedTxnIds);
+        if (prepared.isEmpty()) return;
+        List<CordraObject> cos = new ArrayList<>(prepared.size());
+        for (BulkWriteItem item : prepared) {
+            cos.add(item.co);
+        }
+        try {
+            List<CordraObject> stored = isCreate ? storage.createAll(cos) : storage.updateAll(cos);
+            for (int i = 0; i < prepared.size(); i++) {
+                prepared.get(i).co = stored.get(i);
+            }
+        } catch (Exception e) {
+            for (BulkWriteItem item : prepared) {
+                cleanupPayloads(item.co);
+                failStoredBulkItem(item, e);
+            }
+            return;
+        }
+        List<CordraObjectWithIndexDetails> batchWithDetails = new ArrayList<>(prepared.size());
+        for (BulkWriteItem item : prepared) {
+            batchWithDetails.add(new CordraObjectWithIndexDetails(item.co, item.pointerToSchemaMap, shouldIndexPayloads(item.delta.type)));
+        }
+        List<BulkWriteItem> indexed = new ArrayList<>();
+        try {
+            indexer.indexObjects(cordraServiceId, batchWithDetails);
+            indexed.addAll(prepared);
+        } catch (Exception e) {
+            logger.warn("Error indexing bulk batch; indexing objects individually", e);
+            for (BulkWriteItem item : prepared) {
+                try {
+                    indexCordraObject(item.co, item.delta.type, item.pointerToSchemaMap);
+                    indexed.add(item);
+                } catch (Exception ex) {
+                    failStoredBulkItem(item, ex);
+                }
+            }
+        }
+        for (BulkWriteItem item : prepared) {
+            cleanupPayloads(item.co);
+        }
+        List<BulkWriteItem> replicated = sendBulkReplicationMessages(indexed);
+        List<Long> txnIds = new ArrayList<>(replicated.size());
+        for (BulkWriteItem item : replicated) {
+            txnIds.add(item.txn.txnId);
+        }
+        closeBulkTransactions(txnIds);
+        List<String> userOrGroupIds = new ArrayList<>();
+        boolean isJavaScriptChange = false;
+        for (BulkWriteItem item : replicated) {
+            if (item.isUserOrGroup) {
+                userOrGroupIds.add(item.co.id);
+                applyAuthObjectChange(item.co.id, item.co);
+            }
+            if (validator.hasJavaScriptModules(item.pointerToSchemaMap)) isJavaScriptChange = true;
+            if (handleClient != null) {
+                try {
+                    if (isCreate) {
+                        handleClient.registerHandle(item.co.id, item.co, item.delta.type, item.jsonNode);
+                    } else {
+                        handleClient.updateHandleFor(item.co.id, item.co, item.delta.type, item.jsonNode);
+                    }
+                } catch (Exception e) {
+                    if (!isCreate) {
+                        alerter.alert("Failure to update handle after updating object " + item.co.id + ", out of sync");
+                        logger.error("Failure to update handle after updating object " + item.co.id + ", out of sync", e);
+                    }
+                    item.fail(e);
+                    continue;
+                }
+            }
+            item.succeed(item.co);
+        }
+        if (!userOrGroupIds.isEmpty()) {
+            authObjectChangeCount.incrementAndGet();
+            try {
+                signalWatcher.sendAuthChangeSignal(userOrGroupIds);
+            } catch (Exception e) {
+                logger.error("Error sending auth change signal after bulk write", e);
+            }
+        }
+        if (isJavaScriptChange) {
+            try {
+                signalWatcher.sendSignal(SignalWatcher.Signal.JAVASCRIPT_CLEAR_CACHE);
+            } catch (Exception e) {
+                logger.error("Error sending JavaScript clear cache signal after bulk write", e);
+            }
+            cordraRequireLookup.clearAllObjectIdsForModuleValues();
+            javaScriptEnvironment.clearCache();
+        }
+    }
+
+    private List<BulkWriteItem> sendBulkReplicationMessages(List<BulkWriteItem> items) {
+        if (replicationProducer == null) return items;
+        List<BulkWriteItem> sent = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (BulkWriteItem item : items) {
+            try {
+                futures.add(sendUpdateReplicationMessageAsync(item.co));
+                sent.add(item);
+            } catch (Exception e) {
+                failStoredBulkItem(item, e);
+            }
+        }
+        List<BulkWriteItem> replicated = new ArrayList<>();
+        for (int i = 0; i < sent.size(); i++) {
+            BulkWriteItem item = sent.get(i);
+            try {
+                futures.get(i).get();
+                replicated.add(item);
+            } catch (ExecutionException e) {
+                failStoredBulkItem(item, new InternalErrorCordraException(e.getCause()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failStoredBulkItem(item, new InternalErrorCordraException(e));
+            }
+        }
+        return replicated;
+    }
+
+    private void failStoredBulkItem(BulkWriteItem item, Exception e) {
+        if (item.isCreate) {
+            try {
+                if (storage.get(item.id) != null) {
+                    storage.delete(item.id);
+                    logger.warn("Deleted object after error " + item.id);
+                }
+            } catch (Exception ex) {
+                alerter.alert("Failure to delete new object after creation error: " + item.id + ", out of sync");
+                logger.error("Failure to delete new object after creation error: " + item.id + ", out of sync", ex);
+            }
+        }
+        try {
+            transactionReprocessingQueue.insert(item.txn, cordraServiceId);
+            transactionManager.closeTransaction(item.txn.txnId, cordraServiceId);
+        } catch (Exception ex) {
+            logger.error("Error in bulk write of " + item.id + "; followed by reprocessing error", ex);
+        }
+        item.fail(e);
+    }
+
+    /**
+     * Queues the open transactions of a failed bulk write for reprocessing and closes them.  A transaction which cannot
+     * be queued is left open, to be reprocessed at the next startup.
+     */
+    private void reprocessBulkTransactions(List<CordraTransaction> txns) {
+        List<Long> queuedTxnIds = new ArrayList<>(txns.size());
+        for (CordraTransaction txn : txns) {
+            try {
+                transactionReprocessingQueue.insert(txn, cordraServiceId);
+                queuedTxnIds.add(txn.txnId);
+            } catch (Exception e) {
+                logger.error("Error in bulk write of " + txn.objectId + "; followed by reprocessing error", e);
+            }
+        }
+        closeBulkTransactions(queuedTxnIds);
+    }
+
+    private void closeBulkTransactions(List<Long> txnIds) {
+        if (txnIds.isEmpty()) return;
+        try {
+            transactionManager.closeTransactions(txnIds, cordraServiceId);
+        } catch (Exception e) {
+            // the writes are complete; open transactions will be reprocessed at the next startup
+            alerter.alert("Error closing transactions after bulk write: " + e);
+            logger.error("Error closing transactions after bulk write", e);
+        }
+    }
+
     public String call(String objectId, String type, String userId, boolean hasUserObject, String method, String params) throws CordraException, InterruptedException, ScriptException, InvalidException, ReadOnlyCordraException {
         long start = System.currentTimeMillis();
         boolean isStatic = type != null;
@@ -1975,6 +2577,24 @@ public class CordraService {
         }
     }
 
+    /**
+     * Returns the lock names for the schema name or username an object claims.  Uniqueness is checked by searching
+     * while holding these locks, so that writes claiming different names do not wait for each other.  The names are
+     * lower-cased as usernames are unique ignoring case.
+     */
+    private static List<String> getUniqueNamesToLock(boolean isSchema, boolean isUser, JsonNode jsonNode, Map<String, JsonNode> pointerToSchemaMap) {
+        List<String> uniqueNames = new ArrayList<>();
+        if (isSchema) {
+            String name = JsonUtil.getJsonAtPointer("/name", jsonNode).asText();
+            uniqueNames.add("schemaName:" + name.toLowerCase(Locale.ROOT));
+        }
+        if (isUser) {
+            String username = UserProcessor.getUsername(jsonNode, pointerToSchemaMap);
+            if (username != null) uniqueNames.add("username:" + username.toLowerCase(Locale.ROOT));
+        }
+        return uniqueNames;
+    }
+
     private void preprocessObjectBasedOnJsonAndType(String handle, String type, JsonNode jsonNode, Map<String, JsonNode> pointerToSchemaMap, boolean isDryRun) throws CordraException, InvalidException, ReadOnlyCordraException {
         if (isReadOnly && !isDryRun) throw new ReadOnlyCordraException();
         SchemaNameProcessor schemaNameProcessor = new SchemaNameProcessor(this);
@@ -2300,32 +2920,13 @@ public class CordraService {
             if (!isDryRun) {
                 txn = makeUpdateTransactionFor(handle);
             }
-            co.type = objectType;
-            co.setContent(jsonData);
-            if (co.metadata == null) co.metadata = new CordraObject.Metadata();
-            if (co.metadata.internalMetadata == null) co.metadata.internalMetadata = new JsonObject();
-            if (!isDryRun) {
-                if (txn == null) throw new AssertionError();
-                co.metadata.txnId = txn.txnId;
-            }
-            if (userId == null) {
-                userId = "anonymous";
-            }
-            co.metadata.modifiedBy = userId;
-            if (acl != null) {
-                co.acl = acl;
-            }
-            if (userMetadata != null) {
-                co.userMetadata = userMetadata;
-            }
-            if (!isCreate) {
-                co.metadata.modifiedOn = System.currentTimeMillis();
-            }
-            addAndDeletePayloads(co, payloadsToDelete, payloads);
-            if (shouldHashObject(objectType)) {
-                CordraObjectHasher hasher = new CordraObjectHasher();
-                hasher.generateAllHashesAndSetThemOnTheCordraObject(co, storage);
+            Long baseTxnId = null;
+            JsonElement baseContent = null;
+            if (!isCreate && !isDryRun && isUseDeltaReplicationMessages() && co.metadata != null) {
+                baseTxnId = co.metadata.txnId;
+                baseContent = co.content == null ? null : co.content.deepCopy();
             }
+            prepareCordraObjectForStorage(co, isCreate, objectType, jsonData, acl, userMetadata, payloadsToDelete, payloads, userId, txn == null ? null : txn.txnId);
             if (!isDryRun) {
                 possiblyStored = true;
                 co = storeCordraObject(co, isCreate);
@@ -2335,9 +2936,15 @@ public class CordraService {
             cleanupPayloads(co);
             if (!isDryRun) {
                 if (txn == null) throw new AssertionError();
-                sendUpdateReplicationMessage(co);
+                CompletableFuture<Void> replicated;
+                if (baseTxnId != null) {
+                    replicated = sendDeltaReplicationMessageAsync(co, baseTxnId, baseContent, getPayloadNames(payloads));
+                } else {
+                    replicated = sendUpdateReplicationMessageAsync(co);
+                }
+                if (replicationCompletionExecutorService == null) awaitReplication(replicated);
                 success = true;
-                transactionManager.closeTransaction(txn.txnId, cordraServiceId);
+                closeTransactionWhenReplicated(txn, replicated);
             }
             return co;
         } catch (Exception e) {
@@ -2366,6 +2973,34 @@ public class CordraService {
         }
     }
 
+    private void prepareCordraObjectForStorage(CordraObject co, boolean isCreate, String objectType, String jsonData, CordraObject.AccessControlList acl, JsonObject userMetadata, Collection<String> payloadsToDelete, List<Payload> payloads, String userId, Long txnId) throws CordraException {
+        co.type = objectType;
+        co.setContent(jsonData);
+        if (co.metadata == null) co.metadata = new CordraObject.Metadata();
+        if (co.metadata.internalMetadata == null) co.metadata.internalMetadata = new JsonObject();
+        if (txnId != null) {
+            co.metadata.txnId = txnId;
+        }
+        if (userId == null) {
+            userId = "anonymous";
+        }
+        co.metadata.modifiedBy = userId;
+        if (acl != null) {
+            co.acl = acl;
+        }
+        if (userMetadata != null) {
+            co.userMetadata = userMetadata;
+        }
+        if (!isCreate) {
+            co.metadata.modifiedOn = System.currentTimeMillis();
+        }
+        addAndDeletePayloads(co, payloadsToDelete, payloads);
+        if (shouldHashObject(objectType)) {
+            CordraObjectHasher hasher = new CordraObjectHasher();
+            hasher.generateAllHashesAndSetThemOnTheCordraObject(co, storage);
+        }
+    }
+
     private void addAndDeletePayloads(CordraObject co, Collection<String> payloadsToDelete, List<Payload> payloads) {
         if (payloadsToDelete != null) {
             for (String payloadName : payloadsToDelete) {
@@ -2442,7 +3077,7 @@ public class CordraService {
         return indexer.searchHandles(query);
     }
 
-    private QueryParams queryParamsFor(int pageNum, int pageSize, String sortFieldsString) {
+    private QueryParams queryParamsFor(int pageNum, int pageSize, String sortFieldsString, String cursor, List<FacetSpecification> facets) {
         List<SortField> sortFields = null;
         if (sortFieldsString != null) {
             sortFields = getSortFieldsFromParam(sortFieldsString);
@@ -2450,30 +3085,38 @@ public class CordraService {
         if (pageSize == 0 && Boolean.TRUE.equals(design.useLegacySearchPageSizeZeroReturnsAll)) {
             pageSize = -1;
         }
-        QueryParams params = new QueryParams(pageNum, pageSize, sortFields);
+        QueryParams params = new QueryParams(pageNum, pageSize, sortFields, cursor, facets);
         return params;
     }
 
-    SearchResults<String> searchHandles(String query, int pageNum, int pageSize, String sortFieldsString) throws CordraException {
-        QueryParams params = queryParamsFor(pageNum, pageSize, sortFieldsString);
+    SearchResults<String> searchHandles(String query, int pageNum, int pageSize, String sortFieldsString, String cursor, List<FacetSpecification> facets) throws CordraException {
+        QueryParams params = queryParamsFor(pageNum, pageSize, sortFieldsString, cursor, facets);
         String q = "valid:true AND (" + query + ")";
         return indexer.searchHandles(q, params);
     }
 
-    SearchResults<IdType> searchIdType(String query, int pageNum, int pageSize, String sortFieldsString) throws CordraException {
-        QueryParams params = queryParamsFor(pageNum, pageSize, sortFieldsString);
+    SearchResults<IdType> searchIdType(String query, int pageNum, int pageSize, String sortFieldsString, String cursor, List<FacetSpecification> facets) throws CordraException {
+        QueryParams params = queryParamsFor(pageNum, pageSize, sortFieldsString, cursor, facets);
         String q = "valid:true AND (" + query + ")";
         return indexer.searchIdType(q, params);
     }
 
-    SearchResults<CordraObject> search(String query, int pageNum, int pageSize, String sortFieldsString) throws CordraException {
-        QueryParams params = queryParamsFor(pageNum, pageSize, sortFieldsString);
+    SearchResults<CordraObject> search(String query, int pageNum, int pageSize, String sortFieldsString, String cursor, List<FacetSpecification> facets) throws CordraException {
+        QueryParams params = queryParamsFor(pageNum, pageSize, sortFieldsString, cursor, facets);
         String q = "valid:true AND (" + query + ")";
-        return indexer.search(q, params);
+        return indexer.searchForResponse(q, params);
     }
 
     public void searchHandles(String query, int pageNum, int pageSize, String sortFieldsString, Writer printWriter, boolean isPostProcess, String userId) throws CordraException, IOException, ScriptException, InterruptedException {
-        try (SearchResults<IdType> results = searchIdType(query, pageNum, pageSize, sortFieldsString)) {
+        searchHandles(query, pageNum, pageSize, sortFieldsString, null, printWriter, isPostProcess, userId);
+    }
+
+    public void searchHandles(String query, int pageNum, int pageSize, String sortFieldsString, String cursor, Writer printWriter, boolean isPostProcess, String userId) throws CordraException, IOException, ScriptException, InterruptedException {
+        searchHandles(query, pageNum, pageSize, sortFieldsString, cursor, null, printWriter, isPostProcess, userId);
+    }
+
+    public void searchHandles(String query, int pageNum, int pageSize, String sortFieldsString, String cursor, List<FacetSpecification> facets, Writer printWriter, boolean isPostProcess, String userId) throws CordraException, IOException, ScriptException, InterruptedException {
+        try (SearchResults<IdType> results = searchIdType(query, pageNum, pageSize, sortFieldsString, cursor, facets)) {
             @SuppressWarnings("resource")
             JsonWriter writer = new JsonWriter(printWriter);
             writer.setIndent("  ");
@@ -2481,6 +3124,12 @@ public class CordraService {
             writer.name("pageNum").value(pageNum);
             writer.name("pageSize").value(pageSize);
             writer.name("size").value(results.size());
+            // before the results, so that clients streaming the results can read it first
+            if (results.getNextCursor() != null) writer.name("nextCursor").value(results.getNextCursor());
+            if (results.getFacets() != null) {
+                writer.name("facets");
+                gson.toJson(results.getFacets(), new TypeToken<List<FacetResult>>(){}.getType(), writer);
+            }
             writer.name("results").beginArray();
             for (IdType result : results) {
                 if (isPostProcess) {
@@ -2516,7 +3165,15 @@ public class CordraService {
     }
 
     public void search(String query, int pageNum, int pageSize, String sortFieldsString, Writer printWriter, boolean isPostProcess, String userId, Set<String> pointers, boolean isFull) throws CordraException, IOException, ScriptException, InterruptedException {
-        try (SearchResults<CordraObject> results = search(query, pageNum, pageSize, sortFieldsString)) {
+        search(query, pageNum, pageSize, sortFieldsString, null, printWriter, isPostProcess, userId, pointers, isFull);
+    }
+
+    public void search(String query, int pageNum, int pageSize, String sortFieldsString, String cursor, Writer printWriter, boolean isPostProcess, String userId, Set<String> pointers, boolean isFull) throws CordraException, IOException, ScriptException, InterruptedException {
+        search(query, pageNum, pageSize, sortFieldsString, cursor, null, printWriter, isPostProcess, userId, pointers, isFull);
+    }
+
+    public void search(String query, int pageNum, int pageSize, String sortFieldsString, String cursor, List<FacetSpecification> facets, Writer printWriter, boolean isPostProcess, String userId, Set<String> pointers, boolean isFull) throws CordraException, IOException, ScriptException, InterruptedException {
+        try (SearchResults<CordraObject> results = search(query, pageNum, pageSize, sortFieldsString, cursor, facets)) {
             @SuppressWarnings("resource")
             JsonWriter writer = new JsonWriter(printWriter);
             writer.setIndent("  ");
@@ -2524,6 +3181,12 @@ public class CordraService {
             writer.name("pageNum").value(pageNum);
             writer.name("pageSize").value(pageSize);
             writer.name("size").value(results.size());
+            // before the results, so that clients streaming the results can read it first
+            if (results.getNextCursor() != null) writer.name("nextCursor").value(results.getNextCursor());
+            if (results.getFacets() != null) {
+                writer.name("facets");
+                gson.toJson(results.getFacets(), new TypeToken<List<FacetResult>>(){}.getType(), writer);
+            }
             writer.name("results").beginArray();
             for (CordraObject co : results) {
                 co = copyOfCordraObjectRemovingInternalMetadata(co);
@@ -2665,6 +3328,21 @@ public class CordraService {
         authObjectChangeIndexed.getAndAccumulate(authObjectChangeCountAtStart, Math::max);
     }
 
+    /**
+     * Called before user-facing searches.  By default this makes all writes so far visible.  With index
+     * searchConsistency "token", a search only waits for the write which produced the given txnId, and a search
+     * without a token does not wait at all.
+     *
+     * @param txnId the consistency token (txnId of a prior write), or null
+     */
+    public void ensureIndexUpToDateForSearch(Long txnId) throws CordraException {
+        if (!isSearchConsistencyByToken) {
+            ensureIndexUpToDate();
+        } else if (txnId != null) {
+            indexer.ensureIndexUpToDate(txnId);
+        }
+    }
+
     public void ensureIndexUpToDateWhenAuthChange() throws CordraException {
         if (authObjectChangeCount.get() > authObjectChangeIndexed.get()) {
             ensureIndexUpToDate();
@@ -2724,12 +3402,17 @@ public class CordraService {
         if (replicationConsumer != null) {
             try { replicationConsumer.shutdown(); } catch (Exception e) { logger.error("Shutdown error", e); }
         }
-        if (stripedTaskRunner != null) {
-            stripedTaskRunner.shutdown();
-        }
         if (replicationProducer != null) {
             try { replicationProducer.shutdown(); } catch (Exception e) { logger.error("Shutdown error", e); }
         }
+        if (replicationCompletionExecutorService != null) {
+            replicationCompletionExecutorService.shutdown();
+            try {
+                replicationCompletionExecutorService.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         try { handlesUpdater.shutdown(); } catch (Exception e) { logger.error("Shutdown error", e); }
         try { javaScriptEnvironment.shutdown(); } catch (Exception e) { logger.error("Shutdown error", e); }
         try { preCacheExecutorService.shutdown(); } catch (Exception e) { logger.error("Shutdown error", e); }
@@ -2737,6 +3420,7 @@ public class CordraService {
         if (transactionReprocessingQueue != null) {
             try { transactionReprocessingQueue.shutdown(); } catch (Exception e) { logger.error("Shutdown error", e); }
         }
+        if (storageCache != null) storageCache.shutdown();
         syncObjects.shutdown();
         try { storage.close(); } catch (Exception e) { logger.error("Shutdown error", e); }
     }
@@ -2745,58 +3429,229 @@ public class CordraService {
         if (replicationProducer == null) {
             return;
         }
+        if (isUseBinaryReplicationMessages()) {
+            try {
+                sendUpdateReplicationMessageAsync(co).get();
+            } catch (ExecutionException e) {
+                throw new InternalErrorCordraException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InternalErrorCordraException(e);
+            }
+            return;
+        }
+        String message = gson.toJson(getUpdateReplicationMessage(co, false));
+        replicationProducer.send(co.id, message);
+    }
+
+    private CompletableFuture<Void> sendUpdateReplicationMessageAsync(CordraObject co) throws CordraException {
+        if (replicationProducer == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (isUseBinaryReplicationMessages()) {
+            ReplicationMessage replicationMessage = getUpdateReplicationMessage(co, true);
+            return BinaryReplicationRecords.sendAsync(replicationProducer, replicationMessage, storage, BinaryReplicationRecords.DEFAULT_CHUNK_SIZE);
+        }
+        return replicationProducer.sendAsync(co.id, gson.toJson(getUpdateReplicationMessage(co, false)));
+    }
+
+    private static void awaitReplication(CompletableFuture<Void> replicated) throws CordraException {
+        try {
+            replicated.get();
+        } catch (ExecutionException e) {
+            throw new InternalErrorCordraException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalErrorCordraException(e);
+        }
+    }
+
+    /**
+     * Closes the transaction once its replication message has been sent.  If the producer delays sends, this returns
+     * at once, so that the object lock is not held while the message waits to be sent; should the send then fail,
+     * the transaction is queued for reprocessing, which sends the message again.
+     */
+    private void closeTransactionWhenReplicated(CordraTransaction txn, CompletableFuture<Void> replicated) throws CordraException {
+        if (replicationCompletionExecutorService == null) {
+            awaitReplication(replicated);
+            transactionManager.closeTransaction(txn.txnId, cordraServiceId);
+            return;
+        }
+        replicated.whenCompleteAsync((v, e) -> {
+            try {
+                if (e != null) {
+                    logger.error("Error sending replication message for " + txn.objectId, e);
+                    transactionReprocessingQueue.insert(txn, cordraServiceId);
+                }
+                transactionManager.closeTransaction(txn.txnId, cordraServiceId);
+            } catch (Exception ex) {
+                logger.error("Error closing transaction " + txn.txnId + " after replication", ex);
+                alerter.alert("Error closing transaction " + txn.txnId + " after replication: " + ex);
+            }
+        }, replicationCompletionExecutorService);
+    }
+
+    /**
+     * Sends the update as a patch against the previous version, unless the patch would not be smaller than the
+     * content itself.  Payloads not named in changedPayloads are unchanged, or deleted if no longer listed.
+     */
+    private CompletableFuture<Void> sendDeltaReplicationMessageAsync(CordraObject co, long baseTxnId, JsonElement baseContent, List<String> changedPayloads) throws CordraException {
+        if (replicationProducer == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        JsonArray patch = JsonPatch.diff(baseContent, co.content);
+        String patchJson = patch.toString();
+        if (co.content != null && patchJson.length() >= co.content.toString().length()) {
+            return sendUpdateReplicationMessageAsync(co);
+        }
+        CordraObject withoutContent = new CordraObject();
+        withoutContent.id = co.id;
+        withoutContent.type = co.type;
+        withoutContent.acl = co.acl;
+        withoutContent.userMetadata = co.userMetadata;
+        withoutContent.metadata = co.metadata;
+        withoutContent.payloads = co.payloads;
+        boolean includePayloads = design != null && Boolean.TRUE.equals(design.includePayloadsInReplicationMessages);
+        CordraObjectWithPayloadsAsStrings cos = new CordraObjectWithPayloadsAsStrings();
+        cos.cordraObject = withoutContent;
+        ReplicationMessage replicationMessage = new ReplicationMessage();
+        replicationMessage.cordraClusterId = this.cordraClusterId;
+        replicationMessage.type = ReplicationMessage.Type.DELTA;
+        replicationMessage.object = cos;
+        replicationMessage.handle = co.id;
+        replicationMessage.baseTxnId = baseTxnId;
+        replicationMessage.contentPatch = patch;
+        replicationMessage.changedPayloads = changedPayloads;
+        try {
+            if (isUseBinaryReplicationMessages()) {
+                if (includePayloads) replicationMessage.streamedPayloads = changedPayloads;
+                return BinaryReplicationRecords.sendAsync(replicationProducer, replicationMessage, storage, BinaryReplicationRecords.DEFAULT_CHUNK_SIZE);
+            }
+            if (includePayloads && !changedPayloads.isEmpty()) {
+                cos.payloads = new HashMap<>();
+                for (String payloadName : changedPayloads) {
+                    try (InputStream in = storage.getPayload(co.id, payloadName)) {
+                        if (in != null) cos.payloads.put(payloadName, CordraObjectWithPayloadsAsStrings.inputStreamToBase64String(in));
+                    }
+                }
+            }
+            return replicationProducer.sendAsync(co.id, gson.toJson(replicationMessage));
+        } catch (IOException e) {
+            throw new InternalErrorCordraException(e);
+        }
+    }
+
+    private static List<String> getPayloadNames(List<Payload> payloads) {
+        List<String> names = new ArrayList<>();
+        if (payloads == null) return names;
+        for (Payload payload : payloads) {
+            names.add(payload.name);
+        }
+        return names;
+    }
+
+    private boolean isUseDeltaReplicationMessages() {
+        return design != null && design.useDeltaReplicationMessages != null && design.useDeltaReplicationMessages;
+    }
+
+    /**
+     * Asks the other clusters to send the whole object, after a delta for it could not be applied here.
+     */
+    private void sendResendReplicationMessage(String id) throws CordraException {
+        if (replicationProducer == null) {
+            alerter.alert("Replicated object " + id + " out of sync and no replication producer to request it");
+            return;
+        }
+        ReplicationMessage replicationMessage = new ReplicationMessage();
+        replicationMessage.type = ReplicationMessage.Type.RESEND;
+        replicationMessage.cordraClusterId = this.cordraClusterId;
+        replicationMessage.handle = id;
+        replicationProducer.send(id, gson.toJson(replicationMessage));
+    }
+
+    private void resendReplicationMessage(String id) throws CordraException {
+        // only the writable cluster answers, so that a stale copy is never sent
+        if (isReadOnly) return;
+        objectLocker.lock(id);
+        try {
+            CordraObject co = storage.get(id);
+            if (co == null) {
+                sendDeleteReplicationMessage(id);
+            } else {
+                sendUpdateReplicationMessage(co);
+            }
+        } finally {
+            objectLocker.release(id);
+        }
+    }
+
+    private boolean isUseBinaryReplicationMessages() {
+        return design != null && design.useBinaryReplicationMessages != null && design.useBinaryReplicationMessages;
+    }
+
+    private ReplicationMessage getUpdateReplicationMessage(CordraObject co, boolean isStreamPayloads) throws CordraException {
         CordraObjectWithPayloadsAsStrings cos;
+        boolean includePayloads = false;
+        if (design != null && design.includePayloadsInReplicationMessages != null) {
+            includePayloads = design.includePayloadsInReplicationMessages;
+        }
         try {
-            boolean includePayloads = false;
-            if (design != null && design.includePayloadsInReplicationMessages != null) {
-                includePayloads = design.includePayloadsInReplicationMessages;
-            }
-            cos = CordraObjectWithPayloadsAsStrings.fromCordraObject(co, storage, includePayloads);
-            ReplicationMessage replicationMessage = new ReplicationMessage();
-            replicationMessage.cordraClusterId = this.cordraClusterId;
-            replicationMessage.type = ReplicationMessage.Type.UPDATE;
-            replicationMessage.object = cos;
-            replicationMessage.handle = co.id;
-            String message = gson.toJson(replicationMessage);
-            replicationProducer.send(co.id, message);
+            cos = CordraObjectWithPayloadsAsStrings.fromCordraObject(co, storage, includePayloads && !isStreamPayloads);
         } catch (IOException e) {
             throw new InternalErrorCordraException(e);
         }
+        ReplicationMessage replicationMessage = new ReplicationMessage();
+        replicationMessage.cordraClusterId = this.cordraClusterId;
+        replicationMessage.type = ReplicationMessage.Type.UPDATE;
+        replicationMessage.object = cos;
+        replicationMessage.handle = co.id;
+        if (includePayloads && isStreamPayloads) {
+            replicationMessage.streamedPayloads = BinaryReplicationRecords.payloadNamesOf(co);
+        }
+        return replicationMessage;
     }
 
     private void sendDeleteReplicationMessage(String id) throws CordraException {
         if (replicationProducer == null) {
             return;
         }
+        replicationProducer.send(id, getDeleteReplicationMessage(id));
+    }
+
+    private CompletableFuture<Void> sendDeleteReplicationMessageAsync(String id) {
+        if (replicationProducer == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return replicationProducer.sendAsync(id, getDeleteReplicationMessage(id));
+    }
+
+    private String getDeleteReplicationMessage(String id) {
         ReplicationMessage replicationMessage = new ReplicationMessage();
         replicationMessage.type = ReplicationMessage.Type.DELETE;
         replicationMessage.cordraClusterId = this.cordraClusterId;
         replicationMessage.handle = id;
-        String message = gson.toJson(replicationMessage);
-        replicationProducer.send(id, message);
+        return gson.toJson(replicationMessage);
     }
 
-    Object stripePicker(String message) {
-        ReplicationMessage txn = gson.fromJson(message, ReplicationMessage.class);
-        return txn.handle;
-    }
-
-    void applyReplicationMessage(String message) {
-        ReplicationMessage txn = gson.fromJson(message, ReplicationMessage.class);
+    void applyReplicationMessage(ReplicationMessage txn, Map<String, InputStream> streamedPayloads) {
         if (cordraClusterId.equals(txn.cordraClusterId)) {
             return;
         }
         try {
-            if (DESIGN_OBJECT_ID.equals(txn.handle)) {
+            if (txn.type == ReplicationMessage.Type.RESEND) {
+                resendReplicationMessage(txn.handle);
+            } else if (txn.type == ReplicationMessage.Type.DELTA) {
+                replicateCordraObjectDelta(txn, streamedPayloads);
+            } else if (DESIGN_OBJECT_ID.equals(txn.handle)) {
                 CordraObjectWithPayloadsAsStrings cos = txn.object;
-                replicateDesignObject(cos);
+                replicateDesignObject(cos, streamedPayloads);
             } else if (txn.type == ReplicationMessage.Type.DELETE) {
                 String userId = null;
                 delete(txn.handle, userId, false);
             } else {
                 //UPDATE
                 CordraObjectWithPayloadsAsStrings cos = txn.object;
-                replicateCordraObject(cos);
+                replicateCordraObject(cos, streamedPayloads);
             }
         } catch (Exception e) {
             alerter.alert("Error replicating " + txn.handle + ": " + e);
@@ -2804,7 +3659,236 @@ public class CordraService {
         }
     }
 
-    private void replicateCordraObject(CordraObjectWithPayloadsAsStrings cos) throws CordraException, InvalidException, ReadOnlyCordraException {
+    /**
+     * Applies a batch of replication messages, in order for each object.  Single updates of ordinary objects are
+     * written to storage and indexed together; the design object, schemas, deletions, deltas and objects with more
+     * than one message are applied individually and first, so that the updates are processed against the latest
+     * schemas.
+     */
+    void applyReplicationMessages(List<ReplicationMessage> txns) {
+        Set<String> seenHandles = new HashSet<>();
+        Set<String> repeatedHandles = new HashSet<>();
+        for (ReplicationMessage txn : txns) {
+            if (!seenHandles.add(txn.handle)) repeatedHandles.add(txn.handle);
+        }
+        List<CordraObjectWithPayloadsAsStrings> batch = new ArrayList<>();
+        for (ReplicationMessage txn : txns) {
+            if (cordraClusterId.equals(txn.cordraClusterId)) continue;
+            if (txn.type != ReplicationMessage.Type.UPDATE || repeatedHandles.contains(txn.handle) || DESIGN_OBJECT_ID.equals(txn.handle) || "Schema".equals(txn.object.cordraObject.type)) {
+                applyReplicationMessage(txn, null);
+            } else {
+                batch.add(txn.object);
+            }
+        }
+        if (batch.isEmpty()) return;
+        if (batch.size() > 1) {
+            try {
+                replicateCordraObjects(batch);
+                return;
+            } catch (Exception e) {
+                logger.warn("Error replicating batch; replicating objects individually", e);
+            }
+        }
+        for (CordraObjectWithPayloadsAsStrings cos : batch) {
+            try {
+                replicateCordraObject(cos, null);
+            } catch (Exception e) {
+                alerter.alert("Error replicating " + cos.cordraObject.id + ": " + e);
+                logger.error("Error replicating " + cos.cordraObject.id, e);
+            }
+        }
+    }
+
+    private void replicateCordraObjects(List<CordraObjectWithPayloadsAsStrings> batch) throws CordraException, InvalidException, IndexerException {
+        List<String> ids = new ArrayList<>(batch.size());
+        for (CordraObjectWithPayloadsAsStrings cos : batch) {
+            ids.add(cos.cordraObject.id);
+        }
+        objectLocker.lockInOrder(ids);
+        List<CordraTransaction> txns = new ArrayList<>(batch.size());
+        List<Long> txnIds = new ArrayList<>();
+        boolean isSuccess = false;
+        try {
+            Map<String, CordraObject> existingObjects = new HashMap<>();
+            try (SearchResults<CordraObject> results = storage.get(ids)) {
+                for (CordraObject co : results) {
+                    existingObjects.put(co.id, co);
+                }
+            }
+            List<CordraObject> creates = new ArrayList<>();
+            List<CordraObject> updates = new ArrayList<>();
+            List<Map<String, JsonNode>> pointerToSchemaMaps = new ArrayList<>();
+            for (CordraObjectWithPayloadsAsStrings cos : batch) {
+                CordraObject co = cos.cordraObject;
+                CordraObject existingCo = existingObjects.get(co.id);
+                List<Payload> payloads = getPayloadsFromReplicatedObject(cos, null);
+                List<String> payloadsToDelete = new ArrayList<>();
+                if (existingCo != null && existingCo.payloads != null) {
+                    for (Payload payload : existingCo.payloads) {
+                        if (getCordraObjectPayloadByName(co, payload.name) != null) {
+                            payloadsToDelete.add(payload.name);
+                        }
+                    }
+                }
+                pointerToSchemaMaps.add(getPointerToSchemaMap(co.type, JsonUtil.gsonToJackson(co.content)));
+                addAndDeletePayloads(co, payloadsToDelete, payloads);
+                if (existingCo == null) {
+                    creates.add(co);
+                } else {
+                    updates.add(co);
+                }
+            }
+            long now = System.currentTimeMillis();
+            for (String id : ids) {
+                long txnId = transactionManager.getAndIncrementNextTransactionId();
+                txns.add(new CordraTransaction(txnId, now, id, CordraTransaction.OP.UPDATE, false));
+                txnIds.add(txnId);
+            }
+            transactionManager.openTransactions(txns, cordraServiceId);
+            Map<String, CordraObject> stored = new HashMap<>();
+            try {
+                if (!creates.isEmpty()) {
+                    for (CordraObject co : storage.createAll(creates)) stored.put(co.id, co);
+                }
+                if (!updates.isEmpty()) {
+                    for (CordraObject co : storage.updateAll(updates)) stored.put(co.id, co);
+                }
+            } finally {
+                for (CordraObjectWithPayloadsAsStrings cos : batch) {
+                    cleanupPayloads(cos.cordraObject);
+                }
+            }
+            List<CordraObjectWithIndexDetails> batchWithDetails = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                CordraObject co = stored.get(ids.get(i));
+                batchWithDetails.add(new CordraObjectWithIndexDetails(co, pointerToSchemaMaps.get(i), shouldIndexPayloads(co.type)));
+            }
+            try {
+                indexer.indexObjects(cordraServiceId, batchWithDetails);
+            } catch (Exception e) {
+                logger.warn("Error indexing replicated batch; indexing objects individually", e);
+                for (CordraObjectWithIndexDetails details : batchWithDetails) {
+                    indexCordraObject(details.co, details.co.type, details.pointerToSchemaMap);
+                }
+            }
+            List<String> userOrGroupIds = new ArrayList<>();
+            boolean isJavaScriptChange = false;
+            for (int i = 0; i < batch.size(); i++) {
+                CordraObject co = stored.get(ids.get(i));
+                if (isUserOrGroup(co)) {
+                    userOrGroupIds.add(co.id);
+                    applyAuthObjectChange(co.id, co);
+                    if (!isUserAccountActive(co)) {
+                        invalidateSessionsForUser(co.id);
+                    }
+                }
+                if (validator.hasJavaScriptModules(pointerToSchemaMaps.get(i))) isJavaScriptChange = true;
+            }
+            if (!userOrGroupIds.isEmpty()) {
+                authObjectChangeCount.incrementAndGet();
+                signalWatcher.sendAuthChangeSignal(userOrGroupIds);
+            }
+            if (isJavaScriptChange) {
+                signalWatcher.sendSignal(SignalWatcher.Signal.JAVASCRIPT_CLEAR_CACHE);
+                cordraRequireLookup.clearAllObjectIdsForModuleValues();
+                javaScriptEnvironment.clearCache();
+            }
+            isSuccess = true;
+        } finally {
+            if (isSuccess) {
+                closeBulkTransactions(txnIds);
+            } else {
+                reprocessBulkTransactions(txns);
+            }
+            objectLocker.releaseAll(ids);
+        }
+    }
+
+    /**
+     * Applies a delta if the local version of the object is the version the delta was computed from, and otherwise
+     * asks for the whole object.
+     */
+    private void replicateCordraObjectDelta(ReplicationMessage txn, Map<String, InputStream> streamedPayloads) throws CordraException, InvalidException, ReadOnlyCordraException {
+        String id = txn.handle;
+        CordraObject co = txn.object.cordraObject;
+        objectLocker.lock(id);
+        CordraTransaction cordraTxn = null;
+        try {
+            CordraObject existingCo = storage.get(id);
+            Long localTxnId = existingCo == null || existingCo.metadata == null ? null : existingCo.metadata.txnId;
+            if (localTxnId == null || !localTxnId.equals(txn.baseTxnId)) {
+                logger.warn("Replicated delta for " + id + " does not apply to local version; requesting whole object");
+                sendResendReplicationMessage(id);
+                return;
+            }
+            try {
+                co.content = JsonPatch.apply(existingCo.content, txn.contentPatch);
+            } catch (IllegalArgumentException e) {
+                logger.warn("Replicated delta for " + id + " failed to apply; requesting whole object", e);
+                sendResendReplicationMessage(id);
+                return;
+            }
+            cordraTxn = makeUpdateTransactionFor(id, false);
+            Map<String, JsonNode> pointerToSchemaMap = getPointerToSchemaMap(co.type, JsonUtil.gsonToJackson(co.content));
+            List<String> changedPayloads = txn.changedPayloads == null ? Collections.emptyList() : txn.changedPayloads;
+            if (existingCo.payloads != null) {
+                for (Payload payload : existingCo.payloads) {
+                    if (getCordraObjectPayloadByName(co, payload.name) == null) {
+                        co.deletePayload(payload.name);
+                    }
+                }
+            }
+            if (co.payloads != null) {
+                for (Payload payload : co.payloads) {
+                    if (!changedPayloads.contains(payload.name)) continue;
+                    InputStream in;
+                    if (streamedPayloads != null && streamedPayloads.containsKey(payload.name)) {
+                        in = streamedPayloads.get(payload.name);
+                    } else if (txn.object.payloads != null && txn.object.payloads.get(payload.name) != null) {
+                        in = new ByteArrayInputStream(Base64.getDecoder().decode(txn.object.payloads.get(payload.name)));
+                    } else {
+                        in = new ByteArrayInputStream(new byte[0]);
+                    }
+                    payload.setInputStream(in);
+                }
+            }
+            co = storeCordraObject(co, false);
+            indexCordraObject(co, co.type, pointerToSchemaMap);
+            cleanupPayloads(co);
+            if (isUserOrGroup(co)) {
+                authObjectChangeCount.incrementAndGet();
+                applyAuthObjectChange(co.id, co);
+                signalWatcher.sendAuthChangeSignal(Collections.singletonList(co.id));
+                if (!isUserAccountActive(co)) {
+                    invalidateSessionsForUser(co.id);
+                }
+            }
+            if (validator.hasJavaScriptModules(pointerToSchemaMap)) {
+                signalWatcher.sendSignal(SignalWatcher.Signal.JAVASCRIPT_CLEAR_CACHE);
+                cordraRequireLookup.clearAllObjectIdsForModuleValues();
+                javaScriptEnvironment.clearCache();
+            }
+            if ("Schema".equals(co.type)) {
+                addToKnownSchemas(id);
+            }
+            transactionManager.closeTransaction(cordraTxn.txnId, cordraServiceId);
+        } catch (Exception e) {
+            if (cordraTxn != null) {
+                try {
+                    transactionReprocessingQueue.insert(cordraTxn, cordraServiceId);
+                    transactionManager.closeTransaction(cordraTxn.txnId, cordraServiceId);
+                } catch (Exception ex) {
+                    logger.error("Error in replicateCordraObjectDelta; followed by reprocessing error", e);
+                    throw ex;
+                }
+            }
+            throw e;
+        } finally {
+            objectLocker.release(id);
+        }
+    }
+
+    private void replicateCordraObject(CordraObjectWithPayloadsAsStrings cos, Map<String, InputStream> streamedPayloads) throws CordraException, InvalidException, ReadOnlyCordraException {
         String id = cos.cordraObject.id;
         String type = cos.cordraObject.type;
         objectLocker.lock(id);
@@ -2813,7 +3897,7 @@ public class CordraService {
             txn = makeUpdateTransactionFor(id, false);
             CordraObject existingCo = storage.get(id);
             CordraObject co = cos.cordraObject;
-            List<Payload> payloads = getPayloadsFromReplicatedObject(cos);
+            List<Payload> payloads = getPayloadsFromReplicatedObject(cos, streamedPayloads);
             List<String> payloadsToDelete = new ArrayList<>();
             if (existingCo != null && existingCo.payloads != null) {
                 for (Payload payload : existingCo.payloads) {
@@ -2833,13 +3917,11 @@ public class CordraService {
             cleanupPayloads(co);
             if (isUserOrGroup(co)) {
                 authObjectChangeCount.incrementAndGet();
-                authCache.clearAllGroupsForUserValues();
-                authCache.clearAllUserIdForUsernameValues();
-                signalWatcher.sendSignal(SignalWatcher.Signal.AUTH_CHANGE);
+                applyAuthObjectChange(co.id, co);
+                signalWatcher.sendAuthChangeSignal(Collections.singletonList(co.id));
                 if (!isUserAccountActive(co)) {
                     invalidateSessionsForUser(co.id);
                 }
-                preCache();
             }
             if (validator.hasJavaScriptModules(pointerToSchemaMap)) {
                 signalWatcher.sendSignal(SignalWatcher.Signal.JAVASCRIPT_CLEAR_CACHE);
@@ -2879,12 +3961,14 @@ public class CordraService {
         return false;
     }
 
-    private List<Payload> getPayloadsFromReplicatedObject(CordraObjectWithPayloadsAsStrings cos) {
+    private List<Payload> getPayloadsFromReplicatedObject(CordraObjectWithPayloadsAsStrings cos, Map<String, InputStream> streamedPayloads) {
         List<Payload> cordraObjectPayloads = cos.cordraObject.payloads;
         if (cordraObjectPayloads == null) return null;
         for (Payload payload : cordraObjectPayloads) {
             InputStream in;
-            if (cos.payloads == null) {
+            if (streamedPayloads != null && streamedPayloads.containsKey(payload.name)) {
+                in = streamedPayloads.get(payload.name);
+            } else if (cos.payloads == null) {
                 in = new ByteArrayInputStream(new byte[0]);
             } else {
                 String base64OfPayload = cos.payloads.get(payload.name);
@@ -2899,10 +3983,10 @@ public class CordraService {
         return cordraObjectPayloads;
     }
 
-    private void replicateDesignObject(CordraObjectWithPayloadsAsStrings cos) throws CordraException {
+    private void replicateDesignObject(CordraObjectWithPayloadsAsStrings cos, Map<String, InputStream> streamedPayloads) throws CordraException {
         designLocker.writeLock().acquire();
         try {
-            cos.writeIntoStorage(storage);
+            cos.writeIntoStorage(storage, streamedPayloads);
             signalWatcher.sendSignal(SignalWatcher.Signal.DESIGN);
             loadStatefulData();
         } finally {
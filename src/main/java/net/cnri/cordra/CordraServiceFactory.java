@@ -13,12 +13,15 @@ import net.cnri.cordra.api.SearchResults;
 import net.cnri.cordra.indexer.CordraIndexer;
 import net.cnri.cordra.indexer.IndexerException;
 import net.cnri.cordra.indexer.InstrumentedCordraIndexer;
+import net.cnri.cordra.indexer.PayloadTextExtractor;
 import net.cnri.cordra.indexer.elasticsearch.ElasticsearchIndexer;
 import net.cnri.cordra.indexer.lucene.LuceneIndexer;
+import net.cnri.cordra.indexer.lucene.LuceneIndexerOptions;
 import net.cnri.cordra.indexer.solr.SolrIndexer;
 import net.cnri.cordra.model.*;
 import net.cnri.cordra.replication.kafka.*;
 import net.cnri.cordra.storage.CordraStorage;
+import net.cnri.cordra.storage.CachingCordraStorage;
 import net.cnri.cordra.storage.InstrumentedCordraStorage;
 import net.cnri.cordra.storage.StorageConfig;
 import net.cnri.cordra.storage.bdbje.BdbjeStorage;
@@ -101,8 +104,7 @@ public class CordraServiceFactory {
         CordraStorage storage = null;
         CordraIndexer indexer = null;
         ReplicationProducer replicationProducer = null;
-        StripedExecutorService stripedTaskRunner = null;
-        MultithreadedKafkaConsumer replicationConsumer = null;
+        KafkaReplicationConsumer replicationConsumer = null;
         try {
             Alerter alerter = new LoggingAlerter();
             CordraStartupStatus startupStatus = CordraStartupStatus.getInstance();
@@ -123,13 +125,12 @@ public class CordraServiceFactory {
             logger.trace("Completed Cordra Indexer");
             replicationProducer = getReplicationProducer(cordraConfig);
             logger.trace("Completed Cordra ReplicationProducer");
-            stripedTaskRunner = getStripedTaskRunner(cordraConfig, alerter);
-            replicationConsumer = getMultithreadedReplicationConsumer(cordraConfig, alerter, stripedTaskRunner);
+            replicationConsumer = getReplicationConsumer(cordraConfig, alerter);
             logger.trace("Completed Cordra ReplicationConsumer");
             String cordraClusterId = cordraConfig.cordraClusterId;
             HttpSessionManager sessionManager = (HttpSessionManager) context.getAttribute(HttpSessionManager.class.getName());
             DoipSetupProvider doipSetupProvider = new DoipSetupProvider(context, privateKey);
-            initializeCordra(storage, indexer, replicationProducer, stripedTaskRunner, replicationConsumer, sessionManager, cordraClusterId, handlePrivateKey, handlePublicKey, privateKey, isReadOnly, curatorResources, curatorResources.getCordraConfig(), doipSetupProvider);
+            initializeCordra(storage, indexer, replicationProducer, replicationConsumer, sessionManager, cordraClusterId, handlePrivateKey, handlePublicKey, privateKey, isReadOnly, curatorResources, curatorResources.getCordraConfig(), doipSetupProvider);
             logger.trace("Completed Initializing Cordra");
             return cordra;
         } catch (Exception e) {
@@ -153,19 +154,7 @@ public class CordraServiceFactory {
         return Paths.get(cordraDataPath);
     }
 
-    private static StripedExecutorService getStripedTaskRunner(CordraConfig cordraConfig, Alerter alerter) {
-        ReplicationConsumerConfig replicationConsumerConfig = cordraConfig.replicationConsumer;
-        if (replicationConsumerConfig == null) {
-            return null;
-        }
-        int numReplicationThreads = getNumReplicationThreads(cordraConfig);
-        return new StripedThreadPoolExecutorService(numReplicationThreads, numReplicationThreads, 500, (thread, exception) -> {
-            alerter.alert("Exception in stripedTaskRunner " + exception);
-            logger.error("Exception in stripedTaskRunner", exception);
-        });
-    }
-
-    private static MultithreadedKafkaConsumer getMultithreadedReplicationConsumer(CordraConfig cordraConfig, Alerter alerter, StripedExecutorService stripedTaskRunner) {
+    private static KafkaReplicationConsumer getReplicationConsumer(CordraConfig cordraConfig, Alerter alerter) {
         ReplicationConsumerConfig replicationConsumerConfig = cordraConfig.replicationConsumer;
         if (replicationConsumerConfig == null) {
             return null;
@@ -175,10 +164,10 @@ public class CordraServiceFactory {
             String groupId = "cordra-replication-consumer";
             Pattern pattern = patternExcluding(cordraConfig.cordraClusterId);
             try {
-                return new MultithreadedKafkaConsumer(pattern,
+                return new KafkaReplicationConsumer(pattern,
                     groupId, replicationConsumerConfig.consumerConfig,
                     replicationConsumerConfig.kafkaBootstrapServers,
-                    alerter, stripedTaskRunner);
+                    getNumReplicationThreads(cordraConfig), alerter);
             } finally {
                 startupStatus.details.put("replicationConsumer", CordraStartupStatus.State.UP);
             }
@@ -249,6 +238,14 @@ public class CordraServiceFactory {
             }
             replicationProducer = new MultipleReplicationProducer(producers, durability);
         }
+        CordraConfig.ReplicationCoalescing coalescing = cordraConfig.replicationCoalescing;
+        if (coalescing != null && Boolean.TRUE.equals(coalescing.enabled)) {
+            CordraConfig.ReplicationCoalescing defaults = new CordraConfig.ReplicationCoalescing();
+            long windowMs = coalescing.windowMs == null ? defaults.windowMs : coalescing.windowMs;
+            int maxPending = coalescing.maxPending == null ? defaults.maxPending : coalescing.maxPending;
+            long maxPendingBytes = coalescing.maxPendingBytes == null ? defaults.maxPendingBytes : coalescing.maxPendingBytes;
+            replicationProducer = new CoalescingReplicationProducer(replicationProducer, windowMs, maxPending, maxPendingBytes);
+        }
         if (cordraConfig.traceRequests) {
             replicationProducer = new InstrumentedReplicationProducer(replicationProducer);
         }
@@ -294,12 +291,12 @@ public class CordraServiceFactory {
             if ("memory".equals(cordraConfig.storage.module)) {
                 inMemoryOnly = true;
             }
-            syncObjects = new LocalSyncObjects(basePath, isReadOnly, alerter, inMemoryOnly);
+            syncObjects = new LocalSyncObjects(basePath, isReadOnly, alerter, inMemoryOnly, cordraConfig.transactionLog);
             indexer = getIndexer(cordraConfig, basePath, storage, syncObjects.getObjectLocker(), alerter);
             String cordraClusterId = cordraConfig.cordraClusterId;
             HttpSessionManager sessionManager = (HttpSessionManager) context.getAttribute(HttpSessionManager.class.getName());
             DoipSetupProvider doipSetupProvider = new DoipSetupProvider(context, privateKey);
-            initializeCordra(storage, indexer, null, null, null, sessionManager, cordraClusterId, handlePrivateKey, handlePublicKey, privateKey, isReadOnly, syncObjects, cordraConfig, doipSetupProvider);
+            initializeCordra(storage, indexer, null, null, sessionManager, cordraClusterId, handlePrivateKey, handlePublicKey, privateKey, isReadOnly, syncObjects, cordraConfig, doipSetupProvider);
             return cordra;
         } catch (Exception e) {
             if (cordra != null) {
@@ -345,6 +342,9 @@ public class CordraServiceFactory {
         if (cordraConfig.traceRequests) {
             storage = new InstrumentedCordraStorage(storage);
         }
+        if (cordraConfig.objectCache != null && Boolean.TRUE.equals(cordraConfig.objectCache.enabled)) {
+            storage = new CachingCordraStorage(storage, cordraConfig.objectCache);
+        }
         startupStatus.details.put("storage", CordraStartupStatus.State.UP);
         return storage;
     }
@@ -447,12 +447,18 @@ public class CordraServiceFactory {
         CordraIndexer indexer;
         //XXX isStoreFields
         boolean isStoreFields = false;//Boolean.parseBoolean(cordraConfig.index.options.get("isStoreFields"));
+        boolean isSearchConsistencyByToken = "token".equalsIgnoreCase(cordraConfig.index.searchConsistency);
+        boolean isStoreSource = Boolean.parseBoolean(cordraConfig.index.options.get("storeSource"));
+        boolean isAcceptStaleSource = Boolean.parseBoolean(cordraConfig.index.options.get("storeSourceAcceptStale"));
+        PayloadTextExtractor payloadTextExtractor = new PayloadTextExtractor(cordraConfig.index.payloadExtraction);
         if ("solr".equalsIgnoreCase(cordraConfig.index.module)) {
             logger.info("Connecting to solr:");
             System.out.println("Connecting to solr:");
             SolrClient solr;
             String configRf = cordraConfig.index.options.get("minRf");
             int minRf = configRf == null ? 1 : Integer.parseInt(configRf);
+            String configCommitWithin = cordraConfig.index.options.get("commitWithinMs");
+            int commitWithinMs = configCommitWithin != null ? Integer.parseInt(configCommitWithin) : (isSearchConsistencyByToken ? 1000 : -1);
             String solrBaseUri = cordraConfig.index.options.get("baseUri");
             String zkHosts = cordraConfig.index.options.get("zkHosts");
             if (solrBaseUri == null && zkHosts == null) {
@@ -480,11 +486,19 @@ public class CordraServiceFactory {
             }
             logger.info("Index: solr");
             System.out.println("Index: solr");
-            indexer = new SolrIndexer(solr, storage, isStoreFields, minRf, objectLocker, alerter);
+            SolrIndexer solrIndexer = new SolrIndexer(solr, storage, isStoreFields, minRf, commitWithinMs, objectLocker, alerter);
+            solrIndexer.setStoreSource(isStoreSource);
+            solrIndexer.setAcceptStaleSource(isAcceptStaleSource);
+            solrIndexer.setPayloadTextExtractor(payloadTextExtractor);
+            indexer = solrIndexer;
         } else if ("memory".equalsIgnoreCase(cordraConfig.index.module)) {
             logger.info("Index: in-memory lucene");
             System.out.println("Index: in-memory lucene");
-            indexer = new LuceneIndexer(storage, objectLocker);
+            LuceneIndexer luceneIndexer = new LuceneIndexer(storage, objectLocker, LuceneIndexerOptions.fromMap(cordraConfig.index.options));
+            luceneIndexer.setStoreSource(isStoreSource);
+            luceneIndexer.setAcceptStaleSource(isAcceptStaleSource);
+            luceneIndexer.setPayloadTextExtractor(payloadTextExtractor);
+            indexer = luceneIndexer;
         } else if ("elasticsearch".equalsIgnoreCase(cordraConfig.index.module)) {
             logger.info("Index: elasticsearch");
             System.out.println("Index: elasticsearch");
@@ -529,11 +543,19 @@ public class CordraServiceFactory {
                                     .setSocketTimeout(60000);
                         }
                     });
-            indexer = new ElasticsearchIndexer(clientBuilder, storage, objectLocker, alerter, indexSettingsBuilder.build());
+            ElasticsearchIndexer elasticsearchIndexer = new ElasticsearchIndexer(clientBuilder, storage, objectLocker, alerter, indexSettingsBuilder.build(), isSearchConsistencyByToken);
+            elasticsearchIndexer.setStoreSource(isStoreSource);
+            elasticsearchIndexer.setAcceptStaleSource(isAcceptStaleSource);
+            elasticsearchIndexer.setPayloadTextExtractor(payloadTextExtractor);
+            indexer = elasticsearchIndexer;
         } else {
             logger.info("Index: lucene");
             System.out.println("Index: lucene");
-            indexer = new LuceneIndexer(basePath.toFile(), storage, isStoreFields, objectLocker);
+            LuceneIndexer luceneIndexer = new LuceneIndexer(basePath.toFile(), storage, isStoreFields, objectLocker, LuceneIndexerOptions.fromMap(cordraConfig.index.options));
+            luceneIndexer.setStoreSource(isStoreSource);
+            luceneIndexer.setAcceptStaleSource(isAcceptStaleSource);
+            luceneIndexer.setPayloadTextExtractor(payloadTextExtractor);
+            indexer = luceneIndexer;
         }
         if (cordraConfig.traceRequests) {
             indexer = new InstrumentedCordraIndexer(indexer);
@@ -549,7 +571,7 @@ public class CordraServiceFactory {
         RepoInitProvider testingRepoInitProvider = new ObjectBasedRepoInitProvider(repoInit);
         SyncObjects syncObjects = new LocalSyncObjects(testingRepoInitProvider, null, false, alerter, true);
         CordraIndexer indexer = new LuceneIndexer(storage, syncObjects.getObjectLocker());
-        initializeCordra(storage, indexer, null, null, null, null, "defaultClusterId", null, null,null, false, syncObjects, new CordraConfig(), null);
+        initializeCordra(storage, indexer, null, null, null, "defaultClusterId", null, null,null, false, syncObjects, new CordraConfig(), null);
         return cordra;
     }
 
@@ -561,14 +583,13 @@ public class CordraServiceFactory {
         PrivateKey handlePrivateKey = null;
         PublicKey handlePublicKey = null;
         CordraIndexer indexer = new LuceneIndexer(storage, curatorResources.getObjectLocker());
-        initializeCordra(storage, indexer, null, null, null, null, "defaultClusterId", handlePrivateKey, handlePublicKey, privateKey, false, curatorResources, cordraConfig, null);
+        initializeCordra(storage, indexer, null, null, null, "defaultClusterId", handlePrivateKey, handlePublicKey, privateKey, false, curatorResources, cordraConfig, null);
         return cordra;
     }
 
     private static void initializeCordra(CordraStorage storage, CordraIndexer indexer,
                                          ReplicationProducer replicationProducer,
-                                         StripedExecutorService stripedTaskRunner,
-                                         MultithreadedKafkaConsumer replicationConsumer,
+                                         KafkaReplicationConsumer replicationConsumer,
                                          HttpSessionManager sessionManager, String cordraClusterId,
                                          PrivateKey handlePrivateKey, PublicKey handlePublicKey,
                                          PrivateKey privateKey, boolean isReadOnly, SyncObjects syncObjects, CordraConfig cordraConfig,
@@ -612,7 +633,7 @@ public class CordraServiceFactory {
                     adminPasswordFromConsole = getPasswordFromConsole();
                 }
             }
-            cordra = new CordraService(cordraServiceId, cordraClusterId, storage, indexer, replicationProducer, sessionManager, stripedTaskRunner, replicationConsumer, handlePrivateKey, handlePublicKey, privateKey, isReadOnly, syncObjects, cordraConfig, doipSetupProvider);
+            cordra = new CordraService(cordraServiceId, cordraClusterId, storage, indexer, replicationProducer, sessionManager, replicationConsumer, handlePrivateKey, handlePublicKey, privateKey, isReadOnly, syncObjects, cordraConfig, doipSetupProvider);
             cordra.init();
 
             if (!startupLocker.isLocked()) {
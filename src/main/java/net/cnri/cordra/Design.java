@@ -24,6 +24,8 @@ public class Design {
     public Boolean enableVersionEdits;
     public CookiesConfig cookies;
     public Boolean includePayloadsInReplicationMessages;
+    public Boolean useBinaryReplicationMessages;
+    public Boolean useDeltaReplicationMessages;
     public DoipServerConfigWithEnabledFlag doip;
 
     public String javascript;
@@ -50,6 +52,8 @@ public class Design {
         if (design.enableVersionEdits != null) this.enableVersionEdits = design.enableVersionEdits;
         if (design.cookies != null) this.cookies = design.cookies;
         if (design.includePayloadsInReplicationMessages != null) this.includePayloadsInReplicationMessages = design.includePayloadsInReplicationMessages;
+        if (design.useBinaryReplicationMessages != null) this.useBinaryReplicationMessages = design.useBinaryReplicationMessages;
+        if (design.useDeltaReplicationMessages != null) this.useDeltaReplicationMessages = design.useDeltaReplicationMessages;
         if (design.javascript != null) this.javascript = design.javascript;
     }
 
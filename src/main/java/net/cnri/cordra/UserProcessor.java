@@ -19,6 +19,24 @@ public class UserProcessor {
     }
     
     private boolean findUsernameThrowIfNotUnique(String handle, CordraObject co, JsonNode json, Map<String, JsonNode> pointerToSchemaMap) throws CordraException, InvalidException {
+        String username = getUsername(json, pointerToSchemaMap);
+        if (username == null) return false;
+        if (isUsernameUnique(username, handle)) {
+            if (co != null) {
+                if (co.metadata == null) co.metadata = new CordraObject.Metadata();
+                if (co.metadata.internalMetadata == null) co.metadata.internalMetadata = new JsonObject();
+                co.metadata.internalMetadata.addProperty("username", username);
+            }
+            return true;
+        } else {
+            throw new InvalidException("Username "+username+" is not unique.");
+        }
+    }
+
+    /**
+     * Returns the value of the first property with auth type username, or null if the schema has none.
+     */
+    public static String getUsername(JsonNode json, Map<String, JsonNode> pointerToSchemaMap) {
         for (Map.Entry<String, JsonNode> entry : pointerToSchemaMap.entrySet()) {
             String jsonPointer = entry.getKey();
             JsonNode subSchema = entry.getValue();
@@ -27,22 +45,11 @@ public class UserProcessor {
                 authNode = authNode.get("type");
             }
             if (authNode == null || !"username".equals(authNode.asText())) continue;
- 
-            JsonNode usernameNode = JsonUtil.getJsonAtPointer(jsonPointer, json);
-            String username = usernameNode.asText();
 
-            if (isUsernameUnique(username, handle)) {
-                if (co != null) {
-                    if (co.metadata == null) co.metadata = new CordraObject.Metadata();
-                    if (co.metadata.internalMetadata == null) co.metadata.internalMetadata = new JsonObject();
-                    co.metadata.internalMetadata.addProperty("username", username);
-                }
-                return true;
-            } else {
-                throw new InvalidException("Username "+username+" is not unique.");
-            }
+            JsonNode usernameNode = JsonUtil.getJsonAtPointer(jsonPointer, json);
+            return usernameNode.asText();
         }
-        return false;
+        return null;
     }
     
     public void preprocess(String handle, JsonNode json, Map<String, JsonNode> pointerToSchemaMap) throws CordraException, InvalidException {
@@ -18,6 +18,7 @@ public class AclEnforcer {
     private final CordraStorage storage;
     private final CordraIndexer indexer;
     private final AuthCache authCache;
+    private final GroupMembershipGraph groupMembershipGraph;
     private volatile AuthConfig authConfig;
 
     public enum Permission {
@@ -26,11 +27,12 @@ public class AclEnforcer {
         WRITE
     }
 
-    public AclEnforcer(CordraService cordra, CordraStorage storage, CordraIndexer indexer, AuthCache authCache) {
+    public AclEnforcer(CordraService cordra, CordraStorage storage, CordraIndexer indexer, AuthCache authCache, GroupMembershipGraph groupMembershipGraph) {
         this.cordra = cordra;
         this.storage = storage;
         this.indexer = indexer;
         this.authCache = authCache;
+        this.groupMembershipGraph = groupMembershipGraph;
     }
 
     public Permission permittedOperations(String userId, boolean hasUserObject, String objectId) throws CordraException {
@@ -208,6 +210,11 @@ public class AclEnforcer {
         if (cachedGroups != null) {
             return new ArrayList<>(cachedGroups);
         }
+        Set<String> groupsFromGraph = groupMembershipGraph == null ? null : groupMembershipGraph.getGroupsForMember(userId);
+        if (groupsFromGraph != null) {
+            authCache.setGroupsForUser(userId, groupsFromGraph);
+            return new ArrayList<>(groupsFromGraph);
+        }
         //String query = "users:\"" + userId + "\"";
         //List<String> res = indexer.searchHandles(query).stream().collect(Collectors.toList());
         Set<String> seen = new HashSet<>();
@@ -56,8 +56,9 @@ public class Authenticator {
     private final HandleResolver resolver;
     private final KeyPairAuthJtiChecker keyPairAuthJtiChecker;
     private final AuthenticatorBackOff authenticatorBackOff;
+    private final VerifiedCredentialsCache verifiedCredentialsCache;
 
-    public Authenticator(AdminPasswordCheckerInterface adminPasswordChecker, CordraService cordra, AuthCache authCache, KeyPairAuthJtiChecker keyPairAuthJtiChecker, Boolean enableAuthenticationBackOff) {
+    public Authenticator(AdminPasswordCheckerInterface adminPasswordChecker, CordraService cordra, AuthCache authCache, KeyPairAuthJtiChecker keyPairAuthJtiChecker, Boolean enableAuthenticationBackOff, VerifiedCredentialsCache verifiedCredentialsCache) {
         this.adminPasswordChecker = adminPasswordChecker;
         this.random = new SecureRandom();
         this.resolver = new HandleResolver();
@@ -65,6 +66,7 @@ public class Authenticator {
         this.authCache = authCache;
         this.keyPairAuthJtiChecker = keyPairAuthJtiChecker;
         authenticatorBackOff = new AuthenticatorBackOff(enableAuthenticationBackOff);
+        this.verifiedCredentialsCache = verifiedCredentialsCache;
     }
 
     // for testing CordraKeyPair (Bearer) authentication
@@ -85,6 +87,7 @@ public class Authenticator {
         this.authCache = null;
         this.keyPairAuthJtiChecker = new MemoryKeyPairAuthJtiChecker();
         authenticatorBackOff = new AuthenticatorBackOff(false);
+        verifiedCredentialsCache = null;
     }
 
     static Authenticator getAuthenticatorForTestingCordraKeyPairAuth(byte[] pubKeyBytes) throws Exception {
@@ -390,7 +393,35 @@ public class Authenticator {
         return checkCredentialsResponse;
     }
 
+    public void invalidateVerifiedCredentials(String userId) {
+        if (verifiedCredentialsCache != null) verifiedCredentialsCache.invalidate(userId);
+    }
+
+    public void invalidateAllVerifiedCredentials() {
+        if (verifiedCredentialsCache != null) verifiedCredentialsCache.invalidateAll();
+    }
+
+    public VerifiedCredentialsCache.Stats getVerifiedCredentialsCacheStats() {
+        if (verifiedCredentialsCache == null) return null;
+        return verifiedCredentialsCache.getStats();
+    }
+
     private CheckCredentialsResponse checkCredentials(HttpServletRequest req, String username, String password) throws CordraException, InvalidException {
+        // the internal admin password is only valid on the internal listener, so never cache it
+        boolean isCacheable = verifiedCredentialsCache != null && username != null && password != null
+            && !isPasswordChange(req) && !isInternalAdminCall(req, username, password);
+        if (!isCacheable) return verifyCredentials(req, username, password);
+        CheckCredentialsResponse cachedResponse = verifiedCredentialsCache.get(username, password);
+        if (cachedResponse != null) return cachedResponse;
+        long generation = verifiedCredentialsCache.getGeneration();
+        CheckCredentialsResponse response = verifyCredentials(req, username, password);
+        if (response.authResponse == AuthenticationResponse.SUCCESS) {
+            verifiedCredentialsCache.put(username, password, response, generation);
+        }
+        return response;
+    }
+
+    private CheckCredentialsResponse verifyCredentials(HttpServletRequest req, String username, String password) throws CordraException, InvalidException {
         if (isInternalAdminCall(req, username, password)) {
             String userId = "admin";
             username = "admin";
@@ -376,6 +376,8 @@ public class AuthorizationFilter implements Filter {
         if (servletPath.startsWith("/adminPassword") ||
             servletPath.startsWith("/updateHandles") ||
             servletPath.startsWith("/reindexBatch") ||
+            servletPath.startsWith("/reindexShadow") ||
+            servletPath.startsWith("/metrics") ||
             servletPath.startsWith("/uploadObjects")) {
             return true;
         } else {
@@ -0,0 +1,236 @@
+package net.cnri.cordra.auth;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import com.google.gson.JsonElement;
+
+import net.cnri.cordra.api.CordraObject;
+
+/**
+ * An in-memory graph of the users and groups in Cordra, which keeps the {@link AuthCache} up to date.
+ *
+ * <p>The graph is built in full at startup (see {@link #startBuild} and {@link #finishBuild}).  After that, each
+ * change to a user or group updates only the edges of the changed object, and recomputes the groups of only those
+ * users and groups which could reach the changed object before or after the change.
+ *
+ * <p>Until the first build finishes, changes clear the {@link AuthCache} instead, as it may hold stale values which
+ * the graph does not yet know about.  Changes made while a build is in progress are recorded so that the caller can
+ * apply them again to the newly built graph.
+ */
+public class GroupMembershipGraph {
+
+    private final AuthCache authCache;
+    private Map<String, Set<String>> groupsForMember = new HashMap<>();
+    private Map<String, Set<String>> membersForGroup = new HashMap<>();
+    private Map<String, String> usernameForUser = new HashMap<>();
+    private boolean isBuilt = false;
+    private Set<String> changedDuringBuild = null;
+
+    public GroupMembershipGraph(AuthCache authCache) {
+        this.authCache = authCache;
+    }
+
+    public synchronized boolean isBuilt() {
+        return isBuilt;
+    }
+
+    /**
+     * Starts recording changed objects; must be called before the objects for a build are read.
+     */
+    public synchronized Builder startBuild() {
+        changedDuringBuild = new HashSet<>();
+        return new Builder();
+    }
+
+    /**
+     * Replaces the graph with the built one and pushes all of it into the {@link AuthCache}.
+     *
+     * @return the ids of the objects changed since {@link #startBuild}, which the caller should load again and pass to {@link #update}
+     */
+    public synchronized Set<String> finishBuild(Builder builder) {
+        this.groupsForMember = builder.groupsForMember;
+        this.membersForGroup = builder.membersForGroup;
+        this.usernameForUser = builder.usernameForUser;
+        this.isBuilt = true;
+        authCache.clearAllGroupsForUserValues();
+        pushAllUsernames();
+        for (String memberId : groupsForMember.keySet()) {
+            authCache.setGroupsForUser(memberId, getGroupsForMemberRecursive(memberId));
+        }
+        Set<String> changed = changedDuringBuild;
+        changedDuringBuild = null;
+        if (changed == null) return Collections.emptySet();
+        return changed;
+    }
+
+    public synchronized void abortBuild() {
+        changedDuringBuild = null;
+    }
+
+    /**
+     * Marks the graph as out of date, for when the changed objects are not known, and clears the {@link AuthCache}.
+     * Changes clear the {@link AuthCache} until the next build finishes.
+     */
+    public synchronized void invalidate() {
+        isBuilt = false;
+        authCache.clearAllGroupsForUserValues();
+        authCache.clearAllUserIdForUsernameValues();
+    }
+
+    /**
+     * Returns the groups of the given user or group, including groups of groups, or null if the graph has not been built.
+     */
+    public synchronized Set<String> getGroupsForMember(String memberId) {
+        if (!isBuilt) return null;
+        return getGroupsForMemberRecursive(memberId);
+    }
+
+    /**
+     * Updates the graph and the {@link AuthCache} for a created or updated object.
+     */
+    public synchronized void update(CordraObject co) {
+        applyChange(co.id, getUsername(co), getUsers(co));
+    }
+
+    /**
+     * Updates the graph and the {@link AuthCache} for a deleted object.  Groups which still list the deleted
+     * object keep it as a member, as they would after a full build.
+     */
+    public synchronized void remove(String id) {
+        applyChange(id, null, Collections.emptySet());
+    }
+
+    private void applyChange(String id, String username, Set<String> users) {
+        if (changedDuringBuild != null) changedDuringBuild.add(id);
+        if (!isBuilt) {
+            authCache.clearAllGroupsForUserValues();
+            authCache.clearAllUserIdForUsernameValues();
+            return;
+        }
+        updateUsername(id, username);
+        Set<String> oldUsers = membersForGroup.getOrDefault(id, Collections.emptySet());
+        if (oldUsers.equals(users)) return;
+        Set<String> affected = getMembersForGroupRecursive(id);
+        for (String member : oldUsers) {
+            removeEdge(groupsForMember, member, id);
+        }
+        for (String member : users) {
+            addEdge(groupsForMember, member, id);
+        }
+        if (users.isEmpty()) {
+            membersForGroup.remove(id);
+        } else {
+            membersForGroup.put(id, new HashSet<>(users));
+        }
+        affected.addAll(getMembersForGroupRecursive(id));
+        for (String memberId : affected) {
+            authCache.setGroupsForUser(memberId, getGroupsForMemberRecursive(memberId));
+        }
+    }
+
+    private void updateUsername(String id, String username) {
+        String oldUsername = usernameForUser.get(id);
+        if (Objects.equals(oldUsername, username)) return;
+        if (username == null) {
+            usernameForUser.remove(id);
+        } else {
+            usernameForUser.put(id, username);
+        }
+        if (oldUsername == null) {
+            authCache.setUserIdForUsername(username, id);
+        } else {
+            // the cache may also hold the old username under other cases, so start over
+            pushAllUsernames();
+        }
+    }
+
+    private void pushAllUsernames() {
+        authCache.clearAllUserIdForUsernameValues();
+        for (Map.Entry<String, String> entry : usernameForUser.entrySet()) {
+            authCache.setUserIdForUsername(entry.getValue(), entry.getKey());
+        }
+    }
+
+    private Set<String> getGroupsForMemberRecursive(String memberId) {
+        return traverse(memberId, groupsForMember);
+    }
+
+    private Set<String> getMembersForGroupRecursive(String groupId) {
+        return traverse(groupId, membersForGroup);
+    }
+
+    private static Set<String> traverse(String start, Map<String, Set<String>> edges) {
+        Set<String> result = new LinkedHashSet<>();
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            Set<String> next = edges.get(queue.remove());
+            if (next == null) continue;
+            for (String id : next) {
+                if (result.add(id)) queue.add(id);
+            }
+        }
+        return result;
+    }
+
+    private static void addEdge(Map<String, Set<String>> edges, String from, String to) {
+        edges.computeIfAbsent(from, unused -> new HashSet<>()).add(to);
+    }
+
+    private static void removeEdge(Map<String, Set<String>> edges, String from, String to) {
+        Set<String> set = edges.get(from);
+        if (set == null) return;
+        set.remove(to);
+        if (set.isEmpty()) edges.remove(from);
+    }
+
+    static String getUsername(CordraObject co) {
+        if (co.metadata == null || co.metadata.internalMetadata == null) return null;
+        JsonElement username = co.metadata.internalMetadata.get("username");
+        if (username == null) return null;
+        return username.getAsString();
+    }
+
+    static Set<String> getUsers(CordraObject co) {
+        if (co.metadata == null || co.metadata.internalMetadata == null) return Collections.emptySet();
+        JsonElement users = co.metadata.internalMetadata.get("users");
+        if (users == null) return Collections.emptySet();
+        Set<String> result = new HashSet<>();
+        for (String member : users.getAsString().split("\n")) {
+            if (member.isEmpty()) continue;
+            result.add(member);
+        }
+        return result;
+    }
+
+    /**
+     * Accumulates the users and groups for a full build, outside the lock on the graph.
+     */
+    public static class Builder {
+        private final Map<String, Set<String>> groupsForMember = new HashMap<>();
+        private final Map<String, Set<String>> membersForGroup = new HashMap<>();
+        private final Map<String, String> usernameForUser = new HashMap<>();
+
+        private Builder() { }
+
+        public void add(CordraObject co) {
+            String username = getUsername(co);
+            if (username != null) usernameForUser.put(co.id, username);
+            Collection<String> users = getUsers(co);
+            if (users.isEmpty()) return;
+            membersForGroup.put(co.id, new HashSet<>(users));
+            for (String member : users) {
+                addEdge(groupsForMember, member, co.id);
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package net.cnri.cordra.auth;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import net.cnri.cordra.auth.Authenticator.CheckCredentialsResponse;
+import net.cnri.cordra.model.CordraConfig;
+
+/**
+ * A short-lived cache of successful username and password verifications, so that clients which send the same
+ * credentials on every request do not pay for a password hash each time.
+ *
+ * <p>Entries are keyed by an HMAC of the username and password under a secret generated for this process, so
+ * neither passwords nor unkeyed hashes of them are held in memory.  Only successes are cached; failed attempts are
+ * verified (and backed off) as usual.
+ *
+ * <p>Entries are invalidated per user id when the user changes, using striped counters as in
+ * {@code CachingCordraStorage}.  As the user id is not known until the user object has been read, a verification
+ * which overlapped the invalidation of any user is not cached at all.
+ */
+public class VerifiedCredentialsCache {
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final int INVALIDATION_STRIPES = 1024;
+
+    private final Cache<ByteBuffer, Entry> cache;
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs;
+    private final AtomicLongArray invalidationCounters = new AtomicLongArray(INVALIDATION_STRIPES);
+    private final AtomicLong generation = new AtomicLong();
+
+    private static class Entry {
+        final CheckCredentialsResponse response;
+        final long counter;
+
+        Entry(CheckCredentialsResponse response, long counter) {
+            this.response = response;
+            this.counter = counter;
+        }
+    }
+
+    public VerifiedCredentialsCache(CordraConfig.CredentialCache config) {
+        CordraConfig.CredentialCache defaults = new CordraConfig.CredentialCache();
+        long ttlMs = config.ttlMs == null ? defaults.ttlMs : config.ttlMs;
+        long maxSize = config.maxSize == null ? defaults.maxSize : config.maxSize;
+        this.cache = CacheBuilder.newBuilder()
+            .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS)
+            .maximumSize(maxSize)
+            .recordStats()
+            .build();
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        this.key = new SecretKeySpec(secret, HMAC_ALGORITHM);
+        this.macs = ThreadLocal.withInitial(this::newMac);
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the generation to pass to {@link #put}; must be called before the user object is read.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    public CheckCredentialsResponse get(String username, String password) {
+        ByteBuffer cacheKey = keyFor(username, password);
+        Entry entry = cache.getIfPresent(cacheKey);
+        if (entry == null) return null;
+        if (invalidationCounters.get(stripe(entry.response.userId)) != entry.counter) {
+            cache.invalidate(cacheKey);
+            return null;
+        }
+        return entry.response;
+    }
+
+    public void put(String username, String password, CheckCredentialsResponse response, long generationBeforeVerification) {
+        if (response.userId == null) return;
+        // read the stripe before checking the generation; invalidate() increments them in the opposite order
+        long counter = invalidationCounters.get(stripe(response.userId));
+        if (generation.get() != generationBeforeVerification) return;
+        cache.put(keyFor(username, password), new Entry(response, counter));
+    }
+
+    /**
+     * Makes all cached verifications for the given user id unusable.  Other users sharing the stripe are also
+     * affected, which only costs them a fresh verification.
+     */
+    public void invalidate(String userId) {
+        if (userId == null) return;
+        generation.incrementAndGet();
+        invalidationCounters.incrementAndGet(stripe(userId));
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        for (int i = 0; i < INVALIDATION_STRIPES; i++) {
+            invalidationCounters.incrementAndGet(i);
+        }
+        cache.invalidateAll();
+    }
+
+    private ByteBuffer keyFor(String username, String password) {
+        byte[] usernameBytes = username.getBytes(StandardCharsets.UTF_8);
+        byte[] passwordBytes = password.getBytes(StandardCharsets.UTF_8);
+        Mac mac = macs.get();
+        // length prefix so that distinct username and password pairs never produce the same input
+        mac.update(ByteBuffer.allocate(4).putInt(usernameBytes.length).array());
+        mac.update(usernameBytes);
+        mac.update(passwordBytes);
+        return ByteBuffer.wrap(mac.doFinal());
+    }
+
+    private static int stripe(String userId) {
+        return (userId.hashCode() & 0x7FFFFFFF) % INVALIDATION_STRIPES;
+    }
+
+    public Stats getStats() {
+        CacheStats cacheStats = cache.stats();
+        Stats stats = new Stats();
+        stats.size = cache.size();
+        stats.hitCount = cacheStats.hitCount();
+        stats.missCount = cacheStats.missCount();
+        stats.hitRate = cacheStats.hitRate();
+        return stats;
+    }
+
+    public static class Stats {
+        public long size;
+        public long hitCount;
+        public long missCount;
+        public double hitRate;
+    }
+}
@@ -0,0 +1,44 @@
+/*************************************************************************\
+    Copyright (c) 2019 Corporation for National Research Initiatives;
+                        All rights reserved.
+\*************************************************************************/
+
+package net.cnri.cordra.collections;
+
+import com.google.gson.Gson;
+
+import net.cnri.cordra.GsonUtility;
+
+/**
+ * Stores values as JSON text, the original {@link PersistentMap} format.  Records written by
+ * {@link SmilePersistentMapCodec} are also readable, so this codec can be used to migrate back to JSON.
+ */
+public class JsonPersistentMapCodec<V> implements PersistentMapCodec<V> {
+    private final Class<V> valueClass;
+    private final Gson gson;
+
+    public JsonPersistentMapCodec(Class<V> valueClass) {
+        this.valueClass = valueClass;
+        this.gson = GsonUtility.getGson();
+    }
+
+    @Override
+    public byte[] encode(V value) {
+        return PersistentMap.toByteArray(gson.toJson(value));
+    }
+
+    @Override
+    public V decode(byte[] bytes) {
+        if (SmilePersistentMapCodec.isBinary(bytes)) {
+            return gson.fromJson(SmilePersistentMapCodec.fromBytes(bytes), valueClass);
+        } else {
+            return gson.fromJson(PersistentMap.stringFromByteArray(bytes), valueClass);
+        }
+    }
+
+    @Override
+    public byte[] reencode(byte[] bytes) {
+        if (!SmilePersistentMapCodec.isBinary(bytes)) return null;
+        return PersistentMap.toByteArray(gson.toJson(SmilePersistentMapCodec.fromBytes(bytes)));
+    }
+}
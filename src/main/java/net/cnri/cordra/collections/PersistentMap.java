@@ -5,15 +5,15 @@
 
 package net.cnri.cordra.collections;
 
-import com.google.gson.Gson;
 import com.sleepycat.je.*;
-import net.cnri.cordra.GsonUtility;
 import net.cnri.microservices.ConcurrentCountingHashMap;
 
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
 
 public class PersistentMap<K, V> extends AbstractMap<K, V> implements Map<K,V>, ConcurrentMap<K, V>, Closeable {
     private static Object environmentsLock = new Object();
@@ -21,11 +21,13 @@ public class PersistentMap<K, V> extends AbstractMap<K, V> implements Map<K,V>,
     private static ConcurrentCountingHashMap<String> databasesOpen = new ConcurrentCountingHashMap<>();
 
     private String path;
+    private String dbName;
+    private boolean readOnly;
     private Environment dbEnvironment = null;
     private Database db = null;
+    private final ConcurrentMap<String, SecondaryDatabase> longIndexes = new ConcurrentHashMap<>();
     private Class<K> keyClass;
-    private Class<V> valueClass;
-    private Gson gson;
+    private PersistentMapCodec<V> codec;
     private static final String DEFAULT_DB_NAME = "persistentMap";
 
     transient volatile CloseableSet<Map.Entry<K, V>> entrySet;
@@ -37,9 +39,18 @@ public class PersistentMap<K, V> extends AbstractMap<K, V> implements Map<K,V>,
     }
 
     public PersistentMap(File dir, String dbName, Class<K> keyClass, Class<V> valueClass, boolean readOnly) {
-        this.gson = GsonUtility.getGson();
+        this(dir, dbName, keyClass, new SmilePersistentMapCodec<>(valueClass), readOnly);
+    }
+
+    /**
+     * Constructs a PersistentMap which uses the given codec to store values.  The default codec is
+     * {@link SmilePersistentMapCodec}.
+     */
+    public PersistentMap(File dir, String dbName, Class<K> keyClass, PersistentMapCodec<V> codec, boolean readOnly) {
         this.keyClass = keyClass;
-        this.valueClass = valueClass;
+        this.codec = codec;
+        this.dbName = dbName;
+        this.readOnly = readOnly;
         path = dir.getAbsolutePath();
         dbEnvironment = getOrCreateEnvironment(dir, readOnly);
         DatabaseConfig dbConfig = new DatabaseConfig();
@@ -84,8 +95,48 @@ public class PersistentMap<K, V> extends AbstractMap<K, V> implements Map<K,V>,
         }
     }
 
+    /**
+     * Opens a secondary index of this map's values by a long key computed from each value, creating and populating
+     * it if it does not yet exist.  Values for which the function returns null are not indexed.  Once opened, the
+     * index is kept up to date by every change made through this map.
+     *
+     * @param indexName the name of the index, unique for this map
+     * @param indexKeyFunction computes the (non-negative) index key of a value, or null
+     */
+    public void openLongIndex(String indexName, Function<V, Long> indexKeyFunction) {
+        SecondaryConfig secConfig = new SecondaryConfig();
+        secConfig.setAllowCreate(!readOnly);
+        secConfig.setAllowPopulate(!readOnly);
+        secConfig.setTransactional(true);
+        secConfig.setReadOnly(readOnly);
+        secConfig.setSortedDuplicates(true);
+        secConfig.setKeyCreator((secondary, key, data, result) -> {
+            Long indexKey = indexKeyFunction.apply(toValue(data));
+            if (indexKey == null) return false;
+            result.setData(toByteArray(indexKey.longValue()));
+            return true;
+        });
+        SecondaryDatabase secDb = dbEnvironment.openSecondaryDatabase(null, dbName + "." + indexName, db, secConfig);
+        SecondaryDatabase existing = longIndexes.put(indexName, secDb);
+        if (existing != null) existing.close();
+    }
+
+    /**
+     * Returns an iterator over the values whose key in the given index, opened with {@link #openLongIndex}, is
+     * greater than the given key, in order of index key.  The iterator must be closed.
+     */
+    public CloseableIterator<V> valuesWithIndexKeyGreaterThan(String indexName, long indexKey) {
+        SecondaryDatabase secDb = longIndexes.get(indexName);
+        if (secDb == null) throw new IllegalStateException("Index not open: " + indexName);
+        return new IndexValuesIterator(secDb, indexKey);
+    }
+
     @Override
     public void close() {
+        for (SecondaryDatabase secDb : longIndexes.values()) {
+            secDb.close();
+        }
+        longIndexes.clear();
         db.close();
         synchronized (environmentsLock) {
             int leftOpen = databasesOpen.decrementAndGet(path);
@@ -96,6 +147,64 @@ public class PersistentMap<K, V> extends AbstractMap<K, V> implements Map<K,V>,
         }
     }
 
+    /**
+     * Rewrites in place every stored value which is not in the format written by this map's codec,
+     * for example JSON records after switching to {@link SmilePersistentMapCodec}.
+     * Each batch of records is rewritten in its own transaction.
+     *
+     * @param batchSize the number of records to examine per transaction
+     * @param progress if not null, called after each batch with the total number of records examined
+     * @return the number of records rewritten
+     */
+    public long reencodeValues(int batchSize, LongConsumer progress) {
+        if (batchSize <= 0) throw new IllegalArgumentException("batchSize must be positive");
+        long rewritten = 0;
+        long examined = 0;
+        byte[] lastKey = null;
+        boolean done = false;
+        while (!done) {
+            Transaction txn = dbEnvironment.beginTransaction(null, null);
+            try {
+                Cursor cursor = db.openCursor(txn, null);
+                try {
+                    DatabaseEntry key = new DatabaseEntry();
+                    DatabaseEntry data = new DatabaseEntry();
+                    OperationStatus status;
+                    if (lastKey == null) {
+                        status = cursor.getFirst(key, data, LockMode.RMW);
+                    } else {
+                        key.setData(lastKey);
+                        status = cursor.getSearchKeyRange(key, data, LockMode.RMW);
+                        if (status == OperationStatus.SUCCESS && Arrays.equals(lastKey, key.getData())) {
+                            status = cursor.getNext(key, data, LockMode.RMW);
+                        }
+                    }
+                    int count = 0;
+                    while (status == OperationStatus.SUCCESS && count < batchSize) {
+                        byte[] reencoded = codec.reencode(data.getData());
+                        if (reencoded != null) {
+                            cursor.putCurrent(new DatabaseEntry(reencoded));
+                            rewritten++;
+                        }
+                        lastKey = key.getData().clone();
+                        count++;
+                        examined++;
+                        if (count < batchSize) status = cursor.getNext(key, data, LockMode.RMW);
+                    }
+                    if (status != OperationStatus.SUCCESS) done = true;
+                } finally {
+                    cursor.close();
+                }
+                txn.commit();
+            } catch (Exception e) {
+                txn.abort();
+                throw e;
+            }
+            if (progress != null) progress.accept(examined);
+        }
+        return rewritten;
+    }
+
     @Override
     public CloseableSet<java.util.Map.Entry<K, V>> entrySet() {
         return new EntrySet();
@@ -165,6 +274,23 @@ public class PersistentMap<K, V> extends AbstractMap<K, V> implements Map<K,V>,
         return res;
     }
 
+    /**
+     * Stores all the given entries in a single transaction.
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        Transaction txn = dbEnvironment.beginTransaction(null, null);
+        try {
+            for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+                db.put(txn, fromKey(entry.getKey()), fromValue(entry.getValue()));
+            }
+            txn.commit();
+        } catch (Exception e) {
+            txn.abort();
+            throw e;
+        }
+    }
+
     @Override
     public V remove(Object key) {
         Transaction txn = dbEnvironment.beginTransaction(null, null);
@@ -545,6 +671,53 @@ public class PersistentMap<K, V> extends AbstractMap<K, V> implements Map<K,V>,
         }
     }
 
+    private class IndexValuesIterator implements CloseableIterator<V> {
+        private SecondaryCursor cursor;
+        private DatabaseEntry secKey = new DatabaseEntry();
+        private DatabaseEntry key = new DatabaseEntry();
+        private DatabaseEntry data = new DatabaseEntry();
+        private boolean done = false;
+
+        public IndexValuesIterator(SecondaryDatabase secDb, long indexKey) {
+            cursor = secDb.openCursor(null, null);
+            OperationStatus status;
+            if (indexKey < 0) {
+                status = cursor.getFirst(secKey, key, data, null);
+            } else if (indexKey == Long.MAX_VALUE) {
+                status = OperationStatus.NOTFOUND;
+            } else {
+                secKey.setData(toByteArray(indexKey + 1));
+                status = cursor.getSearchKeyRange(secKey, key, data, null);
+            }
+            if (status != OperationStatus.SUCCESS) {
+                done = true;
+                cursor.close();
+            }
+        }
+
+        @Override
+        public void close() {
+            cursor.close();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !done;
+        }
+
+        @Override
+        public V next() {
+            if (done) throw new NoSuchElementException();
+            V res = toValue(data);
+            OperationStatus status = cursor.getNext(secKey, key, data, null);
+            if (status != OperationStatus.SUCCESS) {
+                done = true;
+                cursor.close();
+            }
+            return res;
+        }
+    }
+
     @SuppressWarnings("unchecked")
     K toKey(DatabaseEntry keyDatabaseEntry) {
         if (keyClass == Integer.class) {
@@ -571,11 +744,11 @@ public class PersistentMap<K, V> extends AbstractMap<K, V> implements Map<K,V>,
     }
 
     V toValue(DatabaseEntry valueDatabaseEntry) {
-        return gson.fromJson(stringFromByteArray(valueDatabaseEntry.getData()), valueClass);
+        return codec.decode(valueDatabaseEntry.getData());
     }
 
     DatabaseEntry fromValue(V value) {
-        return new DatabaseEntry(toByteArray(gson.toJson(value)));
+        return new DatabaseEntry(codec.encode(value));
     }
 
     Map.Entry<K, V> toEntry(DatabaseEntry keyDatabaseEntry, DatabaseEntry valueDatabaseEntry) {
@@ -0,0 +1,24 @@
+/*************************************************************************\
+    Copyright (c) 2019 Corporation for National Research Initiatives;
+                        All rights reserved.
+\*************************************************************************/
+
+package net.cnri.cordra.collections;
+
+/**
+ * Converts the values of a {@link PersistentMap} to and from the bytes stored in the database.
+ */
+public interface PersistentMapCodec<V> {
+
+    byte[] encode(V value);
+
+    V decode(byte[] bytes);
+
+    /**
+     * Converts stored bytes, possibly written by a different codec, into the format written by this codec.
+     * Used to migrate existing records in place.
+     *
+     * @return the re-encoded bytes, or null if the bytes are already in this codec's format
+     */
+    byte[] reencode(byte[] bytes);
+}
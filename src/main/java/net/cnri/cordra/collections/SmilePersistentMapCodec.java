@@ -0,0 +1,192 @@
+/*************************************************************************\
+    Copyright (c) 2019 Corporation for National Research Initiatives;
+                        All rights reserved.
+\*************************************************************************/
+
+package net.cnri.cordra.collections;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import net.cnri.cordra.GsonUtility;
+
+/**
+ * Stores values in the Smile binary JSON format, with repeated field names and short string values written
+ * as back-references.  Each record starts with a format version byte; since JSON text never starts with a
+ * byte below 0x09, records written by {@link JsonPersistentMapCodec} are still readable.
+ */
+public class SmilePersistentMapCodec<V> implements PersistentMapCodec<V> {
+    static final byte FORMAT_VERSION = 1;
+    // bytes below this value at the start of a record indicate a binary format version rather than JSON text
+    private static final byte MAX_FORMAT_VERSION_BYTE = 0x08;
+
+    private static final SmileFactory SMILE_FACTORY = new SmileFactory()
+        .enable(SmileGenerator.Feature.CHECK_SHARED_NAMES)
+        .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES);
+
+    private final Class<V> valueClass;
+    private final Gson gson;
+
+    public SmilePersistentMapCodec(Class<V> valueClass) {
+        this.valueClass = valueClass;
+        this.gson = GsonUtility.getGson();
+    }
+
+    @Override
+    public byte[] encode(V value) {
+        return toBytes(gson.toJsonTree(value));
+    }
+
+    @Override
+    public V decode(byte[] bytes) {
+        if (isBinary(bytes)) {
+            return gson.fromJson(fromBytes(bytes), valueClass);
+        } else {
+            return gson.fromJson(PersistentMap.stringFromByteArray(bytes), valueClass);
+        }
+    }
+
+    @Override
+    public byte[] reencode(byte[] bytes) {
+        if (isBinary(bytes)) return null;
+        return toBytes(new com.google.gson.JsonParser().parse(PersistentMap.stringFromByteArray(bytes)));
+    }
+
+    static boolean isBinary(byte[] bytes) {
+        if (bytes.length == 0) return false;
+        byte first = bytes[0];
+        if (first == FORMAT_VERSION) return true;
+        if (first >= 0 && first <= MAX_FORMAT_VERSION_BYTE) {
+            throw new IllegalStateException("Unknown PersistentMap value format version " + first);
+        }
+        return false;
+    }
+
+    static byte[] toBytes(JsonElement element) {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        bout.write(FORMAT_VERSION);
+        try (JsonGenerator gen = SMILE_FACTORY.createGenerator(bout)) {
+            writeElement(gen, element);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bout.toByteArray();
+    }
+
+    static JsonElement fromBytes(byte[] bytes) {
+        try (JsonParser parser = SMILE_FACTORY.createParser(bytes, 1, bytes.length - 1)) {
+            JsonToken token = parser.nextToken();
+            if (token == null) return JsonNull.INSTANCE;
+            return readElement(parser, token);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeElement(JsonGenerator gen, JsonElement element) throws IOException {
+        if (element == null || element.isJsonNull()) {
+            gen.writeNull();
+        } else if (element.isJsonObject()) {
+            gen.writeStartObject();
+            for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+                gen.writeFieldName(entry.getKey());
+                writeElement(gen, entry.getValue());
+            }
+            gen.writeEndObject();
+        } else if (element.isJsonArray()) {
+            gen.writeStartArray();
+            for (JsonElement child : element.getAsJsonArray()) {
+                writeElement(gen, child);
+            }
+            gen.writeEndArray();
+        } else {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                gen.writeBoolean(primitive.getAsBoolean());
+            } else if (primitive.isString()) {
+                gen.writeString(primitive.getAsString());
+            } else {
+                writeNumber(gen, primitive.getAsNumber());
+            }
+        }
+    }
+
+    private static void writeNumber(JsonGenerator gen, Number number) throws IOException {
+        if (number instanceof Integer || number instanceof Short || number instanceof Byte) {
+            gen.writeNumber(number.intValue());
+        } else if (number instanceof Long) {
+            gen.writeNumber(number.longValue());
+        } else if (number instanceof Double || number instanceof Float) {
+            gen.writeNumber(number.doubleValue());
+        } else if (number instanceof BigInteger) {
+            gen.writeNumber((BigInteger) number);
+        } else if (number instanceof BigDecimal) {
+            gen.writeNumber((BigDecimal) number);
+        } else {
+            // LazilyParsedNumber from parsed JSON text; keep the exact value
+            String s = number.toString();
+            if (s.indexOf('.') < 0 && s.indexOf('e') < 0 && s.indexOf('E') < 0) {
+                BigInteger bigInteger = new BigInteger(s);
+                if (bigInteger.bitLength() < 64) {
+                    gen.writeNumber(bigInteger.longValue());
+                } else {
+                    gen.writeNumber(bigInteger);
+                }
+            } else {
+                gen.writeNumber(new BigDecimal(s));
+            }
+        }
+    }
+
+    private static JsonElement readElement(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+        case START_OBJECT:
+            JsonObject obj = new JsonObject();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                obj.add(name, readElement(parser, parser.nextToken()));
+            }
+            return obj;
+        case START_ARRAY:
+            JsonArray array = new JsonArray();
+            JsonToken next;
+            while ((next = parser.nextToken()) != JsonToken.END_ARRAY) {
+                array.add(readElement(parser, next));
+            }
+            return array;
+        case VALUE_STRING:
+            return new JsonPrimitive(parser.getText());
+        case VALUE_NUMBER_INT:
+            return new JsonPrimitive(parser.getNumberValue());
+        case VALUE_NUMBER_FLOAT:
+            if (parser.getNumberType() == JsonParser.NumberType.BIG_DECIMAL) {
+                return new JsonPrimitive(parser.getDecimalValue());
+            }
+            return new JsonPrimitive(parser.getNumberValue());
+        case VALUE_TRUE:
+            return new JsonPrimitive(Boolean.TRUE);
+        case VALUE_FALSE:
+            return new JsonPrimitive(Boolean.FALSE);
+        case VALUE_NULL:
+            return JsonNull.INSTANCE;
+        default:
+            throw new IOException("Unexpected token " + token);
+        }
+    }
+}
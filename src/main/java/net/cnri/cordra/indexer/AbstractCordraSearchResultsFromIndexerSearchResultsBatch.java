@@ -1,8 +1,10 @@
 package net.cnri.cordra.indexer;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import net.cnri.cordra.api.CordraException;
 import net.cnri.cordra.api.CordraObject;
@@ -18,7 +20,7 @@ public abstract class AbstractCordraSearchResultsFromIndexerSearchResultsBatch<T
     private final Class<T> klass;
 
     private final int batchSize = 1000;
-    private SearchResults<CordraObject> batch = null;
+    private List<CordraObject> batch = null;
     private Iterator<CordraObject> batchIter = null;
 
     public AbstractCordraSearchResultsFromIndexerSearchResultsBatch(SearchResults<Doc> results, CordraStorage storage, Class<T> klass) {
@@ -29,40 +31,50 @@ public abstract class AbstractCordraSearchResultsFromIndexerSearchResultsBatch<T
     }
 
     private void getNextBatch() {
-        try {
-            if (batch != null) {
-                batch.close();
-            }
-            List<String> idBatch = readNextBatchOfIdsFromResultsIter();
-            batch = storage.get(idBatch);
-            batchIter = batch.iterator();
-        } catch (CordraException e) {
-            throw new UncheckedCordraException(e);
-        }
-    }
-
-    private List<String> readNextBatchOfIdsFromResultsIter() {
         List<String> idBatch = new ArrayList<>();
+        List<CordraObject> fromIndex = new ArrayList<>();
         for (int i = 0; i < batchSize; i++) {
             if (!searchResultsIter.hasNext()) {
                  break;
             }
-            String id = readNextId();
-            idBatch.add(id);
+            Doc from = searchResultsIter.next();
+            idBatch.add(getIdFromDocument(from));
+            fromIndex.add(getCordraObjectFromDocument(from));
         }
-        return idBatch;
-    }
-
-    private String readNextId() {
-       if (!searchResultsIter.hasNext()) return null;
-       Doc from = searchResultsIter.next();
-       String id = getIdFromDocument(from);
-       return id;
+        List<String> idsFromStorage = new ArrayList<>();
+        for (int i = 0; i < idBatch.size(); i++) {
+            if (fromIndex.get(i) == null) idsFromStorage.add(idBatch.get(i));
+        }
+        Map<String, CordraObject> fromStorage = new HashMap<>();
+        if (!idsFromStorage.isEmpty()) {
+            try (SearchResults<CordraObject> storageResults = storage.get(idsFromStorage)) {
+                for (CordraObject co : storageResults) {
+                    fromStorage.put(co.id, co);
+                }
+            } catch (CordraException e) {
+                throw new UncheckedCordraException(e);
+            }
+        }
+        batch = new ArrayList<>();
+        for (int i = 0; i < idBatch.size(); i++) {
+            CordraObject co = fromIndex.get(i);
+            if (co == null) co = fromStorage.get(idBatch.get(i));
+            if (co != null) batch.add(co);
+        }
+        batchIter = batch.iterator();
     }
 
     abstract public String getIdFromDocument(Doc document);
     abstract public String getTypeFromDocument(Doc document);
 
+    /**
+     * Returns the object built from source stored in the index document, if available and current,
+     * otherwise null, in which case the object is read from storage.
+     */
+    public CordraObject getCordraObjectFromDocument(@SuppressWarnings("unused") Doc document) {
+        return null;
+    }
+
     @Override
     public int size() {
         return results.size();
@@ -113,8 +125,5 @@ public abstract class AbstractCordraSearchResultsFromIndexerSearchResultsBatch<T
     @Override
     protected void closeOnlyOnce() {
         results.close();
-        if (batch != null) {
-            batch.close();
-        }
     }
 }
@@ -61,7 +61,97 @@ public interface CordraIndexer {
 
     public SearchResults<IdType> searchIdType(String query, QueryParams params) throws IndexerException;
 
+    /**
+     * Searches as {@link #search(String, QueryParams)}, for results which are only returned to clients.  If the
+     * indexer stores source (see {@link DocumentBuilder#setStoreSource(boolean)}), these results may be built from it;
+     * they then lack internal metadata, and may lag storage until the index is next refreshed.
+     */
+    public default SearchResults<CordraObject> searchForResponse(String query, QueryParams params) throws IndexerException {
+        return search(query, params);
+    }
+
     public void ensureIndexUpToDate() throws IndexerException;
 
+    /**
+     * Ensures that a write which produced the given txnId (and which completed before this call) is visible to
+     * subsequent searches.  Unlike {@link #ensureIndexUpToDate()}, implementations may return without refreshing
+     * if the index is already known to reflect the write.
+     *
+     * @param txnId the txnId returned to the client by its write
+     */
+    public default void ensureIndexUpToDate(long txnId) throws IndexerException {
+        ensureIndexUpToDate();
+    }
+
+    /**
+     * Makes the writes which completed before this call durable, so that they survive a restart of the indexer.
+     * Used before saving a reindex checkpoint, which must not run ahead of what the index will still hold.
+     */
+    public default void commit() throws IndexerException {
+        // writes are durable when they complete
+    }
+
+    /**
+     * Returns the highest txnId of any object in the index, or null if the index has none or the indexer cannot
+     * determine it.  Used as the watermark of an incremental reindex: objects with a higher txnId in storage are
+     * missing from the index or stale.
+     */
+    public default Long getHighestIndexedTxnId() throws IndexerException {
+        return null;
+    }
+
+    /**
+     * Returns whether this indexer can rebuild the index into a shadow index while searches continue to use the
+     * live index; see {@link #startShadowIndex()}.
+     */
+    public default boolean isShadowIndexSupported() {
+        return false;
+    }
+
+    /**
+     * Creates a new, empty shadow index beside the live index.  Once this returns, and until the shadow index is
+     * swapped in or discarded, every write to the index (including writes by other instances sharing it) also goes
+     * to the shadow index; searches use only the live index.
+     */
+    public default void startShadowIndex() throws IndexerException {
+        throw new IndexerException("Shadow index not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Returns whether a shadow index exists, possibly started by another instance sharing the index.
+     */
+    public default boolean hasShadowIndex() throws IndexerException {
+        return false;
+    }
+
+    /**
+     * Indexes a batch of objects into the shadow index only.
+     */
+    public default void indexObjectsInShadowIndex(String cordraServiceId, List<CordraObjectWithIndexDetails> batch) throws IndexerException {
+        throw new IndexerException("Shadow index not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Makes the shadow index the live index, in a single step as far as searches are concerned, and deletes the
+     * previous live index.
+     */
+    public default void swapShadowIndex() throws IndexerException {
+        throw new IndexerException("Shadow index not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Deletes the shadow index, leaving the live index as it is.
+     */
+    public default void discardShadowIndex() throws IndexerException {
+        throw new IndexerException("Shadow index not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Returns statistics for metrics reporting, or null if the indexer keeps none.
+     */
+    public default Object getStats() {
+        return null;
+    }
+
     public void close() throws IOException;
 }
@@ -80,11 +80,66 @@ public class DelegatingCordraIndexer implements CordraIndexer {
         return delegate.searchIdType(query, params);
     }
 
+    @Override
+    public SearchResults<CordraObject> searchForResponse(String query, QueryParams params) throws IndexerException {
+        return delegate.searchForResponse(query, params);
+    }
+
     @Override
     public void ensureIndexUpToDate() throws IndexerException {
         delegate.ensureIndexUpToDate();
     }
 
+    @Override
+    public void ensureIndexUpToDate(long txnId) throws IndexerException {
+        delegate.ensureIndexUpToDate(txnId);
+    }
+
+    @Override
+    public void commit() throws IndexerException {
+        delegate.commit();
+    }
+
+    @Override
+    public Long getHighestIndexedTxnId() throws IndexerException {
+        return delegate.getHighestIndexedTxnId();
+    }
+
+    @Override
+    public boolean isShadowIndexSupported() {
+        return delegate.isShadowIndexSupported();
+    }
+
+    @Override
+    public void startShadowIndex() throws IndexerException {
+        delegate.startShadowIndex();
+    }
+
+    @Override
+    public boolean hasShadowIndex() throws IndexerException {
+        return delegate.hasShadowIndex();
+    }
+
+    @Override
+    public void indexObjectsInShadowIndex(String cordraServiceId, List<CordraObjectWithIndexDetails> batch) throws IndexerException {
+        delegate.indexObjectsInShadowIndex(cordraServiceId, batch);
+    }
+
+    @Override
+    public void swapShadowIndex() throws IndexerException {
+        delegate.swapShadowIndex();
+    }
+
+    @Override
+    public void discardShadowIndex() throws IndexerException {
+        delegate.discardShadowIndex();
+    }
+
+    @Override
+    public Object getStats() {
+        return delegate.getStats();
+    }
+
     @Override
     public void close() throws IOException {
         delegate.close();
@@ -11,30 +11,31 @@ import net.cnri.cordra.api.Payload;
 import net.cnri.cordra.relationships.RelationshipsService;
 import net.cnri.cordra.storage.CordraStorage;
 import org.apache.lucene.document.DateTools;
-import org.apache.tika.Tika;
-import org.apache.tika.config.TikaConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.Reader;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Future;
 import java.util.function.Supplier;
 
 public abstract class DocumentBuilder<D> {
     private static Logger logger = LoggerFactory.getLogger(DocumentBuilder.class);
 
+    public static final String SOURCE_FIELD = "internal.source";
+    public static final String FACET_FIELD_PREFIX = "facet_";
+
     protected final CordraStorage storage;
     private final boolean isStoreFields;
+    private volatile boolean isStoreSource = false;
+    private volatile boolean isAcceptStaleSource = false;
     private Supplier<Design> designSupplier;
     protected volatile boolean shutdown = false;
     private static final int VERSION = 1;
 
     private ObjectTransformer objectTransformer;
+    private volatile PayloadTextExtractor payloadTextExtractor;
 
     //protected D doc;
 
@@ -49,8 +50,39 @@ public abstract class DocumentBuilder<D> {
 
     public void setObjectTransformer(ObjectTransformer objectTransformer) { this.objectTransformer = objectTransformer; }
 
+    /**
+     * If set, the serialized CordraObject, without its internal metadata, is stored in the index, so that search results
+     * returned to clients can be built without a read from storage.  See {@link #cordraObjectFromSource(String)}.
+     */
+    public void setStoreSource(boolean isStoreSource) {
+        this.isStoreSource = isStoreSource;
+    }
+
+    public boolean isStoreSource() {
+        return isStoreSource;
+    }
+
+    /**
+     * If set, stored source is used for search results even when storage cannot confirm that it is current, so that
+     * results may lag storage by up to the index refresh interval.  See {@link #cordraObjectFromSource(String)}.
+     */
+    public void setAcceptStaleSource(boolean isAcceptStaleSource) {
+        this.isAcceptStaleSource = isAcceptStaleSource;
+    }
+
+    public void setPayloadTextExtractor(PayloadTextExtractor payloadTextExtractor) {
+        this.payloadTextExtractor = payloadTextExtractor;
+    }
+
+    private PayloadTextExtractor getPayloadTextExtractor() {
+        PayloadTextExtractor res = payloadTextExtractor;
+        if (res == null) return PayloadTextExtractor.getDefault();
+        return res;
+    }
+
     public void shutdown() {
         shutdown = true;
+        if (payloadTextExtractor != null) payloadTextExtractor.shutdown();
     }
 
     protected abstract D create() throws IOException;
@@ -58,8 +90,18 @@ public abstract class DocumentBuilder<D> {
     protected abstract void addTextFieldToDocument(D doc, String fieldName, String fieldValue, boolean isStoreFieldsParam) throws IOException;
     protected abstract void addNumericFieldToDocument(D doc, String fieldName, long fieldValue, boolean isStoreFieldsParam) throws IOException;
     protected abstract void addSortFieldToDocument(D doc, String fieldName, String fieldValue) throws IOException;
+    protected abstract void addStoredFieldToDocument(D doc, String fieldName, String fieldValue) throws IOException;
+    protected abstract void addFacetFieldToDocument(D doc, String fieldName, String fieldValue) throws IOException;
     public abstract String getSortFieldName(String field);
 
+    /**
+     * Returns the name of the field holding the values counted by a facet on the given field.  Facet fields are
+     * populated for "type", "createdBy", and the JSON pointers whose schema has {@code "cordra": { "search": { "facet": true } } }.
+     */
+    public static String getFacetFieldName(String field) {
+        return FACET_FIELD_PREFIX + field;
+    }
+
     public D build(CordraObject coParam, boolean indexPayloads, Map<String, JsonNode> pointerToSchemaMap, Collection<Runnable> cleanupActions) throws Exception {
         CordraObject co = objectTransformer == null ? coParam : objectTransformer.transform(coParam);
         D doc = create();
@@ -110,6 +152,7 @@ public abstract class DocumentBuilder<D> {
             addTextFieldToDocument(doc, "type", type, true);
             //doc.add(new SortedDocValuesField(getSortFieldName("type"), new BytesRef(type)));
             addSortFieldToDocument(doc, getSortFieldName("type"), type);
+            addFacetFieldToDocument(doc, getFacetFieldName("type"), type);
         }
         addFieldsForObjectsOfKnownTypes(doc, co, type, indexPayloads, pointerToSchemaMap, retrieveHandleMintingConfigPrefix(), cleanupActions);
         if (co.userMetadata != null) {
@@ -124,6 +167,7 @@ public abstract class DocumentBuilder<D> {
             addTextFieldToDocument(doc, "createdBy", createdBy, isStoreFields);
             //doc.add(new SortedDocValuesField(getSortFieldName("createdBy"), new BytesRef(createdBy)));
             addSortFieldToDocument(doc, getSortFieldName("createdBy"), createdBy);
+            addFacetFieldToDocument(doc, getFacetFieldName("createdBy"), createdBy);
         }
         JsonElement username = co.metadata.internalMetadata.get("username");
         if (username != null) {
@@ -160,9 +204,57 @@ public abstract class DocumentBuilder<D> {
             addStringFieldWithSort(doc, CordraIndexer.PAYLOAD_INDEX_CORDRA_SERVICE_ID, payloadIndexCordraServiceId.getAsString());
         }
         addAclFields(doc, co);
+        if (isStoreSource) {
+            addSourceFields(doc, coParam);
+        }
         return doc;
     }
 
+    private void addSourceFields(D doc, CordraObject co) throws IOException {
+        // without a txnId the stored source could never be checked, so search results would go to storage anyway
+        if (co.metadata == null || co.metadata.txnId == null) return;
+        JsonObject source = GsonUtility.getGson().toJsonTree(co).getAsJsonObject();
+        source.remove("responseContext");
+        // internal metadata holds credentials such as password hashes, which must never be copied into the index
+        JsonObject metadata = source.getAsJsonObject("metadata");
+        if (metadata != null) metadata.remove("internalMetadata");
+        addStoredFieldToDocument(doc, SOURCE_FIELD, source.toString());
+    }
+
+    /**
+     * Rebuilds a CordraObject, without its internal metadata, from the source stored in an index document, if the
+     * stored copy is current.  The source is as of the last index refresh, so its txnId is compared with the current
+     * txnId known to storage without a read (see {@link CordraStorage#getKnownTxnId(String)}); if storage does not
+     * know it, the source is used only if stale results are accepted (see {@link #setAcceptStaleSource(boolean)}).
+     *
+     * @return the object, or null if there is no current stored source, in which case the caller should read from storage
+     */
+    public CordraObject cordraObjectFromSource(String source) {
+        if (source == null) return null;
+        CordraObject co;
+        try {
+            co = GsonUtility.getGson().fromJson(source, CordraObject.class);
+        } catch (Exception e) {
+            logger.warn("Unable to parse stored source", e);
+            return null;
+        }
+        if (co == null || co.metadata == null || co.metadata.txnId == null) return null;
+        Long currentTxnId = storage.getKnownTxnId(co.id);
+        if (currentTxnId == null) return isAcceptStaleSource ? co : null;
+        return currentTxnId.equals(co.metadata.txnId) ? co : null;
+    }
+
+    /**
+     * Returns true if the given object from storage is still the version which was indexed.
+     * Used before writing a delayed (payload-indexing) document, so that an older stored source never replaces a newer one.
+     */
+    public static boolean isSameVersion(CordraObject fromStorage, CordraObject indexed) {
+        if (fromStorage == null) return false;
+        Long storedTxnId = fromStorage.metadata == null ? null : fromStorage.metadata.txnId;
+        Long indexedTxnId = indexed.metadata == null ? null : indexed.metadata.txnId;
+        return Objects.equals(storedTxnId, indexedTxnId);
+    }
+
     private void addMetadataAsJsonPointers(CordraObject.Metadata metadata, D doc) throws IOException {
         Gson gson = GsonUtility.getPrettyGson();
         JsonObject metadataJson = gson.toJsonTree(metadata).getAsJsonObject();
@@ -269,6 +361,10 @@ public abstract class DocumentBuilder<D> {
 
     private void addPayloads(D doc, JsonNode jsonNode, CordraObject co, JsonNode rootSchema, @SuppressWarnings("unused") Collection<Runnable> cleanupActions) throws CordraException {
         if (co.payloads == null) return;
+        PayloadTextExtractor extractor = getPayloadTextExtractor();
+        // submit all payloads first so that they are parsed in parallel, then add fields in payload order
+        List<String> fieldNames = new ArrayList<>();
+        List<Future<PayloadTextExtractor.ExtractedText>> futures = new ArrayList<>();
         for (Payload payload : co.payloads) {
             if (shutdown) break;
             String payloadName = payload.name;
@@ -277,46 +373,39 @@ public abstract class DocumentBuilder<D> {
             // with json pointers to array elements into wildcards.
             String wildcardPayloadPointer = payloadName;
             if (JsonUtil.isValidJsonPointer(payloadName)) wildcardPayloadPointer = JsonUtil.convertJsonPointerToUseWildCardForArrayIndices(payloadName, jsonNode);
-            InputStream inputStream = storage.getPayload(co.id, payloadName);
-            if (inputStream != null) {
-                try {
-                    addPayloadTokensToDocument(doc, inputStream, wildcardPayloadPointer, rootSchema, co.id);
-                } catch (Exception e) {
-                    logger.error("Exception indexing " + co.id, e);
-                } finally {
-                    try { inputStream.close(); } catch (Exception e) { logger.warn("Exception closing stream", e); }
-                }
-            } else {
-                logger.warn("Input stream is unexpectedly null for " + co.id + " " + payloadName);
-            }
+            fieldNames.add(wildcardPayloadPointer);
+            futures.add(extractor.submit(getPayloadHash(co, payloadName), () -> storage.getPayload(co.id, payloadName)));
         }
-    }
-
-    private void addPayloadTokensToDocument(D doc, InputStream stream, String payloadFieldName, JsonNode rootSchema, String objectId) throws IOException {
-        Exception exception = null;
-        Reader reader = null;
-        StringBuilder sb = new StringBuilder();
-        try {
-            String configXml = "<properties><service-loader initializableProblemHandler='ignore'/></properties>";
-            InputStream configInputStream = new ByteArrayInputStream(configXml.getBytes(StandardCharsets.UTF_8));
-            TikaConfig tikaConfig = new TikaConfig(configInputStream);
-            Tika tika = new Tika(tikaConfig);
-            reader = tika.parse(stream);
-            char[] buf = new char[1024];
-            int r;
+        for (int i = 0; i < futures.size(); i++) {
+            String payloadFieldName = fieldNames.get(i);
+            if (shutdown) {
+                futures.get(i).cancel(true);
+                continue;
+            }
+            PayloadTextExtractor.ExtractedText extractedText = extractor.await(futures.get(i));
+            if (extractedText == null) {
+                logger.warn("Input stream is unexpectedly null for " + co.id + " " + co.payloads.get(i).name);
+                continue;
+            }
             try {
-                while ((r = reader.read(buf)) > 0 && !shutdown) {
-                    sb.append(buf, 0, r);
-                }
+                addPayloadTokensToDocument(doc, extractedText, payloadFieldName, rootSchema, co.id);
             } catch (Exception e) {
-                exception = e;
+                logger.error("Exception indexing " + co.id, e);
             }
-        } catch (Exception e) {
-            exception = e;
-        } finally {
-            if (reader != null) try { reader.close(); } catch (IOException e) { logger.warn("Exception closing stream", e); }
         }
-        String extractedText = sb.toString();
+    }
+
+    private static String getPayloadHash(CordraObject co, String payloadName) {
+        if (co.metadata == null || co.metadata.hashes == null) return null;
+        JsonElement payloadHashes = co.metadata.hashes.get("payloads");
+        if (payloadHashes == null || !payloadHashes.isJsonObject()) return null;
+        JsonElement hash = payloadHashes.getAsJsonObject().get(payloadName);
+        if (hash == null || !hash.isJsonPrimitive()) return null;
+        return hash.getAsString();
+    }
+
+    private void addPayloadTokensToDocument(D doc, PayloadTextExtractor.ExtractedText extracted, String payloadFieldName, JsonNode rootSchema, String objectId) throws IOException {
+        String extractedText = extracted.text;
         //doc.add(new TextField(payloadFieldName, extractedText, Field.Store.NO));
         addTextFieldToDocument(doc, payloadFieldName, extractedText, false);
         String altPayloadFieldName = getAltPayloadFieldName(rootSchema, payloadFieldName);
@@ -326,8 +415,8 @@ public abstract class DocumentBuilder<D> {
         }
         //doc.add(new TextField("internal.all", extractedText, Field.Store.NO));
         addTextFieldToDocument(doc, "internal.all", extractedText, false);
-        if (exception != null) {
-            logger.error("Exception indexing payload " + payloadFieldName + " of " + objectId, exception);
+        if (extracted.exception != null) {
+            logger.error("Exception indexing payload " + payloadFieldName + " of " + objectId, extracted.exception);
             //doc.add(new StringField("payload_indexing_exception", "true", storeFields));
             addStringFieldToDocument(doc, "payload_indexing_exception", "true", isStoreFields);
         }
@@ -375,6 +464,11 @@ public abstract class DocumentBuilder<D> {
                 JsonNode schema = null;
                 if (pointerToSchemaMap != null) schema = pointerToSchemaMap.get(jsonPointer);
                 if (schema != null) {
+                    JsonNode facet = SchemaUtil.getDeepCordraSchemaProperty(schema, "search", "facet");
+                    boolean isFacet = facet != null && facet.asBoolean();
+                    if (isFacet) {
+                        addFacetFieldToDocument(doc, getFacetFieldName(jsonPointerArraysAsUnderscore), text);
+                    }
                     JsonNode altField = SchemaUtil.getDeepCordraSchemaProperty(schema, "search", "altFieldName");
                     if (altField != null) {
                         String altFieldName = altField.asText(null);
@@ -386,6 +480,9 @@ public abstract class DocumentBuilder<D> {
                             addSortFieldToDocument(doc, altSortFieldName, text);
                             sortFieldNames.add(sortFieldName);
                         }
+                        if (isFacet) {
+                            addFacetFieldToDocument(doc, getFacetFieldName(altFieldName), text);
+                        }
                     }
                 }
             }
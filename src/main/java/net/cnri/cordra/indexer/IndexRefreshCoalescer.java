@@ -0,0 +1,56 @@
+package net.cnri.cordra.indexer;
+
+/**
+ * Coalesces concurrent requests to refresh (commit) an index.  A caller of {@link #refresh()} returns once a refresh
+ * which started after the call has completed; callers arriving while a refresh is in progress share the next one
+ * instead of each issuing their own.
+ */
+public class IndexRefreshCoalescer {
+
+    @FunctionalInterface
+    public interface Refresher {
+        void refresh() throws IndexerException;
+    }
+
+    private final Refresher refresher;
+    private final Object lock = new Object();
+    private long started = 0;
+    private long completed = 0;
+    private boolean inProgress = false;
+
+    public IndexRefreshCoalescer(Refresher refresher) {
+        this.refresher = refresher;
+    }
+
+    public void refresh() throws IndexerException {
+        long needed;
+        synchronized (lock) {
+            needed = started + 1;
+            while (completed < needed) {
+                if (!inProgress) {
+                    inProgress = true;
+                    started++;
+                    break;
+                }
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IndexerException(e);
+                }
+            }
+            if (completed >= needed) return;
+        }
+        boolean success = false;
+        try {
+            refresher.refresh();
+            success = true;
+        } finally {
+            synchronized (lock) {
+                inProgress = false;
+                if (success) completed = started;
+                lock.notifyAll();
+            }
+        }
+    }
+}
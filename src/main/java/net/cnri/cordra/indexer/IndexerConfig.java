@@ -6,6 +6,8 @@ import java.util.Map;
 public class IndexerConfig {
     public String module = "lucene"; // solr | lucene | elasticsearch | memory
     public Map<String, String> options = new HashMap<>();
+    public String searchConsistency = "commit"; // commit | token
+    public PayloadExtraction payloadExtraction = new PayloadExtraction();
 //    baseUri; //optional used by solr single instance
 //    zkHosts; //optional used by solr cluster e.g."zkServerA:2181,zkServerB:2181,zkServerC:2181"
 //    isStoreFields = true;
@@ -16,4 +18,12 @@ public class IndexerConfig {
         indexerConfig.options.put("isStoreFields", "true");
         return indexerConfig;
     }
+
+    public static class PayloadExtraction {
+        public Integer numThreads = Runtime.getRuntime().availableProcessors();
+        public Integer queueSize = 64;
+        public Long timeoutMs = 120_000L;
+        public Integer maxChars = 10_000_000;
+        public Long cacheMaxChars = 64_000_000L;
+    }
 }
@@ -88,6 +88,13 @@ public class InstrumentedCordraIndexer extends DelegatingCordraIndexer {
         });
     }
     
+    @Override
+    public SearchResults<CordraObject> searchForResponse(String query, QueryParams params) throws IndexerException {
+        return run(() -> {
+            return super.searchForResponse(query, params);
+        });
+    }
+
     @Override
     public void ensureIndexUpToDate() throws IndexerException {
         run(() -> {
@@ -95,6 +102,55 @@ public class InstrumentedCordraIndexer extends DelegatingCordraIndexer {
         });
     }
     
+    @Override
+    public void ensureIndexUpToDate(long txnId) throws IndexerException {
+        run(() -> {
+            super.ensureIndexUpToDate(txnId);
+        });
+    }
+
+    @Override
+    public void commit() throws IndexerException {
+        run(() -> {
+            super.commit();
+        });
+    }
+
+    @Override
+    public Long getHighestIndexedTxnId() throws IndexerException {
+        return run(() -> {
+            return super.getHighestIndexedTxnId();
+        });
+    }
+
+    @Override
+    public void startShadowIndex() throws IndexerException {
+        run(() -> {
+            super.startShadowIndex();
+        });
+    }
+
+    @Override
+    public void indexObjectsInShadowIndex(String cordraServiceId, List<CordraObjectWithIndexDetails> batch) throws IndexerException {
+        run(() -> {
+            super.indexObjectsInShadowIndex(cordraServiceId, batch);
+        });
+    }
+
+    @Override
+    public void swapShadowIndex() throws IndexerException {
+        run(() -> {
+            super.swapShadowIndex();
+        });
+    }
+
+    @Override
+    public void discardShadowIndex() throws IndexerException {
+        run(() -> {
+            super.discardShadowIndex();
+        });
+    }
+    
     public static final DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSX").withZone(ZoneOffset.UTC);
     
     public <R> R run(Callable<R> c) throws IndexerException {
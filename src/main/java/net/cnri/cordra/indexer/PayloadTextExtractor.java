@@ -0,0 +1,225 @@
+package net.cnri.cordra.indexer;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.apache.tika.sax.WriteOutContentHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import net.cnri.cordra.api.CordraException;
+
+/**
+ * Extracts text from payloads for indexing.  A single Tika configuration and parser is shared by all callers;
+ * parsing happens on a bounded pool of worker threads with a per-payload timeout and a cap on the number of
+ * characters extracted.  When the queue of the pool is full, the submitter waits for room, up to the timeout, rather
+ * than running unbounded on the calling thread; an extraction which cannot be queued fails the indexing of its
+ * object rather than indexing the payload without its text.  Extracted text is cached by payload SHA-256 hash, when known, so that reindexing or
+ * re-saving an object with unchanged payloads does not parse them again.
+ */
+public class PayloadTextExtractor {
+    private static Logger logger = LoggerFactory.getLogger(PayloadTextExtractor.class);
+
+    private static final Parser PARSER = createParser();
+
+    private static volatile PayloadTextExtractor defaultInstance;
+
+    private final ThreadPoolExecutor execServ;
+    private final long timeoutMs;
+    private final int maxChars;
+    private final Cache<String, String> cache;
+
+    @FunctionalInterface
+    public interface PayloadStreamSupplier {
+        InputStream get() throws CordraException;
+    }
+
+    public static class ExtractedText {
+        public final String text;
+        public final Exception exception;
+
+        public ExtractedText(String text, Exception exception) {
+            this.text = text;
+            this.exception = exception;
+        }
+    }
+
+    public PayloadTextExtractor(IndexerConfig.PayloadExtraction config) {
+        if (config == null) config = new IndexerConfig.PayloadExtraction();
+        IndexerConfig.PayloadExtraction defaults = new IndexerConfig.PayloadExtraction();
+        int numThreads = config.numThreads != null && config.numThreads > 0 ? config.numThreads : defaults.numThreads;
+        int queueSize = config.queueSize != null && config.queueSize > 0 ? config.queueSize : defaults.queueSize;
+        this.timeoutMs = config.timeoutMs != null ? config.timeoutMs : defaults.timeoutMs;
+        this.maxChars = config.maxChars != null ? config.maxChars : defaults.maxChars;
+        long cacheMaxChars = config.cacheMaxChars != null ? config.cacheMaxChars : defaults.cacheMaxChars;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.execServ = new ThreadPoolExecutor(numThreads, numThreads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize), r -> {
+            Thread thread = new Thread(r, "payload-text-extractor-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, this::waitForRoomInQueue);
+        if (cacheMaxChars > 0) {
+            this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(cacheMaxChars)
+                .weigher((String key, String value) -> value.length())
+                .build();
+        } else {
+            this.cache = null;
+        }
+    }
+
+    private void waitForRoomInQueue(Runnable task, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) throw new RejectedExecutionException("Payload text extractor is shut down");
+        try {
+            boolean isQueued;
+            if (timeoutMs > 0) {
+                isQueued = executor.getQueue().offer(task, timeoutMs, TimeUnit.MILLISECONDS);
+            } else {
+                executor.getQueue().put(task);
+                isQueued = true;
+            }
+            if (!isQueued) throw new RejectedExecutionException("Timed out waiting to queue payload text extraction");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException(e);
+        }
+        // a shutdown which raced with the wait has already drained the queue
+        if (executor.isShutdown() && executor.remove(task)) {
+            throw new RejectedExecutionException("Payload text extractor is shut down");
+        }
+    }
+
+    /**
+     * Returns a shared instance with default configuration, for document builders which have not been given one.
+     */
+    public static PayloadTextExtractor getDefault() {
+        if (defaultInstance == null) {
+            synchronized (PayloadTextExtractor.class) {
+                if (defaultInstance == null) {
+                    defaultInstance = new PayloadTextExtractor(new IndexerConfig.PayloadExtraction());
+                }
+            }
+        }
+        return defaultInstance;
+    }
+
+    private static Parser createParser() {
+        try {
+            String configXml = "<properties><service-loader initializableProblemHandler='ignore'/></properties>";
+            InputStream configInputStream = new ByteArrayInputStream(configXml.getBytes(StandardCharsets.UTF_8));
+            return new AutoDetectParser(new TikaConfig(configInputStream));
+        } catch (Exception e) {
+            throw new AssertionError("Unable to configure Tika", e);
+        }
+    }
+
+    /**
+     * Starts extracting text from a payload.  The result of {@link Future#get()} is null if the payload stream is null.
+     * If the pool is saturated, waits for room in its queue, up to the timeout.
+     *
+     * @param sha256 the hash of the payload bytes, or null if not known (in which case the cache is not used)
+     * @param streamSupplier supplies the payload stream; only called if the text is not cached
+     * @throws IndexerException if the extraction could not be queued, because the pool stayed saturated or is shut down
+     */
+    public Future<ExtractedText> submit(String sha256, PayloadStreamSupplier streamSupplier) throws IndexerException {
+        if (sha256 != null && cache != null) {
+            String cached = cache.getIfPresent(sha256);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(new ExtractedText(cached, null));
+            }
+        }
+        try {
+            return execServ.submit(() -> {
+                try (InputStream in = streamSupplier.get()) {
+                    if (in == null) return null;
+                    ExtractedText result = parse(in);
+                    if (sha256 != null && cache != null && result.exception == null) {
+                        cache.put(sha256, result.text);
+                    }
+                    return result;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw new IndexerException("Payload text extraction rejected", e);
+        }
+    }
+
+    /**
+     * Waits for the result of {@link #submit(String, PayloadStreamSupplier)}, subject to the configured timeout.
+     * Failures, including timeouts, are reported as an ExtractedText with an exception.
+     *
+     * @throws IndexerException if the extraction was cancelled by {@link #shutdown()} before it ran
+     */
+    public ExtractedText await(Future<ExtractedText> future) throws IndexerException {
+        try {
+            if (timeoutMs > 0) {
+                return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+            } else {
+                return future.get();
+            }
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            return new ExtractedText("", e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return new ExtractedText("", e);
+        } catch (CancellationException e) {
+            throw new IndexerException("Payload text extraction cancelled by shutdown", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            return new ExtractedText("", cause instanceof Exception ? (Exception) cause : e);
+        }
+    }
+
+    private ExtractedText parse(InputStream in) {
+        StringWriter writer = new StringWriter();
+        WriteOutContentHandler handler = new WriteOutContentHandler(writer, maxChars > 0 ? maxChars : -1);
+        ParseContext context = new ParseContext();
+        context.set(Parser.class, PARSER);
+        Exception exception = null;
+        try {
+            PARSER.parse(in, new BodyContentHandler(handler), new Metadata(), context);
+        } catch (SAXException e) {
+            if (handler.isWriteLimitReached(e)) {
+                logger.debug("Payload text truncated at " + maxChars + " characters");
+            } else {
+                exception = e;
+            }
+        } catch (Exception e) {
+            exception = e;
+        }
+        return new ExtractedText(writer.toString(), exception);
+    }
+
+    public void shutdown() {
+        List<Runnable> queued = execServ.shutdownNow();
+        // complete the futures of queued extractions, so that no caller waits on them forever
+        for (Runnable task : queued) {
+            if (task instanceof Future) ((Future<?>) task).cancel(false);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package net.cnri.cordra.indexer;
+
+/**
+ * The progress of a full reindex, saved so that a reindex interrupted by a restart can continue where it stopped.
+ */
+public class ReindexCheckpoint {
+    // a txnId taken when the reindex started; objects with later txnIds are reindexed again after resuming
+    public long startTxnId;
+    // the number of objects, in storage listing order, which are all indexed
+    public long position;
+    // the id of the last of those objects, to check that the listing order is unchanged
+    public String lastId;
+
+    public ReindexCheckpoint() { }
+
+    public ReindexCheckpoint(long startTxnId, long position, String lastId) {
+        this.startTxnId = startTxnId;
+        this.position = position;
+        this.lastId = lastId;
+    }
+}
@@ -0,0 +1,183 @@
+package net.cnri.cordra.indexer;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.cnri.cordra.api.CordraObject;
+import net.cnri.cordra.model.CordraConfig;
+
+/**
+ * Runs the batches of a reindex through separate stages: fetching objects from storage, preparing them for indexing
+ * (finding their schemas), and indexing them (building documents and sending them to the indexer).  Each stage has
+ * its own thread pool and bounded queue; a stage whose queue is full blocks the stage feeding it, so a slow stage
+ * slows the listing of objects rather than accumulating batches in memory.
+ *
+ * <p>If adaptive batch size is configured, the size of the batches taken from the listing is adjusted so that the
+ * slower of fetching and indexing a batch takes about the target time.
+ */
+class ReindexPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(ReindexPipeline.class);
+
+    private final Reindexer reindexer;
+    private final boolean lockObjectIds;
+    private final boolean intoShadowIndex;
+    private final AtomicBoolean hasFailed;
+    private final Stage fetchStage;
+    private final Stage prepareStage;
+    private final Stage indexStage;
+    private final boolean adaptiveBatchSize;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long targetBatchNanos;
+    private final AtomicInteger batchSize;
+
+    ReindexPipeline(Reindexer reindexer, CordraConfig.Reindexing config, boolean lockObjectIds, boolean intoShadowIndex, AtomicBoolean hasFailed) {
+        this.reindexer = reindexer;
+        this.lockObjectIds = lockObjectIds;
+        this.intoShadowIndex = intoShadowIndex;
+        this.hasFailed = hasFailed;
+        this.fetchStage = new Stage("fetch", config.fetchThreads);
+        this.prepareStage = new Stage("prepare", config.prepareThreads);
+        this.indexStage = new Stage("index", config.numThreads);
+        this.adaptiveBatchSize = config.adaptiveBatchSize;
+        this.minBatchSize = config.batchSize;
+        this.maxBatchSize = Math.max(config.batchSize, config.maxBatchSize);
+        this.targetBatchNanos = TimeUnit.MILLISECONDS.toNanos(config.targetBatchMs);
+        this.batchSize = new AtomicInteger(config.batchSize);
+    }
+
+    int getBatchSize() {
+        return batchSize.get();
+    }
+
+    /**
+     * Submits a batch of ids or objects, blocking while the first stage is full.
+     *
+     * @param onComplete if not null, run once the batch is indexed
+     */
+    @SuppressWarnings("unchecked")
+    <T> void submit(List<T> batch, Runnable onComplete) {
+        if (batch.isEmpty()) return;
+        if (lockObjectIds) {
+            // object locks are held by thread, so a locked batch is fetched and indexed on one thread
+            indexStage.execute(batch.size(), () -> {
+                reindexer.indexBatch(batch, true, intoShadowIndex);
+                reindexer.outputProgressIfNecessary(batch.size());
+                if (onComplete != null) onComplete.run();
+            });
+        } else if (batch.get(0) instanceof String) {
+            List<String> ids = (List<String>) batch;
+            fetchStage.execute(ids.size(), () -> {
+                long start = System.nanoTime();
+                List<CordraObject> objects = reindexer.fetchBatch(ids);
+                long fetchNanos = System.nanoTime() - start;
+                submitPrepare(objects, fetchNanos, onComplete);
+            });
+        } else {
+            submitPrepare((List<CordraObject>) batch, 0, onComplete);
+        }
+    }
+
+    private void submitPrepare(List<CordraObject> objects, long fetchNanos, Runnable onComplete) {
+        prepareStage.execute(objects.size(), () -> {
+            List<CordraObjectWithIndexDetails> prepared = reindexer.prepareBatch(objects);
+            indexStage.execute(prepared.size(), () -> {
+                long start = System.nanoTime();
+                reindexer.indexPreparedBatch(prepared, intoShadowIndex);
+                long indexNanos = System.nanoTime() - start;
+                adjustBatchSize(prepared.size(), Math.max(fetchNanos, indexNanos));
+                reindexer.outputProgressIfNecessary(prepared.size());
+                if (onComplete != null) onComplete.run();
+            });
+        });
+    }
+
+    private void adjustBatchSize(int size, long nanos) {
+        if (!adaptiveBatchSize || size == 0 || nanos <= 0) return;
+        int proposed = (int) Math.max(1, Math.min(Integer.MAX_VALUE, (double) size * targetBatchNanos / nanos));
+        batchSize.updateAndGet(current -> {
+            // move halfway towards the proposal, to damp the effect of a single slow or fast batch
+            int next = (current + proposed) / 2;
+            return Math.max(minBatchSize, Math.min(maxBatchSize, next));
+        });
+    }
+
+    /**
+     * Waits for all submitted batches to finish, shutting down the stages in order.
+     */
+    void finish() {
+        fetchStage.shutdownAndWait();
+        prepareStage.shutdownAndWait();
+        indexStage.shutdownAndWait();
+    }
+
+    String getStageSummary(long elapsedMs) {
+        return fetchStage.getSummary(elapsedMs) + "; " + prepareStage.getSummary(elapsedMs) + "; " + indexStage.getSummary(elapsedMs)
+            + "; batch size " + batchSize.get();
+    }
+
+    @FunctionalInterface
+    private interface StageTask {
+        void run() throws Exception;
+    }
+
+    private class Stage {
+        private final String name;
+        private final ThreadPoolExecutor execServ;
+        private final AtomicLong objectCount = new AtomicLong();
+
+        Stage(String name, int numThreads) {
+            this.name = name;
+            this.execServ = new ThreadPoolExecutor(numThreads, numThreads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(numThreads * 3), (runnable, executor) -> {
+                // block the submitting stage until there is room
+                try {
+                    while (!executor.getQueue().offer(runnable, 1, TimeUnit.SECONDS)) {
+                        if (executor.isShutdown()) throw new RejectedExecutionException("Reindex stage " + name + " shut down");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException(e);
+                }
+            });
+        }
+
+        void execute(int size, StageTask task) {
+            execServ.execute(() -> {
+                if (hasFailed.get()) return;
+                try {
+                    task.run();
+                    objectCount.addAndGet(size);
+                } catch (Exception e) {
+                    if (!hasFailed.getAndSet(true)) {
+                        logger.error("reindexing error in " + name + " stage", e);
+                        reindexer.alertReindexError(e);
+                    }
+                }
+            });
+        }
+
+        void shutdownAndWait() {
+            execServ.shutdown();
+            try {
+                execServ.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                execServ.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        String getSummary(long elapsedMs) {
+            long rate = elapsedMs <= 0 ? 0 : objectCount.get() * 1000 / elapsedMs;
+            return name + " " + rate + " objects/second, queue " + execServ.getQueue().size();
+        }
+    }
+}
@@ -2,8 +2,10 @@ package net.cnri.cordra.indexer;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import net.cnri.cordra.CordraService;
+import net.cnri.cordra.api.ConflictCordraException;
 import net.cnri.cordra.api.CordraException;
 import net.cnri.cordra.api.CordraObject;
+import net.cnri.cordra.api.QueryParams;
 import net.cnri.cordra.api.SearchResults;
 import net.cnri.cordra.model.CordraConfig;
 import net.cnri.cordra.storage.CordraStorage;
@@ -15,8 +17,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
@@ -42,6 +47,8 @@ public class Reindexer {
     private AtomicLong progressCount;
     private AtomicLong lastProgressOutput;
     private long start;
+    private volatile ReindexPipeline pipeline;
+    private final AtomicBoolean isShadowReindexInProcess = new AtomicBoolean(false);
     private volatile boolean shutdown = false;
 
     public Reindexer(CordraStorage storage,
@@ -64,7 +71,13 @@ public class Reindexer {
     }
 
     public void reindexEverything(boolean isBrandNewDesignObject) throws CordraException, IndexerException {
+        ReindexCheckpoint checkpoint = getCheckpointToResume();
+        if (checkpoint == null) {
+            checkpoint = new ReindexCheckpoint(transactionManager.getAndIncrementNextTransactionId(), 0, null);
+        }
+        ReindexCheckpoint initialCheckpoint = checkpoint;
         transactionManager.setReindexInProcess(true);
+        transactionManager.setReindexCheckpoint(initialCheckpoint);
         isReindexInProcess = true;
         reindexPriority(isBrandNewDesignObject);
         if (cordraConfig.reindexing.async != null && cordraConfig.reindexing.async) {
@@ -77,12 +90,8 @@ public class Reindexer {
                         }
                         logger.info("Reindexing all objects in background thread...");
                     }
-                    try (SearchResults<String> allObjectsListHandles = storage.listHandles()) {
-                        reindexList(allObjectsListHandles, "all objects", cordraConfig.reindexing.lockDuringBackgroundReindex, isBrandNewDesignObject);
-                        if (!shutdown) {
-                            transactionManager.setReindexInProcess(false);
-                            isReindexInProcess = false;
-                        }
+                    try {
+                        reindexAllObjects(initialCheckpoint, true, cordraConfig.reindexing.lockDuringBackgroundReindex, isBrandNewDesignObject);
                     } catch (Exception e) {
                         logger.error("reindexing error in background thread", e);
                         alerter.alert("reindexing error in background thread: " + e);
@@ -91,17 +100,207 @@ public class Reindexer {
             } finally {
                 backgroundReindexExecServ.shutdown();
             }
+        } else {
+            reindexAllObjects(initialCheckpoint, false, false, isBrandNewDesignObject);
+        }
+    }
+
+    /**
+     * Returns the checkpoint of an interrupted reindex, if there is one and the index still reflects it.
+     */
+    private ReindexCheckpoint getCheckpointToResume() throws CordraException {
+        if (!transactionManager.isReindexInProcess()) return null;
+        ReindexCheckpoint checkpoint = transactionManager.getReindexCheckpoint();
+        if (checkpoint == null || checkpoint.position == 0) return checkpoint;
+        // the index may have been deleted since the checkpoint was saved
+        String query = "id:\"" + checkpoint.lastId.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+        try (SearchResults<String> results = indexer.searchHandles(query, new QueryParams(0, 0))) {
+            if (results.size() == 0) {
+                logger.warn("Reindex checkpoint object " + checkpoint.lastId + " not found in index; reindexing from the start");
+                return null;
+            }
+        }
+        return checkpoint;
+    }
+
+    private void reindexAllObjects(ReindexCheckpoint checkpoint, boolean listHandles, boolean lockObjectIds, boolean isBrandNewDesignObject) throws CordraException, IndexerException {
+        boolean isResumed = checkpoint.position > 0;
+        boolean isCompleted = reindexAllObjectsFromCheckpoint(checkpoint, listHandles, lockObjectIds, isBrandNewDesignObject);
+        if (!isCompleted && !shutdown) {
+            logger.warn("Storage listing does not match reindex checkpoint; reindexing from the start");
+            checkpoint = new ReindexCheckpoint(checkpoint.startTxnId, 0, null);
+            transactionManager.setReindexCheckpoint(checkpoint);
+            reindexAllObjectsFromCheckpoint(checkpoint, listHandles, lockObjectIds, isBrandNewDesignObject);
+        }
+        if (shutdown) return;
+        if (isResumed) {
+            // objects changed before the restart and before the checkpoint position may not be indexed
+            try (SearchResults<CordraObject> modifiedObjects = storage.listModifiedSince(checkpoint.startTxnId)) {
+                reindexList(modifiedObjects, "objects modified since reindex started", lockObjectIds, isBrandNewDesignObject, null, false);
+            }
+        }
+        if (!shutdown) {
+            transactionManager.setReindexCheckpoint(null);
+            transactionManager.setReindexInProcess(false);
+            isReindexInProcess = false;
+        }
+    }
+
+    /**
+     * Brings a non-empty index up to date with storage without reindexing everything, for instance after the index
+     * is restored from a backup.  The highest txnId in the index, less a safety margin for writes which were indexed
+     * out of txnId order, is the watermark: objects in storage with a higher txnId are reindexed.  Objects in the
+     * index which are no longer in storage are then removed from it in a background thread, since that checks every
+     * indexed object.
+     *
+     * @return false if the indexer cannot determine the watermark, in which case nothing was done
+     */
+    public boolean reindexModifiedSinceIndexed(boolean isBrandNewDesignObject) throws CordraException, IndexerException {
+        Long highestIndexedTxnId = indexer.getHighestIndexedTxnId();
+        if (highestIndexedTxnId == null) return false;
+        long watermark = highestIndexedTxnId - cordraConfig.reindexing.incrementalSafetyMarginMs * transactionManager.getTransactionIdsPerMillisecond();
+        isReindexInProcess = true;
+        try {
+            try (SearchResults<CordraObject> modifiedObjects = storage.listModifiedSince(watermark)) {
+                reindexList(modifiedObjects, "objects modified since txnId " + watermark, false, isBrandNewDesignObject, null, false);
+            }
+        } finally {
+            isReindexInProcess = false;
+        }
+        if (!shutdown) removeDeletedObjectsFromIndexInBackground();
+        return true;
+    }
+
+    private void removeDeletedObjectsFromIndexInBackground() {
+        ExecutorService removeDeletedExecServ = Executors.newSingleThreadExecutor();
+        try {
+            removeDeletedExecServ.submit(() -> {
+                try {
+                    removeDeletedObjectsFromIndex();
+                } catch (Exception e) {
+                    logger.error("error removing deleted objects from index in background thread", e);
+                    alerter.alert("error removing deleted objects from index in background thread: " + e);
+                }
+            });
+        } finally {
+            removeDeletedExecServ.shutdown();
+        }
+    }
+
+    private void removeDeletedObjectsFromIndex() throws CordraException, IndexerException {
+        long removed = 0;
+        try (SearchResults<String> indexedIds = indexer.searchHandles("*:*")) {
+            List<String> batch = new ArrayList<>();
+            for (String id : indexedIds) {
+                if (shutdown) return;
+                batch.add(id);
+                if (batch.size() >= cordraConfig.reindexing.maxBatchSize) {
+                    removed += removeFromIndexIfNotInStorage(batch);
+                    batch = new ArrayList<>();
+                }
+            }
+            removed += removeFromIndexIfNotInStorage(batch);
+        }
+        if (removed > 0) {
+            logger.info("Removed " + removed + " deleted objects from index");
+            if (cordraConfig.reindexing.logProgressToConsole) {
+                System.out.println("Removed " + removed + " deleted objects from index");
+            }
+        }
+    }
+
+    private int removeFromIndexIfNotInStorage(List<String> ids) throws CordraException, IndexerException {
+        if (ids.isEmpty()) return 0;
+        Set<String> foundIds;
+        try (SearchResults<CordraObject> results = storage.get(ids)) {
+            foundIds = results.stream().map(co -> co.id).collect(Collectors.toSet());
+        }
+        int removed = 0;
+        for (String id : ids) {
+            if (foundIds.contains(id)) continue;
+            objectLocker.lock(id);
+            try {
+                // check again under the lock, in case the object was just created
+                if (storage.get(id) != null) continue;
+                indexer.deleteObject(id);
+                removed++;
+            } finally {
+                objectLocker.release(id);
+            }
+        }
+        return removed;
+    }
+
+    private boolean reindexAllObjectsFromCheckpoint(ReindexCheckpoint checkpoint, boolean listHandles, boolean lockObjectIds, boolean isBrandNewDesignObject) throws CordraException, IndexerException {
+        if (listHandles) {
+            try (SearchResults<String> allObjectsListHandles = storage.listHandles()) {
+                return reindexList(allObjectsListHandles, "all objects", lockObjectIds, isBrandNewDesignObject, checkpoint, false);
+            }
         } else {
             try (SearchResults<CordraObject> allObjectsList = storage.list()) {
-                reindexList(allObjectsList, "all objects", false, isBrandNewDesignObject);
+                return reindexList(allObjectsList, "all objects", lockObjectIds, isBrandNewDesignObject, checkpoint, false);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the index in a background thread into a shadow index, which then replaces the live index in a single
+     * step, so that searches see the complete live index throughout.  Writes during the rebuild go to both indexes;
+     * each object is reindexed under its lock, so that an older version read for the rebuild never overwrites a
+     * concurrent write in the shadow index.  If the rebuild fails or Cordra shuts down first, the shadow index is
+     * discarded.
+     */
+    public void reindexEverythingIntoShadowIndexInBackground() throws CordraException {
+        if (!isShadowReindexInProcess.compareAndSet(false, true)) {
+            throw new ConflictCordraException("Shadow index rebuild already in process");
+        }
+        try {
+            indexer.startShadowIndex();
+        } catch (CordraException | RuntimeException e) {
+            isShadowReindexInProcess.set(false);
+            throw e;
+        }
+        ExecutorService shadowReindexExecServ = Executors.newSingleThreadExecutor();
+        try {
+            shadowReindexExecServ.submit(() -> {
+                try {
+                    reindexEverythingIntoShadowIndex();
+                } catch (Exception e) {
+                    logger.error("shadow index rebuild error in background thread", e);
+                    alerter.alert("shadow index rebuild error in background thread: " + e);
+                } finally {
+                    isShadowReindexInProcess.set(false);
+                }
+            });
+        } finally {
+            shadowReindexExecServ.shutdown();
+        }
+    }
+
+    private void reindexEverythingIntoShadowIndex() throws CordraException {
+        boolean isSwapped = false;
+        try {
+            try (SearchResults<String> allObjectsListHandles = storage.listHandles()) {
+                reindexList(allObjectsListHandles, "all objects into shadow index", true, false, null, true);
             }
-            if (!shutdown) {
-                transactionManager.setReindexInProcess(false);
-                isReindexInProcess = false;
+            if (shutdown) return;
+            indexer.swapShadowIndex();
+            isSwapped = true;
+        } finally {
+            if (!isSwapped) {
+                try {
+                    indexer.discardShadowIndex();
+                } catch (Exception e) {
+                    logger.warn("Error discarding shadow index", e);
+                }
             }
         }
     }
 
+    public boolean getIsShadowReindexInProcess() {
+        return isShadowReindexInProcess.get();
+    }
+
     private void reindexPriority(boolean isBrandNewDesignObject) throws CordraException, IndexerException {
         List<String> priorityTypes = null;
         // if requested by configuration
@@ -116,16 +315,22 @@ public class Reindexer {
         }
         if (priorityTypes != null) {
             try (SearchResults<CordraObject> priorityObjectsList = storage.listByType(priorityTypes)) {
-                reindexList(priorityObjectsList, "priority objects", false, isBrandNewDesignObject);
+                reindexList(priorityObjectsList, "priority objects", false, isBrandNewDesignObject, null, false);
             }
         }
     }
 
-    private <T> void reindexList(SearchResults<T> list, String printedMessage, boolean lockObjectIds, boolean isBrandNewDesignObject) throws CordraException, IndexerException {
+    /**
+     * Reindexes the listed objects.  If a checkpoint is given, the objects before its position are skipped, and the
+     * checkpoint is saved as batches complete.
+     *
+     * @param intoShadowIndex if true, the objects are indexed into the shadow index only
+     * @return false if the listing did not match the checkpoint, in which case nothing was reindexed
+     */
+    private <T> boolean reindexList(Iterable<T> list, String printedMessage, boolean lockObjectIds, boolean isBrandNewDesignObject, ReindexCheckpoint checkpoint, boolean intoShadowIndex) throws CordraException, IndexerException {
         progressCount = new AtomicLong(0L);
         lastProgressOutput = new AtomicLong(0L);
         start = System.currentTimeMillis();
-        ExecutorService reindexExecServ = null;
         if (!isBrandNewDesignObject) {
             logger.info("Reindexing " + printedMessage);
             if (cordraConfig.reindexing.logProgressToConsole) {
@@ -133,27 +338,46 @@ public class Reindexer {
             }
         }
         AtomicBoolean hasFailed = new AtomicBoolean(false);
+        ReindexPipeline reindexPipeline = new ReindexPipeline(this, cordraConfig.reindexing, lockObjectIds, intoShadowIndex, hasFailed);
+        pipeline = reindexPipeline;
+        CheckpointTracker checkpointTracker = checkpoint == null ? null : new CheckpointTracker(checkpoint);
         try {
-            int numThreads = cordraConfig.reindexing.numThreads;
-            int queueSize = numThreads *3;
-            BlockingQueue<Runnable> queue = new LinkedBlockingDeque<>(queueSize);
-            reindexExecServ = new ThreadPoolExecutor(numThreads, numThreads, 0, TimeUnit.MILLISECONDS, queue, new ThreadPoolExecutor.CallerRunsPolicy());
+            Iterator<T> iter = list.iterator();
+            long position = 0;
+            if (checkpoint != null && checkpoint.position > 0) {
+                String id = null;
+                while (position < checkpoint.position && iter.hasNext()) {
+                    id = idOf(iter.next());
+                    position++;
+                }
+                if (position < checkpoint.position || !checkpoint.lastId.equals(id)) return false;
+                logger.info("Resuming reindexing of " + printedMessage + " after " + position + " objects");
+                if (cordraConfig.reindexing.logProgressToConsole) {
+                    System.out.println("Resuming reindexing of " + printedMessage + " after " + position + " objects");
+                }
+            }
+            long batchSeq = 0;
             List<T> batch = new ArrayList<>();
-            for (T coOrHandle : list) {
+            while (iter.hasNext()) {
+                T coOrHandle = iter.next();
                 if (shutdown) break;
                 if (hasFailed.get()) throw new IndexerException("Exception during reindexing");
                 batch.add(coOrHandle);
-                if (batch.size() == cordraConfig.reindexing.batchSize) {
-                    reindexBatchWithExecutor(reindexExecServ, batch, lockObjectIds, hasFailed);
+                position++;
+                if (batch.size() >= reindexPipeline.getBatchSize()) {
+                    reindexPipeline.submit(batch, onBatchComplete(checkpointTracker, batchSeq++, position, idOf(coOrHandle)));
                     batch = new ArrayList<>();
                 }
             }
             if (hasFailed.get()) throw new IndexerException("Exception during reindexing");
-            if (!batch.isEmpty()) {
-                reindexBatchWithExecutor(reindexExecServ, batch, lockObjectIds, hasFailed);
+            if (!batch.isEmpty() && !shutdown) {
+                reindexPipeline.submit(batch, onBatchComplete(checkpointTracker, batchSeq++, position, idOf(batch.get(batch.size() - 1))));
             }
         } finally {
-            shutdownExecServAndWait(reindexExecServ);
+            reindexPipeline.finish();
+            if (checkpointTracker != null && (shutdown || hasFailed.get())) {
+                checkpointTracker.save();
+            }
         }
         if (hasFailed.get()) throw new IndexerException("Exception during reindexing");
         cordraService.ensureIndexUpToDate();
@@ -166,7 +390,7 @@ public class Reindexer {
                 long end = System.currentTimeMillis();
                 long progress = progressCount.get();
                 Rate rate = new Rate(start, end, progress);
-                String finalSummary = "Reindexing took " + rate.timeInSeconds + " seconds. (" + rate.rate + " objects/second)";
+                String finalSummary = "Reindexing took " + rate.timeInSeconds + " seconds. (" + rate.rate + " objects/second; " + reindexPipeline.getStageSummary(end - start) + ")";
                 logger.info(finalSummary);
                 if (cordraConfig.reindexing.logProgressToConsole) {
                     System.out.println(finalSummary);
@@ -178,6 +402,62 @@ public class Reindexer {
                 System.out.println("Reindexing " + printedMessage + " interrupted");
             }
         }
+        return true;
+    }
+
+    private static String idOf(Object coOrHandle) {
+        if (coOrHandle instanceof CordraObject) return ((CordraObject) coOrHandle).id;
+        return (String) coOrHandle;
+    }
+
+    private static Runnable onBatchComplete(CheckpointTracker checkpointTracker, long batchSeq, long endPosition, String lastId) {
+        if (checkpointTracker == null) return null;
+        return () -> checkpointTracker.complete(batchSeq, endPosition, lastId);
+    }
+
+    /**
+     * Tracks the batches of a reindex, which may complete out of order, and periodically saves as the checkpoint
+     * the end of the longest run of completed batches from the start.  The indexer is committed before each save,
+     * so that the checkpoint never covers writes which a restart of the indexer could lose.
+     */
+    private class CheckpointTracker {
+        private final long startTxnId;
+        private final Map<Long, ReindexCheckpoint> completedAhead = new HashMap<>();
+        private long nextBatchSeq = 0;
+        private ReindexCheckpoint current;
+        private ReindexCheckpoint saved;
+        private long lastSaveTime = System.currentTimeMillis();
+
+        CheckpointTracker(ReindexCheckpoint checkpoint) {
+            this.startTxnId = checkpoint.startTxnId;
+            this.current = checkpoint;
+            this.saved = checkpoint;
+        }
+
+        synchronized void complete(long batchSeq, long endPosition, String lastId) {
+            completedAhead.put(batchSeq, new ReindexCheckpoint(startTxnId, endPosition, lastId));
+            ReindexCheckpoint next;
+            while ((next = completedAhead.remove(nextBatchSeq)) != null) {
+                current = next;
+                nextBatchSeq++;
+            }
+            long now = System.currentTimeMillis();
+            if (now - lastSaveTime >= cordraConfig.reindexing.checkpointIntervalMs) {
+                lastSaveTime = now;
+                save();
+            }
+        }
+
+        synchronized void save() {
+            if (current == saved) return;
+            try {
+                indexer.commit();
+                transactionManager.setReindexCheckpoint(current);
+                saved = current;
+            } catch (CordraException e) {
+                logger.warn("Error saving reindex checkpoint", e);
+            }
+        }
     }
 
     public static class Rate {
@@ -198,38 +478,32 @@ public class Reindexer {
         }
     }
 
-    private <T> void reindexBatchWithExecutor(ExecutorService reindexExecServ, List<T> batch, boolean lockObjectIds, AtomicBoolean hasFailed) {
-        reindexExecServ.submit(() -> {
-            try {
-                if (hasFailed.get()) return;
-                indexBatch(batch, lockObjectIds);
-                outputProgressIfNecessary(batch.size());
-            } catch (Exception e) {
-                if (!hasFailed.getAndSet(true)) {
-                    logger.error("reindexing error in background thread", e);
-                    alerter.alert("reindexing error in background thread: " + e);
-                }
-            }
-        });
+    void alertReindexError(Exception e) {
+        alerter.alert("reindexing error in background thread: " + e);
     }
 
-    private synchronized void outputProgressIfNecessary(int batchSize) {
+    synchronized void outputProgressIfNecessary(int batchSize) {
         long progress = progressCount.addAndGet(batchSize);
         long lastProgress = lastProgressOutput.get();
         long countSinceLastOutput = progress - lastProgress;
         if (countSinceLastOutput >= cordraConfig.reindexing.logChunkSize) {
             long now = System.currentTimeMillis();
             Rate rate = new Rate(start, now, progress);
-            logger.info("Reindexing progress: " + progress + " (" + rate.rate + " objects/second)");
+            String message = "Reindexing progress: " + progress + " (" + rate.rate + " objects/second; " + pipeline.getStageSummary(now - start) + ")";
+            logger.info(message);
             if (cordraConfig.reindexing.logProgressToConsole) {
-                System.out.println("Reindexing progress: " + progress + " (" + rate.rate + " objects/second)") ;
+                System.out.println(message);
             }
             lastProgressOutput.set(progress);
         }
     }
 
-    @SuppressWarnings("unchecked")
     public <T> void indexBatch(List<T> batch, boolean lockObjectIds) throws CordraException {
+        indexBatch(batch, lockObjectIds, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> void indexBatch(List<T> batch, boolean lockObjectIds, boolean intoShadowIndex) throws CordraException {
         if (batch.isEmpty()) return;
         boolean isStrings = batch.get(0) instanceof String;
         List<String> ids = null;
@@ -244,24 +518,11 @@ public class Reindexer {
             }
             List<CordraObject> batchObjects;
             if (isStrings) {
-                batchObjects = storage.get((List<String>) batch).stream().collect(Collectors.toList());
+                batchObjects = fetchBatch((List<String>) batch);
             } else {
                 batchObjects = (List<CordraObject>) batch;
             }
-            List<CordraObjectWithIndexDetails> batchWithDetails = new ArrayList<>();
-            for (CordraObject co : batchObjects) {
-                Map<String, JsonNode> pointerToSchemaMap = cordraService.getPointerToSchemaMapForIndexing(co, this.isReindexInProcess);
-                boolean indexPayloads = cordraService.shouldIndexPayloads(co.type);
-                batchWithDetails.add(new CordraObjectWithIndexDetails(co, pointerToSchemaMap, indexPayloads));
-            }
-            try {
-                indexer.indexObjects(cordraServiceId, batchWithDetails);
-            } catch (IndexerException e) {
-                if (e.getCause() instanceof ScriptException) {
-                    logger.error("Script exception during reindexing. Consider using Cordra config.json reindexing.priorityTypes to index types like JavaScriptDirectory first.");
-                }
-                throw e;
-            }
+            indexPreparedBatch(prepareBatch(batchObjects), intoShadowIndex);
         } finally {
             if (lockObjectIds) {
                 objectLocker.releaseAll(ids);
@@ -269,21 +530,42 @@ public class Reindexer {
         }
     }
 
-    public boolean getIsReindexInProcess() {
-        return isReindexInProcess;
+    List<CordraObject> fetchBatch(List<String> ids) throws CordraException {
+        try (SearchResults<CordraObject> results = storage.get(ids)) {
+            return results.stream().collect(Collectors.toList());
+        }
     }
 
-    private void shutdownExecServAndWait(ExecutorService execServ) {
-        if (execServ != null) {
-            execServ.shutdown();
-            try {
-                execServ.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
-            } catch (InterruptedException e) {
-                execServ.shutdownNow();
+    List<CordraObjectWithIndexDetails> prepareBatch(List<CordraObject> batchObjects) throws CordraException {
+        List<CordraObjectWithIndexDetails> batchWithDetails = new ArrayList<>();
+        for (CordraObject co : batchObjects) {
+            Map<String, JsonNode> pointerToSchemaMap = cordraService.getPointerToSchemaMapForIndexing(co, this.isReindexInProcess);
+            boolean indexPayloads = cordraService.shouldIndexPayloads(co.type);
+            batchWithDetails.add(new CordraObjectWithIndexDetails(co, pointerToSchemaMap, indexPayloads));
+        }
+        return batchWithDetails;
+    }
+
+    void indexPreparedBatch(List<CordraObjectWithIndexDetails> batchWithDetails, boolean intoShadowIndex) throws IndexerException {
+        if (batchWithDetails.isEmpty()) return;
+        try {
+            if (intoShadowIndex) {
+                indexer.indexObjectsInShadowIndex(cordraServiceId, batchWithDetails);
+            } else {
+                indexer.indexObjects(cordraServiceId, batchWithDetails);
             }
+        } catch (IndexerException e) {
+            if (e.getCause() instanceof ScriptException) {
+                logger.error("Script exception during reindexing. Consider using Cordra config.json reindexing.priorityTypes to index types like JavaScriptDirectory first.");
+            }
+            throw e;
         }
     }
 
+    public boolean getIsReindexInProcess() {
+        return isReindexInProcess;
+    }
+
     public void shutdown() {
         shutdown = true;
     }
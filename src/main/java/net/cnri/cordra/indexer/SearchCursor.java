@@ -0,0 +1,82 @@
+package net.cnri.cordra.indexer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.apache.lucene.util.BytesRef;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+/**
+ * Encodes the sort values of the last hit of a page as an opaque cursor, for indexers which paginate by cursor
+ * using "search after" (see {@link net.cnri.cordra.api.QueryParams#getCursor()}).
+ *
+ * <p>Each value is kept with its type, so that it can be given back to the indexer exactly as it was returned.
+ */
+public class SearchCursor {
+
+    private SearchCursor() { }
+
+    public static String encode(Object[] values) {
+        JsonArray array = new JsonArray();
+        for (Object value : values) {
+            JsonArray typed = new JsonArray();
+            if (value == null) {
+                typed.add("n");
+            } else if (value instanceof BytesRef) {
+                BytesRef bytesRef = (BytesRef) value;
+                typed.add("b");
+                typed.add(Base64.getEncoder().encodeToString(BytesRef.deepCopyOf(bytesRef).bytes));
+            } else if (value instanceof Long) {
+                typed.add("l");
+                typed.add(value.toString());
+            } else if (value instanceof Integer) {
+                typed.add("i");
+                typed.add(value.toString());
+            } else if (value instanceof Float) {
+                typed.add("f");
+                typed.add(value.toString());
+            } else if (value instanceof Double) {
+                typed.add("d");
+                typed.add(value.toString());
+            } else {
+                typed.add("s");
+                typed.add(value.toString());
+            }
+            array.add(typed);
+        }
+        byte[] bytes = array.toString().getBytes(StandardCharsets.UTF_8);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    public static Object[] decode(String cursor) throws IndexerException {
+        try {
+            String json = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            JsonArray array = new JsonParser().parse(json).getAsJsonArray();
+            Object[] values = new Object[array.size()];
+            for (int i = 0; i < values.length; i++) {
+                JsonArray typed = array.get(i).getAsJsonArray();
+                String type = typed.get(0).getAsString();
+                if ("n".equals(type)) {
+                    values[i] = null;
+                    continue;
+                }
+                JsonElement value = typed.get(1);
+                switch (type) {
+                case "b": values[i] = new BytesRef(Base64.getDecoder().decode(value.getAsString())); break;
+                case "l": values[i] = Long.valueOf(value.getAsString()); break;
+                case "i": values[i] = Integer.valueOf(value.getAsString()); break;
+                case "f": values[i] = Float.valueOf(value.getAsString()); break;
+                case "d": values[i] = Double.valueOf(value.getAsString()); break;
+                case "s": values[i] = value.getAsString(); break;
+                default: throw new IllegalArgumentException("Unknown type " + type);
+                }
+            }
+            return values;
+        } catch (RuntimeException e) {
+            throw new IndexerException("Parse failure: invalid cursor", e);
+        }
+    }
+}
@@ -43,6 +43,20 @@ public class DocumentBuilderElasticsearch extends DocumentBuilder<Map<String, Li
 
     }
 
+    @Override
+    protected void addStoredFieldToDocument(Map<String, List<Object>> doc, String fieldName, String fieldValue) {
+        // stored-only fields are configured in mappings.json
+        doc.putIfAbsent(fieldName, new ArrayList<>());
+        doc.get(fieldName).add(fieldValue);
+    }
+
+    @Override
+    protected void addFacetFieldToDocument(Map<String, List<Object>> doc, String fieldName, String fieldValue) {
+        // facet_* fields are mapped as keywords in mappings.json
+        doc.putIfAbsent(fieldName, new ArrayList<>());
+        doc.get(fieldName).add(truncateForSorting(fieldValue));
+    }
+
     private String truncateForSorting(String s) {
         if (s.length() < 1024) return s;
         return s.substring(0, 1024);
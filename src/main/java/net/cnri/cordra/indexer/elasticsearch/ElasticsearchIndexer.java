@@ -13,6 +13,13 @@ import net.cnri.microservices.Alerter;
 import net.cnri.util.StreamUtil;
 import net.cnri.util.StringUtils;
 import org.apache.http.HttpStatus;
+import org.elasticsearch.action.admin.indices.alias.Alias;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest.AliasActions;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.flush.FlushRequest;
+import org.elasticsearch.action.admin.indices.flush.FlushResponse;
 import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
 import org.elasticsearch.action.admin.indices.refresh.RefreshResponse;
 import org.elasticsearch.action.bulk.BulkItemResponse;
@@ -25,6 +32,8 @@ import org.elasticsearch.action.main.MainResponse;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.action.support.master.AcknowledgedResponse;
 import org.elasticsearch.client.*;
 import org.elasticsearch.client.indices.GetIndexRequest;
 import org.elasticsearch.common.document.DocumentField;
@@ -32,7 +41,11 @@ import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.sort.SortOrder;
 import org.slf4j.Logger;
@@ -52,8 +65,10 @@ import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.function.Supplier;
@@ -63,6 +78,11 @@ public class ElasticsearchIndexer implements CordraIndexer {
     public static final String INDEX_NAME = "cordra";
     // Why _doc? See https://www.elastic.co/blog/moving-from-types-to-typeless-apis-in-elasticsearch-7-0
     private static final String TYPE_NAME = "_doc";
+    // names the shadow index while the index is rebuilt, so that every instance sharing the index writes to it too
+    private static final String SHADOW_ALIAS_NAME = INDEX_NAME + "-shadow";
+    private static final long SHADOW_INDEX_CHECK_INTERVAL_MS = 1000;
+    // facets are named by position, as aggregation names cannot contain every character of a JSON pointer
+    private static final String FACET_AGGREGATION_PREFIX = "facet";
 
     private final CordraStorage storage;
     private final NameLocker objectLocker;
@@ -73,8 +93,23 @@ public class ElasticsearchIndexer implements CordraIndexer {
     @SuppressWarnings("unused")
     private final Alerter alerter;
     private final int majorVersion;
+    private final WriteRequest.RefreshPolicy refreshPolicy;
+    private final IndexRefreshCoalescer refresher = new IndexRefreshCoalescer(this::refresh);
+    private final Settings indexSettings;
+    private final String mappingJson;
+    private volatile String shadowIndexName;
+    private volatile long shadowIndexCheckTime = 0;
 
     public ElasticsearchIndexer(RestClientBuilder restClientBuilder, CordraStorage storage, NameLocker objectLocker, Alerter alerter, Settings indexSettings) throws IOException, IndexerException {
+        this(restClientBuilder, storage, objectLocker, alerter, indexSettings, false);
+    }
+
+    /**
+     * @param isWaitForRefresh if true, writes return only once visible to search (refresh=wait_for), so that
+     *                         {@link #ensureIndexUpToDate(long)} need not refresh
+     */
+    public ElasticsearchIndexer(RestClientBuilder restClientBuilder, CordraStorage storage, NameLocker objectLocker, Alerter alerter, Settings indexSettings, boolean isWaitForRefresh) throws IOException, IndexerException {
+        this.refreshPolicy = isWaitForRefresh ? WriteRequest.RefreshPolicy.WAIT_UNTIL : WriteRequest.RefreshPolicy.NONE;
         this.storage = storage;
         this.objectLocker = objectLocker;
         this.client = new RestHighLevelClient(restClientBuilder);
@@ -87,23 +122,25 @@ public class ElasticsearchIndexer implements CordraIndexer {
             MainResponse response = client.info(RequestOptions.DEFAULT);
             majorVersion = response.getVersion().major;
 
+            // kept for creating a shadow index as well as the initial index
+            try (InputStream resource = ElasticsearchIndexer.class.getResourceAsStream("settings.json")) {
+                indexSettings = Settings.builder()
+                    .put(indexSettings)
+                    .loadFromStream("settings.json", resource, true)
+                    .build();
+            }
+            this.indexSettings = indexSettings;
+            try (InputStream resource = ElasticsearchIndexer.class.getResourceAsStream("mappings.json");
+                InputStreamReader reader = new InputStreamReader(resource, StandardCharsets.UTF_8)) {
+                this.mappingJson = StreamUtil.readFully(reader);
+            } catch (Exception e) {
+                throw new AssertionError("Invalid Elasticsearch configuration");
+            }
+
             GetIndexRequest request = new GetIndexRequest(INDEX_NAME);
             boolean exists = client.indices().exists(request, RequestOptions.DEFAULT);
             if (!exists) {
-                try (InputStream resource = ElasticsearchIndexer.class.getResourceAsStream("settings.json")) {
-                    indexSettings = Settings.builder()
-                        .put(indexSettings)
-                        .loadFromStream("settings.json", resource, true)
-                        .build();
-                }
-                String mappingJson;
-                try (InputStream resource = ElasticsearchIndexer.class.getResourceAsStream("mappings.json");
-                    InputStreamReader reader = new InputStreamReader(resource, StandardCharsets.UTF_8)) {
-                    mappingJson = StreamUtil.readFully(reader);
-                } catch (Exception e) {
-                    throw new AssertionError("Invalid Elasticsearch configuration");
-                }
-                initializeIndex(mappingJson, indexSettings);
+                initializeIndex(INDEX_NAME, null);
             } else {
                 if (majorVersion < 6 || majorVersion > 7) {
                     throw new IndexerException("Only Elasticsearch version 6 and 7 are supported.");
@@ -125,6 +162,18 @@ public class ElasticsearchIndexer implements CordraIndexer {
         documentBuilder.setObjectTransformer(objectTransformer);
     }
 
+    public void setStoreSource(boolean isStoreSource) {
+        documentBuilder.setStoreSource(isStoreSource);
+    }
+
+    public void setAcceptStaleSource(boolean isAcceptStaleSource) {
+        documentBuilder.setAcceptStaleSource(isAcceptStaleSource);
+    }
+
+    public void setPayloadTextExtractor(PayloadTextExtractor payloadTextExtractor) {
+        documentBuilder.setPayloadTextExtractor(payloadTextExtractor);
+    }
+
     @Override
     public void indexObject(String cordraServiceId, CordraObject co, boolean indexPayloads, Map<String, JsonNode> pointerToSchemaMap) throws IndexerException {
         List<Runnable> cleanupActions = new ArrayList<>();
@@ -156,10 +205,27 @@ public class ElasticsearchIndexer implements CordraIndexer {
 
     @Override
     public void indexObjects(String cordraServiceId, List<CordraObjectWithIndexDetails> batchWithDetails) throws IndexerException {
+        indexObjects(cordraServiceId, batchWithDetails, false);
+    }
+
+    @Override
+    public void indexObjectsInShadowIndex(String cordraServiceId, List<CordraObjectWithIndexDetails> batchWithDetails) throws IndexerException {
+        indexObjects(cordraServiceId, batchWithDetails, true);
+    }
+
+    private void indexObjects(String cordraServiceId, List<CordraObjectWithIndexDetails> batchWithDetails, boolean isShadowOnly) throws IndexerException {
         // Adds a batch of digital objects to an index in a single request. If an objects type allows for indexing
         // payloads and the object contains payloads, those payloads will be indexed now.
         List<Runnable> cleanupActions = new ArrayList<>();
         try {
+            List<String> indexNames;
+            if (isShadowOnly) {
+                String shadowIndex = getShadowIndexName();
+                if (shadowIndex == null) throw new IndexerException("No shadow index");
+                indexNames = Collections.singletonList(shadowIndex);
+            } else {
+                indexNames = getWriteIndexNames();
+            }
             List<ElasticInputDocumentWithHandle> documentBatch = new ArrayList<>();
             for (CordraObjectWithIndexDetails item : batchWithDetails) {
                 CordraObject co = item.co;
@@ -175,7 +241,7 @@ public class ElasticsearchIndexer implements CordraIndexer {
                 Map<String, List<Object>> doc = documentBuilder.build(co, performIndexPayloads, item.pointerToSchemaMap, cleanupActions);
                 documentBatch.add(new ElasticInputDocumentWithHandle(doc, co.id));
             }
-            BulkResponse response = indexBatch(documentBatch);
+            BulkResponse response = indexBatch(documentBatch, indexNames);
             if(response.hasFailures()) {
                 for (BulkItemResponse bulkItemResponse : response) {
                     if (bulkItemResponse.isFailed()) {
@@ -216,7 +282,7 @@ public class ElasticsearchIndexer implements CordraIndexer {
             Map<String, List<Object>> doc = documentBuilder.build(co, indexPayloads, pointerToSchemaMap, cleanupActions);
             objectLocker.lock(co.id);
             locked = true;
-            if (storage.get(co.id) == null) return;
+            if (!DocumentBuilder.isSameVersion(storage.get(co.id), co)) return;
             IndexResponse response = index(co.id, doc);
             if (!(response.status().getStatus() >= 200 && response.status().getStatus() < 400)) {
                 throw new IndexerException("Could not index object: " + co.id + ". Status Code: " + response.status().getStatus());
@@ -241,47 +307,181 @@ public class ElasticsearchIndexer implements CordraIndexer {
         }
     }
 
-    private BulkResponse indexBatch(List<ElasticInputDocumentWithHandle> batch) throws IOException {
+    private BulkResponse indexBatch(List<ElasticInputDocumentWithHandle> batch, List<String> indexNames) throws IOException {
         BulkRequest bulkRequest = new BulkRequest();
         for (ElasticInputDocumentWithHandle item : batch) {
             //There is no need to percent encode the handle with bulk requests.
             String json = gson.toJson(item.doc);
-            IndexRequest request = new IndexRequest(INDEX_NAME);
-            request.id(item.handle);
-            request.type(TYPE_NAME);
-            request.source(json, XContentType.JSON);
-            bulkRequest.add(request);
+            for (String indexName : indexNames) {
+                IndexRequest request = new IndexRequest(indexName);
+                request.id(item.handle);
+                request.type(TYPE_NAME);
+                request.source(json, XContentType.JSON);
+                bulkRequest.add(request);
+            }
         }
+        bulkRequest.setRefreshPolicy(refreshPolicy);
         return client.bulk(bulkRequest, RequestOptions.DEFAULT);
     }
 
     private IndexResponse index(String handle, Map<String, List<Object>> doc) throws IOException {
+        IndexResponse response = index(INDEX_NAME, handle, doc);
+        String shadowIndex = getShadowIndexName();
+        if (shadowIndex != null) index(shadowIndex, handle, doc);
+        return response;
+    }
+
+    private IndexResponse index(String indexName, String handle, Map<String, List<Object>> doc) throws IOException {
         String encodedHandle = StringUtils.encodeURLComponent(handle);
         String json = gson.toJson(doc);
-        IndexRequest request = new IndexRequest(INDEX_NAME);
+        IndexRequest request = new IndexRequest(indexName);
         request.id(encodedHandle);
         request.type(TYPE_NAME);
         request.source(json, XContentType.JSON);
+        request.setRefreshPolicy(refreshPolicy);
         return client.index(request, RequestOptions.DEFAULT);
     }
 
     @Override
     public void deleteObject(String handle) throws IndexerException {
+        try {
+            delete(INDEX_NAME, handle);
+            String shadowIndex = getShadowIndexName();
+            if (shadowIndex != null) delete(shadowIndex, handle);
+        } catch (Exception e) {
+            throw new IndexerException("Error deleting object: "+handle);
+        }
+    }
+
+    private void delete(String indexName, String handle) throws IOException {
         String encodedHandle = StringUtils.encodeURLComponent(handle);
-        DeleteRequest request = new DeleteRequest(INDEX_NAME);
+        DeleteRequest request = new DeleteRequest(indexName);
         request.id(encodedHandle);
         request.type(TYPE_NAME);
+        request.setRefreshPolicy(refreshPolicy);
+        client.delete(request, RequestOptions.DEFAULT);
+    }
+
+    private List<String> getWriteIndexNames() throws IOException {
+        String shadowIndex = getShadowIndexName();
+        if (shadowIndex == null) return Collections.singletonList(INDEX_NAME);
+        return Arrays.asList(INDEX_NAME, shadowIndex);
+    }
+
+    /**
+     * Returns the name of the shadow index, or null if there is none.  Another instance sharing the index may start
+     * or swap the shadow index, so the alias is looked up again once the last lookup is older than
+     * {@link #SHADOW_INDEX_CHECK_INTERVAL_MS}.
+     */
+    private String getShadowIndexName() throws IOException {
+        long now = System.currentTimeMillis();
+        if (now - shadowIndexCheckTime >= SHADOW_INDEX_CHECK_INTERVAL_MS) {
+            shadowIndexName = lookUpShadowIndexName();
+            shadowIndexCheckTime = now;
+        }
+        return shadowIndexName;
+    }
+
+    private String lookUpShadowIndexName() throws IOException {
+        Set<String> indices = getIndicesWithAlias(SHADOW_ALIAS_NAME);
+        if (indices.isEmpty()) return null;
+        return indices.iterator().next();
+    }
+
+    private Set<String> getIndicesWithAlias(String alias) throws IOException {
+        GetAliasesResponse response = client.indices().getAlias(new GetAliasesRequest(alias), RequestOptions.DEFAULT);
+        if (response.status() == RestStatus.NOT_FOUND) return Collections.emptySet();
+        if (response.status() != RestStatus.OK) {
+            throw new IOException("Unexpected Elasticsearch response getting alias " + alias + ": " + response.status());
+        }
+        return response.getAliases().keySet();
+    }
+
+    @Override
+    public boolean isShadowIndexSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean hasShadowIndex() throws IndexerException {
         try {
-            client.delete(request, RequestOptions.DEFAULT);
-        } catch (Exception e) {
-            throw new IndexerException("Error deleting object: "+handle);
+            return lookUpShadowIndexName() != null;
+        } catch (IOException e) {
+            throw new IndexerException(e);
+        }
+    }
+
+    @Override
+    public void startShadowIndex() throws IndexerException {
+        try {
+            if (lookUpShadowIndexName() != null) throw new IndexerException("Shadow index already exists");
+            String name = INDEX_NAME + "-" + System.currentTimeMillis();
+            initializeIndex(name, SHADOW_ALIAS_NAME);
+            shadowIndexName = name;
+            shadowIndexCheckTime = System.currentTimeMillis();
+            logger.info("Started shadow index " + name);
+            // other instances look up the alias within the interval, after which all writes go to both indexes
+            Thread.sleep(2 * SHADOW_INDEX_CHECK_INTERVAL_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IndexerException(e);
+        } catch (IOException e) {
+            throw new IndexerException(e);
+        }
+    }
+
+    @Override
+    public void swapShadowIndex() throws IndexerException {
+        try {
+            String shadowIndex = lookUpShadowIndexName();
+            if (shadowIndex == null) throw new IndexerException("No shadow index");
+            client.indices().refresh(new RefreshRequest(shadowIndex), RequestOptions.DEFAULT);
+            Set<String> liveIndices = getIndicesWithAlias(INDEX_NAME);
+            // searches and writes use the alias, which moves to the shadow index in one atomic update
+            IndicesAliasesRequest request = new IndicesAliasesRequest();
+            if (liveIndices.isEmpty()) {
+                // the live index is a concrete index with the name of the alias, so it is deleted in the same update
+                request.addAliasAction(AliasActions.removeIndex().index(INDEX_NAME));
+            } else {
+                for (String liveIndex : liveIndices) {
+                    request.addAliasAction(AliasActions.remove().index(liveIndex).alias(INDEX_NAME));
+                }
+            }
+            request.addAliasAction(AliasActions.add().index(shadowIndex).alias(INDEX_NAME));
+            request.addAliasAction(AliasActions.remove().index(shadowIndex).alias(SHADOW_ALIAS_NAME));
+            AcknowledgedResponse response = client.indices().updateAliases(request, RequestOptions.DEFAULT);
+            if (!response.isAcknowledged()) {
+                throw new IndexerException("Update aliases response not acknowledged.");
+            }
+            shadowIndexName = null;
+            shadowIndexCheckTime = System.currentTimeMillis();
+            logger.info("Swapped in shadow index " + shadowIndex);
+            if (!liveIndices.isEmpty()) {
+                client.indices().delete(new DeleteIndexRequest(liveIndices.toArray(new String[0])), RequestOptions.DEFAULT);
+            }
+        } catch (IOException e) {
+            throw new IndexerException(e);
+        }
+    }
+
+    @Override
+    public void discardShadowIndex() throws IndexerException {
+        try {
+            Set<String> shadowIndices = getIndicesWithAlias(SHADOW_ALIAS_NAME);
+            shadowIndexName = null;
+            shadowIndexCheckTime = System.currentTimeMillis();
+            if (shadowIndices.isEmpty()) return;
+            logger.info("Discarding shadow index " + String.join(", ", shadowIndices));
+            client.indices().delete(new DeleteIndexRequest(shadowIndices.toArray(new String[0])), RequestOptions.DEFAULT);
+        } catch (IOException e) {
+            throw new IndexerException(e);
         }
     }
 
     @Override
     @SuppressWarnings("resource")
     public SearchResults<CordraObject> search(String query, QueryParams params) throws IndexerException {
-        return search(query, params, CordraObject.class);
+        return search(query, params, CordraObject.class, false);
 //        try {
 //            SearchResponse results = getSearchResults(query, params);
 //            ElasticScrollableSearchResults scrollableSearchResults = new ElasticScrollableSearchResults(results, highLevelClient);
@@ -299,7 +499,7 @@ public class ElasticsearchIndexer implements CordraIndexer {
     @Override
     @SuppressWarnings("resource")
     public SearchResults<String> searchHandles(String query, QueryParams params) throws IndexerException {
-        return search(query, params, String.class);
+        return search(query, params, String.class, false);
 //        try {
 //            SearchResponse results = getSearchResults(query, params);
 //            ElasticScrollableSearchResults scrollableSearchResults = new ElasticScrollableSearchResults(results, highLevelClient);
@@ -316,15 +516,30 @@ public class ElasticsearchIndexer implements CordraIndexer {
 
     @Override
     public SearchResults<IdType> searchIdType(String query, QueryParams params) throws IndexerException {
-        return search(query, params, IdType.class);
+        return search(query, params, IdType.class, false);
+    }
+
+    @Override
+    public SearchResults<CordraObject> searchForResponse(String query, QueryParams params) throws IndexerException {
+        return search(query, params, CordraObject.class, true);
     }
 
     @SuppressWarnings("resource")
-    private <T> SearchResults<T> search(String query, QueryParams params, Class<T> klass) throws IndexerException {
+    private <T> SearchResults<T> search(String query, QueryParams params, Class<T> klass, boolean isFromSourceAllowed) throws IndexerException {
         try {
-            SearchResponse results = getSearchResults(query, params);
+            SearchResponse results = getSearchResults(query, params, klass == CordraObject.class && isFromSourceAllowed);
+            String nextCursor = getNextCursor(params, results);
+            List<FacetResult> facets = getFacets(params, results);
             ElasticScrollableSearchResults scrollableSearchResults = new ElasticScrollableSearchResults(results, client);
             return new AbstractCordraSearchResultsFromIndexerSearchResultsBatch<T, SearchHit>(scrollableSearchResults, storage, klass) {
+                @Override
+                public String getNextCursor() {
+                    return nextCursor;
+                }
+                @Override
+                public List<FacetResult> getFacets() {
+                    return facets;
+                }
                 @Override
                 public String getIdFromDocument(SearchHit document) {
                     return document.getId();
@@ -336,13 +551,46 @@ public class ElasticsearchIndexer implements CordraIndexer {
                     if (field == null) return null;
                     return (String) field.getValue();
                 }
+                @Override
+                public CordraObject getCordraObjectFromDocument(SearchHit document) {
+                    DocumentField source = document.field(DocumentBuilder.SOURCE_FIELD);
+                    if (source == null) return null;
+                    return documentBuilder.cordraObjectFromSource((String) source.getValue());
+                }
             };
         } catch (Exception e) {
             throw new IndexerException(e);
         }
     }
 
+    private static String getNextCursor(QueryParams params, SearchResponse results) {
+        if (params == null || !params.isCursorPaginated()) return null;
+        SearchHit[] hits = results.getHits().getHits();
+        if (hits.length < params.getPageSize()) return null;
+        return SearchCursor.encode(hits[hits.length - 1].getSortValues());
+    }
+
+    private static List<FacetResult> getFacets(QueryParams params, SearchResponse results) {
+        if (params == null || !params.isCountFacets()) return null;
+        Aggregations aggregations = results.getAggregations();
+        List<FacetResult> facets = new ArrayList<>(params.getFacets().size());
+        for (int i = 0; i < params.getFacets().size(); i++) {
+            List<FacetBucket> buckets = new ArrayList<>();
+            Terms terms = aggregations == null ? null : aggregations.get(FACET_AGGREGATION_PREFIX + i);
+            if (terms != null) {
+                for (Terms.Bucket bucket : terms.getBuckets()) {
+                    buckets.add(new FacetBucket(bucket.getKeyAsString(), bucket.getDocCount()));
+                }
+            }
+            facets.add(new FacetResult(params.getFacets().get(i).getField(), buckets));
+        }
+        return facets;
+    }
+
     public int calculateFromPosition(QueryParams params) {
+        if (params.isCursorPaginated()) {
+            return 0;
+        }
         int pageNum = params.getPageNumber();
         int pageSize = params.getPageSize();
         if (pageNum == 0) {
@@ -355,7 +603,7 @@ public class ElasticsearchIndexer implements CordraIndexer {
         return from;
     }
 
-    private SearchResponse getSearchResults(String query, QueryParams params) throws IOException {
+    private SearchResponse getSearchResults(String query, QueryParams params, boolean isFromSourceAllowed) throws IOException, IndexerException {
         if(params == null) {
             params = QueryParams.DEFAULT;
         }
@@ -377,6 +625,7 @@ public class ElasticsearchIndexer implements CordraIndexer {
             getAllResults = true;
         }
         searchSourceBuilder.size(size);
+        boolean isSorted = false;
         if (sortFields != null) {
             for (SortField sortField : sortFields) {
                 if (!"undefined".equals(sortField.getName())) {
@@ -384,11 +633,34 @@ public class ElasticsearchIndexer implements CordraIndexer {
                     String sortFieldName = documentBuilder.getSortFieldName(sortField.getName());
                     if (sortFieldName != null) {
                         searchSourceBuilder.sort(sortFieldName, sortOrder);
+                        isSorted = true;
                     }
                 }
             }
         }
-        searchSourceBuilder.storedFields(Arrays.asList("type.raw", "type"));
+        if (params.isCursorPaginated()) {
+            // the id breaks ties, so that the sort values of a hit determine its position among all hits
+            if (!isSorted) searchSourceBuilder.sort("_score", SortOrder.DESC);
+            searchSourceBuilder.sort(documentBuilder.getSortFieldName("id"), SortOrder.ASC);
+            if (!QueryParams.INITIAL_CURSOR.equals(params.getCursor())) {
+                searchSourceBuilder.searchAfter(SearchCursor.decode(params.getCursor()));
+            }
+        }
+        if (params.isCountFacets()) {
+            List<FacetSpecification> facets = params.getFacets();
+            for (int i = 0; i < facets.size(); i++) {
+                // ordered by count, ties broken by value
+                searchSourceBuilder.aggregation(AggregationBuilders.terms(FACET_AGGREGATION_PREFIX + i)
+                    .field(DocumentBuilder.getFacetFieldName(facets.get(i).getField()))
+                    .size(facets.get(i).getMaxBuckets()));
+            }
+        }
+        // without the source field, results are read from storage
+        if (isFromSourceAllowed && documentBuilder.isStoreSource()) {
+            searchSourceBuilder.storedFields(Arrays.asList("type.raw", "type", DocumentBuilder.SOURCE_FIELD));
+        } else {
+            searchSourceBuilder.storedFields(Arrays.asList("type.raw", "type"));
+        }
         SearchRequest request = new SearchRequest(INDEX_NAME);
         request.source(searchSourceBuilder);
         request.searchType(SearchType.DFS_QUERY_THEN_FETCH);
@@ -407,6 +679,54 @@ public class ElasticsearchIndexer implements CordraIndexer {
 
     @Override
     public void ensureIndexUpToDate() throws IndexerException {
+        refresher.refresh();
+    }
+
+    @Override
+    public void ensureIndexUpToDate(long txnId) throws IndexerException {
+        if (refreshPolicy == WriteRequest.RefreshPolicy.WAIT_UNTIL) {
+            // the write which produced txnId did not return until it was visible
+            return;
+        }
+        refresher.refresh();
+    }
+
+    @Override
+    public void commit() throws IndexerException {
+        // writes are in the translog once acknowledged, but the translog may be configured to sync asynchronously
+        FlushResponse response;
+        try {
+            response = client.indices().flush(new FlushRequest(INDEX_NAME), RequestOptions.DEFAULT);
+        } catch (Exception e) {
+            throw new IndexerException(e);
+        }
+        if (response.getFailedShards() > 0) {
+            throw new IndexerException("Unexpected Elasticsearch response " + response);
+        }
+    }
+
+    @Override
+    public Long getHighestIndexedTxnId() throws IndexerException {
+        // the sort value is exact, unlike a max aggregation, which is a double
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
+            .query(QueryBuilders.existsQuery("txnId"))
+            .size(1)
+            .fetchSource(false)
+            .sort("txnId", SortOrder.DESC);
+        SearchRequest request = new SearchRequest(INDEX_NAME);
+        request.source(searchSourceBuilder);
+        try {
+            Request lowLevelRequest = SearchRequestResponseConverter.convertRequest(request, majorVersion >= 7);
+            Response response = client.getLowLevelClient().performRequest(lowLevelRequest);
+            SearchHit[] hits = SearchRequestResponseConverter.convertResponse(response).getHits().getHits();
+            if (hits.length == 0) return null;
+            return ((Number) hits[0].getSortValues()[0]).longValue();
+        } catch (Exception e) {
+            throw new IndexerException(e);
+        }
+    }
+
+    private void refresh() throws IndexerException {
         RefreshResponse response;
         try {
             RefreshRequest request = new RefreshRequest(INDEX_NAME);
@@ -421,15 +741,20 @@ public class ElasticsearchIndexer implements CordraIndexer {
 
     @Override
     public void close() throws IOException {
+        documentBuilder.shutdown();
         client.close();
         exec.shutdown();
     }
 
-    private void initializeIndex(String mappingJson, Settings indexSettings) throws IOException, IndexerException {
-        logger.info("Initializing Elasticsearch index.");
-        CreateIndexRequest request = new CreateIndexRequest(INDEX_NAME);
+    /**
+     * @param alias if not null, an alias created with the index
+     */
+    private void initializeIndex(String indexName, String alias) throws IOException, IndexerException {
+        logger.info("Initializing Elasticsearch index " + indexName + ".");
+        CreateIndexRequest request = new CreateIndexRequest(indexName);
         request.settings(indexSettings);
         request.mapping(TYPE_NAME, mappingJson, XContentType.JSON);
+        if (alias != null) request.alias(new Alias(alias));
         @SuppressWarnings("deprecation") // for Elasticsearch 6 support
         CreateIndexResponse response = client.indices().create(request, RequestOptions.DEFAULT);
         if (!response.isAcknowledged()) {
@@ -8,6 +8,7 @@ import org.apache.lucene.document.Field;
 import org.apache.lucene.document.LongPoint;
 import org.apache.lucene.document.NumericDocValuesField;
 import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
@@ -49,6 +50,16 @@ public class DocumentBuilderLucene extends DocumentBuilder<Document> {
         doc.add(new SortedDocValuesField(fieldName, bytesRefForSorting(fieldValue)));
     }
     
+    @Override
+    protected void addStoredFieldToDocument(Document doc, String fieldName, String fieldValue) {
+        doc.add(new StoredField(fieldName, fieldValue));
+    }
+
+    @Override
+    protected void addFacetFieldToDocument(Document doc, String fieldName, String fieldValue) {
+        doc.add(new SortedSetDocValuesField(fieldName, bytesRefForSorting(fieldValue)));
+    }
+
     @Override
     public String getSortFieldName(String field) {
 // allow sort on first value of arrays
@@ -0,0 +1,118 @@
+package net.cnri.cordra.indexer.lucene;
+
+import net.cnri.cordra.api.FacetBucket;
+import net.cnri.cordra.api.FacetResult;
+import net.cnri.cordra.api.FacetSpecification;
+import net.cnri.cordra.indexer.DocumentBuilder;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the matching documents by the values of the sorted set doc values of each faceted field.
+ * As in Lucene's SortedSetDocValuesFacetCounts, the counts are kept by segment ordinal, so that each hit costs only
+ * an array increment; the values of the ordinals are looked up once per segment.
+ */
+public class FacetCountsCollector extends SimpleCollector {
+    private final List<FacetSpecification> facets;
+    private final List<Map<String, Long>> countsByValue;
+    private SortedSetDocValues[] leafDocValues;
+    private int[][] leafCounts;
+
+    public FacetCountsCollector(List<FacetSpecification> facets) {
+        this.facets = facets;
+        this.countsByValue = new ArrayList<>(facets.size());
+        for (int i = 0; i < facets.size(); i++) {
+            countsByValue.add(new HashMap<>());
+        }
+    }
+
+    public List<FacetSpecification> getFacets() {
+        return facets;
+    }
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+        flushLeafCounts();
+        leafDocValues = new SortedSetDocValues[facets.size()];
+        leafCounts = new int[facets.size()][];
+        for (int i = 0; i < facets.size(); i++) {
+            String fieldName = DocumentBuilder.getFacetFieldName(facets.get(i).getField());
+            SortedSetDocValues docValues = DocValues.getSortedSet(context.reader(), fieldName);
+            leafDocValues[i] = docValues;
+            leafCounts[i] = new int[(int) docValues.getValueCount()];
+        }
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        for (int i = 0; i < leafDocValues.length; i++) {
+            SortedSetDocValues docValues = leafDocValues[i];
+            if (!docValues.advanceExact(doc)) continue;
+            int[] counts = leafCounts[i];
+            long ord;
+            while ((ord = docValues.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
+                counts[(int) ord]++;
+            }
+        }
+    }
+
+    @Override
+    public boolean needsScores() {
+        return false;
+    }
+
+    private void flushLeafCounts() throws IOException {
+        if (leafDocValues == null) return;
+        for (int i = 0; i < leafDocValues.length; i++) {
+            int[] counts = leafCounts[i];
+            Map<String, Long> fieldCounts = countsByValue.get(i);
+            for (int ord = 0; ord < counts.length; ord++) {
+                if (counts[ord] == 0) continue;
+                BytesRef value = leafDocValues[i].lookupOrd(ord);
+                fieldCounts.merge(value.utf8ToString(), Long.valueOf(counts[ord]), Long::sum);
+            }
+        }
+        leafDocValues = null;
+        leafCounts = null;
+    }
+
+    /**
+     * Adds the counts of another collector for the same facets, such as one which searched another slice of the index.
+     */
+    public void add(FacetCountsCollector other) throws IOException {
+        other.flushLeafCounts();
+        for (int i = 0; i < facets.size(); i++) {
+            Map<String, Long> fieldCounts = countsByValue.get(i);
+            other.countsByValue.get(i).forEach((value, count) -> fieldCounts.merge(value, count, Long::sum));
+        }
+    }
+
+    /**
+     * Returns the counts, highest first with ties broken by value, once all segments have been searched.
+     */
+    public List<FacetResult> getFacetResults() throws IOException {
+        flushLeafCounts();
+        List<FacetResult> results = new ArrayList<>(facets.size());
+        for (int i = 0; i < facets.size(); i++) {
+            FacetSpecification facet = facets.get(i);
+            List<FacetBucket> buckets = new ArrayList<>();
+            countsByValue.get(i).entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()).thenComparing(Map.Entry.comparingByKey()))
+                .limit(Math.max(facet.getMaxBuckets(), 0))
+                .forEach(entry -> buckets.add(new FacetBucket(entry.getKey(), entry.getValue())));
+            results.add(new FacetResult(facet.getField(), buckets));
+        }
+        return results;
+    }
+}
@@ -6,46 +6,92 @@ import net.cnri.cordra.Design;
 import net.cnri.cordra.api.*;
 import net.cnri.cordra.collections.AbstractSearchResults;
 import net.cnri.cordra.indexer.CordraIndexer;
+import net.cnri.cordra.indexer.CordraObjectWithIndexDetails;
+import net.cnri.cordra.indexer.DocumentBuilder;
 import net.cnri.cordra.indexer.IdType;
 import net.cnri.cordra.indexer.IndexerException;
 import net.cnri.cordra.indexer.ObjectTransformer;
+import net.cnri.cordra.indexer.PayloadTextExtractor;
+import net.cnri.cordra.indexer.SearchCursor;
 import net.cnri.cordra.storage.CordraStorage;
 import net.cnri.cordra.sync.NameLocker;
+import net.cnri.cordra.util.LatencyHistogram;
+import org.apache.commons.io.FileUtils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
 import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.LongPoint;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.PointValues;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.*;
+import org.apache.lucene.util.BytesRef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
+/**
+ * Indexes into a local Lucene index.
+ *
+ * <p>Writes are searchable once the NRT reopen thread refreshes the searcher, within the configured maximum
+ * staleness, or sooner when a caller waits for its write.  Durability is separate: with the default {@code async}
+ * durability the index is committed in the background at most {@code commitIntervalMs} after a write, or earlier
+ * once {@code commitMaxDocs} writes or {@code commitRamBufferSizeMB} of buffered documents are pending, so that
+ * each commit only has a bounded amount to flush and fsync.  With {@code sync} durability each write returns once
+ * a commit includes it; concurrent writers share commits.
+ *
+ * <p>The index may be partitioned by a hash of the object id into several shards, each with its own
+ * {@link IndexWriter} so that flushing and merging proceed in parallel.  A search runs over all the shards as one
+ * {@link MultiReader}, searching their segments in parallel and merging the sorted results.
+ */
 public class LuceneIndexer implements CordraIndexer {
     private static Logger logger = LoggerFactory.getLogger(LuceneIndexer.class);
     private static int SEARCH_WINDOW_SIZE = 8192;
 
     private DocumentBuilderLucene documentBuilder;
-    private final IndexWriter indexWriter;
+    private volatile ShardSet liveIndex;
+    // while the index is rebuilt into a shadow index, writes go to both; see startShadowIndex
+    private volatile ShardSet shadowIndex;
+    // writes hold the read lock, so that the shadow index is started or swapped in between writes
+    private final ReadWriteLock shadowLock = new ReentrantReadWriteLock();
     private final ExecutorService exec;
+    private final ExecutorService searchExecServ;
     private Analyzer analyzer;
     private final QueryCache queryCache;
-    private final SearcherManager searcherManager;
+    private final LuceneIndexerOptions options;
+    private final long commitRamBufferBytes;
     private AtomicBoolean isCommitScheduled = new AtomicBoolean();
+    private final AtomicBoolean isEarlyCommitQueued = new AtomicBoolean();
+    private final AtomicLong commitCount = new AtomicLong();
+    private final LatencyHistogram commitLatency = new LatencyHistogram();
+    private final LatencyHistogram refreshLatency = new LatencyHistogram();
     private ScheduledExecutorService commitExecServ = Executors.newScheduledThreadPool(1);
     {
         ((ScheduledThreadPoolExecutor)commitExecServ).setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
@@ -59,35 +105,147 @@ public class LuceneIndexer implements CordraIndexer {
     // for testing
     @SuppressWarnings("resource")
     public LuceneIndexer(CordraStorage storage, NameLocker objectLocker) throws IOException {
-        this(new ByteBuffersDirectory(), storage, false, objectLocker);
+        this(storage, objectLocker, new LuceneIndexerOptions());
+    }
+
+    public LuceneIndexer(CordraStorage storage, NameLocker objectLocker, LuceneIndexerOptions options) throws IOException {
+        this(storage, false, objectLocker, options, null);
     }
 
     public LuceneIndexer(File indexBase, CordraStorage storage, boolean isStoreFields, NameLocker objectLocker) throws IOException {
-        this(newFSDirectory(indexBase), storage, isStoreFields, objectLocker);
+        this(indexBase, storage, isStoreFields, objectLocker, new LuceneIndexerOptions());
+    }
+
+    public LuceneIndexer(File indexBase, CordraStorage storage, boolean isStoreFields, NameLocker objectLocker, LuceneIndexerOptions options) throws IOException {
+        this(storage, isStoreFields, objectLocker, options, currentIndexDir(indexBase, options.shards));
+    }
+
+    private static List<Directory> newByteBuffersDirectories(int numShards) {
+        List<Directory> directories = new ArrayList<>();
+        for (int i = 0; i < numShards; i++) {
+            directories.add(new ByteBuffersDirectory());
+        }
+        return directories;
+    }
+
+    private static String indexDirName(int numShards) {
+        if (numShards <= 1) return "cordraIndex";
+        // ids are partitioned differently for each number of shards, so each number has its own index,
+        // which starts empty and is then filled by a reindex
+        return "cordraIndex-" + numShards + "-shards";
+    }
+
+    // the live or shadow index directories, and their pointer files, for any number of shards
+    private static final Pattern INDEX_DIR_NAME_PATTERN = Pattern.compile("cordraIndex(-\\d+-shards)?(-\\d+)?");
+    private static final Pattern INDEX_POINTER_NAME_PATTERN = Pattern.compile("cordraIndex(-\\d+-shards)?\\.current");
+
+    /**
+     * Returns the directory of the live index.  After a shadow index is swapped in, a pointer file in the index base
+     * names its directory.  All other index directories are deleted: those left by an interrupted shadow rebuild or
+     * swap, and those for other numbers of shards, which stopped receiving writes when the number was changed and
+     * so must never be opened again; changing back starts from an empty index, which is filled by a reindex.
+     */
+    private static File currentIndexDir(File indexBase, int numShards) throws IOException {
+        String name = indexDirName(numShards);
+        String currentName = name;
+        File pointerFile = new File(indexBase, name + ".current");
+        if (pointerFile.exists()) {
+            currentName = new String(Files.readAllBytes(pointerFile.toPath()), StandardCharsets.UTF_8).trim();
+        }
+        File[] siblings = indexBase.listFiles();
+        if (siblings != null) {
+            for (File sibling : siblings) {
+                String siblingName = sibling.getName();
+                if (siblingName.equals(currentName) || siblingName.equals(pointerFile.getName())) continue;
+                if (INDEX_DIR_NAME_PATTERN.matcher(siblingName).matches()) {
+                    logger.info("Deleting unused index directory " + sibling);
+                    FileUtils.deleteDirectory(sibling);
+                } else if (INDEX_POINTER_NAME_PATTERN.matcher(siblingName).matches()) {
+                    Files.delete(sibling.toPath());
+                }
+            }
+        }
+        return new File(indexBase, currentName);
     }
 
-    private static Directory newFSDirectory(File indexBase) throws IOException {
-        File indexDir = new File(indexBase, "cordraIndex");
+    private void writeCurrentIndexDir(File newIndexDir) throws IOException {
+        File indexBase = newIndexDir.getParentFile();
+        String pointerName = indexDirName(options.shards) + ".current";
+        Path tempPath = new File(indexBase, pointerName + ".tmp").toPath();
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(newIndexDir.getName().getBytes(StandardCharsets.UTF_8)));
+            channel.force(true);
+        }
+        Files.move(tempPath, new File(indexBase, pointerName).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        org.apache.lucene.util.IOUtils.fsync(indexBase.toPath(), true);
+    }
+
+    private static List<Directory> newFSDirectories(File indexDir, int numShards) throws IOException {
+        if (numShards <= 1) {
+            return Collections.singletonList(newFSDirectory(indexDir));
+        }
+        List<Directory> directories = new ArrayList<>();
+        for (int i = 0; i < numShards; i++) {
+            directories.add(newFSDirectory(new File(indexDir, String.valueOf(i))));
+        }
+        return directories;
+    }
+
+    private static Directory newFSDirectory(File indexDir) throws IOException {
         indexDir.mkdirs();
         return FSDirectory.open(indexDir.toPath());
     }
 
-    private LuceneIndexer(Directory indexDirectory, CordraStorage storage, boolean isStoreFields, NameLocker objectLocker) throws IOException {
+    /**
+     * @param indexDir the directory of the index, or null to keep the index in memory
+     */
+    private LuceneIndexer(CordraStorage storage, boolean isStoreFields, NameLocker objectLocker, LuceneIndexerOptions options, File indexDir) throws IOException {
         this.storage = storage;
+        this.options = options;
+        this.commitRamBufferBytes = (long) (options.commitRamBufferSizeMB * 1024 * 1024);
         this.objectLocker = objectLocker;
         this.isStoreFields = isStoreFields;
         this.documentBuilder = new DocumentBuilderLucene(this.isStoreFields, storage);
         exec = Executors.newSingleThreadExecutor();
         initAnalyzer();
-        indexWriter = new IndexWriter(indexDirectory, new IndexWriterConfig(analyzer).setOpenMode(OpenMode.CREATE_OR_APPEND));
-        if(!DirectoryReader.indexExists(indexDirectory)) {
-            indexWriter.commit();
-        }
-        searcherManager = new SearcherManager(indexWriter, true, true, null);
+        liveIndex = new ShardSet(openShards(indexDir, "LuceneIndexer NRT reopen"), indexDir);
+        searchExecServ = liveIndex.shards.length == 1 ? null : Executors.newFixedThreadPool(liveIndex.shards.length);
         long maxRamBytesUsed = Math.min(1L << 30 /* 1GB */, Runtime.getRuntime().maxMemory() / 5);
         queryCache = new LRUQueryCache(1000, maxRamBytesUsed);
     }
 
+    private Shard[] openShards(File dir, String reopenThreadName) throws IOException {
+        List<Directory> shardDirectories = dir == null ? newByteBuffersDirectories(options.shards) : newFSDirectories(dir, options.shards);
+        Shard[] res = new Shard[shardDirectories.size()];
+        try {
+            for (int i = 0; i < res.length; i++) {
+                String name = res.length == 1 ? reopenThreadName : reopenThreadName + " shard " + i;
+                res[i] = new Shard(shardDirectories.get(i), name);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Shard shard : res) {
+                if (shard != null) discardLoggingException(shard);
+            }
+            throw e;
+        }
+        return res;
+    }
+
+    private IndexWriterConfig newIndexWriterConfig() {
+        double ramBufferSizeMB = options.ramBufferSizeMB;
+        if (options.commitRamBufferSizeMB > 0) {
+            // leave room for the early commit to write the buffer before Lucene flushes it on its own
+            ramBufferSizeMB = Math.max(ramBufferSizeMB, 2 * options.commitRamBufferSizeMB);
+        }
+        return new IndexWriterConfig(analyzer)
+            .setOpenMode(OpenMode.CREATE_OR_APPEND)
+            .setRAMBufferSizeMB(ramBufferSizeMB);
+    }
+
+    private static Shard shardFor(Shard[] shards, String id) {
+        return shards[Math.floorMod(id.hashCode(), shards.length)];
+    }
+
     @SuppressWarnings("resource")
     private void initAnalyzer() {
         Map<String,Analyzer> analyzerMap = new HashMap<>();
@@ -119,6 +277,18 @@ public class LuceneIndexer implements CordraIndexer {
         documentBuilder.setObjectTransformer(objectTransformer);
     }
 
+    public void setStoreSource(boolean isStoreSource) {
+        documentBuilder.setStoreSource(isStoreSource);
+    }
+
+    public void setAcceptStaleSource(boolean isAcceptStaleSource) {
+        documentBuilder.setAcceptStaleSource(isAcceptStaleSource);
+    }
+
+    public void setPayloadTextExtractor(PayloadTextExtractor payloadTextExtractor) {
+        documentBuilder.setPayloadTextExtractor(payloadTextExtractor);
+    }
+
     @Override
     public void indexObject(String cordraServiceId, CordraObject co, boolean indexPayloads, Map<String, JsonNode> pointerToSchemaMap) throws IndexerException {
         List<Runnable> cleanupActions = new ArrayList<>();
@@ -136,8 +306,7 @@ public class LuceneIndexer implements CordraIndexer {
             if (indexPayloads && hasPayloads && !shutdown) {
                 exec.submit(() -> indexObjectWithPayloadsAndLogException(co, pointerToSchemaMap));
             }
-            indexWriter.updateDocument(new Term("id", co.id), doc);
-            commitAfterDelay();
+            updateDocument(co.id, doc, co.metadata == null ? null : co.metadata.txnId);
         } catch (Exception e) {
             throw new IndexerException(e);
         } finally {
@@ -167,9 +336,8 @@ public class LuceneIndexer implements CordraIndexer {
             //Document doc = new DocumentBuilderLucene(isStoreFields, storage).build(co, indexPayloads, pointerToSchemaMap, cleanupActions);
             objectLocker.lock(co.id);
             locked = true;
-            if (storage.get(co.id) == null) return;
-            indexWriter.updateDocument(new Term("id", co.id), doc);
-            commitAfterDelay();
+            if (!DocumentBuilder.isSameVersion(storage.get(co.id), co)) return;
+            updateDocument(co.id, doc, null);
         } catch (Exception e) {
             throw new IndexerException(e);
         } finally {
@@ -180,13 +348,173 @@ public class LuceneIndexer implements CordraIndexer {
         }
     }
 
+    /**
+     * Writes the document to the live index, and to the shadow index if there is one.
+     *
+     * @param txnId the txnId of the write, or null if not a new write of the object
+     */
+    private void updateDocument(String id, Document doc, Long txnId) throws IOException {
+        shadowLock.readLock().lock();
+        try {
+            Shard shard = shardFor(liveIndex.shards, id);
+            long gen = shard.indexWriter.updateDocument(new Term("id", id), doc);
+            if (txnId != null) shard.txnIdToGeneration.merge(txnId, gen, Math::max);
+            ShardSet shadow = shadowIndex;
+            if (shadow != null) {
+                // the fields built hold values rather than readers, so the same document can be added to both
+                Shard shadowShard = shardFor(shadow.shards, id);
+                long shadowGen = shadowShard.indexWriter.updateDocument(new Term("id", id), doc);
+                if (txnId != null) shadowShard.txnIdToGeneration.merge(txnId, shadowGen, Math::max);
+            }
+            afterWrite(shard, gen);
+        } finally {
+            shadowLock.readLock().unlock();
+        }
+    }
+
     @Override
     public void deleteObject(String handle) throws IndexerException {
+        shadowLock.readLock().lock();
         try {
-            indexWriter.deleteDocuments(new Term("id", handle));
-            commitAfterDelay();
+            Shard shard = shardFor(liveIndex.shards, handle);
+            long gen = shard.indexWriter.deleteDocuments(new Term("id", handle));
+            ShardSet shadow = shadowIndex;
+            if (shadow != null) {
+                shardFor(shadow.shards, handle).indexWriter.deleteDocuments(new Term("id", handle));
+            }
+            afterWrite(shard, gen);
         } catch (Exception e) {
             throw new IndexerException("Unexpected Lucene response ", e);
+        } finally {
+            shadowLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isShadowIndexSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean hasShadowIndex() {
+        return shadowIndex != null;
+    }
+
+    @Override
+    public void startShadowIndex() throws IndexerException {
+        shadowLock.writeLock().lock();
+        try {
+            if (shadowIndex != null) throw new IndexerException("Shadow index already exists");
+            File dir = null;
+            if (liveIndex.dir != null) {
+                dir = new File(liveIndex.dir.getParentFile(), indexDirName(options.shards) + "-" + System.currentTimeMillis());
+            }
+            shadowIndex = new ShardSet(openShards(dir, "LuceneIndexer shadow NRT reopen"), dir);
+            logger.info("Started shadow index" + (dir == null ? "" : " in " + dir));
+        } catch (IOException e) {
+            throw new IndexerException(e);
+        } finally {
+            shadowLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void indexObjectsInShadowIndex(String cordraServiceId, List<CordraObjectWithIndexDetails> batch) throws IndexerException {
+        List<Runnable> cleanupActions = new ArrayList<>();
+        shadowLock.readLock().lock();
+        try {
+            ShardSet shadow = shadowIndex;
+            if (shadow == null) throw new IndexerException("No shadow index");
+            for (CordraObjectWithIndexDetails item : batch) {
+                CordraObject co = item.co;
+                // payloads are indexed now, as in a batch, rather than in the background where they might miss the swap
+                boolean hasPayloads = (co.payloads != null && co.payloads.size() != 0);
+                boolean performIndexPayloads = item.indexPayloads && hasPayloads;
+                if (performIndexPayloads) {
+                    if (co.metadata == null) co.metadata = new CordraObject.Metadata();
+                    if (co.metadata.internalMetadata == null) co.metadata.internalMetadata = new JsonObject();
+                    co.metadata.internalMetadata.addProperty(PAYLOAD_INDEX_STATE, INDEX_COMPLETE);
+                    co.metadata.internalMetadata.addProperty(PAYLOAD_INDEX_CORDRA_SERVICE_ID, cordraServiceId);
+                }
+                Document doc = documentBuilder.build(co, !hasPayloads || performIndexPayloads, item.pointerToSchemaMap, cleanupActions);
+                Shard shard = shardFor(shadow.shards, co.id);
+                long gen = shard.indexWriter.updateDocument(new Term("id", co.id), doc);
+                if (co.metadata != null && co.metadata.txnId != null) {
+                    shard.txnIdToGeneration.merge(co.metadata.txnId, gen, Math::max);
+                }
+            }
+        } catch (IndexerException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IndexerException(e);
+        } finally {
+            shadowLock.readLock().unlock();
+            for (Runnable runnable : cleanupActions) {
+                runnable.run();
+            }
+        }
+    }
+
+    @Override
+    public void swapShadowIndex() throws IndexerException {
+        ShardSet oldIndex;
+        ShardSet newIndex;
+        shadowLock.writeLock().lock();
+        try {
+            if (shadowIndex == null) throw new IndexerException("No shadow index");
+            for (Shard shard : shadowIndex.shards) {
+                shard.commit();
+                shard.searcherManager.maybeRefreshBlocking();
+            }
+            // once the pointer file names the shadow index, a restart opens it, even if the swap goes no further
+            if (shadowIndex.dir != null) writeCurrentIndexDir(shadowIndex.dir);
+            oldIndex = liveIndex;
+            newIndex = shadowIndex;
+            liveIndex = newIndex;
+            shadowIndex = null;
+        } catch (IOException e) {
+            throw new IndexerException(e);
+        } finally {
+            shadowLock.writeLock().unlock();
+        }
+        logger.info("Swapped in shadow index" + (newIndex.dir == null ? "" : " " + newIndex.dir));
+        // closed and deleted once the searches and waits in progress on the old index release it
+        oldIndex.decRef();
+    }
+
+    @Override
+    public void discardShadowIndex() {
+        ShardSet oldShadowIndex;
+        shadowLock.writeLock().lock();
+        try {
+            oldShadowIndex = shadowIndex;
+            shadowIndex = null;
+        } finally {
+            shadowLock.writeLock().unlock();
+        }
+        if (oldShadowIndex == null) return;
+        logger.info("Discarding shadow index");
+        oldShadowIndex.decRef();
+    }
+
+    private void deleteShards(Shard[] shardsToDelete, File dir) {
+        for (Shard shard : shardsToDelete) {
+            discardLoggingException(shard);
+        }
+        if (dir != null) {
+            try {
+                FileUtils.deleteDirectory(dir);
+            } catch (IOException e) {
+                logger.warn("Error deleting index directory " + dir, e);
+            }
+        }
+    }
+
+    private void discardLoggingException(Shard shard) {
+        try {
+            shard.discard();
+        } catch (IOException e) {
+            logger.warn("Error closing index", e);
         }
     }
 
@@ -205,23 +533,57 @@ public class LuceneIndexer implements CordraIndexer {
         return search(query, params, IdType.class);
     }
 
+    @Override
+    public SearchResults<CordraObject> searchForResponse(String query, QueryParams params) throws IndexerException {
+        return search(query, params, CordraObject.class, true);
+    }
+
     public <T> SearchResults<T> search(String query, QueryParams params, Class<T> klass) throws IndexerException {
+        return search(query, params, klass, false);
+    }
+
+    private <T> SearchResults<T> search(String query, QueryParams params, Class<T> klass, boolean isFromSourceAllowed) throws IndexerException {
         String queryStrFixed = CordraIndexer.fixSlashes(query);
         //QueryParser queryParser = new QueryParser("internal.all", analyzer);
         QueryParser queryParser = new CordraQueryParser(analyzer);
-        IndexSearcher searcher = null;
+        AcquiredSearcher acquired = null;
         try {
-            searcher = searcherManager.acquire();
+            acquired = acquireSearcher();
+            IndexSearcher searcher = acquired.searcher;
             searcher.setQueryCache(queryCache);
             Query q = queryParser.parse(queryStrFixed);
             Sort sort = buildSort(params);
             TopDocs topDocs;
             int totalHits;
+            String nextCursor = null;
+            FacetCountsCollector facetsCollector = null;
+            if (params != null && params.isCountFacets()) {
+                facetsCollector = new FacetCountsCollector(params.getFacets());
+            }
             if (params != null && params.getPageSize() == 0) {
                 TotalHitCountCollector collector = new TotalHitCountCollector();
-                searcher.search(q, collector);
+                // counting only, so the facets are counted in the same pass
+                searcher.search(q, facetsCollector == null ? collector : MultiCollector.wrap(collector, facetsCollector));
                 topDocs = null;
                 totalHits = collector.getTotalHits();
+            } else if (params != null && params.isCursorPaginated()) {
+                sort = buildCursorSort(sort);
+                FieldDoc after = decodeCursor(params.getCursor(), sort, searcher);
+                if (facetsCollector != null) {
+                    topDocs = searchWithFacets(searcher, q, params.getPageSize(), sort, after, facetsCollector);
+                } else if (after == null) {
+                    topDocs = searcher.search(q, params.getPageSize(), sort);
+                } else {
+                    topDocs = searcher.searchAfter(after, q, params.getPageSize(), sort);
+                }
+                totalHits = (int) topDocs.totalHits;
+                if (topDocs.scoreDocs.length == params.getPageSize()) {
+                    FieldDoc last = (FieldDoc) topDocs.scoreDocs[topDocs.scoreDocs.length - 1];
+                    nextCursor = SearchCursor.encode(last.fields);
+                }
+            } else if (facetsCollector != null) {
+                topDocs = searchWithFacets(searcher, q, SEARCH_WINDOW_SIZE, sort, null, facetsCollector);
+                totalHits = (int) topDocs.totalHits;
             } else if (sort == null) {
                 topDocs = searcher.search(q, SEARCH_WINDOW_SIZE);
                 totalHits = (int) topDocs.totalHits;
@@ -229,12 +591,16 @@ public class LuceneIndexer implements CordraIndexer {
                 topDocs = searcher.search(q, SEARCH_WINDOW_SIZE, sort);
                 totalHits = (int) topDocs.totalHits;
             }
-            return new LuceneSearchResults<>(searcher, q, sort, params, topDocs, totalHits, klass);
+            List<FacetResult> facets = null;
+            if (facetsCollector != null) {
+                facets = facetsCollector.getFacetResults();
+            }
+            return new LuceneSearchResults<>(acquired, q, sort, params, topDocs, totalHits, nextCursor, facets, klass, isFromSourceAllowed);
             //return new QueryResults<>(topDocs.totalHits, new CloseableIteratorFromSearch<>(searcher, q, sort, params, topDocs, klass));
         } catch (Exception e) {
-            if (searcher != null) try {
-                // Note: in non-exceptional cases, the searcherManager.release method is called when the QueryResults is closed.
-                searcherManager.release(searcher);
+            if (acquired != null) try {
+                // Note: in non-exceptional cases, the searcher is released when the QueryResults is closed.
+                acquired.release();
             } catch (IOException ex) {
                 e.addSuppressed(ex);
             }
@@ -242,6 +608,133 @@ public class LuceneIndexer implements CordraIndexer {
         }
     }
 
+    /**
+     * Searches for the top hits and counts the facets in the same pass, as {@link IndexSearcher#searchAfter} would but
+     * with each slice's top-hits collector wrapped together with a facet counter; the slices' counts are added into
+     * {@code facetsCollector}.
+     */
+    private static TopDocs searchWithFacets(IndexSearcher searcher, Query q, int numHits, Sort sort, FieldDoc after, FacetCountsCollector facetsCollector) throws IOException {
+        int cappedNumHits = Math.max(1, Math.min(numHits, searcher.getIndexReader().maxDoc()));
+        Sort rewrittenSort = sort == null ? null : sort.rewrite(searcher);
+        // the searcher creates the collectors on this thread, before searching the slices
+        List<TopDocsCollector<?>> topCollectors = new ArrayList<>();
+        List<FacetCountsCollector> sliceFacetsCollectors = new ArrayList<>();
+        return searcher.search(q, new CollectorManager<Collector, TopDocs>() {
+            @Override
+            public Collector newCollector() throws IOException {
+                TopDocsCollector<?> topCollector;
+                if (rewrittenSort == null) {
+                    topCollector = TopScoreDocCollector.create(cappedNumHits, after);
+                } else {
+                    topCollector = TopFieldCollector.create(rewrittenSort, cappedNumHits, after, true, false, false);
+                }
+                FacetCountsCollector sliceFacetsCollector = new FacetCountsCollector(facetsCollector.getFacets());
+                topCollectors.add(topCollector);
+                sliceFacetsCollectors.add(sliceFacetsCollector);
+                return MultiCollector.wrap(topCollector, sliceFacetsCollector);
+            }
+
+            @Override
+            public TopDocs reduce(Collection<Collector> collectors) throws IOException {
+                for (FacetCountsCollector sliceFacetsCollector : sliceFacetsCollectors) {
+                    facetsCollector.add(sliceFacetsCollector);
+                }
+                if (rewrittenSort == null) {
+                    TopDocs[] topDocs = new TopDocs[topCollectors.size()];
+                    for (int i = 0; i < topDocs.length; i++) {
+                        topDocs[i] = topCollectors.get(i).topDocs();
+                    }
+                    return TopDocs.merge(0, cappedNumHits, topDocs, true);
+                } else {
+                    TopFieldDocs[] topDocs = new TopFieldDocs[topCollectors.size()];
+                    for (int i = 0; i < topDocs.length; i++) {
+                        topDocs[i] = (TopFieldDocs) topCollectors.get(i).topDocs();
+                    }
+                    return TopDocs.merge(rewrittenSort, 0, cappedNumHits, topDocs, true);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the live index with a reference added, which the caller must release with {@link ShardSet#decRef()}.
+     */
+    private ShardSet acquireLiveIndex() {
+        while (true) {
+            ShardSet index = liveIndex;
+            // fails only once a swap has replaced the index, so the next read sees its replacement
+            if (index.tryIncRef()) return index;
+        }
+    }
+
+    private AcquiredSearcher acquireSearcher() throws IOException {
+        // the searchers are released to the shards they came from, even if a shadow index is swapped in meanwhile
+        ShardSet index = acquireLiveIndex();
+        Shard[] shards = index.shards;
+        IndexSearcher[] shardSearchers = new IndexSearcher[shards.length];
+        try {
+            if (shards.length == 1) {
+                shardSearchers[0] = shards[0].searcherManager.acquire();
+                return new AcquiredSearcher(index, shardSearchers[0], null, shardSearchers);
+            }
+            IndexReader[] readers = new IndexReader[shards.length];
+            for (int i = 0; i < shards.length; i++) {
+                shardSearchers[i] = shards[i].searcherManager.acquire();
+                readers[i] = shardSearchers[i].getIndexReader();
+            }
+            MultiReader multiReader = new MultiReader(readers, false);
+            return new AcquiredSearcher(index, new IndexSearcher(multiReader, searchExecServ), multiReader, shardSearchers);
+        } catch (IOException | RuntimeException e) {
+            for (int i = 0; i < shards.length; i++) {
+                if (shardSearchers[i] != null) shards[i].searcherManager.release(shardSearchers[i]);
+            }
+            index.decRef();
+            throw e;
+        }
+    }
+
+    /**
+     * A searcher over all shards, holding the searcher acquired from each shard, and a reference to the index,
+     * until released.
+     */
+    private static class AcquiredSearcher {
+        private final ShardSet index;
+        private final Shard[] shards;
+        final IndexSearcher searcher;
+        private final MultiReader multiReader;
+        private final IndexSearcher[] shardSearchers;
+
+        AcquiredSearcher(ShardSet index, IndexSearcher searcher, MultiReader multiReader, IndexSearcher[] shardSearchers) {
+            this.index = index;
+            this.shards = index.shards;
+            this.searcher = searcher;
+            this.multiReader = multiReader;
+            this.shardSearchers = shardSearchers;
+        }
+
+        void release() throws IOException {
+            IOException exception = null;
+            // the MultiReader holds a reference to each shard's reader until closed
+            if (multiReader != null) {
+                try {
+                    multiReader.close();
+                } catch (IOException e) {
+                    exception = e;
+                }
+            }
+            for (int i = 0; i < shardSearchers.length; i++) {
+                try {
+                    shards[i].searcherManager.release(shardSearchers[i]);
+                } catch (IOException e) {
+                    if (exception == null) exception = e;
+                    else exception.addSuppressed(e);
+                }
+            }
+            index.decRef();
+            if (exception != null) throw exception;
+        }
+    }
+
     public static class CordraQueryParser extends QueryParser {
         public CordraQueryParser(Analyzer analyzer) {
             super("internal.all", analyzer);
@@ -295,6 +788,33 @@ public class LuceneIndexer implements CordraIndexer {
         return new Sort(sortFields);
     }
 
+    // the id breaks ties, so that the sort values of a hit determine its position among all hits
+    private Sort buildCursorSort(Sort sort) {
+        SortField idSortField = new SortField(documentBuilder.getSortFieldName("id"), SortField.Type.STRING);
+        if (sort == null) return new Sort(SortField.FIELD_SCORE, idSortField);
+        SortField[] sortFields = Arrays.copyOf(sort.getSort(), sort.getSort().length + 1);
+        sortFields[sortFields.length - 1] = idSortField;
+        return new Sort(sortFields);
+    }
+
+    private static FieldDoc decodeCursor(String cursor, Sort sort, IndexSearcher searcher) throws IndexerException {
+        if (QueryParams.INITIAL_CURSOR.equals(cursor)) return null;
+        Object[] values = SearchCursor.decode(cursor);
+        SortField[] sortFields = sort.getSort();
+        if (values.length != sortFields.length) throw new IndexerException("Parse failure: cursor does not match sort");
+        for (int i = 0; i < values.length; i++) {
+            SortField.Type type = sortFields[i].getType();
+            boolean matches;
+            if (type == SortField.Type.SCORE) matches = values[i] instanceof Float;
+            else if (type == SortField.Type.LONG) matches = values[i] instanceof Long;
+            else matches = values[i] == null || values[i] instanceof BytesRef;
+            if (!matches) throw new IndexerException("Parse failure: cursor does not match sort");
+        }
+        // the doc is only compared when all sort values, including the id, are equal; skip such hits
+        int lastDoc = searcher.getIndexReader().maxDoc() - 1;
+        return new FieldDoc(lastDoc, Float.NaN, values);
+    }
+
     private SortField makeLuceneSortField(net.cnri.cordra.api.SortField cordraSortField) {
         String fieldName = documentBuilder.getSortFieldName(cordraSortField.getName());
         if (fieldName == null) return null;
@@ -311,6 +831,7 @@ public class LuceneIndexer implements CordraIndexer {
     private static final Set<String> ID_TYPE_SET = new HashSet<>(Arrays.asList("id", "type"));
 
     private class LuceneSearchResults<T> extends AbstractSearchResults<T> {
+        final AcquiredSearcher acquired;
         final IndexSearcher searcher;
         final Query q;
         final Sort sort;
@@ -321,22 +842,39 @@ public class LuceneIndexer implements CordraIndexer {
         int next = 0;
         boolean skipped = false;
         int returned = 0;
+        final String nextCursor;
+        final List<FacetResult> facets;
         final Class<T> klass;
+        final boolean isFromSourceAllowed;
 
-        public LuceneSearchResults(IndexSearcher searcher, Query q, Sort sort, QueryParams params, TopDocs topDocs, int totalHits, Class<T> klass) {
-            this.searcher = searcher;
+        public LuceneSearchResults(AcquiredSearcher acquired, Query q, Sort sort, QueryParams params, TopDocs topDocs, int totalHits, String nextCursor, List<FacetResult> facets, Class<T> klass, boolean isFromSourceAllowed) {
+            this.acquired = acquired;
+            this.searcher = acquired.searcher;
             this.q = q;
             this.sort = sort;
             this.topDocs = topDocs;
             this.totalHits = totalHits;
+            this.nextCursor = nextCursor;
+            this.facets = facets;
             this.klass = klass;
+            this.isFromSourceAllowed = isFromSourceAllowed;
             if (params != null) {
                 pageSize = params.getPageSize();
-                toSkip = pageSize * params.getPageNumber();
+                if (!params.isCursorPaginated()) toSkip = pageSize * params.getPageNumber();
                 if (toSkip <= 0) skipped = true;
             }
         }
 
+        @Override
+        public String getNextCursor() {
+            return nextCursor;
+        }
+
+        @Override
+        public List<FacetResult> getFacets() {
+            return facets;
+        }
+
         @Override
         protected T computeNext() {
             if (pageSize >= 0 && returned >= pageSize) return null;
@@ -414,6 +952,9 @@ public class LuceneIndexer implements CordraIndexer {
 //                if (isStoreFields) {
 //                    return (T) new LuceneSearchResultDigitalObject(doc);
 //                } else {
+                    // the stored source lacks internal metadata, so only results for responses may come from it
+                    CordraObject co = isFromSourceAllowed ? documentBuilder.cordraObjectFromSource(doc.get(DocumentBuilder.SOURCE_FIELD)) : null;
+                    if (co != null) return (T) co;
                     String id = doc.get("id");
                     return (T) storage.get(id);
 //                }
@@ -422,7 +963,7 @@ public class LuceneIndexer implements CordraIndexer {
 
         @Override
         protected void closeOnlyOnce() {
-            try { searcherManager.release(searcher); } catch (IOException e) { logger.warn("Error releasing searcher", e); }
+            try { acquired.release(); } catch (IOException e) { logger.warn("Error releasing searcher", e); }
         }
 
         @Override
@@ -438,28 +979,171 @@ public class LuceneIndexer implements CordraIndexer {
 //        } catch (IOException e) {
 //            throw new IndexerException(e);
 //        }
+        ShardSet index = acquireLiveIndex();
         try {
-            searcherManager.maybeRefreshBlocking();
+            for (Shard shard : index.shards) {
+                shard.searcherManager.maybeRefreshBlocking();
+            }
         } catch (Exception e) {
             throw new IndexerException(e);
+        } finally {
+            index.decRef();
+        }
+    }
+
+    @Override
+    public void ensureIndexUpToDate(long txnId) throws IndexerException {
+        // the reference keeps the reopen threads running while waiting, even if a shadow index is swapped in
+        ShardSet index = acquireLiveIndex();
+        try {
+            boolean found = false;
+            for (Shard shard : index.shards) {
+                Long gen = shard.txnIdToGeneration.get(txnId);
+                if (gen != null) {
+                    found = true;
+                    shard.reopenThread.waitForGeneration(gen);
+                }
+            }
+            if (found) return;
+            // either already searchable, or not a write this indexer knows about; either way waiting for
+            // the writes completed so far is sufficient, and is immediate if the searcher is current
+            for (Shard shard : index.shards) {
+                shard.reopenThread.waitForGeneration(shard.indexWriter.getMaxCompletedSequenceNumber());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IndexerException(e);
+        } finally {
+            index.decRef();
+        }
+    }
+
+    @Override
+    public Long getHighestIndexedTxnId() throws IndexerException {
+        AcquiredSearcher acquired = null;
+        try {
+            acquired = acquireSearcher();
+            // the maximum of the points of all segments; may include deleted documents, whose txnIds were also indexed
+            byte[] maxPackedValue = PointValues.getMaxPackedValue(acquired.searcher.getIndexReader(), "txnId");
+            if (maxPackedValue == null) return null;
+            return LongPoint.decodeDimension(maxPackedValue, 0);
+        } catch (IOException e) {
+            throw new IndexerException(e);
+        } finally {
+            if (acquired != null) try {
+                acquired.release();
+            } catch (IOException e) {
+                logger.warn("Error releasing searcher", e);
+            }
+        }
+    }
+
+    private void afterWrite(Shard shard, long gen) throws IOException {
+        shard.uncommittedWrites.incrementAndGet();
+        if (options.isSync()) {
+            shard.commitThrough(gen);
+            return;
+        }
+        if (isEarlyCommitDue(shard) && !isEarlyCommitQueued.getAndSet(true)) {
+            commitExecServ.execute(this::earlyCommitLoggingException);
+        }
+        commitAfterDelay();
+    }
+
+    private boolean isEarlyCommitDue(Shard shard) {
+        if (options.commitMaxDocs > 0 && getUncommittedWrites() >= options.commitMaxDocs) return true;
+        if (commitRamBufferBytes > 0 && shard.indexWriter.ramBytesUsed() >= commitRamBufferBytes) return true;
+        return false;
+    }
+
+    private long getUncommittedWrites() {
+        long res = 0;
+        for (Shard shard : liveIndex.shards) {
+            res += shard.uncommittedWrites.get();
+        }
+        return res;
+    }
+
+    @Override
+    public void commit() throws IndexerException {
+        try {
+            commitLiveIndex();
+        } catch (IOException e) {
+            throw new IndexerException(e);
+        }
+    }
+
+    private void commitLiveIndex() throws IOException {
+        // the shadow index is committed when swapped in
+        shadowLock.readLock().lock();
+        try {
+            for (Shard shard : liveIndex.shards) {
+                shard.commit();
+            }
+        } finally {
+            shadowLock.readLock().unlock();
         }
     }
 
     private void commitAfterDelay() {
         if (isCommitScheduled.getAndSet(true)) return;
-        commitExecServ.schedule(this::commitLoggingException, 5, TimeUnit.SECONDS);
+        commitExecServ.schedule(this::commitLoggingException, options.commitIntervalMs, TimeUnit.MILLISECONDS);
     }
 
     private void commitLoggingException() {
         if (shutdown) return;
         isCommitScheduled.set(false);
         try {
-            indexWriter.commit();
+            commitLiveIndex();
+        } catch (IOException e) {
+            logger.warn("Error committing", e);
+        }
+    }
+
+    private void earlyCommitLoggingException() {
+        if (shutdown) return;
+        isEarlyCommitQueued.set(false);
+        try {
+            commitLiveIndex();
         } catch (IOException e) {
             logger.warn("Error committing", e);
         }
     }
 
+    @Override
+    public Object getStats() {
+        Stats stats = new Stats();
+        stats.durability = options.durability;
+        stats.shards = options.shards;
+        stats.shadowIndex = shadowIndex != null;
+        stats.uncommittedWrites = getUncommittedWrites();
+        if (!shutdown) {
+            ShardSet index = acquireLiveIndex();
+            try {
+                for (Shard shard : index.shards) {
+                    stats.ramBytesUsed += shard.indexWriter.ramBytesUsed();
+                }
+            } finally {
+                index.decRef();
+            }
+        }
+        stats.commitCount = commitCount.get();
+        stats.commitLatency = commitLatency.getStats();
+        stats.refreshLatency = refreshLatency.getStats();
+        return stats;
+    }
+
+    public static class Stats {
+        public String durability;
+        public int shards;
+        public boolean shadowIndex;
+        public long uncommittedWrites;
+        public long ramBytesUsed;
+        public long commitCount;
+        public LatencyHistogram.Stats commitLatency;
+        public LatencyHistogram.Stats refreshLatency;
+    }
+
     @Override
     public void close() throws IOException {
         if (shutdown) return;
@@ -483,15 +1167,121 @@ public class LuceneIndexer implements CordraIndexer {
             logger.warn("Shutdown issue: interrupt");
             Thread.currentThread().interrupt();
         }
-        if (isCommitScheduled.get()) {
+        if (searchExecServ != null) searchExecServ.shutdown();
+        if (isCommitScheduled.get() || getUncommittedWrites() > 0) {
             try {
-                indexWriter.commit();
+                commitLiveIndex();
             } catch (IOException e) {
                 logger.warn("Error committing", e);
             }
         }
-        searcherManager.close();
-        indexWriter.close();
+        for (Shard shard : liveIndex.shards) {
+            shard.close();
+        }
+        // an unfinished shadow index is deleted on the next start
+        ShardSet shadow = shadowIndex;
+        if (shadow != null) {
+            for (Shard shard : shadow.shards) {
+                discardLoggingException(shard);
+            }
+        }
+    }
+
+    /**
+     * The shards of one index, and the directory holding them, or null if in memory.  References are counted, so
+     * that an index replaced by a shadow index is closed and deleted only once no search or wait still uses it.
+     */
+    private class ShardSet {
+        final Shard[] shards;
+        final File dir;
+        // one reference is held by the indexer while the index is live or the shadow index, and one by each user
+        private final AtomicInteger refCount = new AtomicInteger(1);
+
+        ShardSet(Shard[] shards, File dir) {
+            this.shards = shards;
+            this.dir = dir;
+        }
+
+        boolean tryIncRef() {
+            while (true) {
+                int count = refCount.get();
+                if (count <= 0) return false;
+                if (refCount.compareAndSet(count, count + 1)) return true;
+            }
+        }
+
+        void decRef() {
+            if (refCount.decrementAndGet() == 0) deleteShards(shards, dir);
+        }
+    }
+
+    /**
+     * One partition of the index, with its own writer and NRT searcher.
+     */
+    private class Shard {
+        final IndexWriter indexWriter;
+        final SearcherManager searcherManager;
+        final ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
+        // IndexWriter sequence numbers of recent writes by txnId; entries are removed once searchable
+        final ConcurrentNavigableMap<Long, Long> txnIdToGeneration = new ConcurrentSkipListMap<>();
+        final AtomicLong uncommittedWrites = new AtomicLong();
+        // guarded by this
+        private long lastCommitSeqNo = -1;
+        private volatile long refreshStartNanos;
+
+        Shard(Directory indexDirectory, String reopenThreadName) throws IOException {
+            indexWriter = new IndexWriter(indexDirectory, newIndexWriterConfig());
+            if(!DirectoryReader.indexExists(indexDirectory)) {
+                indexWriter.commit();
+            }
+            searcherManager = new SearcherManager(indexWriter, true, true, null);
+            reopenThread = new ControlledRealTimeReopenThread<>(indexWriter, searcherManager, options.nrtMaxStaleMs / 1000.0, options.nrtMinStaleMs / 1000.0);
+            reopenThread.setName(reopenThreadName);
+            reopenThread.setDaemon(true);
+            reopenThread.start();
+            searcherManager.addListener(new ReferenceManager.RefreshListener() {
+                @Override
+                public void beforeRefresh() {
+                    refreshStartNanos = System.nanoTime();
+                }
+
+                @Override
+                public void afterRefresh(boolean didRefresh) {
+                    if (didRefresh) refreshLatency.record(System.nanoTime() - refreshStartNanos);
+                    long searchingGen = reopenThread.getSearchingGen();
+                    txnIdToGeneration.values().removeIf(gen -> gen <= searchingGen);
+                }
+            });
+        }
+
+        synchronized void commitThrough(long gen) throws IOException {
+            // a commit started by another writer while this one waited may already include this write
+            if (lastCommitSeqNo >= gen) return;
+            commit();
+        }
+
+        synchronized void commit() throws IOException {
+            long pendingWrites = uncommittedWrites.get();
+            long start = System.nanoTime();
+            long seqNo = indexWriter.commit();
+            commitLatency.record(System.nanoTime() - start);
+            commitCount.incrementAndGet();
+            uncommittedWrites.addAndGet(-pendingWrites);
+            lastCommitSeqNo = Math.max(lastCommitSeqNo, seqNo);
+        }
+
+        void close() throws IOException {
+            reopenThread.close();
+            searcherManager.close();
+            indexWriter.close();
+        }
+
+        // closes without committing
+        void discard() throws IOException {
+            reopenThread.close();
+            searcherManager.close();
+            indexWriter.rollback();
+        }
     }
 
 }
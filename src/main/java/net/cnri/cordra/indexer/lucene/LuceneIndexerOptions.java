@@ -0,0 +1,49 @@
+package net.cnri.cordra.indexer.lucene;
+
+import java.util.Map;
+
+/**
+ * Sharding, commit and refresh settings of the {@link LuceneIndexer}, read from the string options of the index configuration.
+ */
+public class LuceneIndexerOptions {
+    public int shards = 1;
+    public String durability = "async"; // async | sync
+    public long commitIntervalMs = 5000;
+    public long commitMaxDocs = 0;
+    public double commitRamBufferSizeMB = 0;
+    public double ramBufferSizeMB = 16;
+    public long nrtMaxStaleMs = 1000;
+    public long nrtMinStaleMs = 25;
+
+    public static LuceneIndexerOptions fromMap(Map<String, String> options) {
+        LuceneIndexerOptions res = new LuceneIndexerOptions();
+        if (options == null) return res;
+        String shards = options.get("shards");
+        if (shards != null) res.shards = Math.max(1, Integer.parseInt(shards));
+        String durability = options.get("durability");
+        if (durability != null) {
+            if (!"async".equalsIgnoreCase(durability) && !"sync".equalsIgnoreCase(durability)) {
+                throw new IllegalArgumentException("Unexpected lucene durability " + durability);
+            }
+            res.durability = durability.toLowerCase();
+        }
+        String commitIntervalMs = options.get("commitIntervalMs");
+        if (commitIntervalMs != null) res.commitIntervalMs = Long.parseLong(commitIntervalMs);
+        String commitMaxDocs = options.get("commitMaxDocs");
+        if (commitMaxDocs != null) res.commitMaxDocs = Long.parseLong(commitMaxDocs);
+        String commitRamBufferSizeMB = options.get("commitRamBufferSizeMB");
+        if (commitRamBufferSizeMB != null) res.commitRamBufferSizeMB = Double.parseDouble(commitRamBufferSizeMB);
+        String ramBufferSizeMB = options.get("ramBufferSizeMB");
+        if (ramBufferSizeMB != null) res.ramBufferSizeMB = Double.parseDouble(ramBufferSizeMB);
+        String nrtMaxStaleMs = options.get("nrtMaxStaleMs");
+        if (nrtMaxStaleMs != null) res.nrtMaxStaleMs = Long.parseLong(nrtMaxStaleMs);
+        String nrtMinStaleMs = options.get("nrtMinStaleMs");
+        if (nrtMinStaleMs != null) res.nrtMinStaleMs = Long.parseLong(nrtMinStaleMs);
+        if (res.nrtMinStaleMs > res.nrtMaxStaleMs) res.nrtMinStaleMs = res.nrtMaxStaleMs;
+        return res;
+    }
+
+    boolean isSync() {
+        return "sync".equals(durability);
+    }
+}
@@ -37,6 +37,18 @@ public class DocumentBuilderSolr extends DocumentBuilder<SolrInputDocument> {
         doc.addField(fieldName, truncateForSorting(fieldValue));
     }
     
+    @Override
+    protected void addStoredFieldToDocument(SolrInputDocument doc, String fieldName, String fieldValue) {
+        // stored-only fields are configured in the schema
+        doc.addField(fieldName, fieldValue);
+    }
+
+    @Override
+    protected void addFacetFieldToDocument(SolrInputDocument doc, String fieldName, String fieldValue) {
+        // facet_* fields are configured in the schema as docValues-only strings
+        doc.addField(fieldName, truncateForSorting(fieldValue));
+    }
+
     private String truncateForSorting(String s) {
         if (s.length() < 1024) return s;
         return s.substring(0, 1024);
@@ -15,12 +15,20 @@ import org.apache.solr.client.solrj.SolrQuery.ORDER;
 import org.apache.solr.client.solrj.SolrQuery.SortClause;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.CloudSolrClient;
+import org.apache.solr.client.solrj.request.CollectionAdminRequest;
 import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.client.solrj.response.CollectionAdminResponse;
+import org.apache.solr.client.solrj.response.FacetField;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.client.solrj.response.UpdateResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.cloud.Aliases;
+import org.apache.solr.common.cloud.DocCollection;
+import org.apache.solr.common.cloud.ZkStateReader;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.FacetParams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,6 +48,11 @@ public class SolrIndexer implements CordraIndexer {
     @SuppressWarnings("deprecation")
     private static final String MIN_REPFACT_PARAM_FOR_OLDER_SOLR = UpdateRequest.MIN_REPFACT;
 
+    private static final String COLLECTION_NAME = "cordra";
+    // names the shadow collection while the index is rebuilt, so that every instance sharing the index writes to it too
+    private static final String SHADOW_ALIAS_NAME = COLLECTION_NAME + "-shadow";
+    private static final long SHADOW_ALIAS_PROPAGATION_MS = 2000;
+
     private final CordraStorage storage;
     private final NameLocker objectLocker;
     private final DocumentBuilderSolr documentBuilder;
@@ -49,9 +62,15 @@ public class SolrIndexer implements CordraIndexer {
     @SuppressWarnings("unused")
     private final boolean isStoreFields;
     private final int minRf;
+    private final int commitWithinMs;
     private final Alerter alerter;
+    private final IndexRefreshCoalescer softCommitter = new IndexRefreshCoalescer(this::softCommit);
 
     public SolrIndexer(SolrClient solr, CordraStorage storage, boolean isStoreFields, int minRf, NameLocker objectLocker, Alerter alerter) {
+        this(solr, storage, isStoreFields, minRf, -1, objectLocker, alerter);
+    }
+
+    public SolrIndexer(SolrClient solr, CordraStorage storage, boolean isStoreFields, int minRf, int commitWithinMs, NameLocker objectLocker, Alerter alerter) {
         this.storage = storage;
         this.objectLocker = objectLocker;
         this.isStoreFields = isStoreFields;
@@ -59,6 +78,7 @@ public class SolrIndexer implements CordraIndexer {
         this.documentBuilder = new DocumentBuilderSolr(false, storage);
         this.exec = Executors.newSingleThreadExecutor();
         this.minRf = minRf;
+        this.commitWithinMs = commitWithinMs;
         this.alerter = alerter;
     }
 
@@ -72,6 +92,18 @@ public class SolrIndexer implements CordraIndexer {
         documentBuilder.setObjectTransformer(objectTransformer);
     }
 
+    public void setStoreSource(boolean isStoreSource) {
+        documentBuilder.setStoreSource(isStoreSource);
+    }
+
+    public void setAcceptStaleSource(boolean isAcceptStaleSource) {
+        documentBuilder.setAcceptStaleSource(isAcceptStaleSource);
+    }
+
+    public void setPayloadTextExtractor(PayloadTextExtractor payloadTextExtractor) {
+        documentBuilder.setPayloadTextExtractor(payloadTextExtractor);
+    }
+
     @Override
     public void indexObject(String cordraServiceId, CordraObject co, boolean indexPayloads, Map<String, JsonNode> pointerToSchemaMap) throws IndexerException {
         List<Runnable> cleanupActions = new ArrayList<>();
@@ -113,10 +145,21 @@ public class SolrIndexer implements CordraIndexer {
 
     @Override
     public void indexObjects(String cordraServiceId, List<CordraObjectWithIndexDetails> batchWithDetails) throws IndexerException {
+        indexObjects(cordraServiceId, batchWithDetails, false);
+    }
+
+    @Override
+    public void indexObjectsInShadowIndex(String cordraServiceId, List<CordraObjectWithIndexDetails> batchWithDetails) throws IndexerException {
+        indexObjects(cordraServiceId, batchWithDetails, true);
+    }
+
+    private void indexObjects(String cordraServiceId, List<CordraObjectWithIndexDetails> batchWithDetails, boolean isShadowOnly) throws IndexerException {
         // Adds a batch of digital objects to an index in a single request. If an objects type allows for indexing
         // payloads and the object contains payloads, those payloads will be indexed now.
         List<Runnable> cleanupActions = new ArrayList<>();
         try {
+            String shadowCollection = getShadowCollection();
+            if (isShadowOnly && shadowCollection == null) throw new IndexerException("No shadow index");
             List<SolrInputDocumentWithHandle> documentBatch = new ArrayList<>();
             for (CordraObjectWithIndexDetails item : batchWithDetails) {
                 CordraObject co = item.co;
@@ -132,7 +175,13 @@ public class SolrIndexer implements CordraIndexer {
                 SolrInputDocument doc = documentBuilder.build(co, performIndexPayloads, item.pointerToSchemaMap, cleanupActions);
                 documentBatch.add(new SolrInputDocumentWithHandle(doc, co.id));
             }
-            UpdateResponse response = addBatch(documentBatch);
+            UpdateResponse response;
+            if (isShadowOnly) {
+                response = addBatch(documentBatch, shadowCollection);
+            } else {
+                response = addBatch(documentBatch, null);
+                if (response.getStatus() == 0 && shadowCollection != null) response = addBatch(documentBatch, shadowCollection);
+            }
             if (response.getStatus() != 0) {
                 throw new IndexerException("Unexpected Solr response "  + response);
             }
@@ -164,7 +213,7 @@ public class SolrIndexer implements CordraIndexer {
             //SolrInputDocument doc = new DocumentBuilderSolr(false, storage).build(co, indexPayloads, pointerToSchemaMap, cleanupActions);
             objectLocker.lock(co.id);
             locked = true;
-            if (storage.get(co.id) == null) return;
+            if (!DocumentBuilder.isSameVersion(storage.get(co.id), co)) return;
             UpdateResponse response = add(co.id, doc);
             if (response.getStatus() != 0) {
                 throw new IndexerException("Unexpected Solr response "  + response);
@@ -191,17 +240,21 @@ public class SolrIndexer implements CordraIndexer {
         }
     }
 
-    private UpdateResponse addBatch(List<SolrInputDocumentWithHandle> batch) throws IOException, SolrServerException {
+    /**
+     * @param collection the collection to write to, or null for the live collection
+     */
+    private UpdateResponse addBatch(List<SolrInputDocumentWithHandle> batch, String collection) throws IOException, SolrServerException {
         UpdateRequest req = new UpdateRequest();
         for (SolrInputDocumentWithHandle item : batch) {
             req.add(item.doc);
         }
+        req.setCommitWithin(commitWithinMs);
         if (minRf > 1) {
             req.setParam(MIN_REPFACT_PARAM_FOR_OLDER_SOLR, String.valueOf(minRf));
         }
-        UpdateResponse resp = req.process(solr);
+        UpdateResponse resp = process(req, collection);
         if (minRf > 1) {
-            int actualRf = ((CloudSolrClient)solr).getMinAchievedReplicationFactor("cordra", resp.getResponse());
+            int actualRf = ((CloudSolrClient)solr).getMinAchievedReplicationFactor(collection == null ? COLLECTION_NAME : collection, resp.getResponse());
             if (actualRf < minRf) {
                 String batchString = batch.stream().map(item -> item.handle).collect(Collectors.joining(","));
                 alerter.alert("Low replication factor adding batch [" + batchString + "] to index; expected " + minRf + " got " + actualRf);
@@ -211,14 +264,22 @@ public class SolrIndexer implements CordraIndexer {
     }
 
     private UpdateResponse add(String handle, SolrInputDocument doc) throws IOException, SolrServerException {
+        UpdateResponse resp = add(handle, doc, null);
+        String shadowCollection = getShadowCollection();
+        if (resp.getStatus() == 0 && shadowCollection != null) resp = add(handle, doc, shadowCollection);
+        return resp;
+    }
+
+    private UpdateResponse add(String handle, SolrInputDocument doc, String collection) throws IOException, SolrServerException {
         UpdateRequest req = new UpdateRequest();
         req.add(doc);
+        req.setCommitWithin(commitWithinMs);
         if (minRf > 1) {
             req.setParam(MIN_REPFACT_PARAM_FOR_OLDER_SOLR, String.valueOf(minRf));
         }
-        UpdateResponse resp = req.process(solr);
+        UpdateResponse resp = process(req, collection);
         if (minRf > 1) {
-            int actualRf = ((CloudSolrClient)solr).getMinAchievedReplicationFactor("cordra", resp.getResponse());
+            int actualRf = ((CloudSolrClient)solr).getMinAchievedReplicationFactor(collection == null ? COLLECTION_NAME : collection, resp.getResponse());
             if (actualRf < minRf) {
                 alerter.alert("Low replication factor adding " + handle + " to index; expected " + minRf + " got " + actualRf);
             }
@@ -227,14 +288,22 @@ public class SolrIndexer implements CordraIndexer {
     }
 
     private UpdateResponse deleteById(String handle) throws IOException, SolrServerException {
+        UpdateResponse resp = deleteById(handle, null);
+        String shadowCollection = getShadowCollection();
+        if (resp.getStatus() == 0 && shadowCollection != null) resp = deleteById(handle, shadowCollection);
+        return resp;
+    }
+
+    private UpdateResponse deleteById(String handle, String collection) throws IOException, SolrServerException {
         UpdateRequest req = new UpdateRequest();
         req.deleteById(handle);
+        req.setCommitWithin(commitWithinMs);
         if (minRf > 1) {
             req.setParam(MIN_REPFACT_PARAM_FOR_OLDER_SOLR, String.valueOf(minRf));
         }
-        UpdateResponse resp = req.process(solr);
+        UpdateResponse resp = process(req, collection);
         if (minRf > 1) {
-            int actualRf = ((CloudSolrClient)solr).getMinAchievedReplicationFactor("cordra", resp.getResponse());
+            int actualRf = ((CloudSolrClient)solr).getMinAchievedReplicationFactor(collection == null ? COLLECTION_NAME : collection, resp.getResponse());
             if (actualRf < minRf) {
                 alerter.alert("Low replication factor deleting " + handle + " from index; expected " + minRf + " got " + actualRf);
             }
@@ -242,28 +311,157 @@ public class SolrIndexer implements CordraIndexer {
         return resp;
     }
 
+    private UpdateResponse process(UpdateRequest req, String collection) throws IOException, SolrServerException {
+        if (collection == null) return req.process(solr);
+        return req.process(solr, collection);
+    }
+
+    /**
+     * Returns the collection named by the shadow alias, or null if there is none.  The cloud client keeps the
+     * aliases up to date by watching ZooKeeper, so another instance starting or swapping the shadow index is seen
+     * without a request to Solr.
+     */
+    private String getShadowCollection() {
+        if (!(solr instanceof CloudSolrClient)) return null;
+        Aliases aliases = ((CloudSolrClient) solr).getZkStateReader().getAliases();
+        if (!aliases.hasAlias(SHADOW_ALIAS_NAME)) return null;
+        return aliases.resolveSimpleAlias(SHADOW_ALIAS_NAME);
+    }
+
+    @Override
+    public boolean isShadowIndexSupported() {
+        return solr instanceof CloudSolrClient;
+    }
+
+    @Override
+    public boolean hasShadowIndex() {
+        return getShadowCollection() != null;
+    }
+
+    @Override
+    public void startShadowIndex() throws IndexerException {
+        if (!(solr instanceof CloudSolrClient)) throw new IndexerException("Shadow index requires SolrCloud");
+        try {
+            ZkStateReader zkStateReader = ((CloudSolrClient) solr).getZkStateReader();
+            zkStateReader.aliasesManager.update();
+            Aliases aliases = zkStateReader.getAliases();
+            if (!aliases.hasAlias(COLLECTION_NAME)) {
+                throw new IndexerException("Shadow index requires that the Solr collection be accessed through the alias " + COLLECTION_NAME);
+            }
+            if (aliases.hasAlias(SHADOW_ALIAS_NAME)) throw new IndexerException("Shadow index already exists");
+            String liveCollection = aliases.resolveSimpleAlias(COLLECTION_NAME);
+            DocCollection docCollection = zkStateReader.getClusterState().getCollection(liveCollection);
+            String configName = zkStateReader.readConfigName(liveCollection);
+            int numShards = docCollection.getSlices().size();
+            int numReplicas = docCollection.getReplicationFactor() == null ? 1 : docCollection.getReplicationFactor();
+            String shadowCollection = COLLECTION_NAME + "-" + System.currentTimeMillis();
+            checkResponse(CollectionAdminRequest.createCollection(shadowCollection, configName, numShards, numReplicas).process(solr));
+            checkResponse(CollectionAdminRequest.createAlias(SHADOW_ALIAS_NAME, shadowCollection).process(solr));
+            zkStateReader.aliasesManager.update();
+            logger.info("Started shadow index " + shadowCollection);
+            // other instances are notified of the alias by ZooKeeper, after which all writes go to both collections
+            Thread.sleep(SHADOW_ALIAS_PROPAGATION_MS);
+        } catch (IndexerException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IndexerException(e);
+        } catch (Exception e) {
+            throw new IndexerException(e);
+        }
+    }
+
+    @Override
+    public void swapShadowIndex() throws IndexerException {
+        if (!(solr instanceof CloudSolrClient)) throw new IndexerException("Shadow index requires SolrCloud");
+        try {
+            ZkStateReader zkStateReader = ((CloudSolrClient) solr).getZkStateReader();
+            zkStateReader.aliasesManager.update();
+            Aliases aliases = zkStateReader.getAliases();
+            if (!aliases.hasAlias(SHADOW_ALIAS_NAME)) throw new IndexerException("No shadow index");
+            String shadowCollection = aliases.resolveSimpleAlias(SHADOW_ALIAS_NAME);
+            String liveCollection = aliases.resolveSimpleAlias(COLLECTION_NAME);
+            UpdateResponse commitResponse = solr.commit(shadowCollection, true, true);
+            if (commitResponse.getStatus() != 0) {
+                throw new IndexerException("Unexpected Solr response "  + commitResponse);
+            }
+            // searches and writes use the alias, which now names the shadow collection
+            checkResponse(CollectionAdminRequest.createAlias(COLLECTION_NAME, shadowCollection).process(solr));
+            checkResponse(CollectionAdminRequest.deleteAlias(SHADOW_ALIAS_NAME).process(solr));
+            zkStateReader.aliasesManager.update();
+            logger.info("Swapped in shadow index " + shadowCollection);
+            checkResponse(CollectionAdminRequest.deleteCollection(liveCollection).process(solr));
+        } catch (IndexerException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IndexerException(e);
+        } catch (Exception e) {
+            throw new IndexerException(e);
+        }
+    }
+
+    @Override
+    public void discardShadowIndex() throws IndexerException {
+        if (!(solr instanceof CloudSolrClient)) return;
+        try {
+            ZkStateReader zkStateReader = ((CloudSolrClient) solr).getZkStateReader();
+            zkStateReader.aliasesManager.update();
+            Aliases aliases = zkStateReader.getAliases();
+            if (!aliases.hasAlias(SHADOW_ALIAS_NAME)) return;
+            String shadowCollection = aliases.resolveSimpleAlias(SHADOW_ALIAS_NAME);
+            logger.info("Discarding shadow index " + shadowCollection);
+            checkResponse(CollectionAdminRequest.deleteAlias(SHADOW_ALIAS_NAME).process(solr));
+            zkStateReader.aliasesManager.update();
+            checkResponse(CollectionAdminRequest.deleteCollection(shadowCollection).process(solr));
+        } catch (IndexerException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IndexerException(e);
+        } catch (Exception e) {
+            throw new IndexerException(e);
+        }
+    }
+
+    private static void checkResponse(CollectionAdminResponse response) throws IndexerException {
+        if (!response.isSuccess()) {
+            throw new IndexerException("Unexpected Solr response "  + response);
+        }
+    }
+
     @Override
     public SearchResults<CordraObject> search(String queryString, QueryParams params) throws IndexerException {
-        return search(queryString, params, CordraObject.class);
+        return search(queryString, params, CordraObject.class, false);
+    }
+
+    @Override
+    public SearchResults<CordraObject> searchForResponse(String queryString, QueryParams params) throws IndexerException {
+        return search(queryString, params, CordraObject.class, true);
     }
 
     @Override
     public SearchResults<String> searchHandles(String queryString, QueryParams params) throws IndexerException {
-        return search(queryString, params, String.class);
+        return search(queryString, params, String.class, false);
     }
 
     @Override
     public SearchResults<IdType> searchIdType(String queryString, QueryParams params) throws IndexerException {
-        return search(queryString, params, IdType.class);
+        return search(queryString, params, IdType.class, false);
     }
 
     @SuppressWarnings("resource")
-    private <T> SearchResults<T> search(String queryString, QueryParams params, Class<T> klass) throws IndexerException {
+    private <T> SearchResults<T> search(String queryString, QueryParams params, Class<T> klass, boolean isFromSourceAllowed) throws IndexerException {
         if (queryString.contains("{!")) {
             throw new IndexerException("Parse failure: {!");
         }
         SolrQuery query = new SolrQuery(CordraIndexer.fixSlashes(queryString));
-        query.setFields("id", "type");
+        // without the source field, results are read from storage
+        if (klass == CordraObject.class && isFromSourceAllowed && documentBuilder.isStoreSource()) {
+            query.setFields("id", "type", DocumentBuilder.SOURCE_FIELD);
+        } else {
+            query.setFields("id", "type");
+        }
         setParamsOnQuery(params, query);
         try {
             QueryResponse response;
@@ -276,8 +474,18 @@ public class SolrIndexer implements CordraIndexer {
                 throw new IndexerException("Unexpected Solr response "  + response);
             }
             SolrDocumentList results = response.getResults();
+            String nextCursor = getNextCursor(params, response);
+            List<FacetResult> facets = getFacets(params, response);
             SearchResults<SolrDocument> indexerSearchResults = new SearchResultsFromIterator<>((int)results.getNumFound(), results.iterator());
             return new AbstractCordraSearchResultsFromIndexerSearchResultsBatch<T, SolrDocument>(indexerSearchResults, storage, klass) {
+                @Override
+                public String getNextCursor() {
+                    return nextCursor;
+                }
+                @Override
+                public List<FacetResult> getFacets() {
+                    return facets;
+                }
                 @Override
                 public String getIdFromDocument(SolrDocument document) {
                     return (String) document.getFirstValue("id");
@@ -286,6 +494,10 @@ public class SolrIndexer implements CordraIndexer {
                 public String getTypeFromDocument(SolrDocument document) {
                     return (String) document.getFirstValue("type");
                 }
+                @Override
+                public CordraObject getCordraObjectFromDocument(SolrDocument document) {
+                    return documentBuilder.cordraObjectFromSource((String) document.getFirstValue(DocumentBuilder.SOURCE_FIELD));
+                }
             };
         } catch (Exception e) {
             throw new IndexerException(e);
@@ -298,7 +510,10 @@ public class SolrIndexer implements CordraIndexer {
             return;
         }
         int pageSize = params.getPageSize();
-        if (pageSize >= 0) {
+        if (params.isCursorPaginated()) {
+            query.setRows(pageSize);
+            query.set(CursorMarkParams.CURSOR_MARK_PARAM, params.getCursor());
+        } else if (pageSize >= 0) {
             query.setRows(pageSize);
             if (pageSize > 0) {
                 query.setStart(pageSize * params.getPageNumber());
@@ -306,11 +521,52 @@ public class SolrIndexer implements CordraIndexer {
         } else {
             query.setRows(Integer.MAX_VALUE);
         }
+        List<SortClause> sortClauses = new ArrayList<>();
         List<SortField> sortFields = params.getSortFields();
         if (sortFields != null && !sortFields.isEmpty()) {
-            List<SortClause> sortClauses = sortFields.stream().map(this::sortFieldToSortClause).filter(Objects::nonNull).collect(Collectors.toList());
+            sortFields.stream().map(this::sortFieldToSortClause).filter(Objects::nonNull).forEach(sortClauses::add);
+        }
+        if (params.isCursorPaginated()) {
+            // Solr requires the sort of a cursor to end with the unique key
+            if (sortClauses.isEmpty()) sortClauses.add(SortClause.desc("score"));
+            sortClauses.add(SortClause.asc("id"));
+        }
+        if (!sortClauses.isEmpty()) {
             query.setSorts(sortClauses);
         }
+        if (params.isCountFacets()) {
+            query.setFacetMinCount(1);
+            for (FacetSpecification facet : params.getFacets()) {
+                String name = DocumentBuilder.getFacetFieldName(facet.getField());
+                query.addFacetField(name);
+                query.set("f." + name + "." + FacetParams.FACET_LIMIT, facet.getMaxBuckets());
+            }
+        }
+    }
+
+    private static List<FacetResult> getFacets(QueryParams params, QueryResponse response) {
+        if (params == null || !params.isCountFacets()) return null;
+        List<FacetResult> facets = new ArrayList<>(params.getFacets().size());
+        for (FacetSpecification facet : params.getFacets()) {
+            List<FacetBucket> buckets = new ArrayList<>();
+            FacetField facetField = response.getFacetField(DocumentBuilder.getFacetFieldName(facet.getField()));
+            if (facetField != null && facetField.getValues() != null) {
+                for (FacetField.Count count : facetField.getValues()) {
+                    buckets.add(new FacetBucket(count.getName(), count.getCount()));
+                }
+            }
+            facets.add(new FacetResult(facet.getField(), buckets));
+        }
+        return facets;
+    }
+
+    private static String getNextCursor(QueryParams params, QueryResponse response) {
+        if (params == null || !params.isCursorPaginated()) return null;
+        String nextCursorMark = response.getNextCursorMark();
+        // Solr returns the same cursor mark once there are no more results
+        if (nextCursorMark == null || nextCursorMark.equals(params.getCursor())) return null;
+        if (response.getResults().size() < params.getPageSize()) return null;
+        return nextCursorMark;
     }
 
     private SortClause sortFieldToSortClause(SortField sortField) {
@@ -357,6 +613,48 @@ public class SolrIndexer implements CordraIndexer {
 
     @Override
     public void ensureIndexUpToDate() throws IndexerException {
+        // concurrent callers share a single soft commit, as long as it started after they called
+        softCommitter.refresh();
+    }
+
+    @Override
+    public Long getHighestIndexedTxnId() throws IndexerException {
+        // txnId is not stored, so the value is read as a function of the indexed field
+        SolrQuery query = new SolrQuery("txnId:[* TO *]");
+        query.setFields("id", "maxTxnId:field(txnId)");
+        query.setSort("txnId", ORDER.desc);
+        query.setRows(1);
+        try {
+            QueryResponse response = solr.query(query);
+            if (response.getStatus() != 0) {
+                throw new IndexerException("Unexpected Solr response "  + response);
+            }
+            SolrDocumentList results = response.getResults();
+            if (results.isEmpty()) return null;
+            Object maxTxnId = results.get(0).getFirstValue("maxTxnId");
+            if (maxTxnId == null) return null;
+            return ((Number) maxTxnId).longValue();
+        } catch (IndexerException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IndexerException(e);
+        }
+    }
+
+    @Override
+    public void commit() throws IndexerException {
+        UpdateResponse response;
+        try {
+            response = solr.commit(true, false, false);
+        } catch (Exception e) {
+            throw new IndexerException(e);
+        }
+        if (response.getStatus() != 0) {
+            throw new IndexerException("Unexpected Solr response "  + response);
+        }
+    }
+
+    private void softCommit() throws IndexerException {
         UpdateResponse response;
         try {
             response = solr.commit(false, true, true);
@@ -370,6 +668,7 @@ public class SolrIndexer implements CordraIndexer {
 
     @Override
     public void close() throws IOException {
+        documentBuilder.shutdown();
         solr.close();
         exec.shutdown();
     }
@@ -16,13 +16,19 @@ public class CordraConfig {
     public String cordraClusterId = "default";
     public MultipleReplicationProducer.Durability durability;
     public List<ReplicationProducerConfig> replicationProducers = new ArrayList<>();
+    public ReplicationCoalescing replicationCoalescing = new ReplicationCoalescing();
     public ReplicationConsumerConfig replicationConsumer;
+    public ObjectLocking objectLocking = new ObjectLocking();
+    public TransactionGroupCommit transactionGroupCommit = new TransactionGroupCommit();
+    public TransactionLog transactionLog = new TransactionLog();
     public ReprocessingQueueConfig reprocessingQueue;
     public SignalWatcherConfig signalWatcher;
     public IndexerConfig index;
     public StorageConfig storage;
     public boolean traceRequests = false;
     public Reindexing reindexing = new Reindexing();
+    public ObjectCache objectCache = new ObjectCache();
+    public CredentialCache credentialCache = new CredentialCache();
     public SessionsConfig sessions = new SessionsConfig();
     public DoipServerConfigWithEnabledFlag doip;
 
@@ -41,6 +47,53 @@ public class CordraConfig {
         public Integer logChunkSize = 10000;
         public Boolean logProgressToConsole = false;
         public Boolean lockDuringBackgroundReindex = true;
+        public Integer fetchThreads = 8;
+        public Integer prepareThreads = Runtime.getRuntime().availableProcessors();
+        public Boolean adaptiveBatchSize = false;
+        public Integer maxBatchSize = 1000;
+        public Long targetBatchMs = 1000L;
+        public Long checkpointIntervalMs = 10_000L;
+        public Boolean incremental = false;
+        public Long incrementalSafetyMarginMs = 60_000L;
+    }
+
+    public static class ReplicationCoalescing {
+        public Boolean enabled = false;
+        public Long windowMs = 100L;
+        public Integer maxPending = 10_000;
+        public Long maxPendingBytes = 64L * 1024 * 1024;
+    }
+
+    public static class ObjectLocking {
+        public Boolean coalesceLocally = false;
+        public Long fairnessTimeoutMs = 100L;
+    }
+
+    public static class TransactionGroupCommit {
+        public Boolean enabled = false;
+        public Integer maxTxnsPerBatch = 500;
+        public Long summaryIntervalMs = 1000L;
+    }
+
+    public static class TransactionLog {
+        public String module = "bdbje"; // bdbje | segmentLog
+        public Integer segmentSizeBytes = 8 * 1024 * 1024;
+        public Boolean forceWrites = true;
+        public Long compactionIntervalMs = 1000L;
+    }
+
+    public static class ObjectCache {
+        public Boolean enabled = false;
+        public Long maxBytes = 256L * 1024 * 1024;
+        public Boolean cacheMissing = true;
+        public Long expireAfterWriteMs = 10L * 60 * 1000;
+        public Long objectChangeSignalIntervalMs = 1000L;
+    }
+
+    public static class CredentialCache {
+        public Boolean enabled = false;
+        public Long ttlMs = 60L * 1000;
+        public Long maxSize = 10_000L;
     }
 
     public static class SessionsConfig {
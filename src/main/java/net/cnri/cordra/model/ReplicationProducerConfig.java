@@ -6,5 +6,6 @@ public class ReplicationProducerConfig {
 
     public String type;
     public String kafkaBootstrapServers;
+    public String compressionType; // none | gzip | snappy | lz4 | zstd
     public Map<String,String> producerConfig;
 }
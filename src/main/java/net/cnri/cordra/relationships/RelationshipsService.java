@@ -33,8 +33,8 @@ public class RelationshipsService {
         this.cordra = cordra;
     }
 
-    public Relationships getRelationshipsFor(String objectId, boolean outboundOnly, String userId, boolean hasUserObject) throws CordraException, InvalidException {
-        cordra.ensureIndexUpToDate();
+    public Relationships getRelationshipsFor(String objectId, boolean outboundOnly, String userId, boolean hasUserObject, Long txnId) throws CordraException, InvalidException {
+        cordra.ensureIndexUpToDateForSearch(txnId);
         String queryString = "internal.pointsAt:"+objectId;
         List<String> groupIds = cordra.getAclEnforcer().getGroupsForUser(userId);
         boolean excludeVersions = true;
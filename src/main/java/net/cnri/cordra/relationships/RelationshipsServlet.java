@@ -14,6 +14,7 @@ import org.slf4j.LoggerFactory;
 import com.google.gson.Gson;
 
 import net.cnri.cordra.GsonUtility;
+import net.cnri.cordra.api.BadRequestCordraException;
 import net.cnri.cordra.web.ServletErrorUtil;
 import net.cnri.cordra.web.ServletUtil;
 
@@ -50,7 +51,14 @@ public class RelationshipsServlet extends HttpServlet {
                 boolean outboundOnly = ServletUtil.getBooleanParameter(req, "outboundOnly");
                 String userId = (String) req.getAttribute("userId");
                 boolean hasUserObject = ServletUtil.getBooleanAttribute(req, "hasUserObject");
-                Relationships relationships = relationshipsService.getRelationshipsFor(objectId, outboundOnly, userId, hasUserObject);
+                Long txnId;
+                try {
+                    txnId = ServletUtil.getTxnIdParameter(req);
+                } catch (BadRequestCordraException e) {
+                    ServletErrorUtil.badRequest(resp, e.getMessage());
+                    return;
+                }
+                Relationships relationships = relationshipsService.getRelationshipsFor(objectId, outboundOnly, userId, hasUserObject, txnId);
                 gson.toJson(relationships, resp.getWriter());
             }
         } catch (Exception e) {
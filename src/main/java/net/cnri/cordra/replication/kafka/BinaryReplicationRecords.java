@@ -0,0 +1,154 @@
+package net.cnri.cordra.replication.kafka;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.google.gson.Gson;
+
+import net.cnri.cordra.GsonUtility;
+import net.cnri.cordra.api.CordraException;
+import net.cnri.cordra.api.CordraObject;
+import net.cnri.cordra.api.InternalErrorCordraException;
+import net.cnri.cordra.api.Payload;
+import net.cnri.cordra.storage.CordraStorage;
+
+/**
+ * The binary replication format, in which an update is sent as a header record followed by the payloads split into
+ * chunk records, all keyed by the object id so that they stay in order on one partition.
+ *
+ * <p>Each record starts with a zero byte, which distinguishes it from a JSON {@link ReplicationMessage}, then a
+ * version byte, a record type byte and the id of the message the record belongs to.  A header record continues with
+ * the {@link ReplicationMessage} as JSON, with the names of the streamed payloads in
+ * {@link ReplicationMessage#streamedPayloads} instead of the payloads themselves.  A chunk record continues with the
+ * index of its payload in that list, a flag marking the last chunk of the payload, and the bytes of the chunk.
+ */
+public class BinaryReplicationRecords {
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    static final byte VERSION = 1;
+    static final byte HEADER = 1;
+    static final byte CHUNK = 2;
+    private static final int PREFIX_LENGTH = 1 + 1 + 1 + 8;
+    private static final int CHUNK_PREFIX_LENGTH = PREFIX_LENGTH + 4 + 1;
+
+    private static final Gson gson = GsonUtility.getGson();
+
+    private BinaryReplicationRecords() { }
+
+    public static boolean isBinary(byte[] record) {
+        return record.length >= PREFIX_LENGTH && record[0] == 0;
+    }
+
+    /**
+     * Sends the given message as binary records, followed by the payloads of the object, if any, read from storage
+     * one chunk at a time.
+     *
+     * @return a future which completes when all the records have been sent
+     */
+    public static CompletableFuture<Void> sendAsync(ReplicationProducer producer, ReplicationMessage message, CordraStorage storage, int chunkSize) throws CordraException {
+        long messageId = ThreadLocalRandom.current().nextLong();
+        CordraObject co = message.object == null ? null : message.object.cordraObject;
+        List<String> payloadNames = new ArrayList<>();
+        if (message.streamedPayloads != null) payloadNames.addAll(message.streamedPayloads);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        futures.add(producer.sendAsync(message.handle, encodeHeader(messageId, message)));
+        for (int index = 0; index < payloadNames.size(); index++) {
+            String payloadName = payloadNames.get(index);
+            try (InputStream in = storage.getPayload(co.id, payloadName)) {
+                sendChunks(producer, message.handle, messageId, index, in, chunkSize, futures);
+            } catch (IOException e) {
+                // the header has been sent; consumers give up on the message once its chunks stop arriving
+                throw new InternalErrorCordraException(e);
+            }
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()]));
+    }
+
+    /**
+     * Returns the names of the payloads of the object, to be set as {@link ReplicationMessage#streamedPayloads}.
+     */
+    public static List<String> payloadNamesOf(CordraObject co) {
+        List<String> names = new ArrayList<>();
+        if (co.payloads == null) return names;
+        for (Payload payload : co.payloads) {
+            names.add(payload.name);
+        }
+        return names;
+    }
+
+    private static void sendChunks(ReplicationProducer producer, String key, long messageId, int index, InputStream in, int chunkSize, List<CompletableFuture<Void>> futures) throws IOException {
+        // one chunk of lookahead, so that the last chunk can be flagged as such; records are copied when encoded
+        if (in == null) {
+            futures.add(producer.sendAsync(key, encodeChunk(messageId, index, true, new byte[0], 0)));
+            return;
+        }
+        byte[] buf = new byte[chunkSize];
+        byte[] next = new byte[chunkSize];
+        int len = readFully(in, buf);
+        while (true) {
+            int nextLen = len == chunkSize ? readFully(in, next) : 0;
+            boolean isLast = nextLen == 0;
+            futures.add(producer.sendAsync(key, encodeChunk(messageId, index, isLast, buf, len)));
+            if (isLast) return;
+            byte[] temp = buf;
+            buf = next;
+            next = temp;
+            len = nextLen;
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buf) throws IOException {
+        int total = 0;
+        while (total < buf.length) {
+            int r = in.read(buf, total, buf.length - total);
+            if (r < 0) break;
+            total += r;
+        }
+        return total;
+    }
+
+    static byte[] encodeHeader(long messageId, ReplicationMessage message) {
+        byte[] json = gson.toJson(message).getBytes(StandardCharsets.UTF_8);
+        ByteBuffer bb = ByteBuffer.allocate(PREFIX_LENGTH + json.length);
+        bb.put((byte) 0).put(VERSION).put(HEADER).putLong(messageId).put(json);
+        return bb.array();
+    }
+
+    static byte[] encodeChunk(long messageId, int index, boolean isLast, byte[] data, int len) {
+        ByteBuffer bb = ByteBuffer.allocate(CHUNK_PREFIX_LENGTH + len);
+        bb.put((byte) 0).put(VERSION).put(CHUNK).putLong(messageId).putInt(index).put(isLast ? (byte) 1 : (byte) 0).put(data, 0, len);
+        return bb.array();
+    }
+
+    static byte getRecordType(byte[] record) {
+        if (record[1] != VERSION) throw new IllegalArgumentException("Unsupported replication record version " + record[1]);
+        return record[2];
+    }
+
+    static long getMessageId(byte[] record) {
+        return ByteBuffer.wrap(record, 3, 8).getLong();
+    }
+
+    static ReplicationMessage decodeHeader(byte[] record) {
+        String json = new String(record, PREFIX_LENGTH, record.length - PREFIX_LENGTH, StandardCharsets.UTF_8);
+        return gson.fromJson(json, ReplicationMessage.class);
+    }
+
+    static int getChunkPayloadIndex(byte[] record) {
+        return ByteBuffer.wrap(record, PREFIX_LENGTH, 4).getInt();
+    }
+
+    static boolean isLastChunk(byte[] record) {
+        return record[PREFIX_LENGTH + 4] != 0;
+    }
+
+    static int getChunkDataOffset() {
+        return CHUNK_PREFIX_LENGTH;
+    }
+}
@@ -0,0 +1,194 @@
+package net.cnri.cordra.replication.kafka;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds replication messages for a short window before passing them to the delegate, and sends only the latest
+ * message for each object id in the window.  Objects updated many times a second then cost one message per window.
+ *
+ * <p>A JSON message, or the header record of a binary message, supersedes everything pending for its object id.
+ * Delta messages supersede nothing, as they
+ * apply on top of the messages before them.  The future of a superseded message completes with the future of the
+ * message which superseded it.
+ *
+ * <p>A binary message with streamed payloads is not held: whatever is pending for its object id is sent, and then
+ * its header and chunk records are passed straight to the delegate, so that large payloads are never buffered here.
+ * The producer flushes early once either {@code maxPending} object ids or {@code maxPendingBytes} bytes of records
+ * are waiting.
+ */
+public class CoalescingReplicationProducer implements ReplicationProducer {
+    private static final Logger logger = LoggerFactory.getLogger(CoalescingReplicationProducer.class);
+
+    private final ReplicationProducer delegate;
+    private final int maxPending;
+    private final long maxPendingBytes;
+    private final ScheduledExecutorService exec;
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final Object lock = new Object();
+    // held while records are passed to the delegate, so that the records of an object id keep their order
+    private final Object sendLock = new Object();
+    private Map<String, Pending> pending = new LinkedHashMap<>();
+    private long pendingBytes = 0;
+
+    private static class Pending {
+        final List<Object> records = new ArrayList<>();
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        long bytes = 0;
+    }
+
+    public CoalescingReplicationProducer(ReplicationProducer delegate, long windowMs, int maxPending, long maxPendingBytes) {
+        this.delegate = delegate;
+        this.maxPending = maxPending;
+        this.maxPendingBytes = maxPendingBytes;
+        this.exec = Executors.newSingleThreadScheduledExecutor();
+        exec.scheduleWithFixedDelay(this::flushAndLogErrors, windowMs, windowMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns true, as messages are held for up to the window; callers should not wait for them while holding the
+     * object lock, or no two messages for an object could ever be coalesced.
+     */
+    @Override
+    public boolean isSendDelayed() {
+        return true;
+    }
+
+    @Override
+    public CompletableFuture<Void> sendAsync(String key, String message) {
+        if (key == null) return delegate.sendAsync(key, message);
+        return enqueue(key, message, ReplicationMessage.peekType(message) != ReplicationMessage.Type.DELTA);
+    }
+
+    @Override
+    public CompletableFuture<Void> sendAsync(String key, byte[] message) {
+        if (key == null) return delegate.sendAsync(key, message);
+        if (!BinaryReplicationRecords.isBinary(message)) return enqueue(key, message, true);
+        if (BinaryReplicationRecords.getRecordType(message) != BinaryReplicationRecords.HEADER) {
+            // a chunk record, whose header has been passed through
+            synchronized (sendLock) {
+                return delegate.sendAsync(key, message);
+            }
+        }
+        ReplicationMessage header = BinaryReplicationRecords.decodeHeader(message);
+        if (header.streamedPayloads != null && !header.streamedPayloads.isEmpty()) {
+            return sendPassingThrough(key, message);
+        }
+        return enqueue(key, message, header.type != ReplicationMessage.Type.DELTA);
+    }
+
+    private CompletableFuture<Void> sendPassingThrough(String key, byte[] header) {
+        synchronized (sendLock) {
+            Pending forKey;
+            synchronized (lock) {
+                forKey = pending.remove(key);
+                if (forKey != null) pendingBytes -= forKey.bytes;
+            }
+            if (forKey != null) send(key, forKey);
+            return delegate.sendAsync(key, header);
+        }
+    }
+
+    private CompletableFuture<Void> enqueue(String key, Object record, boolean isNewMessage) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        long recordBytes = sizeOf(record);
+        boolean isFull;
+        synchronized (lock) {
+            Pending forKey = pending.get(key);
+            if (forKey == null) {
+                forKey = new Pending();
+                pending.put(key, forKey);
+            } else if (isNewMessage && !forKey.records.isEmpty()) {
+                forKey.records.clear();
+                pendingBytes -= forKey.bytes;
+                forKey.bytes = 0;
+                coalescedCount.incrementAndGet();
+            }
+            forKey.records.add(record);
+            forKey.futures.add(future);
+            forKey.bytes += recordBytes;
+            pendingBytes += recordBytes;
+            isFull = pending.size() >= maxPending || pendingBytes >= maxPendingBytes;
+        }
+        if (isFull) exec.execute(this::flushAndLogErrors);
+        return future;
+    }
+
+    private static long sizeOf(Object record) {
+        // an estimate of the heap used, which is all that the bound needs
+        if (record instanceof String) return 2L * ((String) record).length();
+        return ((byte[]) record).length;
+    }
+
+    private void flushAndLogErrors() {
+        try {
+            flush();
+        } catch (Throwable e) {
+            logger.error("Error sending coalesced replication messages", e);
+        }
+    }
+
+    private void flush() {
+        synchronized (sendLock) {
+            Map<String, Pending> toSend;
+            synchronized (lock) {
+                if (pending.isEmpty()) return;
+                toSend = pending;
+                pending = new LinkedHashMap<>();
+                pendingBytes = 0;
+            }
+            for (Map.Entry<String, Pending> entry : toSend.entrySet()) {
+                send(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void send(String key, Pending forKey) {
+        List<CompletableFuture<Void>> sends = new ArrayList<>();
+        try {
+            for (Object record : forKey.records) {
+                if (record instanceof String) {
+                    sends.add(delegate.sendAsync(key, (String) record));
+                } else {
+                    sends.add(delegate.sendAsync(key, (byte[]) record));
+                }
+            }
+        } catch (RuntimeException e) {
+            for (CompletableFuture<Void> future : forKey.futures) {
+                future.completeExceptionally(e);
+            }
+            return;
+        }
+        CompletableFuture.allOf(sends.toArray(new CompletableFuture[sends.size()])).whenComplete((v, e) -> {
+            for (CompletableFuture<Void> future : forKey.futures) {
+                if (e == null) future.complete(null);
+                else future.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * Returns the number of messages which were superseded before being sent.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    @Override
+    public void shutdown() throws Exception {
+        exec.shutdown();
+        exec.awaitTermination(1, TimeUnit.MINUTES);
+        flush();
+        delegate.shutdown();
+    }
+}
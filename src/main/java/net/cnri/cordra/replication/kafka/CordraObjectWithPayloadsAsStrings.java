@@ -50,11 +50,24 @@ public class CordraObjectWithPayloadsAsStrings {
     }
     
     public void writeIntoStorage(CordraStorage storage) throws CordraException {
+        writeIntoStorage(storage, null);
+    }
+
+    /**
+     * Writes the object into storage, taking the payloads from the given streams where present (as when received
+     * in binary replication records) and otherwise from the base64 strings.
+     */
+    public void writeIntoStorage(CordraStorage storage, Map<String, InputStream> streamedPayloads) throws CordraException {
         if (cordraObject.payloads != null) {
             for (Payload p : cordraObject.payloads) {
                 String name = p.name;
-                String base64OfPayload = payloads.get(name);
-                InputStream in = new ByteArrayInputStream(Base64.getDecoder().decode(base64OfPayload));
+                InputStream in;
+                if (streamedPayloads != null && streamedPayloads.containsKey(name)) {
+                    in = streamedPayloads.get(name);
+                } else {
+                    String base64OfPayload = payloads.get(name);
+                    in = new ByteArrayInputStream(Base64.getDecoder().decode(base64OfPayload));
+                }
                 p.setInputStream(in);
             }
         }
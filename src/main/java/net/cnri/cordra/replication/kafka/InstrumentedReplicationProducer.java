@@ -37,11 +37,21 @@ public class InstrumentedReplicationProducer implements ReplicationProducer {
         }
     }
     
+    @Override
+    public boolean isSendDelayed() {
+        return delegate.isSendDelayed();
+    }
+
     @Override
     public CompletableFuture<Void> sendAsync(String key, String message) {
         return delegate.sendAsync(key, message);
     }
 
+    @Override
+    public CompletableFuture<Void> sendAsync(String key, byte[] message) {
+        return delegate.sendAsync(key, message);
+    }
+
     @Override
     public void shutdown() throws Exception {
         delegate.shutdown();
@@ -0,0 +1,460 @@
+package net.cnri.cordra.replication.kafka;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+
+import net.cnri.cordra.GsonUtility;
+import net.cnri.microservices.Alerter;
+
+/**
+ * Consumes replication messages, both JSON and binary (see {@link BinaryReplicationRecords}), applying each message
+ * on one of a number of threads chosen by object id, so that the messages for each object are applied in order.
+ *
+ * <p>Messages without streamed payloads are applied in batches: the messages of each poll are grouped by thread,
+ * leaving out messages superseded by a later message for the same object, and each group is handed to the batch
+ * handler at once.
+ *
+ * <p>The payloads of a binary message are handed to the applying thread as input streams as soon as its header
+ * arrives; the chunks which follow are appended to the streams by the polling thread, held in memory up to a limit
+ * and on disk beyond that.  Offsets are committed up to the earliest message not yet applied.
+ */
+public class KafkaReplicationConsumer {
+    private static final Logger logger = LoggerFactory.getLogger(KafkaReplicationConsumer.class);
+
+    private static final long MAX_BUFFERED_MEMORY_BYTES = 64L * 1024 * 1024;
+    private static final long PAYLOAD_TIMEOUT_MS = 5 * 60 * 1000;
+    private static final int MAX_QUEUED_TASKS_PER_THREAD = 500;
+
+    private final KafkaConsumer<String, byte[]> consumer;
+    private final Pattern pattern;
+    private final Alerter alerter;
+    private final ExecutorService[] stripes;
+    private final int maxQueuedTasks;
+    private final Gson gson = GsonUtility.getGson();
+
+    private final AtomicLong bufferedMemoryBytes = new AtomicLong();
+    private final AtomicInteger queuedTasks = new AtomicInteger();
+    // accessed only by the polling thread
+    private final Map<Long, Assembly> assemblies = new HashMap<>();
+    private final Map<TopicPartition, PartitionOffsets> offsets = new HashMap<>();
+    private boolean paused = false;
+
+    private final Batch[] batches;
+
+    private BiConsumer<ReplicationMessage, Map<String, InputStream>> handler;
+    private Consumer<List<ReplicationMessage>> batchHandler;
+    private Thread pollingThread;
+    private volatile boolean running;
+
+    public KafkaReplicationConsumer(Pattern pattern, String groupId, Map<String, String> consumerConfig, String kafkaBootstrapServers, int threads, Alerter alerter) {
+        this.pattern = pattern;
+        this.alerter = alerter;
+        Properties props = new Properties();
+        if (consumerConfig != null) props.putAll(consumerConfig);
+        props.putIfAbsent("bootstrap.servers", kafkaBootstrapServers);
+        props.putIfAbsent("group.id", groupId);
+        props.put("key.deserializer", StringDeserializer.class.getName());
+        props.put("value.deserializer", ByteArrayDeserializer.class.getName());
+        props.put("enable.auto.commit", "false");
+        this.consumer = new KafkaConsumer<>(props);
+        this.stripes = new ExecutorService[threads];
+        for (int i = 0; i < threads; i++) {
+            stripes[i] = Executors.newSingleThreadExecutor();
+        }
+        this.maxQueuedTasks = threads * MAX_QUEUED_TASKS_PER_THREAD;
+        this.batches = new Batch[threads];
+    }
+
+    /**
+     * Starts consuming.  The handler is called with each binary message with payloads, and a map from payload name
+     * to a stream of the payload; the streams are closed once the handler returns.  The batch handler is called with
+     * the other messages, in order for each object, with superseded messages left out.
+     */
+    public void start(BiConsumer<ReplicationMessage, Map<String, InputStream>> handlerParam, Consumer<List<ReplicationMessage>> batchHandlerParam) {
+        if (running) throw new IllegalStateException();
+        this.handler = handlerParam;
+        this.batchHandler = batchHandlerParam;
+        running = true;
+        pollingThread = new Thread(this::runAndLogErrors, "KafkaReplicationConsumer");
+        pollingThread.start();
+    }
+
+    public void shutdown() {
+        running = false;
+        consumer.wakeup();
+        if (pollingThread != null) {
+            try {
+                pollingThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void runAndLogErrors() {
+        try {
+            run();
+        } catch (WakeupException e) {
+            // ignore
+        } catch (Throwable e) {
+            alerter.alert("Fatal error in KafkaReplicationConsumer: " + e);
+            logger.error("Fatal error in KafkaReplicationConsumer", e);
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void run() {
+        consumer.subscribe(pattern, new RebalanceListener());
+        while (running) {
+            ConsumerRecords<String, byte[]> records = consumer.poll(Duration.ofMillis(100));
+            for (ConsumerRecord<String, byte[]> record : records) {
+                dispatch(record);
+            }
+            submitBatches();
+            removeClosedAssemblies();
+            applyBackpressure();
+            commitCompleted(false);
+        }
+    }
+
+    private void dispatch(ConsumerRecord<String, byte[]> record) {
+        TopicPartition topicPartition = new TopicPartition(record.topic(), record.partition());
+        PartitionOffsets partitionOffsets = offsets.computeIfAbsent(topicPartition, tp -> new PartitionOffsets());
+        long offset = record.offset();
+        byte[] value = record.value();
+        try {
+            if (value == null) {
+                partitionOffsets.skip(offset);
+            } else if (!BinaryReplicationRecords.isBinary(value)) {
+                ReplicationMessage message = gson.fromJson(new String(value, StandardCharsets.UTF_8), ReplicationMessage.class);
+                addToBatch(message, partitionOffsets, offset);
+            } else {
+                byte type = BinaryReplicationRecords.getRecordType(value);
+                long messageId = BinaryReplicationRecords.getMessageId(value);
+                if (type == BinaryReplicationRecords.HEADER) {
+                    ReplicationMessage message = BinaryReplicationRecords.decodeHeader(value);
+                    if (message.streamedPayloads == null || message.streamedPayloads.isEmpty()) {
+                        addToBatch(message, partitionOffsets, offset);
+                    } else {
+                        // earlier messages for the same thread must be applied first
+                        submitBatch(stripeIndexFor(message.handle));
+                        Assembly assembly = new Assembly(topicPartition, message.streamedPayloads);
+                        assemblies.put(messageId, assembly);
+                        submit(message, assembly.getInputStreams(), assembly, partitionOffsets, offset);
+                    }
+                } else if (type == BinaryReplicationRecords.CHUNK) {
+                    partitionOffsets.skip(offset);
+                    appendChunk(messageId, value);
+                } else {
+                    partitionOffsets.skip(offset);
+                    logger.warn("Unknown replication record type " + type + " at " + topicPartition + " offset " + offset);
+                }
+            }
+        } catch (RuntimeException e) {
+            partitionOffsets.skip(offset);
+            alerter.alert("Error reading replication record at " + topicPartition + " offset " + offset + ": " + e);
+            logger.error("Error reading replication record at " + topicPartition + " offset " + offset, e);
+        }
+    }
+
+    private void appendChunk(long messageId, byte[] value) {
+        Assembly assembly = assemblies.get(messageId);
+        if (assembly == null) {
+            // the header was consumed before a rebalance, or the message was abandoned
+            return;
+        }
+        int index = BinaryReplicationRecords.getChunkPayloadIndex(value);
+        if (index < 0 || index >= assembly.buffers.size()) {
+            throw new IllegalArgumentException("Unexpected payload index " + index);
+        }
+        ReplicationPayloadBuffer buffer = assembly.buffers.get(index);
+        try {
+            buffer.append(value, BinaryReplicationRecords.getChunkDataOffset(), BinaryReplicationRecords.isLastChunk(value));
+        } catch (IOException e) {
+            logger.error("Error buffering replicated payload", e);
+            assembly.close();
+        }
+        if (assembly.isComplete()) assemblies.remove(messageId);
+    }
+
+    private void submit(ReplicationMessage message, Map<String, InputStream> payloads, Assembly assembly, PartitionOffsets partitionOffsets, long offset) {
+        partitionOffsets.add(offset);
+        queuedTasks.incrementAndGet();
+        stripeFor(message.handle).execute(() -> {
+            queuedTasks.decrementAndGet();
+            try {
+                handler.accept(message, payloads);
+            } catch (Throwable e) {
+                alerter.alert("Error replicating " + message.handle + ": " + e);
+                logger.error("Error replicating " + message.handle, e);
+            } finally {
+                if (assembly != null) assembly.close();
+                partitionOffsets.complete(offset);
+            }
+        });
+    }
+
+    private void addToBatch(ReplicationMessage message, PartitionOffsets partitionOffsets, long offset) {
+        int index = stripeIndexFor(message.handle);
+        if (batches[index] == null) batches[index] = new Batch();
+        batches[index].add(message, partitionOffsets, offset);
+    }
+
+    private void submitBatches() {
+        for (int i = 0; i < batches.length; i++) {
+            submitBatch(i);
+        }
+    }
+
+    private void submitBatch(int index) {
+        Batch batch = batches[index];
+        if (batch == null) return;
+        batches[index] = null;
+        List<ReplicationMessage> messages = batch.getMessages();
+        queuedTasks.addAndGet(messages.size());
+        stripes[index].execute(() -> {
+            queuedTasks.addAndGet(-messages.size());
+            try {
+                batchHandler.accept(messages);
+            } catch (Throwable e) {
+                alerter.alert("Error replicating batch of " + messages.size() + ": " + e);
+                logger.error("Error replicating batch of " + messages.size(), e);
+            } finally {
+                batch.complete();
+            }
+        });
+    }
+
+    private ExecutorService stripeFor(String handle) {
+        return stripes[stripeIndexFor(handle)];
+    }
+
+    private int stripeIndexFor(String handle) {
+        if (handle == null) return 0;
+        return (handle.hashCode() & 0x7FFFFFFF) % stripes.length;
+    }
+
+    private void removeClosedAssemblies() {
+        assemblies.values().removeIf(Assembly::isComplete);
+    }
+
+    /**
+     * Pauses consumption while too many messages wait to be applied.  Never pauses while a binary message is
+     * incomplete, as the thread applying it may be waiting for its chunks.
+     */
+    private void applyBackpressure() {
+        int queued = queuedTasks.get();
+        if (!paused && queued > maxQueuedTasks && assemblies.isEmpty()) {
+            consumer.pause(consumer.assignment());
+            paused = true;
+        } else if (paused && (queued <= maxQueuedTasks / 2 || !assemblies.isEmpty())) {
+            consumer.resume(consumer.paused());
+            paused = false;
+        }
+    }
+
+    private void commitCompleted(boolean sync) {
+        Map<TopicPartition, OffsetAndMetadata> toCommit = new HashMap<>();
+        for (Map.Entry<TopicPartition, PartitionOffsets> entry : offsets.entrySet()) {
+            long committable = entry.getValue().getCommittableOffset();
+            if (committable > entry.getValue().committed) {
+                toCommit.put(entry.getKey(), new OffsetAndMetadata(committable));
+                entry.getValue().committed = committable;
+            }
+        }
+        if (toCommit.isEmpty()) return;
+        if (sync) {
+            consumer.commitSync(toCommit);
+        } else {
+            consumer.commitAsync(toCommit, (committedOffsets, exception) -> {
+                if (exception != null) logger.warn("Error committing replication offsets", exception);
+            });
+        }
+    }
+
+    private void closeAll() {
+        for (Assembly assembly : assemblies.values()) {
+            assembly.close();
+        }
+        assemblies.clear();
+        for (ExecutorService stripe : stripes) {
+            stripe.shutdown();
+        }
+        try {
+            for (ExecutorService stripe : stripes) {
+                stripe.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            commitCompleted(true);
+        } catch (Exception e) {
+            logger.warn("Error committing replication offsets", e);
+        }
+        consumer.close();
+    }
+
+    private class RebalanceListener implements ConsumerRebalanceListener {
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            try {
+                commitCompleted(true);
+            } catch (Exception e) {
+                logger.warn("Error committing replication offsets", e);
+            }
+            // messages still being applied will be consumed again by the new owner of the partition
+            Iterator<Assembly> iter = assemblies.values().iterator();
+            while (iter.hasNext()) {
+                Assembly assembly = iter.next();
+                if (partitions.contains(assembly.topicPartition)) {
+                    assembly.close();
+                    iter.remove();
+                }
+            }
+            offsets.keySet().removeAll(partitions);
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+            if (paused) consumer.pause(partitions);
+        }
+    }
+
+    private class Assembly {
+        final TopicPartition topicPartition;
+        final List<String> payloadNames;
+        final List<ReplicationPayloadBuffer> buffers = new ArrayList<>();
+
+        Assembly(TopicPartition topicPartition, List<String> payloadNames) {
+            this.topicPartition = topicPartition;
+            this.payloadNames = payloadNames;
+            for (int i = 0; i < payloadNames.size(); i++) {
+                buffers.add(new ReplicationPayloadBuffer(bufferedMemoryBytes, MAX_BUFFERED_MEMORY_BYTES, PAYLOAD_TIMEOUT_MS));
+            }
+        }
+
+        Map<String, InputStream> getInputStreams() {
+            Map<String, InputStream> result = new LinkedHashMap<>();
+            for (int i = 0; i < payloadNames.size(); i++) {
+                result.put(payloadNames.get(i), buffers.get(i).getInputStream());
+            }
+            return result;
+        }
+
+        boolean isComplete() {
+            for (ReplicationPayloadBuffer buffer : buffers) {
+                if (!buffer.isFinished() && !buffer.isClosed()) return false;
+            }
+            return true;
+        }
+
+        void close() {
+            for (ReplicationPayloadBuffer buffer : buffers) {
+                buffer.close();
+            }
+        }
+    }
+
+    /**
+     * The messages of one poll for one thread, with the offsets of all the messages they supersede.  A message
+     * supersedes the earlier messages for its object, except for delta messages, which are kept after them.
+     */
+    private static class Batch {
+        final Map<Object, List<ReplicationMessage>> messages = new LinkedHashMap<>();
+        final List<PartitionOffsets> partitionOffsetsList = new ArrayList<>();
+        final List<Long> offsetList = new ArrayList<>();
+
+        void add(ReplicationMessage message, PartitionOffsets partitionOffsets, long offset) {
+            partitionOffsets.add(offset);
+            partitionOffsetsList.add(partitionOffsets);
+            offsetList.add(offset);
+            // messages without a handle are kept
+            Object key = message.handle == null ? new Object() : message.handle;
+            List<ReplicationMessage> forKey = messages.get(key);
+            if (forKey != null && message.type == ReplicationMessage.Type.DELTA) {
+                forKey.add(message);
+            } else {
+                forKey = new ArrayList<>();
+                forKey.add(message);
+                messages.remove(key);
+                messages.put(key, forKey);
+            }
+        }
+
+        List<ReplicationMessage> getMessages() {
+            List<ReplicationMessage> result = new ArrayList<>();
+            for (List<ReplicationMessage> forKey : messages.values()) {
+                result.addAll(forKey);
+            }
+            return result;
+        }
+
+        void complete() {
+            for (int i = 0; i < offsetList.size(); i++) {
+                partitionOffsetsList.get(i).complete(offsetList.get(i));
+            }
+        }
+    }
+
+    /**
+     * The offsets of one partition which have been dispatched but not yet applied.
+     */
+    private static class PartitionOffsets {
+        private final TreeSet<Long> pending = new TreeSet<>();
+        private long next = -1;
+        long committed = -1;
+
+        synchronized void add(long offset) {
+            pending.add(offset);
+            next = Math.max(next, offset + 1);
+        }
+
+        synchronized void skip(long offset) {
+            next = Math.max(next, offset + 1);
+        }
+
+        synchronized void complete(long offset) {
+            pending.remove(offset);
+        }
+
+        synchronized long getCommittableOffset() {
+            if (pending.isEmpty()) return next;
+            return pending.first();
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package net.cnri.cordra.replication.kafka;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Properties;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 
 import net.cnri.cordra.model.ReplicationProducerConfig;
@@ -15,7 +17,7 @@ public class KafkaReplicationProducer implements ReplicationProducer {
     public static final String TOPIC_PREFIX = "CordraReplication-";
     
     private final String topic;
-    private final KafkaProducer<String, String> producer;
+    private final KafkaProducer<String, byte[]> producer;
     
     public KafkaReplicationProducer(String cordraClusterId, ReplicationProducerConfig config) {
         this.topic = TOPIC_PREFIX + cordraClusterId;
@@ -23,14 +25,21 @@ public class KafkaReplicationProducer implements ReplicationProducer {
         if (config.producerConfig != null) props.putAll(config.producerConfig);
         props.putIfAbsent("bootstrap.servers", config.kafkaBootstrapServers);
         props.putIfAbsent("key.serializer", StringSerializer.class.getName());
-        props.putIfAbsent("value.serializer", StringSerializer.class.getName());
+        // JSON messages are sent as UTF-8, as StringSerializer would, and binary records as they are
+        props.put("value.serializer", ByteArraySerializer.class.getName());
         props.putIfAbsent("acks", "all");
+        if (config.compressionType != null) props.putIfAbsent("compression.type", config.compressionType);
         props.putIfAbsent("client.id", "cordra-" + UUID.randomUUID().toString()); 
         producer = new KafkaProducer<>(props);
     }
     
     @Override
     public CompletableFuture<Void> sendAsync(String key, String message) {
+        return sendAsync(key, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public CompletableFuture<Void> sendAsync(String key, byte[] message) {
         CompletableFuture<Void> future = new CompletableFuture<>();
         producer.send(new ProducerRecord<>(topic, key, message), (recordMetadata, exception) -> {
             if (exception == null) {
@@ -3,14 +3,22 @@ package net.cnri.cordra.replication.kafka;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends each message to all of the given producers.  The returned future completes once as many producers as the
+ * durability requires have succeeded; the sends to the remaining producers continue, and their failures are logged.
+ */
 public class MultipleReplicationProducer implements ReplicationProducer {
+    private static final Logger logger = LoggerFactory.getLogger(MultipleReplicationProducer.class);
 
     public static enum Durability {ALL, MAJORITY, ONE, NONE}
     
     private final List<ReplicationProducer> producers;
     private final Durability durability;
-    @SuppressWarnings("unused") 
     private final int target;
     
     public MultipleReplicationProducer(List<ReplicationProducer> producers) {
@@ -18,9 +26,6 @@ public class MultipleReplicationProducer implements ReplicationProducer {
     }
     
     public MultipleReplicationProducer(List<ReplicationProducer> producers, Durability durability) {
-        if (durability != Durability.ALL) {
-            throw new UnsupportedOperationException("At this time only a durability of ALL is supported.");
-        }
         this.producers = producers;
         this.durability = durability;
         this.target = calculateTarget(this.durability, producers.size());
@@ -47,9 +52,40 @@ public class MultipleReplicationProducer implements ReplicationProducer {
         for (ReplicationProducer producer : producers) {
             tasks.add(producer.sendAsync(key, message));
         }
-        return CompletableFuture.allOf(tasks.toArray(new CompletableFuture[tasks.size()]));
+        return awaitTarget(tasks);
+    }
+
+    @Override
+    public CompletableFuture<Void> sendAsync(String key, byte[] message) {
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (ReplicationProducer producer : producers) {
+            tasks.add(producer.sendAsync(key, message));
+        }
+        return awaitTarget(tasks);
     }
     
+    private CompletableFuture<Void> awaitTarget(List<CompletableFuture<Void>> tasks) {
+        int n = tasks.size();
+        if (target >= n) {
+            return CompletableFuture.allOf(tasks.toArray(new CompletableFuture[n]));
+        }
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        if (target <= 0) result.complete(null);
+        AtomicInteger successes = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        for (CompletableFuture<Void> task : tasks) {
+            task.whenComplete((v, e) -> {
+                if (e == null) {
+                    if (successes.incrementAndGet() == target) result.complete(null);
+                } else {
+                    logger.warn("Error sending replication message", e);
+                    if (failures.incrementAndGet() == n - target + 1) result.completeExceptionally(e);
+                }
+            });
+        }
+        return result;
+    }
+
     @Override
     public void shutdown() throws Exception {
         for (ReplicationProducer p : producers) {
@@ -1,14 +1,46 @@
 package net.cnri.cordra.replication.kafka;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import com.google.gson.JsonArray;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
 public class ReplicationMessage {
 
     public enum Type {
         DELETE,
-        UPDATE
+        UPDATE,
+        DELTA, // an update sent as a patch against the version with txnId baseTxnId
+        RESEND // a request, from a cluster which could not apply a DELTA, for an UPDATE with the whole object
     }
-    
+
     public String cordraClusterId; //The name of the Cordra cluster that created this transaction
     public Type type;
     public String handle;
     public CordraObjectWithPayloadsAsStrings object;
+    public List<String> streamedPayloads; //In binary messages, the payloads which follow in chunk records
+    public Long baseTxnId; //In DELTA messages, the txnId of the version the patch applies to
+    public JsonArray contentPatch; //In DELTA messages, a JSON Patch from the content of the base version; object has no content
+    public List<String> changedPayloads; //In DELTA messages, the payloads whose bytes changed; others are unchanged
+
+    /**
+     * Returns the type of a JSON replication message, reading no further into the message than the type.
+     */
+    public static Type peekType(String json) {
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("type".equals(reader.nextName()) && reader.peek() == JsonToken.STRING) {
+                    return Type.valueOf(reader.nextString());
+                }
+                reader.skipValue();
+            }
+            return null;
+        } catch (IOException | IllegalStateException | IllegalArgumentException e) {
+            return null;
+        }
+    }
 }
@@ -0,0 +1,159 @@
+package net.cnri.cordra.replication.kafka;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Passes the chunks of one payload of a binary replication message from the consumer thread, which appends them as
+ * they arrive, to the thread applying the message, which reads them as a stream while they arrive.
+ *
+ * <p>Chunks are held in memory up to a limit shared by all buffers, and beyond that in a temporary file, so that the
+ * consumer thread never waits for a slow reader, and a large payload is never held in memory as a whole.
+ */
+class ReplicationPayloadBuffer {
+    private final AtomicLong sharedMemoryBytes;
+    private final long maxMemoryBytes;
+    private final long timeoutMs;
+
+    private final Deque<byte[]> memoryChunks = new ArrayDeque<>();
+    private int positionInFirstChunk = 0;
+    private File spillFile;
+    private RandomAccessFile spill;
+    private long spillWritten = 0;
+    private long spillRead = 0;
+    private long lastAppendTime = System.currentTimeMillis();
+    private boolean finished = false;
+    private boolean closed = false;
+
+    /**
+     * @param sharedMemoryBytes the bytes held in memory by all buffers
+     * @param maxMemoryBytes the limit of bytes held in memory by all buffers, beyond which chunks go to disk
+     * @param timeoutMs how long a reader waits for the next chunk before failing
+     */
+    ReplicationPayloadBuffer(AtomicLong sharedMemoryBytes, long maxMemoryBytes, long timeoutMs) {
+        this.sharedMemoryBytes = sharedMemoryBytes;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Appends the bytes of the record starting at offset.  Once the buffer is closed, chunks are discarded.
+     */
+    synchronized void append(byte[] record, int offset, boolean isLast) throws IOException {
+        if (closed) return;
+        int len = record.length - offset;
+        if (len > 0) {
+            // once a chunk has gone to disk, all following chunks do too, so that they are read in order
+            if (spill == null && sharedMemoryBytes.addAndGet(len) <= maxMemoryBytes) {
+                memoryChunks.add(Arrays.copyOfRange(record, offset, record.length));
+            } else {
+                if (spill == null) {
+                    sharedMemoryBytes.addAndGet(-len);
+                    spillFile = File.createTempFile("cordra-replication-", ".tmp");
+                    spill = new RandomAccessFile(spillFile, "rw");
+                }
+                spill.seek(spillWritten);
+                spill.write(record, offset, len);
+                spillWritten += len;
+            }
+        }
+        if (isLast) finished = true;
+        lastAppendTime = System.currentTimeMillis();
+        notifyAll();
+    }
+
+    synchronized boolean isFinished() {
+        return finished;
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Discards the buffered chunks and any which arrive later.  A reader still reading fails.
+     */
+    synchronized void close() {
+        if (closed) return;
+        closed = true;
+        long memoryBytes = 0;
+        for (byte[] chunk : memoryChunks) {
+            memoryBytes += chunk.length;
+        }
+        sharedMemoryBytes.addAndGet(-memoryBytes);
+        memoryChunks.clear();
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            spillFile.delete();
+        }
+        notifyAll();
+    }
+
+    InputStream getInputStream() {
+        return new BufferInputStream();
+    }
+
+    private synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        while (true) {
+            if (closed) throw new IOException("Replicated payload no longer available");
+            byte[] chunk = memoryChunks.peek();
+            if (chunk != null) {
+                int n = Math.min(len, chunk.length - positionInFirstChunk);
+                System.arraycopy(chunk, positionInFirstChunk, b, off, n);
+                positionInFirstChunk += n;
+                if (positionInFirstChunk == chunk.length) {
+                    memoryChunks.remove();
+                    positionInFirstChunk = 0;
+                    sharedMemoryBytes.addAndGet(-chunk.length);
+                }
+                return n;
+            }
+            if (spillRead < spillWritten) {
+                spill.seek(spillRead);
+                int n = spill.read(b, off, (int) Math.min(len, spillWritten - spillRead));
+                spillRead += n;
+                return n;
+            }
+            if (finished) return -1;
+            long remaining = lastAppendTime + timeoutMs - System.currentTimeMillis();
+            if (remaining <= 0) throw new IOException("Timed out waiting for replicated payload");
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private class BufferInputStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = ReplicationPayloadBuffer.this.read(b, 0, 1);
+            if (n < 0) return -1;
+            return b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return ReplicationPayloadBuffer.this.read(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            ReplicationPayloadBuffer.this.close();
+        }
+    }
+}
@@ -20,5 +20,21 @@ public interface ReplicationProducer {
     }
 
     CompletableFuture<Void> sendAsync(String key, String message);
+
+    /**
+     * Returns whether messages may be held back before being sent, in which case callers should not wait for them
+     * while holding a lock.
+     */
+    default boolean isSendDelayed() {
+        return false;
+    }
+
+    /**
+     * Sends a record of the binary replication format; see {@link BinaryReplicationRecords}.
+     */
+    default CompletableFuture<Void> sendAsync(String key, byte[] message) {
+        throw new UnsupportedOperationException();
+    }
+
     void shutdown() throws Exception;
 }
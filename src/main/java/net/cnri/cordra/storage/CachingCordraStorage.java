@@ -0,0 +1,380 @@
+package net.cnri.cordra.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import net.cnri.cordra.api.CordraException;
+import net.cnri.cordra.api.CordraObject;
+import net.cnri.cordra.api.SearchResults;
+import net.cnri.cordra.collections.SearchResultsFromIterator;
+import net.cnri.cordra.collections.SmilePersistentMapCodec;
+import net.cnri.cordra.model.CordraConfig;
+import net.cnri.cordra.sync.SignalWatcher;
+import net.cnri.microservices.Alerter;
+
+/**
+ * A read-through cache of CordraObjects in front of another storage.  Entries are bounded by their encoded size
+ * and are versioned by txnId, so that a slower write or read can never replace a newer cached object with an
+ * older one.  Lookups of missing objects are cached too.
+ *
+ * <p>Writes through this storage invalidate the cache locally, and, once {@link #setSignalWatcher} has been called,
+ * notify other instances so that they invalidate their caches as well.  If the signal watcher cannot carry object
+ * ids, each signal makes the other instances clear their whole cache, so the signals for all writes within an
+ * interval are coalesced into one, sent from a background thread rather than on the write path.
+ *
+ * <p>Objects are held in encoded form, so each call returns a fresh copy which the caller is free to modify.
+ */
+public class CachingCordraStorage extends DelegatingCordraStorage {
+    private static Logger logger = LoggerFactory.getLogger(CachingCordraStorage.class);
+
+    private static final int INVALIDATION_STRIPES = 1024;
+    private static final long NEGATIVE_ENTRY_VERSION = Long.MIN_VALUE;
+
+    private final Cache<String, Entry> cache;
+    private final SmilePersistentMapCodec<CordraObject> codec = new SmilePersistentMapCodec<>(CordraObject.class);
+    private final boolean isCacheMissing;
+    // incremented whenever an object mapped to the stripe is invalidated, so that a load which overlaps an
+    // invalidation does not leave the stale result it read in the cache
+    private final AtomicLongArray invalidationCounters = new AtomicLongArray(INVALIDATION_STRIPES);
+    private final long objectChangeSignalIntervalMs;
+    private final AtomicBoolean isObjectChangeSignalPending = new AtomicBoolean();
+    private volatile SignalWatcher signalWatcher;
+    private volatile Alerter alerter;
+    private volatile ScheduledExecutorService objectChangeSignalExecServ;
+
+    private static class Entry {
+        final byte[] bytes; // null for a cached missing object
+        final long version;
+
+        Entry(byte[] bytes, long version) {
+            this.bytes = bytes;
+            this.version = version;
+        }
+    }
+
+    public CachingCordraStorage(CordraStorage delegate, CordraConfig.ObjectCache config) {
+        super(delegate);
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().recordStats();
+        long maxBytes = config.maxBytes == null ? new CordraConfig.ObjectCache().maxBytes : config.maxBytes;
+        builder.maximumWeight(maxBytes);
+        if (config.expireAfterWriteMs != null && config.expireAfterWriteMs > 0) {
+            builder.expireAfterWrite(config.expireAfterWriteMs, TimeUnit.MILLISECONDS);
+        }
+        this.cache = builder
+            .weigher((String id, Entry entry) -> id.length() + (entry.bytes == null ? 0 : entry.bytes.length))
+            .build();
+        this.isCacheMissing = !Boolean.FALSE.equals(config.cacheMissing);
+        Long interval = config.objectChangeSignalIntervalMs;
+        this.objectChangeSignalIntervalMs = interval != null && interval > 0 ? interval : new CordraConfig.ObjectCache().objectChangeSignalIntervalMs;
+    }
+
+    /**
+     * Sets the signal watcher used to tell other instances about changed objects, and to hear about theirs.
+     * Must be called before the signal watcher is started.
+     */
+    @SuppressWarnings("hiding")
+    public void setSignalWatcher(SignalWatcher signalWatcher, Alerter alerter) {
+        this.alerter = alerter;
+        signalWatcher.setObjectChangeCallback(this::invalidateLocally);
+        this.signalWatcher = signalWatcher;
+        if (!signalWatcher.isObjectChangeIdsSupported()) {
+            objectChangeSignalExecServ = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "object-change-signal");
+                thread.setDaemon(true);
+                return thread;
+            });
+            objectChangeSignalExecServ.scheduleWithFixedDelay(this::sendPendingObjectChangeSignal, objectChangeSignalIntervalMs, objectChangeSignalIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops coalescing object change signals, sending any which is pending.  Must be called before the signal watcher
+     * is shut down.
+     */
+    public void shutdown() {
+        ScheduledExecutorService execServ = objectChangeSignalExecServ;
+        if (execServ == null) return;
+        execServ.shutdownNow();
+        try {
+            execServ.awaitTermination(objectChangeSignalIntervalMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sendPendingObjectChangeSignal();
+    }
+
+    @Override
+    public void close() throws IOException, CordraException {
+        ScheduledExecutorService execServ = objectChangeSignalExecServ;
+        if (execServ != null) execServ.shutdownNow();
+        super.close();
+    }
+
+    @Override
+    public CordraObject get(String id) throws CordraException {
+        Entry entry = cache.getIfPresent(id);
+        if (entry != null) return decode(entry);
+        long counter = getInvalidationCounter(id);
+        CordraObject co = super.get(id);
+        cacheLoaded(id, co, counter);
+        return co;
+    }
+
+    /**
+     * Returns the txnId of the cached version of the object.  The cache is invalidated on every write, here or, by
+     * signal, on another instance, so a cached version is current.
+     */
+    @Override
+    public Long getKnownTxnId(String id) {
+        Entry entry = cache.getIfPresent(id);
+        if (entry == null || entry.bytes == null) return null;
+        return entry.version;
+    }
+
+    @Override
+    public SearchResults<CordraObject> get(Collection<String> ids) throws CordraException {
+        Map<String, CordraObject> found = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        Map<String, Long> counters = new HashMap<>();
+        for (String id : new LinkedHashSet<>(ids)) {
+            Entry entry = cache.getIfPresent(id);
+            if (entry != null) {
+                CordraObject co = decode(entry);
+                if (co != null) found.put(id, co);
+            } else {
+                missing.add(id);
+                counters.put(id, getInvalidationCounter(id));
+            }
+        }
+        if (!missing.isEmpty()) {
+            Set<String> notFound = new LinkedHashSet<>(missing);
+            try (SearchResults<CordraObject> results = super.get(missing)) {
+                for (CordraObject co : results) {
+                    notFound.remove(co.id);
+                    Long counter = counters.get(co.id);
+                    if (counter != null) cacheLoaded(co.id, co, counter);
+                    found.put(co.id, co);
+                }
+            }
+            for (String id : notFound) {
+                cacheLoaded(id, null, counters.get(id));
+            }
+        }
+        List<CordraObject> list = new ArrayList<>(found.size());
+        for (String id : new LinkedHashSet<>(ids)) {
+            CordraObject co = found.get(id);
+            if (co != null) list.add(co);
+        }
+        return new SearchResultsFromIterator<>(list.size(), list.iterator());
+    }
+
+    @Override
+    public CordraObject create(CordraObject d) throws CordraException {
+        CordraObject res = super.create(d);
+        cacheWritten(res);
+        sendObjectChangeSignal(res.id);
+        return res;
+    }
+
+    @Override
+    public CordraObject update(CordraObject d) throws CordraException {
+        CordraObject res = super.update(d);
+        cacheWritten(res);
+        sendObjectChangeSignal(res.id);
+        return res;
+    }
+
+    @Override
+    public List<CordraObject> createAll(List<CordraObject> objects) throws CordraException {
+        try {
+            List<CordraObject> res = super.createAll(objects);
+            for (CordraObject co : res) {
+                cacheWritten(co);
+            }
+            return res;
+        } catch (Exception e) {
+            // a failed batch may be partially stored
+            invalidateLocally(idsOf(objects));
+            throw e;
+        } finally {
+            sendObjectChangeSignal(idsOf(objects));
+        }
+    }
+
+    @Override
+    public List<CordraObject> updateAll(List<CordraObject> objects) throws CordraException {
+        try {
+            List<CordraObject> res = super.updateAll(objects);
+            for (CordraObject co : res) {
+                cacheWritten(co);
+            }
+            return res;
+        } catch (Exception e) {
+            invalidateLocally(idsOf(objects));
+            throw e;
+        } finally {
+            sendObjectChangeSignal(idsOf(objects));
+        }
+    }
+
+    @Override
+    public void delete(String id) throws CordraException {
+        try {
+            super.delete(id);
+        } finally {
+            invalidateLocally(Collections.singletonList(id));
+            sendObjectChangeSignal(id);
+        }
+    }
+
+    /**
+     * Removes the given objects from this instance's cache.
+     */
+    public void invalidateLocally(Collection<String> ids) {
+        for (String id : ids) {
+            invalidationCounters.incrementAndGet(stripe(id));
+            cache.invalidate(id);
+        }
+    }
+
+    /**
+     * Removes all objects from this instance's cache.
+     */
+    public void invalidateAllLocally() {
+        for (int i = 0; i < INVALIDATION_STRIPES; i++) {
+            invalidationCounters.incrementAndGet(i);
+        }
+        cache.invalidateAll();
+    }
+
+    public Stats getStats() {
+        CacheStats cacheStats = cache.stats();
+        Stats stats = new Stats();
+        stats.size = cache.size();
+        stats.hitCount = cacheStats.hitCount();
+        stats.missCount = cacheStats.missCount();
+        stats.hitRate = cacheStats.hitRate();
+        stats.evictionCount = cacheStats.evictionCount();
+        return stats;
+    }
+
+    public static class Stats {
+        public long size;
+        public long hitCount;
+        public long missCount;
+        public double hitRate;
+        public long evictionCount;
+    }
+
+    private CordraObject decode(Entry entry) {
+        if (entry.bytes == null) return null;
+        return codec.decode(entry.bytes);
+    }
+
+    private int stripe(String id) {
+        return (id.hashCode() & 0x7FFFFFFF) % INVALIDATION_STRIPES;
+    }
+
+    private long getInvalidationCounter(String id) {
+        return invalidationCounters.get(stripe(id));
+    }
+
+    private void cacheLoaded(String id, CordraObject co, long counterBeforeLoad) {
+        if (co == null && !isCacheMissing) return;
+        int stripe = stripe(id);
+        if (invalidationCounters.get(stripe) != counterBeforeLoad) return;
+        putIfNewer(id, co);
+        if (invalidationCounters.get(stripe) != counterBeforeLoad) {
+            // an invalidation raced with the put; the loaded object may be stale
+            cache.invalidate(id);
+        }
+    }
+
+    private void cacheWritten(CordraObject co) {
+        // the counter makes any concurrent load discard what it read; the version check keeps the newest write
+        invalidationCounters.incrementAndGet(stripe(co.id));
+        putIfNewer(co.id, co);
+    }
+
+    private void putIfNewer(String id, CordraObject co) {
+        Entry entry;
+        if (co == null) {
+            entry = new Entry(null, NEGATIVE_ENTRY_VERSION);
+        } else {
+            entry = new Entry(codec.encode(co), getVersion(co));
+        }
+        Map<String, Entry> map = cache.asMap();
+        while (true) {
+            Entry existing = map.putIfAbsent(id, entry);
+            if (existing == null) return;
+            if (existing.version > entry.version) return;
+            if (map.replace(id, existing, entry)) return;
+        }
+    }
+
+    private static long getVersion(CordraObject co) {
+        if (co.metadata == null || co.metadata.txnId == null) return 0;
+        return co.metadata.txnId;
+    }
+
+    private static List<String> idsOf(List<CordraObject> objects) {
+        List<String> ids = new ArrayList<>(objects.size());
+        for (CordraObject co : objects) {
+            ids.add(co.id);
+        }
+        return ids;
+    }
+
+    private void sendObjectChangeSignal(String id) {
+        sendObjectChangeSignal(Collections.singletonList(id));
+    }
+
+    private void sendObjectChangeSignal(List<String> ids) {
+        SignalWatcher sw = signalWatcher;
+        if (sw == null || ids.isEmpty()) return;
+        if (!sw.isObjectChangeIdsSupported()) {
+            isObjectChangeSignalPending.set(true);
+            return;
+        }
+        String description = ids.size() == 1 ? ids.get(0) : ids.size() + " objects";
+        try {
+            sw.sendObjectChangeSignal(ids);
+        } catch (Exception e) {
+            logger.error("Error sending object change signal for " + description, e);
+            Alerter alerterLocal = alerter;
+            if (alerterLocal != null) alerterLocal.alert("Error sending object change signal for " + description + ": " + e);
+        }
+    }
+
+    private void sendPendingObjectChangeSignal() {
+        if (!isObjectChangeSignalPending.getAndSet(false)) return;
+        try {
+            signalWatcher.sendSignal(SignalWatcher.Signal.OBJECT_CHANGE);
+        } catch (Exception e) {
+            // retried on the next tick
+            isObjectChangeSignalPending.set(true);
+            logger.error("Error sending object change signal", e);
+            Alerter alerterLocal = alerter;
+            if (alerterLocal != null) alerterLocal.alert("Error sending object change signal: " + e);
+        }
+    }
+}
@@ -26,6 +26,21 @@ public class DelegatingCordraStorage implements CordraStorage {
         return delegate.create(d);
     }
 
+    @Override
+    public List<CordraObject> createAll(List<CordraObject> objects) throws CordraException {
+        return delegate.createAll(objects);
+    }
+
+    @Override
+    public List<CordraObject> updateAll(List<CordraObject> objects) throws CordraException {
+        return delegate.updateAll(objects);
+    }
+
+    @Override
+    public Long getKnownTxnId(String id) {
+        return delegate.getKnownTxnId(id);
+    }
+
     @Override
     public void delete(String id) throws CordraException {
         delegate.delete(id);
@@ -75,4 +90,9 @@ public class DelegatingCordraStorage implements CordraStorage {
     public SearchResults<String> listHandlesByType(List<String> types) throws CordraException {
         return delegate.listHandlesByType(types);
     }
+
+    @Override
+    public SearchResults<CordraObject> listModifiedSince(long txnId) throws CordraException {
+        return delegate.listModifiedSince(txnId);
+    }
 }
@@ -55,6 +55,20 @@ public class InstrumentedCordraStorage extends DelegatingCordraStorage {
         });
     }
 
+    @Override
+    public List<CordraObject> createAll(List<CordraObject> objects) throws CordraException {
+        return LoggingUtil.run(logger, () -> {
+            return super.createAll(objects);
+        });
+    }
+
+    @Override
+    public List<CordraObject> updateAll(List<CordraObject> objects) throws CordraException {
+        return LoggingUtil.run(logger, () -> {
+            return super.updateAll(objects);
+        });
+    }
+
     @Override
     public void delete(String id) throws CordraException {
         LoggingUtil.run(logger, () -> {
@@ -82,4 +96,11 @@ public class InstrumentedCordraStorage extends DelegatingCordraStorage {
             return super.listHandlesByType(types);
         });
     }
+
+    @Override
+    public SearchResults<CordraObject> listModifiedSince(long txnId) throws CordraException {
+        return LoggingUtil.run(logger, () -> {
+            return super.listModifiedSince(txnId);
+        });
+    }
 }
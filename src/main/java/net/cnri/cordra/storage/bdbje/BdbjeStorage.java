@@ -11,8 +11,11 @@ import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.google.gson.JsonObject;
 import net.cnri.cordra.Constants;
@@ -32,6 +35,8 @@ import net.cnri.cordra.storage.CordraStorage;
 import net.cnri.cordra.storage.LimitedInputStream;
 
 public class BdbjeStorage implements CordraStorage {
+    private static final String TXN_ID_INDEX = "txnId";
+
     private PersistentMap<String, CordraObject> objects;
     private File payloadsDir;
 
@@ -50,6 +55,7 @@ public class BdbjeStorage implements CordraStorage {
         this.payloadsDir = new File(dir, "payloads");
         payloadsDir.mkdirs();
         objects = new PersistentMap<>(dir, "objects", String.class, CordraObject.class);
+        objects.openLongIndex(TXN_ID_INDEX, co -> co.metadata == null ? null : co.metadata.txnId);
     }
 
     private static Path getBasePathFromSystemProperty() {
@@ -109,6 +115,28 @@ public class BdbjeStorage implements CordraStorage {
         if (objects.get(d.id) != null) {
             throw new ConflictCordraException("Object already exists: " + d.id);
         }
+        writePayloadsForCreate(d);
+        objects.put(d.id, d);
+        return objects.get(d.id);
+    }
+
+    @Override
+    public List<CordraObject> createAll(List<CordraObject> batch) throws CordraException {
+        for (CordraObject d : batch) {
+            if (objects.get(d.id) != null) {
+                throw new ConflictCordraException("Object already exists: " + d.id);
+            }
+        }
+        Map<String, CordraObject> toPut = new LinkedHashMap<>();
+        for (CordraObject d : batch) {
+            writePayloadsForCreate(d);
+            toPut.put(d.id, d);
+        }
+        objects.putAll(toPut);
+        return getAllAfterPut(batch);
+    }
+
+    private void writePayloadsForCreate(CordraObject d) throws CordraException {
         if (d.payloads != null) {
             for (Payload p : d.payloads) {
                 long length;
@@ -125,8 +153,14 @@ public class BdbjeStorage implements CordraStorage {
                 d.payloads = null;
             }
         }
-        objects.put(d.id, d);
-        return objects.get(d.id);
+    }
+
+    private List<CordraObject> getAllAfterPut(List<CordraObject> batch) {
+        List<CordraObject> result = new ArrayList<>(batch.size());
+        for (CordraObject d : batch) {
+            result.add(objects.get(d.id));
+        }
+        return result;
     }
 
     private long writeInputStreamToPayloadStorage(InputStream in, String id, String name) throws IOException {
@@ -144,6 +178,28 @@ public class BdbjeStorage implements CordraStorage {
         if (objects.get(d.id) == null) {
             throw new NotFoundCordraException("Object does not exist: " + d.id);
         }
+        writePayloadsForUpdate(d);
+        objects.put(d.id, d);
+        return objects.get(d.id);
+    }
+
+    @Override
+    public List<CordraObject> updateAll(List<CordraObject> batch) throws CordraException {
+        for (CordraObject d : batch) {
+            if (objects.get(d.id) == null) {
+                throw new NotFoundCordraException("Object does not exist: " + d.id);
+            }
+        }
+        Map<String, CordraObject> toPut = new LinkedHashMap<>();
+        for (CordraObject d : batch) {
+            writePayloadsForUpdate(d);
+            toPut.put(d.id, d);
+        }
+        objects.putAll(toPut);
+        return getAllAfterPut(batch);
+    }
+
+    private void writePayloadsForUpdate(CordraObject d) throws CordraException {
         List<String> payloadsToDelete = d.getPayloadsToDelete();
         String id = d.id;
         if (payloadsToDelete != null) {
@@ -172,8 +228,6 @@ public class BdbjeStorage implements CordraStorage {
                 d.payloads = null;
             }
         }
-        objects.put(d.id, d);
-        return objects.get(d.id);
     }
 
     @Override
@@ -296,6 +350,37 @@ public class BdbjeStorage implements CordraStorage {
         };
     }
 
+    @Override
+    public SearchResults<CordraObject> listModifiedSince(long txnId) throws CordraException {
+        return new AbstractSearchResults<CordraObject>() {
+
+            private Iterator<CordraObject> objectsIter = objects.valuesWithIndexKeyGreaterThan(TXN_ID_INDEX, txnId);
+
+            @Override
+            public int size() {
+                return -1;
+            }
+
+            @Override
+            protected CordraObject computeNext() {
+                if (objectsIter.hasNext()) {
+                    return objectsIter.next();
+                } else {
+                    return null;
+                }
+            }
+
+            @Override
+            protected void closeOnlyOnce() {
+                try {
+                    ((Closeable) objectsIter).close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        };
+    }
+
     @Override
     public void close() throws CordraException {
         if (objects != null) {
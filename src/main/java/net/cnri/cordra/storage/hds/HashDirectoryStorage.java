@@ -1,5 +1,6 @@
 package net.cnri.cordra.storage.hds;
 
+import com.google.common.util.concurrent.Striped;
 import com.sleepycat.je.*;
 import net.cnri.cordra.api.ConflictCordraException;
 import net.cnri.cordra.api.CordraException;
@@ -14,7 +15,11 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.nio.channels.Channels;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
 
 /**
  * HashDirectoryStorage stores digital objects and associated data elements
@@ -34,7 +39,8 @@ public class HashDirectoryStorage {
     private static final int DEFAULT_MAX_DB_ELEMENT_SIZE = 1048576;
     static final Logger logger = LoggerFactory.getLogger(HashDirectoryStorage.class);
 
-    private static final Object EMPTY_LOCK_VAL = new Object();
+    // number of locks guarding object metadata; objects are mapped onto them by hash
+    private static final int OBJECT_LOCK_STRIPES = 1024;
 
     // The separator between directory/file names
     private static final char FILE_SEPARATOR = File.separatorChar;
@@ -53,13 +59,16 @@ public class HashDirectoryStorage {
 
     private File baseDirectory;
     private String baseDirectoryPath;
-    private MessageDigest hash;
+    private ThreadLocal<MessageDigest> hash;
     private Properties props;
     private int maxDbElementSize = DEFAULT_MAX_DB_ELEMENT_SIZE;
 
-    // lock tables to keep track of currently-being-written and
-    // currently-being-read data
-    private Hashtable locks = new Hashtable();
+    // exclusive locks for changes to object metadata
+    private final Striped<Lock> objectLocks = Striped.lock(OBJECT_LOCK_STRIPES);
+
+    // lock table to keep track of currently-being-written and
+    // currently-being-read data elements; entries are removed when unused
+    private final ConcurrentMap<String, ElementLock> elementLocks = new ConcurrentHashMap<>();
 
     // the Berkeley DB database environment
     private Environment environment = null;
@@ -70,6 +79,9 @@ public class HashDirectoryStorage {
     // the database for elements
     private Database elementDb;
 
+    // secondary databases indexing the objects by the value of a numeric attribute
+    private final ConcurrentMap<String, SecondaryDatabase> attributeIndexDbs = new ConcurrentHashMap<>();
+
     private boolean readOnly;
 
     public HashDirectoryStorage() {
@@ -125,11 +137,21 @@ public class HashDirectoryStorage {
             throw new InternalErrorCordraException("Unable to access storage directory: " + e);
         }
 
+        // the digest algorithm is fixed before reading storage properties, as it always has been,
+        // so that existing object paths are unchanged
+        String digestAlg = HASH_ALG;
         try {
-            hash = MessageDigest.getInstance(HASH_ALG);
+            MessageDigest.getInstance(digestAlg);
         } catch (Exception e) {
             throw new InternalErrorCordraException("Unable to initialize hash");
         }
+        hash = ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance(digestAlg);
+            } catch (NoSuchAlgorithmException e) {
+                throw new AssertionError(e);
+            }
+        });
 
         HASH_ALG = props.getProperty("hash_alg", HASH_ALG);
         try {
@@ -195,6 +217,13 @@ public class HashDirectoryStorage {
     }
 
     public void close() {
+        for (SecondaryDatabase attributeIndexDb : attributeIndexDbs.values()) {
+            try {
+                attributeIndexDb.close();
+            } catch (Exception e) {
+                logger.error("Exception closing", e);
+            }
+        }
         if (indexDB != null)
             try {
                 indexDB.close();
@@ -225,7 +254,8 @@ public class HashDirectoryStorage {
                 throw new UnsupportedOperationException("Id must not be null.");
             }
 
-            synchronized (id.toLowerCase().intern()) {
+            Lock objectLock = lockObject(id);
+            try {
                 DOMetadata metadata = getObjectInfo(id, null);
 
                 // make sure that the digital object doesn't already exist
@@ -241,6 +271,8 @@ public class HashDirectoryStorage {
                 metadata.updateModification(recordedCreationTime);
                 setObjectInfo(metadata);
                 return id;
+            } finally {
+                objectLock.unlock();
             }
         } catch (Exception e) {
             if (e instanceof CordraException) {
@@ -260,7 +292,8 @@ public class HashDirectoryStorage {
         long deletionTime;
         boolean filesToDelete = false;
         try {
-            synchronized (objectID.toLowerCase().intern()) {
+            Lock objectLock = lockObject(objectID);
+            try {
                 DOMetadata metadata = getObjectInfo(objectID, null);
                 long dateDeleted = metadata.getDateDeleted();
                 dateCreated = metadata.getDateCreated();
@@ -316,6 +349,8 @@ public class HashDirectoryStorage {
                 metadata.setDateDeleted(deletionTime);
                 metadata.updateModification(deletionTime);
                 setObjectInfo(metadata);
+            } finally {
+                objectLock.unlock();
             }
         } catch (Exception e) {
             if (e instanceof CordraException) {
@@ -519,7 +554,8 @@ public class HashDirectoryStorage {
 
         // sync on the object ID so that we have exclusive access to the object
         // metadata
-        synchronized (objectID.toLowerCase().intern()) {
+        Lock objectLock = lockObject(objectID);
+        try {
             long timestamp = System.currentTimeMillis();
 
             HeaderSet removedAtts = new HeaderSet();
@@ -534,6 +570,8 @@ public class HashDirectoryStorage {
 
             metadata.updateModification(timestamp);
             setObjectInfo(metadata);
+        } finally {
+            objectLock.unlock();
         }
     }
 
@@ -543,7 +581,8 @@ public class HashDirectoryStorage {
      * attribute is associated with the identified element within the object.
      */
     public void setAttributes(String objectID, String elementID, HeaderSet headers) throws CordraException {
-        synchronized (objectID.toLowerCase().intern()) {
+        Lock objectLock = lockObject(objectID);
+        try {
             DOMetadata metadata = getObjectInfo(objectID, null);
             HeaderSet txnAttributes = new HeaderSet();
             long timestamp = System.currentTimeMillis();
@@ -562,6 +601,8 @@ public class HashDirectoryStorage {
 
             metadata.updateModification(timestamp);
             setObjectInfo(metadata);
+        } finally {
+            objectLock.unlock();
         }
     }
 
@@ -766,6 +807,117 @@ public class HashDirectoryStorage {
         return new DBEnumerator();
     }
 
+    /**
+     * Opens a secondary index of the objects by the value of the given object attribute, which should be a
+     * non-negative long, creating and populating it if it does not yet exist.  Objects without the attribute are
+     * not indexed.
+     */
+    public void openLongAttributeIndex(String attributeKey) throws CordraException {
+        String headerName = "md." + getAttValKey(null, attributeKey);
+        SecondaryConfig secConfig = new SecondaryConfig();
+        secConfig.setTransactional(true);
+        secConfig.setAllowCreate(!readOnly);
+        secConfig.setAllowPopulate(!readOnly);
+        secConfig.setReadOnly(readOnly);
+        secConfig.setSortedDuplicates(true);
+        secConfig.setKeyCreator((secondary, key, data, result) -> {
+            HeaderSet headers = new HeaderSet();
+            headers.readHeadersFromBytes(data.getData());
+            long value = headers.getLongHeader(headerName, -1);
+            if (value < 0) return false;
+            result.setData(encodeLong(value));
+            return true;
+        });
+        try {
+            SecondaryDatabase attributeIndexDb = environment.openSecondaryDatabase(null, "objindex." + attributeKey, indexDB, secConfig);
+            attributeIndexDbs.put(attributeKey, attributeIndexDb);
+        } catch (Exception e) {
+            logger.error("Error opening attribute index " + attributeKey, e);
+            throw new InternalErrorCordraException("Error opening attribute index " + attributeKey, e);
+        }
+    }
+
+    /**
+     * Returns an Enumeration of the objects whose value of the given attribute, indexed by
+     * {@link #openLongAttributeIndex}, is greater than the given value, in order of that value.
+     */
+    public Enumeration<String> listObjectsWithAttributeGreaterThan(String attributeKey, long value) throws CordraException {
+        SecondaryDatabase attributeIndexDb = attributeIndexDbs.get(attributeKey);
+        if (attributeIndexDb == null) throw new InternalErrorCordraException("Attribute not indexed: " + attributeKey);
+        return new AttributeIndexEnumerator(attributeIndexDb, value);
+    }
+
+    /** Iterator over the object IDs in an attribute index, starting after a given value. */
+    private static class AttributeIndexEnumerator implements Enumeration<String>, Closeable {
+        private SecondaryCursor cursor = null;
+        private DatabaseEntry secKeyEntry = new DatabaseEntry();
+        private DatabaseEntry keyEntry = new DatabaseEntry();
+        private DatabaseEntry valEntry = new DatabaseEntry();
+        private OperationStatus lastStatus = null;
+
+        AttributeIndexEnumerator(SecondaryDatabase attributeIndexDb, long value) {
+            try {
+                // for logic of READ_UNCOMMITTED, see indexDB.put in
+                // getObjectInfo()
+                cursor = attributeIndexDb.openCursor(null, CursorConfig.READ_UNCOMMITTED);
+                if (value < 0) {
+                    lastStatus = cursor.getFirst(secKeyEntry, keyEntry, valEntry, null);
+                } else if (value == Long.MAX_VALUE) {
+                    lastStatus = OperationStatus.NOTFOUND;
+                } else {
+                    secKeyEntry.setData(encodeLong(value + 1));
+                    lastStatus = cursor.getSearchKeyRange(secKeyEntry, keyEntry, valEntry, null);
+                }
+                if (lastStatus != OperationStatus.SUCCESS) cursor.close();
+            } catch (Exception e) {
+                logger.error("Error in AttributeIndexEnumerator()", e);
+                close();
+                cursor = null;
+                lastStatus = null;
+            }
+        }
+
+        @Override
+        public synchronized boolean hasMoreElements() {
+            return lastStatus == OperationStatus.SUCCESS;
+        }
+
+        @Override
+        public synchronized String nextElement() throws java.util.NoSuchElementException {
+            if (cursor == null || lastStatus != OperationStatus.SUCCESS)
+                throw new java.util.NoSuchElementException();
+            HeaderSet mdInfo = new HeaderSet();
+            mdInfo.readHeadersFromBytes(valEntry.getData());
+            String objectID = mdInfo.getStringHeader("id", Util.decodeString(keyEntry.getData()));
+            try {
+                lastStatus = cursor.getNext(secKeyEntry, keyEntry, valEntry, null);
+            } catch (Exception e) {
+                logger.error("Error scanning attribute index", e);
+                lastStatus = null;
+            }
+            if (lastStatus != OperationStatus.SUCCESS) close();
+            return objectID;
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (cursor != null)
+                    cursor.close();
+            } catch (Throwable t) {
+            }
+        }
+    }
+
+    private static byte[] encodeLong(long value) {
+        byte[] bytes = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+        return bytes;
+    }
+
     public List<String> listDataElements(String objectID) throws CordraException {
         try {
             DOMetadata metadata = getObjectInfo(objectID, null);
@@ -805,8 +957,7 @@ public class HashDirectoryStorage {
 
     @SuppressWarnings({"resource", "null"})
     public InputStream getDataElement(String objectID, String elementID, long start, long len) throws CordraException {
-        String lockID = null;
-        ReadLock lock = null;
+        ElementLock lock = null;
         boolean returnedSuccessfully = false;
         try {
             DOMetadata metadata = getObjectInfo(objectID, null);
@@ -827,25 +978,7 @@ public class HashDirectoryStorage {
             // and then register ourselves as reading it so that won't be
             // written
             // by others until we are finished
-            lockID = getLockID(objectID, elementID);
-            synchronized (lockID) {
-                while (true) {
-                    Object lockObj = locks.get(lockID);
-                    if (lockObj == null) {
-                        lock = new ReadLock(lockID);
-                        locks.put(lockID, lock);
-                        break;
-                    } else if (lockObj instanceof ReadLock) {
-                        lock = (ReadLock) lockObj;
-                        break;
-                    } else {
-                        // someone else has a write lock...
-                        // wait for the lock to become available again
-                        lockID.wait();
-                    }
-                }
-                lock.readerCount++;
-            }
+            lock = acquireElementLock(getLockID(objectID, elementID), false);
 
             metadata = getObjectInfo(objectID, metadata);
             deExists = metadata.getTag("de-exists." + elementID, null);
@@ -896,7 +1029,7 @@ public class HashDirectoryStorage {
             }
         } finally {
             if (lock != null && !returnedSuccessfully) {
-                lock.releaseLock();
+                releaseElementLock(lock, false);
             }
         }
     }
@@ -906,12 +1039,12 @@ public class HashDirectoryStorage {
      * is closed.
      */
     @SuppressWarnings("sync-override")
-    private static class LockedInputStream extends BufferedInputStream {
-        private ReadLock lock;
+    private class LockedInputStream extends BufferedInputStream {
+        private ElementLock lock;
         private boolean hasBeenReleased = false;
         private RandomAccessFile randomAccessElementFile;
 
-        LockedInputStream(InputStream in, ReadLock lock, RandomAccessFile randomAccessElementFile) {
+        LockedInputStream(InputStream in, ElementLock lock, RandomAccessFile randomAccessElementFile) {
             super(in);
             this.lock = lock;
             this.randomAccessElementFile = randomAccessElementFile;
@@ -920,7 +1053,7 @@ public class HashDirectoryStorage {
         synchronized void releaseLock() {
             if (hasBeenReleased)
                 return;
-            lock.releaseLock();
+            releaseElementLock(lock, false);
             hasBeenReleased = true;
         }
 
@@ -974,23 +1107,72 @@ public class HashDirectoryStorage {
         }
     }
 
-    private class ReadLock {
-        String id;
+    /**
+     * Reader/writer lock on a single data element.  Read locks are held by open streams and may be released from
+     * a different thread than acquired them, so this is a simple counting lock rather than a
+     * {@link java.util.concurrent.locks.ReentrantReadWriteLock}.
+     */
+    private static class ElementLock {
+        final String id;
+        // number of threads which have obtained this lock from the registry and not yet released it;
+        // only modified while computing the registry entry
+        int references = 0;
         int readerCount = 0;
+        boolean writing = false;
 
-        ReadLock(String id) {
+        ElementLock(String id) {
             this.id = id;
         }
+    }
 
-        void releaseLock() {
-            synchronized (id) {
-                readerCount--;
-                if (readerCount == 0) {
-                    locks.remove(id);
+    private ElementLock acquireElementLock(String lockID, boolean write) throws InterruptedException {
+        ElementLock lock = elementLocks.compute(lockID, (id, existing) -> {
+            ElementLock res = existing == null ? new ElementLock(id) : existing;
+            res.references++;
+            return res;
+        });
+        boolean acquired = false;
+        try {
+            synchronized (lock) {
+                if (write) {
+                    // wait until there are no more readers or writers...
+                    while (lock.writing || lock.readerCount > 0) {
+                        lock.wait();
+                    }
+                    lock.writing = true;
+                } else {
+                    // someone else has a write lock...
+                    // wait for the lock to become available again
+                    while (lock.writing) {
+                        lock.wait();
+                    }
+                    lock.readerCount++;
                 }
-                id.notifyAll();
             }
+            acquired = true;
+            return lock;
+        } finally {
+            if (!acquired) dereferenceElementLock(lock);
+        }
+    }
+
+    private void releaseElementLock(ElementLock lock, boolean write) {
+        synchronized (lock) {
+            if (write) {
+                lock.writing = false;
+            } else {
+                lock.readerCount--;
+            }
+            lock.notifyAll();
         }
+        dereferenceElementLock(lock);
+    }
+
+    private void dereferenceElementLock(ElementLock lock) {
+        elementLocks.computeIfPresent(lock.id, (id, existing) -> {
+            existing.references--;
+            return existing.references == 0 ? null : existing;
+        });
     }
 
     /**
@@ -1003,7 +1185,7 @@ public class HashDirectoryStorage {
         OutputStream fout = null;
         int n = 0;
 
-        String lockID = null;
+        ElementLock lock = null;
         try {
             // make sure the object exists
             if (!doesObjectExist(objectID)) {
@@ -1014,23 +1196,15 @@ public class HashDirectoryStorage {
             // and writing)
             // and then lock it so that it cannot be read or written by others
             // until we are done
-            String tmpLockID = getLockID(objectID, elementID);
-            synchronized (tmpLockID) {
-                while (locks.containsKey(tmpLockID)) {
-                    // wait until there are no more readers...
-                    tmpLockID.wait();
-                }
-
-                lockID = tmpLockID;
-                locks.put(tmpLockID, EMPTY_LOCK_VAL);
-            }
+            lock = acquireElementLock(getLockID(objectID, elementID), true);
 
             long modificationTime = 0;
 
             boolean alreadyExisted;
             boolean deFile = false;
             boolean deForceFile = false;
-            synchronized (objectID.toLowerCase().intern()) {
+            Lock objectLock = lockObject(objectID);
+            try {
                 DOMetadata metadata = getObjectInfo(objectID, null);
                 String mdTagName = "de." + elementID;
                 long oldTimestamp = 0;
@@ -1052,6 +1226,8 @@ public class HashDirectoryStorage {
 
                 metadata.updateModification(modificationTime);
                 setObjectInfo(metadata);
+            } finally {
+                objectLock.unlock();
             }
             // (over)write the data element
             try {
@@ -1089,11 +1265,8 @@ public class HashDirectoryStorage {
                 if (fout != null) fout.close();
             } catch (Exception e) {
             }
-            if (lockID != null) { // the data element was locked... unlock it
-                synchronized (lockID) {
-                    locks.remove(lockID);
-                    lockID.notifyAll();
-                }
+            if (lock != null) { // the data element was locked... unlock it
+                releaseElementLock(lock, true);
             }
         }
     }
@@ -1114,7 +1287,8 @@ public class HashDirectoryStorage {
             } else {
                 // get an exclusive write lock on the object metadata
                 long actualTime;
-                synchronized (objectID.toLowerCase().intern()) {
+                Lock objectLock = lockObject(objectID);
+                try {
                     metadata = getObjectInfo(objectID, metadata);
                     actualTime = System.currentTimeMillis();
 
@@ -1171,6 +1345,8 @@ public class HashDirectoryStorage {
                     // update the metadata and attributes
                     metadata.updateModification(actualTime);
                     setObjectInfo(metadata);
+                } finally {
+                    objectLock.unlock();
                 }
                 return true;
             }
@@ -1182,6 +1358,15 @@ public class HashDirectoryStorage {
         }
     }
 
+    /**
+     * Acquires the exclusive lock on the metadata of the given object.  The caller must unlock the returned lock.
+     */
+    private Lock lockObject(String objectID) {
+        Lock lock = objectLocks.get(objectID.toLowerCase());
+        lock.lock();
+        return lock;
+    }
+
     private File getObjectDir(String objectID) throws CordraException {
         return new File(baseDirectory, calculateObjectPath(objectID));
     }
@@ -1191,7 +1376,7 @@ public class HashDirectoryStorage {
      * data element
      */
     private final String getLockID(String objectID, String elementID) {
-        return (convertToFileName(elementID) + "$" + objectID).intern();
+        return convertToFileName(elementID) + "$" + objectID;
     }
 
     private String calculateObjectPath(String objectID) throws CordraException {
@@ -1199,11 +1384,9 @@ public class HashDirectoryStorage {
         objectID = objectID.toLowerCase();
 
         try {
-            byte buf[] = null;
-            synchronized (hash) {
-                hash.reset();
-                buf = hash.digest(objectID.getBytes("UTF8"));
-            }
+            MessageDigest digest = hash.get();
+            digest.reset();
+            byte buf[] = digest.digest(objectID.getBytes("UTF8"));
 
             StringBuffer sb = new StringBuffer(buf.length * 2);
             encodeHex(buf, 0, buf.length, sb);
@@ -1482,7 +1665,8 @@ public class HashDirectoryStorage {
     private DOMetadata migrateObject(String objectID) throws CordraException {
         com.sleepycat.je.Transaction dbtxn = null;
         try {
-            synchronized (objectID.toLowerCase().intern()) {
+            Lock objectLock = lockObject(objectID);
+            try {
                 DOMetadata metadata = getObjectInfo(objectID, null, true);
                 File objDir = getObjectDir(objectID);
                 String files[] = objDir.list();
@@ -1507,6 +1691,8 @@ public class HashDirectoryStorage {
                     dbtxn = null;
                 }
                 return metadata;
+            } finally {
+                objectLock.unlock();
             }
         } catch (Exception e) {
             if (dbtxn != null) {
@@ -1548,12 +1734,15 @@ public class HashDirectoryStorage {
             elementFile.delete();
             if (metadata == null) {
                 deleteEmptyDirectoriesStartingAt(objDir);
-                synchronized (objectID.toLowerCase().intern()) {
+                Lock objectLock = lockObject(objectID);
+                try {
                     metadata = getObjectInfo(objectID, null);
                     metadata.setTag("de-exists." + elementID, "true");
                     metadata.setTag("de-file." + elementID, null);
                     metadata.setTag("de-size." + elementID, String.valueOf(bout.size()));
                     setObjectInfo(metadata);
+                } finally {
+                    objectLock.unlock();
                 }
             } else {
                 metadata.setTag("de-exists." + elementID, "true");
@@ -1621,11 +1810,14 @@ public class HashDirectoryStorage {
                 }
                 fout.close();
                 fout = null;
-                synchronized (objectID.toLowerCase().intern()) {
+                Lock objectLock = lockObject(objectID);
+                try {
                     DOMetadata metadata = getObjectInfo(objectID, null);
                     metadata.setTag("de-file." + elementID, "");
                     metadata.setTag("de-size." + elementID, null);
                     setObjectInfo(metadata);
+                } finally {
+                    objectLock.unlock();
                 }
             } else {
                 OperationStatus status = elementDb.put(dbtxn, new DatabaseEntry(key),
@@ -1633,11 +1825,14 @@ public class HashDirectoryStorage {
                 if (status != OperationStatus.SUCCESS) {
                     throw new InternalErrorCordraException("Unexpected status " + status + " storing data element " + elementID + " of " + objectID);
                 }
-                synchronized (objectID.toLowerCase().intern()) {
+                Lock objectLock = lockObject(objectID);
+                try {
                     DOMetadata metadata = getObjectInfo(objectID, null);
                     metadata.setTag("de-file." + elementID, null);
                     metadata.setTag("de-size." + elementID, String.valueOf(bout.size()));
                     setObjectInfo(metadata);
+                } finally {
+                    objectLock.unlock();
                 }
             }
             dbtxn.commit();
@@ -30,6 +30,7 @@ public class HdsStorage implements CordraStorage {
     public HdsStorage(File baseDirectory) throws CordraException {
         hds = new HashDirectoryStorage();
         hds.initWithDirectory(baseDirectory, false);
+        hds.openLongAttributeIndex("txnId");
     }
 
     @Override
@@ -219,6 +220,42 @@ public class HdsStorage implements CordraStorage {
         };
     }
 
+    @Override
+    public SearchResults<CordraObject> listModifiedSince(long txnId) throws CordraException {
+        return new AbstractSearchResults<CordraObject>() {
+            Enumeration<String> enume = hds.listObjectsWithAttributeGreaterThan("txnId", txnId);
+
+            @Override
+            public int size() {
+                return -1;
+            }
+
+            @Override
+            protected CordraObject computeNext() {
+                while (enume.hasMoreElements()) {
+                    try {
+                        CordraObject co = get(enume.nextElement());
+                        if (co != null) return co;
+                    } catch (CordraException e) {
+                        throw new UncheckedCordraException(e);
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public void closeOnlyOnce() {
+                if (enume instanceof Closeable) {
+                    try {
+                        ((Closeable)enume).close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+        };
+    }
+
     @Override
     public SearchResults<String> listHandles() throws CordraException {
         return new AbstractSearchResults<String>() {
@@ -26,9 +26,13 @@ import com.mongodb.client.gridfs.GridFSDownloadStream;
 import com.mongodb.client.gridfs.GridFSFindIterable;
 import com.mongodb.client.gridfs.model.GridFSFile;
 import com.mongodb.client.gridfs.model.GridFSUploadOptions;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.FindOneAndDeleteOptions;
 import com.mongodb.client.model.FindOneAndReplaceOptions;
 import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.WriteModel;
 
 import net.cnri.cordra.GsonUtility;
 import net.cnri.cordra.api.ConflictCordraException;
@@ -106,6 +110,11 @@ public class MongoDbStorage implements CordraStorage {
         typeIndexOptions.background(true);
         this.collection.createIndex(new Document("type", 1), typeIndexOptions);
 
+        IndexOptions txnIdIndexOptions = new IndexOptions();
+        txnIdIndexOptions.unique(false);
+        txnIdIndexOptions.background(true);
+        this.collection.createIndex(new Document("metadata.txnId", 1), txnIdIndexOptions);
+
         if (gridFsBucketName == null) gridFsBucketName = "fs";
         gridFSBucket = GridFSBuckets.create(db, gridFsBucketName);
         fsCollection = db.getCollection(gridFsBucketName + ".files");
@@ -216,6 +225,45 @@ public class MongoDbStorage implements CordraStorage {
         if (foundDocument != null) {
             throw new ConflictCordraException("Object already exists: " + d.id);
         }
+        writePayloadsForCreate(d);
+        Document doc = cordraObjectToDocument(d);
+        collection.insertOne(doc);
+        return d;
+    }
+
+    @Override
+    public List<CordraObject> createAll(List<CordraObject> batch) throws CordraException {
+        if (batch.isEmpty()) return new ArrayList<>();
+        Set<String> existing = findExistingIds(batch);
+        if (!existing.isEmpty()) {
+            throw new ConflictCordraException("Object already exists: " + existing.iterator().next());
+        }
+        List<Document> docs = new ArrayList<>(batch.size());
+        for (CordraObject d : batch) {
+            writePayloadsForCreate(d);
+            docs.add(cordraObjectToDocument(d));
+        }
+        collection.insertMany(docs, new InsertManyOptions().ordered(true));
+        return new ArrayList<>(batch);
+    }
+
+    private Set<String> findExistingIds(List<CordraObject> batch) {
+        List<String> ids = new ArrayList<>(batch.size());
+        for (CordraObject d : batch) {
+            ids.add(d.id);
+        }
+        Set<String> existing = new HashSet<>();
+        Document query = new Document("id", new Document("$in", ids));
+        FindIterable<Document> findIter = collection.find(query).projection(ID_PROJECTION).maxTime(maxTimeMsLongRunning, TimeUnit.MILLISECONDS);
+        try (MongoCursor<Document> cursor = findIter.iterator()) {
+            while (cursor.hasNext()) {
+                existing.add(cursor.next().getString("id"));
+            }
+        }
+        return existing;
+    }
+
+    private void writePayloadsForCreate(CordraObject d) throws CordraException {
         if (d.payloads != null) {
             for (Payload p : d.payloads) {
                 try (InputStream in = p.getInputStream();) {
@@ -231,9 +279,6 @@ public class MongoDbStorage implements CordraStorage {
                 d.payloads = null;
             }
         }
-        Document doc = cordraObjectToDocument(d);
-        collection.insertOne(doc);
-        return d;
     }
 
     private long writeInputStreamToGridFS(InputStream in, String id, String payloadName) {
@@ -256,6 +301,32 @@ public class MongoDbStorage implements CordraStorage {
         if (foundDocument == null) {
             throw new NotFoundCordraException("Object does not exist: " + d.id);
         }
+        writePayloadsForUpdate(d);
+        Document doc = cordraObjectToDocument(d);
+        Document query = new Document("id", d.id);
+        collection.findOneAndReplace(query, doc, new FindOneAndReplaceOptions().maxTime(maxTimeMs, TimeUnit.MILLISECONDS));
+        return d;
+    }
+
+    @Override
+    public List<CordraObject> updateAll(List<CordraObject> batch) throws CordraException {
+        if (batch.isEmpty()) return new ArrayList<>();
+        Set<String> existing = findExistingIds(batch);
+        for (CordraObject d : batch) {
+            if (!existing.contains(d.id)) {
+                throw new NotFoundCordraException("Object does not exist: " + d.id);
+            }
+        }
+        List<WriteModel<Document>> writes = new ArrayList<>(batch.size());
+        for (CordraObject d : batch) {
+            writePayloadsForUpdate(d);
+            writes.add(new ReplaceOneModel<>(new Document("id", d.id), cordraObjectToDocument(d)));
+        }
+        collection.bulkWrite(writes, new BulkWriteOptions().ordered(true));
+        return new ArrayList<>(batch);
+    }
+
+    private void writePayloadsForUpdate(CordraObject d) throws CordraException {
         List<String> payloadsToDelete = d.getPayloadsToDelete();
         String id = d.id;
         for (String payloadName : payloadsToDelete) {
@@ -298,10 +369,6 @@ public class MongoDbStorage implements CordraStorage {
                 d.payloads = null;
             }
         }
-        Document doc = cordraObjectToDocument(d);
-        Document query = new Document("id", d.id);
-        collection.findOneAndReplace(query, doc, new FindOneAndReplaceOptions().maxTime(maxTimeMs, TimeUnit.MILLISECONDS));
-        return d;
     }
 
     @Override
@@ -350,6 +417,12 @@ public class MongoDbStorage implements CordraStorage {
         return new MongoDbListHandlesSearchResults(query);
     }
 
+    @Override
+    public SearchResults<CordraObject> listModifiedSince(long txnId) throws CordraException {
+        Document query = new Document("metadata.txnId", new Document("$gt", txnId));
+        return new MongoDbListSearchResults(query);
+    }
+
     public SearchResults<CordraObject> directSearch(Document query) {
         return new MongoDbListSearchResults(query);
     }
@@ -237,6 +237,41 @@ public class MultiCordraStorage implements CordraStorage {
         return storage.update(co);
     }
 
+    @Override
+    public List<CordraObject> createAll(List<CordraObject> objects) throws CordraException {
+        return writeAllGroupedByStorage(objects, CordraStorage::createAll);
+    }
+
+    @Override
+    public List<CordraObject> updateAll(List<CordraObject> objects) throws CordraException {
+        return writeAllGroupedByStorage(objects, CordraStorage::updateAll);
+    }
+
+    private List<CordraObject> writeAllGroupedByStorage(List<CordraObject> objects, ThrowingBatchStorageMethod method) throws CordraException {
+        Map<CordraStorage, List<Integer>> storageToIndexes = new LinkedHashMap<>();
+        for (int i = 0; i < objects.size(); i++) {
+            CordraStorage storage = getStorageForObject(objects.get(i));
+            storageToIndexes.computeIfAbsent(storage, k -> new ArrayList<>()).add(i);
+        }
+        CordraObject[] result = new CordraObject[objects.size()];
+        for (Map.Entry<CordraStorage, List<Integer>> entry : storageToIndexes.entrySet()) {
+            List<CordraObject> batch = new ArrayList<>();
+            for (int i : entry.getValue()) {
+                batch.add(objects.get(i));
+            }
+            List<CordraObject> stored = method.call(entry.getKey(), batch);
+            for (int j = 0; j < stored.size(); j++) {
+                result[entry.getValue().get(j)] = stored.get(j);
+            }
+        }
+        return Arrays.asList(result);
+    }
+
+    @FunctionalInterface
+    private interface ThrowingBatchStorageMethod {
+        List<CordraObject> call(CordraStorage storage, List<CordraObject> batch) throws CordraException;
+    }
+
     @Override
     public void delete(String id) throws CordraException {
         Collection<CordraStorage> storages = getStoragesForId(id);
@@ -271,6 +306,11 @@ public class MultiCordraStorage implements CordraStorage {
         return new ConcatenatedSearchResults<>(getStoragesFromContext(), storage -> storage.listHandlesByType(types));
     }
 
+    @Override
+    public SearchResults<CordraObject> listModifiedSince(long txnId) throws CordraException {
+        return new ConcatenatedSearchResults<>(getStoragesFromContext(), storage -> storage.listModifiedSince(txnId));
+    }
+
     @Override
     public void close() throws IOException, CordraException {
         for (CordraStorage storage : storageMap.values()) {
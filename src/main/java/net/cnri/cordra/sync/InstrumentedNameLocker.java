@@ -52,4 +52,9 @@ public class InstrumentedNameLocker implements NameLocker {
             delegate.releaseAll(names);
         });
     }
+
+    @Override
+    public Object getStats() {
+        return delegate.getStats();
+    }
 }
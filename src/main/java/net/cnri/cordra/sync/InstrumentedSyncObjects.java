@@ -6,11 +6,13 @@ public class InstrumentedSyncObjects implements SyncObjects {
 
     private final SyncObjects delegate;
     private final NameLocker objectLocker;
+    private final NameLocker uniqueNameLocker;
     private final TransactionManager transactionManager;
 
     public InstrumentedSyncObjects(SyncObjects delegate) {
         this.delegate = delegate;
         this.objectLocker = new InstrumentedNameLocker(delegate.getObjectLocker());
+        this.uniqueNameLocker = new InstrumentedNameLocker(delegate.getUniqueNameLocker());
         this.transactionManager = new InstrumentedTransactionManager(delegate.getTransactionManager());
     }
 
@@ -40,13 +42,8 @@ public class InstrumentedSyncObjects implements SyncObjects {
     }
 
     @Override
-    public CheckableLocker getSchemaNameLocker() {
-        return delegate.getSchemaNameLocker();
-    }
-
-    @Override
-    public CheckableLocker getUsernameLocker() {
-        return delegate.getUsernameLocker();
+    public NameLocker getUniqueNameLocker() {
+        return this.uniqueNameLocker;
     }
 
     @Override
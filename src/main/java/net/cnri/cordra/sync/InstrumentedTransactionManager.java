@@ -9,6 +9,7 @@ import org.slf4j.LoggerFactory;
 
 import net.cnri.cordra.api.CordraException;
 import net.cnri.cordra.indexer.CordraTransaction;
+import net.cnri.cordra.indexer.ReindexCheckpoint;
 import net.cnri.util.LoggingUtil;
 
 public class InstrumentedTransactionManager implements TransactionManager {
@@ -30,6 +31,11 @@ public class InstrumentedTransactionManager implements TransactionManager {
         return delegate.getAndIncrementNextTransactionId();
     }
 
+    @Override
+    public long getTransactionIdsPerMillisecond() {
+        return delegate.getTransactionIdsPerMillisecond();
+    }
+
     @Override
     public void openTransaction(long txnId, String cordraServiceId, CordraTransaction txn) throws CordraException {
         LoggingUtil.run(logger, () -> {
@@ -44,6 +50,20 @@ public class InstrumentedTransactionManager implements TransactionManager {
         }); 
     }
 
+    @Override
+    public void openTransactions(List<CordraTransaction> txns, String cordraServiceId) throws CordraException {
+        LoggingUtil.run(logger, () -> {
+            delegate.openTransactions(txns, cordraServiceId);
+        });
+    }
+
+    @Override
+    public void closeTransactions(List<Long> txnIds, String cordraServiceId) throws CordraException {
+        LoggingUtil.run(logger, () -> {
+            delegate.closeTransactions(txnIds, cordraServiceId);
+        });
+    }
+
     @Override
     public List<String> getCordraServiceIdsWithOpenTransactions() throws CordraException {
         return delegate.getCordraServiceIdsWithOpenTransactions();
@@ -69,6 +89,16 @@ public class InstrumentedTransactionManager implements TransactionManager {
         delegate.setReindexInProcess(isReindexInProcess);
     }
 
+    @Override
+    public ReindexCheckpoint getReindexCheckpoint() throws CordraException {
+        return delegate.getReindexCheckpoint();
+    }
+
+    @Override
+    public void setReindexCheckpoint(ReindexCheckpoint checkpoint) throws CordraException {
+        delegate.setReindexCheckpoint(checkpoint);
+    }
+
     @Override
     public void shutdown() {
         delegate.shutdown();
@@ -27,4 +27,11 @@ public interface NameLocker {
             release(name);
         }
     }
+
+    /**
+     * Returns statistics for metrics reporting, or null if the locker keeps none.
+     */
+    default public Object getStats() {
+        return null;
+    }
 }
@@ -1,13 +1,57 @@
 package net.cnri.cordra.sync;
 
+import java.util.Collection;
 import java.util.function.Consumer;
 
 import net.cnri.cordra.api.CordraException;
 
 public interface SignalWatcher {
-    enum Signal { DESIGN, AUTH_CHANGE, JAVASCRIPT_CLEAR_CACHE }
+    /**
+     * Signals sent between instances.  Receivers ignore signals they do not know, so that instances of different
+     * versions can run together during an upgrade.  {@code OBJECT_CHANGE} is only sent by instances with the object
+     * cache enabled.
+     */
+    enum Signal { DESIGN, AUTH_CHANGE, JAVASCRIPT_CLEAR_CACHE, OBJECT_CHANGE }
     
     void start(String cordraServiceId, Consumer<Signal> callback) throws CordraException;
     void sendSignal(Signal signal) throws CordraException;
     void shutdown();
+
+    /**
+     * Tells other instances that the given objects have changed.  Implementations which cannot carry object ids
+     * send {@link Signal#OBJECT_CHANGE}, on which receivers discard all cached objects.
+     */
+    default void sendObjectChangeSignal(@SuppressWarnings("unused") Collection<String> ids) throws CordraException {
+        sendSignal(Signal.OBJECT_CHANGE);
+    }
+
+    /**
+     * Returns whether {@link #sendObjectChangeSignal} carries the object ids, so that receivers discard just those
+     * objects.  If not, each object change signal makes every receiver discard all cached objects.
+     */
+    default boolean isObjectChangeIdsSupported() {
+        return false;
+    }
+
+    /**
+     * Sets the callback for object change signals which carry object ids.  Must be called before {@link #start}.
+     */
+    default void setObjectChangeCallback(@SuppressWarnings("unused") Consumer<Collection<String>> callback) {
+        // no-op
+    }
+
+    /**
+     * Tells other instances that the given users or groups have changed.  Implementations which cannot carry object
+     * ids send {@link Signal#AUTH_CHANGE}, on which receivers rebuild their group membership data in full.
+     */
+    default void sendAuthChangeSignal(@SuppressWarnings("unused") Collection<String> ids) throws CordraException {
+        sendSignal(Signal.AUTH_CHANGE);
+    }
+
+    /**
+     * Sets the callback for auth change signals which carry object ids.  Must be called before {@link #start}.
+     */
+    default void setAuthChangeCallback(@SuppressWarnings("unused") Consumer<Collection<String>> callback) {
+        // no-op
+    }
 }
@@ -8,8 +8,7 @@ public interface SyncObjects {
     LeadershipManager getLeadershipManager();
     TransactionManager getTransactionManager();
     SingleThreadReadWriteCheckableLocker getDesignLocker();
-    CheckableLocker getSchemaNameLocker();
-    CheckableLocker getUsernameLocker();
+    NameLocker getUniqueNameLocker();
     NameLocker getObjectLocker();
     AllHandlesUpdaterSync getAllHandlesUpdaterSync();
     SignalWatcher getSignalWatcher();
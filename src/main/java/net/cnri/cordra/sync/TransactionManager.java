@@ -5,15 +5,39 @@ import java.util.List;
 import java.util.Map;
 
 import net.cnri.cordra.indexer.CordraTransaction;
+import net.cnri.cordra.indexer.ReindexCheckpoint;
 import net.cnri.cordra.api.CordraException;
 
 public interface TransactionManager {
     void start(String cordraServiceId);
     
     long getAndIncrementNextTransactionId() throws CordraException;
+
+    /**
+     * Returns how much txnIds advance per millisecond; txnIds are derived from the time they are issued.
+     */
+    long getTransactionIdsPerMillisecond();
     
     void openTransaction(long txnId, String cordraServiceId, CordraTransaction txn) throws CordraException;
     void closeTransaction(long txnId, String cordraServiceId) throws CordraException;
+
+    /**
+     * Opens a batch of transactions; implementations may record them together.
+     */
+    default void openTransactions(List<CordraTransaction> txns, String cordraServiceId) throws CordraException {
+        for (CordraTransaction txn : txns) {
+            openTransaction(txn.txnId, cordraServiceId, txn);
+        }
+    }
+
+    /**
+     * Closes a batch of transactions; implementations may remove them together.
+     */
+    default void closeTransactions(List<Long> txnIds, String cordraServiceId) throws CordraException {
+        for (long txnId : txnIds) {
+            closeTransaction(txnId, cordraServiceId);
+        }
+    }
     
     List<String> getCordraServiceIdsWithOpenTransactions() throws CordraException;
     Iterator<Map.Entry<Long, CordraTransaction>> iterateTransactions(String cordraServiceId) throws CordraException;
@@ -21,6 +45,16 @@ public interface TransactionManager {
     
     boolean isReindexInProcess() throws CordraException;
     void setReindexInProcess(boolean isReindexInProcess) throws CordraException;
+
+    /**
+     * Returns the checkpoint saved by the reindex in process, or null if none.
+     */
+    ReindexCheckpoint getReindexCheckpoint() throws CordraException;
+
+    /**
+     * Saves the checkpoint of the reindex in process; null removes it.
+     */
+    void setReindexCheckpoint(ReindexCheckpoint checkpoint) throws CordraException;
     
     void shutdown();
 }
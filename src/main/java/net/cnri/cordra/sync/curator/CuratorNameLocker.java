@@ -3,9 +3,15 @@ package net.cnri.cordra.sync.curator;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.curator.framework.CuratorFramework;
@@ -16,10 +22,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.cnri.cordra.sync.NameLocker;
+import net.cnri.cordra.util.LatencyHistogram;
 import net.cnri.microservices.Alerter;
 import net.cnri.cordra.api.InternalErrorCordraException;
 import net.cnri.cordra.api.CordraException;
 
+/**
+ * Locks names by hashing them onto striped ZooKeeper mutexes.
+ *
+ * <p>If local coalescing is enabled, threads of this JVM first queue on a fair local lock for the stripe, and the
+ * ZooKeeper mutex is acquired only by the first of them.  It is then held on behalf of the following local holders,
+ * which take it over without a ZooKeeper round trip, until no local thread is waiting or it has been held for the
+ * fairness timeout, when it is released so that other instances get their turn.  As an {@link InterProcessMutex}
+ * must be released by the thread which acquired it, it is acquired and released by a holder task on the given
+ * executor.
+ */
 public class CuratorNameLocker implements NameLocker, ConnectionStateListener {
     private static final Logger logger = LoggerFactory.getLogger(CuratorNameLocker.class);
     private static final int SIZE = 2048;
@@ -28,16 +45,34 @@ public class CuratorNameLocker implements NameLocker, ConnectionStateListener {
     private final ExecutorService execServ;
     private final Alerter alerter;
     private final InterProcessMutex[] locks = new InterProcessMutex[SIZE];
+    private final Stripe[] stripes;
+    private final long fairnessTimeoutNanos;
     private final AtomicBoolean connectionError = new AtomicBoolean();
     private final ReadWriteLock connectionErrorLock = new ReentrantReadWriteLock();
+    private final LatencyHistogram lockLatency = new LatencyHistogram();
+    private final AtomicLong zooKeeperAcquireCount = new AtomicLong();
+    private final AtomicLong handoffCount = new AtomicLong();
 
     public CuratorNameLocker(CuratorFramework client, String lockPath, ExecutorService execServ, Alerter alerter) {
+        this(client, lockPath, execServ, alerter, false, 0);
+    }
+
+    public CuratorNameLocker(CuratorFramework client, String lockPath, ExecutorService execServ, Alerter alerter, boolean coalesceLocally, long fairnessTimeoutMs) {
         this.client = client;
         this.execServ = execServ;
         this.alerter = alerter;
         for (int i = 0; i < SIZE; i++) {
             locks[i] = new InterProcessMutex(client, lockPath + "/" + i);
         }
+        if (coalesceLocally) {
+            stripes = new Stripe[SIZE];
+            for (int i = 0; i < SIZE; i++) {
+                stripes[i] = new Stripe(locks[i]);
+            }
+        } else {
+            stripes = null;
+        }
+        this.fairnessTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(fairnessTimeoutMs);
         this.client.getConnectionStateListenable().addListener(this, this.execServ);
     }
 
@@ -61,8 +96,13 @@ public class CuratorNameLocker implements NameLocker, ConnectionStateListener {
         return hashCode ^ (hashCode >>> 7) ^ (hashCode >>> 4);
     }
 
-    @Override
-    public void lock(String name) throws CordraException {
+    private static int indexFor(String name) {
+        int index = smear(name.hashCode()) % SIZE;
+        if (index < 0) index += SIZE;
+        return index;
+    }
+
+    private void lockConnectionErrorLock() {
         connectionErrorLock.readLock().lock();
         if (connectionError.get()) {
             // clear connection errors before locking; wait for all existing locks to be released
@@ -75,28 +115,26 @@ public class CuratorNameLocker implements NameLocker, ConnectionStateListener {
                 connectionErrorLock.writeLock().unlock();
             }
         }
-        int index = smear(name.hashCode()) % SIZE;
-        if (index < 0) index += SIZE;
+    }
+
+    @Override
+    public void lock(String name) throws CordraException {
+        long start = System.nanoTime();
+        lockConnectionErrorLock();
+        int index = indexFor(name);
         try {
-            locks[index].acquire();
+            acquireStripe(index);
         } catch (Exception e) {
             connectionErrorLock.readLock().unlock();
             throw new InternalErrorCordraException("Exception acquiring lock for " + name + " index " + index, e);
         }
+        lockLatency.record(System.nanoTime() - start);
     }
 
     @Override
     public void release(String name) {
         try {
-            int index = smear(name.hashCode()) % SIZE;
-            if (index < 0) index += SIZE;
-            try {
-                locks[index].release();
-            } catch (Exception e) {
-                // By Curator code, release should be guaranteed even with connection failures; but warn just in case
-                logger.error("Exception releasing lock for " + name + " index " + index, e);
-                alerter.alert("Exception releasing lock for " + name + " index " + index + ": " + e);
-            }
+            releaseWithoutTouchingConnectionErrorLock(name);
         } finally {
             connectionErrorLock.readLock().unlock();
         }
@@ -109,33 +147,27 @@ public class CuratorNameLocker implements NameLocker, ConnectionStateListener {
 
     @Override
     public void lockInOrder(List<String> names) throws CordraException {
-        connectionErrorLock.readLock().lock();
-        if (connectionError.get()) {
-            // clear connection errors before locking; wait for all existing locks to be released
-            connectionErrorLock.readLock().unlock();
-            connectionErrorLock.writeLock().lock();
-            connectionErrorLock.readLock().lock();
-            try {
-                connectionError.set(false);
-            } finally {
-                connectionErrorLock.writeLock().unlock();
-            }
-        }
+        long start = System.nanoTime();
+        lockConnectionErrorLock();
         List<Integer> stripeIndexes = new ArrayList<>();
         for (String name : names) {
-            int index = smear(name.hashCode()) % SIZE;
-            if (index < 0) index += SIZE;
-            stripeIndexes.add(index);
+            stripeIndexes.add(indexFor(name));
         }
         Collections.sort(stripeIndexes);
+        List<Integer> acquired = new ArrayList<>();
         try {
             for (int index : stripeIndexes) {
-                locks[index].acquire();
+                acquireStripe(index);
+                acquired.add(index);
             }
         } catch (Exception e) {
+            for (int i = acquired.size() - 1; i >= 0; i--) {
+                releaseStripe(acquired.get(i));
+            }
             connectionErrorLock.readLock().unlock();
-            throw new InternalErrorCordraException("Exception acquiring locks for list");
+            throw new InternalErrorCordraException("Exception acquiring locks for list", e);
         }
+        lockLatency.record(System.nanoTime() - start);
     }
 
     @Override
@@ -159,14 +191,142 @@ public class CuratorNameLocker implements NameLocker, ConnectionStateListener {
     }
 
     private void releaseWithoutTouchingConnectionErrorLock(String name) {
-        int index = smear(name.hashCode()) % SIZE;
-        if (index < 0) index += SIZE;
+        releaseStripe(indexFor(name));
+    }
+
+    private void acquireStripe(int index) throws Exception {
+        if (stripes == null) {
+            locks[index].acquire();
+            zooKeeperAcquireCount.incrementAndGet();
+            return;
+        }
+        stripes[index].acquire();
+    }
+
+    private void releaseStripe(int index) {
         try {
-            locks[index].release();
+            if (stripes == null) {
+                locks[index].release();
+            } else {
+                stripes[index].release();
+            }
         } catch (Exception e) {
             // By Curator code, release should be guaranteed even with connection failures; but warn just in case
-            logger.error("Exception releasing lock for " + name + " index " + index, e);
-            alerter.alert("Exception releasing lock for " + name + " index " + index + ": " + e);
+            logger.error("Exception releasing lock for index " + index, e);
+            alerter.alert("Exception releasing lock for index " + index + ": " + e);
+        }
+    }
+
+    @Override
+    public Object getStats() {
+        Stats stats = new Stats();
+        stats.coalesceLocally = stripes != null;
+        stats.lockLatency = lockLatency.getStats();
+        stats.zooKeeperAcquireCount = zooKeeperAcquireCount.get();
+        stats.handoffCount = handoffCount.get();
+        return stats;
+    }
+
+    public static class Stats {
+        public boolean coalesceLocally;
+        public long zooKeeperAcquireCount;
+        public long handoffCount;
+        public LatencyHistogram.Stats lockLatency;
+    }
+
+    private class Stripe {
+        private final InterProcessMutex mutex;
+        private final ReentrantLock localLock = new ReentrantLock(true);
+        // guarded by localLock
+        private Holder holder;
+
+        Stripe(InterProcessMutex mutex) {
+            this.mutex = mutex;
+        }
+
+        void acquire() throws Exception {
+            localLock.lock();
+            if (localLock.getHoldCount() > 1) return;
+            if (holder != null) {
+                handoffCount.incrementAndGet();
+                return;
+            }
+            Holder newHolder = new Holder(mutex);
+            try {
+                execServ.execute(newHolder);
+                newHolder.acquired.get();
+            } catch (Exception e) {
+                newHolder.release();
+                localLock.unlock();
+                if (e instanceof ExecutionException && e.getCause() instanceof Exception) throw (Exception) e.getCause();
+                throw e;
+            }
+            zooKeeperAcquireCount.incrementAndGet();
+            holder = newHolder;
+        }
+
+        void release() {
+            try {
+                if (localLock.getHoldCount() > 1) return;
+                boolean keep = holder != null
+                    && localLock.hasQueuedThreads()
+                    && !connectionError.get()
+                    && System.nanoTime() - holder.acquiredNanos < fairnessTimeoutNanos;
+                if (!keep && holder != null) {
+                    holder.release();
+                    holder = null;
+                }
+            } finally {
+                localLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Acquires the ZooKeeper mutex on its own thread, and holds it until released.
+     */
+    private static class Holder implements Runnable {
+        private final InterProcessMutex mutex;
+        final CompletableFuture<Void> acquired = new CompletableFuture<>();
+        private final CountDownLatch releaseSignal = new CountDownLatch(1);
+        volatile long acquiredNanos;
+
+        Holder(InterProcessMutex mutex) {
+            this.mutex = mutex;
+        }
+
+        void release() {
+            releaseSignal.countDown();
+        }
+
+        @Override
+        public void run() {
+            try {
+                mutex.acquire();
+            } catch (Exception e) {
+                acquired.completeExceptionally(e);
+                return;
+            }
+            acquiredNanos = System.nanoTime();
+            acquired.complete(null);
+            try {
+                boolean interrupted = false;
+                while (true) {
+                    try {
+                        releaseSignal.await();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) Thread.currentThread().interrupt();
+            } finally {
+                try {
+                    mutex.release();
+                } catch (Exception e) {
+                    logger.error("Exception releasing lock " + e, e);
+                }
+            }
         }
     }
 }
@@ -29,8 +29,7 @@ public class CuratorResources implements SyncObjects {
     private static final String REPO_INIT_PATH = "/repoInit.json";
     private static final String STARTUP_LOCKER_PATH = "/locks/startup";
     private static final String DESIGN_LOCKER_PATH = "/locks/design";
-    private static final String SCHEMA_NAME_LOCKER_PATH = "/locks/schemaName";
-    private static final String USERNAME_LOCKER_PATH = "/locks/username";
+    private static final String UNIQUE_NAME_LOCKER_PATH = "/locks/uniqueNames";
     private static final String OBJECT_LOCKER_PATH = "/locks/objects";
 
     private final CuratorFramework client;
@@ -42,8 +41,7 @@ public class CuratorResources implements SyncObjects {
     private final LeadershipManager leadershipManager;
     private final SingleThreadReadWriteCheckableLocker designLocker;
     private final SignalWatcher signalWatcher;
-    private final CheckableLocker schemaNameLocker;
-    private final CheckableLocker usernameLocker;
+    private final NameLocker uniqueNameLocker;
     private final NameLocker objectLocker;
     private final AllHandlesUpdaterSync allHandlesUpdaterSync;
     private final TransactionReprocessingQueue transactionReprocessingQueue;
@@ -59,15 +57,14 @@ public class CuratorResources implements SyncObjects {
         execServ = Executors.newCachedThreadPool();
         this.alerter = alerter;
         this.startupLocker = new CuratorCheckableLocker(client, STARTUP_LOCKER_PATH, execServ, alerter);
-        this.schemaNameLocker = new CuratorCheckableLocker(client, SCHEMA_NAME_LOCKER_PATH, execServ, alerter);
-        this.usernameLocker = new CuratorCheckableLocker(client, USERNAME_LOCKER_PATH, execServ, alerter);
-        this.objectLocker = new CuratorNameLocker(client, OBJECT_LOCKER_PATH, execServ, alerter);
+        this.uniqueNameLocker = new CuratorNameLocker(client, UNIQUE_NAME_LOCKER_PATH, execServ, alerter);
+        this.cordraConfig = CordraConfigSource.getConfig(context);
+        this.objectLocker = getObjectLocker(client, execServ, alerter, cordraConfig);
         this.repoInitProvider = new CuratorRepoInitProvider(client, REPO_INIT_PATH);
         this.designLocker = new CuratorSingleThreadReadWriteCheckableLocker(client, DESIGN_LOCKER_PATH, execServ, alerter);
         this.allHandlesUpdaterSync = new CuratorAllHandlesUpdaterSync(client);
-        this.transactionManager = new CuratorTransactionManager(client, execServ);
+        this.transactionManager = getTransactionManager(client, execServ, cordraConfig);
         this.leadershipManager = new CuratorLeadershipManager(client, execServ);
-        this.cordraConfig = CordraConfigSource.getConfig(context);
         SignalWatcherConfig signalWatcherConfig = getSignalWatcherConfig(cordraConfig);
         if (signalWatcherConfig == null || "zk".equals(signalWatcherConfig.type)) {
             this.signalWatcher = new CuratorSignalWatcher(client, alerter);
@@ -92,15 +89,14 @@ public class CuratorResources implements SyncObjects {
         execServ = Executors.newCachedThreadPool();
         this.alerter = alerter;
         this.startupLocker = new CuratorCheckableLocker(client, STARTUP_LOCKER_PATH, execServ, alerter);
-        this.schemaNameLocker = new CuratorCheckableLocker(client, SCHEMA_NAME_LOCKER_PATH, execServ, alerter);
-        this.usernameLocker = new CuratorCheckableLocker(client, USERNAME_LOCKER_PATH, execServ, alerter);
-        this.objectLocker = new CuratorNameLocker(client, OBJECT_LOCKER_PATH, execServ, alerter);
+        this.uniqueNameLocker = new CuratorNameLocker(client, UNIQUE_NAME_LOCKER_PATH, execServ, alerter);
+        this.cordraConfig = CordraConfigSource.getConfigForTesting(zookeeperConnectionString);
+        this.objectLocker = getObjectLocker(client, execServ, alerter, cordraConfig);
         this.repoInitProvider = new CuratorRepoInitProvider(client, REPO_INIT_PATH);
         this.designLocker = new CuratorSingleThreadReadWriteCheckableLocker(client, DESIGN_LOCKER_PATH, execServ, alerter);
         this.allHandlesUpdaterSync = new CuratorAllHandlesUpdaterSync(client);
-        this.transactionManager = new CuratorTransactionManager(client, execServ);
+        this.transactionManager = getTransactionManager(client, execServ, cordraConfig);
         this.leadershipManager = new CuratorLeadershipManager(client, execServ);
-        this.cordraConfig = CordraConfigSource.getConfigForTesting(zookeeperConnectionString);
         SignalWatcherConfig signalWatcherConfig = getSignalWatcherConfig(cordraConfig);
         if (signalWatcherConfig == null || "zk".equals(signalWatcherConfig.type)) {
             this.signalWatcher = new CuratorSignalWatcher(client, alerter);
@@ -121,6 +117,25 @@ public class CuratorResources implements SyncObjects {
         return new CuratorResources(zookeeperConnectionString, alerter);
     }
 
+    private static NameLocker getObjectLocker(CuratorFramework client, ExecutorService execServ, Alerter alerter, CordraConfig cordraConfig) {
+        CordraConfig.ObjectLocking config = cordraConfig.objectLocking;
+        if (config == null) config = new CordraConfig.ObjectLocking();
+        CordraConfig.ObjectLocking defaults = new CordraConfig.ObjectLocking();
+        boolean coalesceLocally = config.coalesceLocally == null ? defaults.coalesceLocally : config.coalesceLocally;
+        long fairnessTimeoutMs = config.fairnessTimeoutMs == null ? defaults.fairnessTimeoutMs : config.fairnessTimeoutMs;
+        return new CuratorNameLocker(client, OBJECT_LOCKER_PATH, execServ, alerter, coalesceLocally, fairnessTimeoutMs);
+    }
+
+    private static TransactionManager getTransactionManager(CuratorFramework client, ExecutorService execServ, CordraConfig cordraConfig) throws Exception {
+        CordraConfig.TransactionGroupCommit config = cordraConfig.transactionGroupCommit;
+        if (config == null) config = new CordraConfig.TransactionGroupCommit();
+        CordraConfig.TransactionGroupCommit defaults = new CordraConfig.TransactionGroupCommit();
+        boolean enabled = config.enabled == null ? defaults.enabled : config.enabled;
+        int maxTxnsPerBatch = config.maxTxnsPerBatch == null ? defaults.maxTxnsPerBatch : config.maxTxnsPerBatch;
+        long summaryIntervalMs = config.summaryIntervalMs == null ? defaults.summaryIntervalMs : config.summaryIntervalMs;
+        return new CuratorTransactionManager(client, execServ, enabled, maxTxnsPerBatch, summaryIntervalMs);
+    }
+
     private static SignalWatcherConfig getSignalWatcherConfig(CordraConfig cordraConfig) {
         SignalWatcherConfig signalWatcherConfig = cordraConfig.signalWatcher;
         if (signalWatcherConfig != null) {
@@ -208,13 +223,8 @@ public class CuratorResources implements SyncObjects {
     }
 
     @Override
-    public CheckableLocker getSchemaNameLocker() {
-        return schemaNameLocker;
-    }
-
-    @Override
-    public CheckableLocker getUsernameLocker() {
-        return usernameLocker;
+    public NameLocker getUniqueNameLocker() {
+        return uniqueNameLocker;
     }
 
     @Override
@@ -0,0 +1,241 @@
+package net.cnri.cordra.sync.curator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.transaction.CuratorTransaction;
+import org.apache.curator.framework.api.transaction.CuratorTransactionFinal;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+
+import net.cnri.cordra.GsonUtility;
+import net.cnri.cordra.indexer.CordraTransaction;
+
+/**
+ * Records the open transactions of this instance in ZooKeeper as batches.  Transactions opened concurrently are
+ * written by a single committer thread as one znode per group commit, named {@code batch-<first txnId>} under the
+ * instance's open transactions path, instead of one znode each.  Closing a transaction only updates memory; a
+ * periodic summary then deletes the batches whose transactions are all closed and rewrites the others with only
+ * their open transactions.  The oldest batch still holding an open transaction is the low-water mark: nothing
+ * before it needs recovery.
+ *
+ * <p>A transaction closed since the last summary is still listed in ZooKeeper, so if this instance stops, another
+ * instance may process it again; processing a pending transaction is idempotent.
+ */
+class CuratorTransactionGroupCommitter {
+    private static final Logger logger = LoggerFactory.getLogger(CuratorTransactionGroupCommitter.class);
+
+    static final String BATCH_PREFIX = "batch-";
+    // keeps each ZooKeeper multi request well under the default jute.maxbuffer
+    private static final int MAX_OPS_PER_MULTI = 100;
+
+    private final CuratorFramework client;
+    private final String path;
+    private final int maxTxnsPerBatch;
+    private final Gson gson = GsonUtility.getGson();
+    private final LinkedBlockingQueue<PendingOpen> queue = new LinkedBlockingQueue<>();
+    private final Map<Long, Batch> batchOfTxn = new ConcurrentHashMap<>();
+    private final Set<Batch> dirtyBatches = ConcurrentHashMap.newKeySet();
+    private final Thread committer;
+    private final ScheduledExecutorService summaryExec;
+    private volatile boolean shutdown;
+
+    private static class PendingOpen {
+        final CordraTransaction txn;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingOpen(CordraTransaction txn) {
+            this.txn = txn;
+        }
+    }
+
+    private static class Batch {
+        final String name;
+        final Map<Long, CordraTransaction> openTxns = new ConcurrentHashMap<>();
+
+        Batch(String name) {
+            this.name = name;
+        }
+    }
+
+    CuratorTransactionGroupCommitter(CuratorFramework client, String path, int maxTxnsPerBatch, long summaryIntervalMs) {
+        this.client = client;
+        this.path = path;
+        this.maxTxnsPerBatch = maxTxnsPerBatch;
+        this.committer = new Thread(this::runCommitter, "cordra-txn-group-committer");
+        this.committer.setDaemon(true);
+        this.committer.start();
+        this.summaryExec = Executors.newSingleThreadScheduledExecutor();
+        summaryExec.scheduleWithFixedDelay(this::writeSummaryAndLogErrors, summaryIntervalMs, summaryIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues the transactions for the next group commit, returning a future which completes once they are in
+     * ZooKeeper.
+     */
+    CompletableFuture<Void> open(List<CordraTransaction> txns) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (CordraTransaction txn : txns) {
+            PendingOpen pendingOpen = new PendingOpen(txn);
+            futures.add(pendingOpen.future);
+            queue.add(pendingOpen);
+        }
+        if (shutdown) failPending();
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()]));
+    }
+
+    /**
+     * Marks the transaction closed, to be removed from ZooKeeper by the next summary.
+     *
+     * @return false if the transaction was not opened through this committer
+     */
+    boolean close(long txnId) {
+        Batch batch = batchOfTxn.remove(txnId);
+        if (batch == null) return false;
+        batch.openTxns.remove(txnId);
+        dirtyBatches.add(batch);
+        return true;
+    }
+
+    private void runCommitter() {
+        while (!shutdown) {
+            List<PendingOpen> group = new ArrayList<>();
+            try {
+                group.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(group, maxTxnsPerBatch - 1);
+            try {
+                commit(group);
+                for (PendingOpen pendingOpen : group) {
+                    pendingOpen.future.complete(null);
+                }
+            } catch (Exception e) {
+                for (PendingOpen pendingOpen : group) {
+                    pendingOpen.future.completeExceptionally(e);
+                }
+            }
+        }
+        failPending();
+    }
+
+    private void failPending() {
+        PendingOpen pendingOpen;
+        while ((pendingOpen = queue.poll()) != null) {
+            pendingOpen.future.completeExceptionally(new IllegalStateException("Transaction manager is shut down"));
+        }
+    }
+
+    private void commit(List<PendingOpen> group) throws Exception {
+        List<CordraTransaction> txns = new ArrayList<>();
+        for (PendingOpen pendingOpen : group) {
+            txns.add(pendingOpen.txn);
+        }
+        Batch batch = new Batch(BATCH_PREFIX + txns.get(0).txnId);
+        byte[] bytes = gson.toJson(txns).getBytes(StandardCharsets.UTF_8);
+        try {
+            client.create().creatingParentsIfNeeded().forPath(path + "/" + batch.name, bytes);
+        } catch (KeeperException.NodeExistsException e) {
+            // as with a single transaction this indicates Zookeeper retry logic
+            byte[] existingBytes = client.getData().forPath(path + "/" + batch.name);
+            if (!Arrays.equals(existingBytes, bytes)) throw e;
+            logger.warn("Transaction batch " + batch.name + " already open");
+        }
+        for (CordraTransaction txn : txns) {
+            batch.openTxns.put(txn.txnId, txn);
+            batchOfTxn.put(txn.txnId, batch);
+        }
+    }
+
+    private void writeSummaryAndLogErrors() {
+        try {
+            writeSummary();
+        } catch (Throwable e) {
+            logger.error("Error writing transaction summary", e);
+        }
+    }
+
+    private void writeSummary() throws Exception {
+        List<Batch> batches = new ArrayList<>();
+        for (Batch batch : dirtyBatches) {
+            dirtyBatches.remove(batch);
+            batches.add(batch);
+        }
+        for (int start = 0; start < batches.size(); start += MAX_OPS_PER_MULTI) {
+            List<Batch> chunk = batches.subList(start, Math.min(batches.size(), start + MAX_OPS_PER_MULTI));
+            try {
+                CuratorTransaction curatorTxn = client.inTransaction();
+                CuratorTransactionFinal curatorTxnFinal = null;
+                for (Batch batch : chunk) {
+                    byte[] remaining = getRemainingBytes(batch);
+                    if (remaining == null) {
+                        curatorTxnFinal = curatorTxn.delete().forPath(path + "/" + batch.name).and();
+                    } else {
+                        curatorTxnFinal = curatorTxn.setData().forPath(path + "/" + batch.name, remaining).and();
+                    }
+                    curatorTxn = curatorTxnFinal;
+                }
+                curatorTxnFinal.commit();
+            } catch (KeeperException.NoNodeException e) {
+                // the multi is all-or-nothing; update each batch, tolerating those already removed
+                for (Batch batch : chunk) {
+                    writeSummaryForBatch(batch);
+                }
+            } catch (Exception e) {
+                dirtyBatches.addAll(chunk);
+                throw e;
+            }
+        }
+    }
+
+    private void writeSummaryForBatch(Batch batch) throws Exception {
+        byte[] remaining = getRemainingBytes(batch);
+        try {
+            if (remaining == null) {
+                client.delete().forPath(path + "/" + batch.name);
+            } else {
+                client.setData().forPath(path + "/" + batch.name, remaining);
+            }
+        } catch (KeeperException.NoNodeException e) {
+            logger.warn("Transaction batch " + batch.name + " already closed");
+        }
+    }
+
+    private byte[] getRemainingBytes(Batch batch) {
+        List<CordraTransaction> remaining = new ArrayList<>(batch.openTxns.values());
+        if (remaining.isEmpty()) return null;
+        return gson.toJson(remaining).getBytes(StandardCharsets.UTF_8);
+    }
+
+    void shutdown() {
+        shutdown = true;
+        committer.interrupt();
+        try {
+            committer.join(TimeUnit.MINUTES.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        summaryExec.shutdown();
+        try {
+            summaryExec.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeSummaryAndLogErrors();
+    }
+}
@@ -2,16 +2,23 @@ package net.cnri.cordra.sync.curator;
 
 import java.nio.charset.StandardCharsets;
 import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.transaction.CuratorTransaction;
+import org.apache.curator.framework.api.transaction.CuratorTransactionFinal;
 import org.apache.curator.framework.recipes.atomic.DistributedAtomicInteger;
 import org.apache.curator.retry.ExponentialBackoffRetry;
 import org.apache.zookeeper.KeeperException;
@@ -21,6 +28,7 @@ import org.slf4j.LoggerFactory;
 import com.google.gson.Gson;
 
 import net.cnri.cordra.indexer.CordraTransaction;
+import net.cnri.cordra.indexer.ReindexCheckpoint;
 import net.cnri.cordra.sync.TransactionManager;
 import net.cnri.cordra.api.InternalErrorCordraException;
 import net.cnri.cordra.api.UncheckedCordraException;
@@ -34,6 +42,9 @@ public class CuratorTransactionManager implements TransactionManager {
 //    private static final String NEXT_TXN_ID_PROMOTED_TO_LOCK_PATH = "/txns/txnIdLock";
     private static final String OPEN_TXNS_PATH = "/txns/open";
     private static final String REINDEX_PATH = "/txns/reindexInProgress";
+    private static final String REINDEX_CHECKPOINT_PATH = "/txns/reindexCheckpoint";
+    // keeps each ZooKeeper multi request well under the default jute.maxbuffer
+    private static final int MAX_OPS_PER_MULTI = 100;
     
     private final CuratorFramework client;
     private final ExecutorService execServ;
@@ -41,11 +52,38 @@ public class CuratorTransactionManager implements TransactionManager {
 //    private final DistributedAtomicLong nextTxnId;
     private final DistributedAtomicInteger reindexInProgress;
     private final Gson gson = GsonUtility.getGson();
+    private final boolean groupCommit;
+    private final int maxTxnsPerBatch;
+    private final long summaryIntervalMs;
+    // batches of other instances' transactions, by service id and txnId, while being processed after they stopped
+    private final Map<String, RecoveredBatch> recoveredBatches = new ConcurrentHashMap<>();
     private int cordraServiceIdAsInt;
-    
+    private String cordraServiceId;
+    private CuratorTransactionGroupCommitter groupCommitter;
+
+    private static class RecoveredBatch {
+        final String path;
+        final Map<Long, CordraTransaction> openTxns;
+
+        RecoveredBatch(String path, Map<Long, CordraTransaction> openTxns) {
+            this.path = path;
+            this.openTxns = openTxns;
+        }
+    }
+
     public CuratorTransactionManager(CuratorFramework client, ExecutorService execServ) throws Exception {
+        this(client, execServ, false, 0, 0);
+    }
+
+    /**
+     * @param groupCommit if true, this instance records its transactions using a {@link CuratorTransactionGroupCommitter}
+     */
+    public CuratorTransactionManager(CuratorFramework client, ExecutorService execServ, boolean groupCommit, int maxTxnsPerBatch, long summaryIntervalMs) throws Exception {
         this.client = client;
         this.execServ = execServ;
+        this.groupCommit = groupCommit;
+        this.maxTxnsPerBatch = maxTxnsPerBatch;
+        this.summaryIntervalMs = summaryIntervalMs;
         ExponentialBackoffRetry retryPolicy = new ExponentialBackoffRetry(1000, 3);
 //        CuratorUtil.ensurePath(client, NEXT_TXN_ID_PATH);
 //        PromotedToLock promotedToLock = PromotedToLock.builder().lockPath(NEXT_TXN_ID_PROMOTED_TO_LOCK_PATH).retryPolicy(retryPolicy).build();
@@ -72,6 +110,10 @@ public class CuratorTransactionManager implements TransactionManager {
     public void start(String cordraServiceIdParam) {
         cordraServiceIdAsInt = Integer.parseInt(cordraServiceIdParam);
         if (cordraServiceIdAsInt < 0 || cordraServiceIdAsInt >= 1000) throw new AssertionError("Unexpected cordraServiceId " + cordraServiceIdParam);
+        cordraServiceId = cordraServiceIdParam;
+        if (groupCommit) {
+            groupCommitter = new CuratorTransactionGroupCommitter(client, OPEN_TXNS_PATH + "/" + cordraServiceId, maxTxnsPerBatch, summaryIntervalMs);
+        }
     }
     
     @Override
@@ -81,8 +123,17 @@ public class CuratorTransactionManager implements TransactionManager {
         return System.currentTimeMillis() * 1_000_000L + cordraServiceIdAsInt * 1_000L + suffix;
     }
 
+    @Override
+    public long getTransactionIdsPerMillisecond() {
+        return 1_000_000L;
+    }
+
     @Override
     public void openTransaction(long txnId, String cordraServiceId, CordraTransaction txn) throws CordraException {
+        if (isGroupCommitFor(cordraServiceId)) {
+            openWithGroupCommit(Collections.singletonList(txn));
+            return;
+        }
         try {
             byte[] bytes = gson.toJson(txn).getBytes(StandardCharsets.UTF_8);
             try {
@@ -104,6 +155,8 @@ public class CuratorTransactionManager implements TransactionManager {
 
     @Override
     public void closeTransaction(long txnId, String cordraServiceId) throws CordraException {
+        if (isGroupCommitFor(cordraServiceId) && groupCommitter.close(txnId)) return;
+        if (closeRecoveredTransaction(txnId, cordraServiceId)) return;
         try {
             client.delete().forPath(OPEN_TXNS_PATH + "/" + cordraServiceId + "/" + txnId);
         } catch (KeeperException.NoNodeException e) {
@@ -113,6 +166,70 @@ public class CuratorTransactionManager implements TransactionManager {
         }
     }
 
+    @Override
+    public void openTransactions(List<CordraTransaction> txns, String cordraServiceId) throws CordraException {
+        if (txns.isEmpty()) return;
+        if (isGroupCommitFor(cordraServiceId)) {
+            openWithGroupCommit(txns);
+            return;
+        }
+        try {
+            CuratorUtil.ensurePath(client, OPEN_TXNS_PATH + "/" + cordraServiceId);
+        } catch (Exception e) {
+            throw new InternalErrorCordraException(e);
+        }
+        for (int start = 0; start < txns.size(); start += MAX_OPS_PER_MULTI) {
+            List<CordraTransaction> chunk = txns.subList(start, Math.min(txns.size(), start + MAX_OPS_PER_MULTI));
+            try {
+                CuratorTransaction curatorTxn = client.inTransaction();
+                CuratorTransactionFinal curatorTxnFinal = null;
+                for (CordraTransaction txn : chunk) {
+                    byte[] bytes = gson.toJson(txn).getBytes(StandardCharsets.UTF_8);
+                    curatorTxnFinal = curatorTxn.create().forPath(OPEN_TXNS_PATH + "/" + cordraServiceId + "/" + txn.txnId, bytes).and();
+                    curatorTxn = curatorTxnFinal;
+                }
+                curatorTxnFinal.commit();
+            } catch (KeeperException.NodeExistsException e) {
+                // as with a single transaction this indicates Zookeeper retry logic; openTransaction checks each node
+                for (CordraTransaction txn : chunk) {
+                    openTransaction(txn.txnId, cordraServiceId, txn);
+                }
+            } catch (Exception e) {
+                throw new InternalErrorCordraException(e);
+            }
+        }
+    }
+
+    @Override
+    public void closeTransactions(List<Long> txnIds, String cordraServiceId) throws CordraException {
+        if (isGroupCommitFor(cordraServiceId)) {
+            List<Long> notGroupCommitted = new ArrayList<>();
+            for (long txnId : txnIds) {
+                if (!groupCommitter.close(txnId)) notGroupCommitted.add(txnId);
+            }
+            txnIds = notGroupCommitted;
+        }
+        for (int start = 0; start < txnIds.size(); start += MAX_OPS_PER_MULTI) {
+            List<Long> chunk = txnIds.subList(start, Math.min(txnIds.size(), start + MAX_OPS_PER_MULTI));
+            try {
+                CuratorTransaction curatorTxn = client.inTransaction();
+                CuratorTransactionFinal curatorTxnFinal = null;
+                for (long txnId : chunk) {
+                    curatorTxnFinal = curatorTxn.delete().forPath(OPEN_TXNS_PATH + "/" + cordraServiceId + "/" + txnId).and();
+                    curatorTxn = curatorTxnFinal;
+                }
+                curatorTxnFinal.commit();
+            } catch (KeeperException.NoNodeException e) {
+                // the multi is all-or-nothing; closeTransaction tolerates the already closed ones
+                for (long txnId : chunk) {
+                    closeTransaction(txnId, cordraServiceId);
+                }
+            } catch (Exception e) {
+                throw new InternalErrorCordraException(e);
+            }
+        }
+    }
+
     @Override
     public List<String> getCordraServiceIdsWithOpenTransactions() throws CordraException {
         try {
@@ -130,7 +247,7 @@ public class CuratorTransactionManager implements TransactionManager {
             sync(OPEN_TXNS_PATH + "/" + cordraServiceId);
             List<String> txnIds = client.getChildren().forPath(OPEN_TXNS_PATH + "/" + cordraServiceId);
             return txnIds.stream()
-                .map(txnId -> entryOfTxnId(cordraServiceId, txnId))
+                .flatMap(txnId -> entriesOfChild(cordraServiceId, txnId))
                 .iterator();
         } catch (Exception e) {
             throw new InternalErrorCordraException(e);
@@ -145,6 +262,73 @@ public class CuratorTransactionManager implements TransactionManager {
         latch.await();
     }
 
+    private boolean isGroupCommitFor(String cordraServiceIdParam) {
+        return groupCommitter != null && cordraServiceIdParam.equals(cordraServiceId);
+    }
+
+    private void openWithGroupCommit(List<CordraTransaction> txns) throws CordraException {
+        try {
+            groupCommitter.open(txns).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalErrorCordraException(e);
+        } catch (ExecutionException e) {
+            throw new InternalErrorCordraException(e.getCause());
+        }
+    }
+
+    private Stream<Entry<Long, CordraTransaction>> entriesOfChild(String cordraServiceId, String child) {
+        if (!child.startsWith(CuratorTransactionGroupCommitter.BATCH_PREFIX)) {
+            return Stream.of(entryOfTxnId(cordraServiceId, child));
+        }
+        try {
+            String path = OPEN_TXNS_PATH + "/" + cordraServiceId + "/" + child;
+            byte[] data;
+            try {
+                data = client.getData().forPath(path);
+            } catch (KeeperException.NoNodeException e) {
+                return Stream.empty();
+            }
+            CordraTransaction[] txns = gson.fromJson(new String(data, StandardCharsets.UTF_8), CordraTransaction[].class);
+            Map<Long, CordraTransaction> openTxns = new ConcurrentHashMap<>();
+            for (CordraTransaction txn : txns) {
+                openTxns.put(txn.txnId, txn);
+            }
+            RecoveredBatch batch = new RecoveredBatch(path, openTxns);
+            for (CordraTransaction txn : txns) {
+                recoveredBatches.put(cordraServiceId + "/" + txn.txnId, batch);
+            }
+            return Arrays.stream(txns).map(txn -> new AbstractMap.SimpleEntry<>(txn.txnId, txn));
+        } catch (Exception e) {
+            throw new UncheckedCordraException(new InternalErrorCordraException(e));
+        }
+    }
+
+    /**
+     * Closes a transaction read from a batch of another instance, removing it from the batch in ZooKeeper.
+     *
+     * @return false if the transaction was not read from a batch
+     */
+    private boolean closeRecoveredTransaction(long txnId, String cordraServiceId) throws CordraException {
+        RecoveredBatch batch = recoveredBatches.remove(cordraServiceId + "/" + txnId);
+        if (batch == null) return false;
+        synchronized (batch) {
+            batch.openTxns.remove(txnId);
+            try {
+                if (batch.openTxns.isEmpty()) {
+                    client.delete().forPath(batch.path);
+                } else {
+                    client.setData().forPath(batch.path, gson.toJson(batch.openTxns.values()).getBytes(StandardCharsets.UTF_8));
+                }
+            } catch (KeeperException.NoNodeException e) {
+                logger.warn("Transaction " + txnId + " already closed");
+            } catch (Exception e) {
+                throw new InternalErrorCordraException(e);
+            }
+        }
+        return true;
+    }
+
     private Entry<Long, CordraTransaction> entryOfTxnId(String cordraServiceId, String txnId) {
         try {
             byte[] data = client.getData().forPath(OPEN_TXNS_PATH + "/" + cordraServiceId + "/" + txnId);
@@ -184,9 +368,44 @@ public class CuratorTransactionManager implements TransactionManager {
         }
     }
 
+    @Override
+    public ReindexCheckpoint getReindexCheckpoint() throws CordraException {
+        try {
+            sync(REINDEX_CHECKPOINT_PATH);
+            byte[] bytes = client.getData().forPath(REINDEX_CHECKPOINT_PATH);
+            return gson.fromJson(new String(bytes, StandardCharsets.UTF_8), ReindexCheckpoint.class);
+        } catch (KeeperException.NoNodeException e) {
+            return null;
+        } catch (Exception e) {
+            throw new InternalErrorCordraException(e);
+        }
+    }
+
+    @Override
+    public void setReindexCheckpoint(ReindexCheckpoint checkpoint) throws CordraException {
+        try {
+            if (checkpoint == null) {
+                try {
+                    client.delete().forPath(REINDEX_CHECKPOINT_PATH);
+                } catch (KeeperException.NoNodeException e) {
+                    // already removed
+                }
+                return;
+            }
+            byte[] bytes = gson.toJson(checkpoint).getBytes(StandardCharsets.UTF_8);
+            try {
+                client.setData().forPath(REINDEX_CHECKPOINT_PATH, bytes);
+            } catch (KeeperException.NoNodeException e) {
+                client.create().creatingParentsIfNeeded().forPath(REINDEX_CHECKPOINT_PATH, bytes);
+            }
+        } catch (Exception e) {
+            throw new InternalErrorCordraException(e);
+        }
+    }
+
     @Override
     public void shutdown() {
-        // no-op
+        if (groupCommitter != null) groupCommitter.shutdown();
     }
 
 }
@@ -1,7 +1,10 @@
 package net.cnri.cordra.sync.curator;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Properties;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
@@ -25,6 +28,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 
 import net.cnri.cordra.GsonUtility;
 import net.cnri.cordra.api.CordraException;
@@ -40,6 +44,8 @@ public class KafkaSignalWatcher implements SignalWatcher {
     private KafkaConsumer<String,String> consumer;
     private final KafkaProducer<String,String> producer;
     private Consumer<Signal> callback;
+    private volatile Consumer<Collection<String>> objectChangeCallback;
+    private volatile Consumer<Collection<String>> authChangeCallback;
     private volatile boolean running;
     private final ExecutorService exec;
     private final Gson gson;
@@ -119,9 +125,28 @@ public class KafkaSignalWatcher implements SignalWatcher {
                 for (ConsumerRecord<String, String> record : records.records(topicPartition)) {
                     if (!running) return;
                     String msg = record.value();
-                    SignalMessage event = gson.fromJson(msg, SignalMessage.class);
+                    SignalMessage event;
+                    try {
+                        event = gson.fromJson(msg, SignalMessage.class);
+                    } catch (JsonParseException e) {
+                        logger.warn("Ignoring unparseable signal: " + msg, e);
+                        continue;
+                    }
+                    if (event == null || event.cordraServiceId == null) continue;
+                    if (event.signal == null) {
+                        // a signal unknown to this version, sent by a newer instance
+                        logger.debug("Ignoring unknown signal: " + msg);
+                        continue;
+                    }
                     if (!event.cordraServiceId.equals(this.cordraServiceId)) {
-                        callback.accept(event.signal);
+                        Consumer<Collection<String>> idsCallback = null;
+                        if (event.signal == Signal.OBJECT_CHANGE) idsCallback = objectChangeCallback;
+                        else if (event.signal == Signal.AUTH_CHANGE) idsCallback = authChangeCallback;
+                        if (event.objectIds != null && idsCallback != null) {
+                            idsCallback.accept(event.objectIds);
+                        } else {
+                            callback.accept(event.signal);
+                        }
                     }
                 }
                 consumer.commitSync();
@@ -143,6 +168,55 @@ public class KafkaSignalWatcher implements SignalWatcher {
         }
     }
 
+    @Override
+    public boolean isObjectChangeIdsSupported() {
+        return true;
+    }
+
+    @Override
+    public void setObjectChangeCallback(@SuppressWarnings("hiding") Consumer<Collection<String>> objectChangeCallback) {
+        this.objectChangeCallback = objectChangeCallback;
+    }
+
+    /**
+     * Sends the ids of the changed objects.  Does not wait for the send to complete, as object changes are
+     * frequent and each receiver only uses them to invalidate cached objects.
+     */
+    @Override
+    public void sendObjectChangeSignal(Collection<String> ids) throws CordraException {
+        SignalMessage event = new SignalMessage();
+        event.cordraServiceId = this.cordraServiceId;
+        event.signal = Signal.OBJECT_CHANGE;
+        event.objectIds = new ArrayList<>(ids);
+        String message = gson.toJson(event);
+        producer.send(new ProducerRecord<>(TOPIC, null, message), (metadata, exception) -> {
+            if (exception != null) logger.error("Error sending object change signal", exception);
+        });
+    }
+
+    @Override
+    public void setAuthChangeCallback(@SuppressWarnings("hiding") Consumer<Collection<String>> authChangeCallback) {
+        this.authChangeCallback = authChangeCallback;
+    }
+
+    /**
+     * Sends the ids of the changed users and groups, waiting for the send to complete as for other signals.
+     */
+    @Override
+    public void sendAuthChangeSignal(Collection<String> ids) throws CordraException {
+        SignalMessage event = new SignalMessage();
+        event.cordraServiceId = this.cordraServiceId;
+        event.signal = Signal.AUTH_CHANGE;
+        event.objectIds = new ArrayList<>(ids);
+        String message = gson.toJson(event);
+        Future<RecordMetadata> future = producer.send(new ProducerRecord<>(TOPIC, null, message));
+        try {
+            future.get();
+        } catch (Exception e) {
+            throw new InternalErrorCordraException(e);
+        }
+    }
+
     @Override
     public void shutdown() {
         running = false;
@@ -160,6 +234,7 @@ public class KafkaSignalWatcher implements SignalWatcher {
     public static class SignalMessage {
         public SignalWatcher.Signal signal;
         public String cordraServiceId;
+        public List<String> objectIds;
     }
 
 }
@@ -2,6 +2,8 @@ package net.cnri.cordra.sync.local;
 
 import net.cnri.cordra.collections.PersistentMap;
 import net.cnri.cordra.indexer.CordraTransaction;
+import net.cnri.cordra.indexer.ReindexCheckpoint;
+import net.cnri.cordra.model.CordraConfig;
 import net.cnri.cordra.sync.TransactionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,8 +11,11 @@ import org.slf4j.LoggerFactory;
 import java.io.Closeable;
 import java.io.File;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
@@ -20,20 +25,62 @@ public class FileBasedTransactionManager implements TransactionManager {
     private static Logger logger = LoggerFactory.getLogger(FileBasedTransactionManager.class);
 
     public static final String REINDEX_IN_PROCESS = "reindexInProcess";
+    private static final String REINDEX_CHECKPOINT = "reindexCheckpoint";
 
     private final Map<Long, CordraTransaction> transactionsMap;
+    private final MappedSegmentTransactionLog transactionLog;
     private final Map<String, Integer> txnStatus;
+    private final Map<String, ReindexCheckpoint> reindexCheckpoints;
     private final AtomicInteger nextTxnIdSuffix;
 
     public FileBasedTransactionManager(Path basePath) {
+        this(basePath, null);
+    }
+
+    public FileBasedTransactionManager(Path basePath, CordraConfig.TransactionLog config) {
         nextTxnIdSuffix = new AtomicInteger(0);
+        if (config == null) config = new CordraConfig.TransactionLog();
+        CordraConfig.TransactionLog defaults = new CordraConfig.TransactionLog();
+        String module = config.module == null ? defaults.module : config.module;
         if (basePath != null) {
             File txnsDir = basePath.resolve("cordraTxns").toFile();
-            transactionsMap = new PersistentMap<>(txnsDir, "transactionsMap", Long.class, CordraTransaction.class);
+            if ("segmentLog".equals(module)) {
+                int segmentSizeBytes = config.segmentSizeBytes == null ? defaults.segmentSizeBytes : config.segmentSizeBytes;
+                boolean forceWrites = config.forceWrites == null ? defaults.forceWrites : config.forceWrites;
+                long compactionIntervalMs = config.compactionIntervalMs == null ? defaults.compactionIntervalMs : config.compactionIntervalMs;
+                transactionsMap = null;
+                transactionLog = new MappedSegmentTransactionLog(txnsDir.toPath().resolve("log"), segmentSizeBytes, forceWrites, compactionIntervalMs);
+                migrateOpenTransactions(txnsDir, transactionLog);
+            } else if ("bdbje".equals(module)) {
+                transactionsMap = new PersistentMap<>(txnsDir, "transactionsMap", Long.class, CordraTransaction.class);
+                transactionLog = null;
+            } else {
+                throw new IllegalArgumentException("Unknown transactionLog module " + module);
+            }
             txnStatus = new PersistentMap<>(txnsDir, "txnStatus", String.class, Integer.class);
+            reindexCheckpoints = new PersistentMap<>(txnsDir, "reindexCheckpoint", String.class, ReindexCheckpoint.class);
         } else {
             transactionsMap = new ConcurrentHashMap<>();
+            transactionLog = null;
             txnStatus = new ConcurrentHashMap<>();
+            reindexCheckpoints = new ConcurrentHashMap<>();
+        }
+    }
+
+    /**
+     * Moves any transactions left open in the bdbje transaction log into the segment log.
+     */
+    private static void migrateOpenTransactions(File txnsDir, MappedSegmentTransactionLog transactionLog) {
+        if (!new File(txnsDir, "db").exists()) return;
+        PersistentMap<Long, CordraTransaction> oldTransactionsMap = new PersistentMap<>(txnsDir, "transactionsMap", Long.class, CordraTransaction.class);
+        try {
+            List<CordraTransaction> txns = new ArrayList<>(oldTransactionsMap.values());
+            if (txns.isEmpty()) return;
+            logger.info("Moving " + txns.size() + " open transactions to segment log");
+            transactionLog.open(txns);
+            oldTransactionsMap.clear();
+        } finally {
+            oldTransactionsMap.close();
         }
     }
 
@@ -49,16 +96,53 @@ public class FileBasedTransactionManager implements TransactionManager {
         return System.currentTimeMillis() * 1_000L + suffix;
     }
 
+    @Override
+    public long getTransactionIdsPerMillisecond() {
+        return 1_000L;
+    }
+
     @Override
     public void openTransaction(long txnId, String cordraServiceId, CordraTransaction txn) {
+        if (transactionLog != null) {
+            transactionLog.open(Collections.singletonList(txn));
+            return;
+        }
         transactionsMap.put(txnId, txn);
     }
 
     @Override
     public void closeTransaction(long txnId, String cordraServiceId) {
+        if (transactionLog != null) {
+            transactionLog.close(Collections.singletonList(txnId));
+            return;
+        }
         transactionsMap.remove(txnId);
     }
 
+    @Override
+    public void openTransactions(List<CordraTransaction> txns, String cordraServiceId) {
+        if (transactionLog != null) {
+            transactionLog.open(txns);
+            return;
+        }
+        Map<Long, CordraTransaction> batch = new LinkedHashMap<>();
+        for (CordraTransaction txn : txns) {
+            batch.put(txn.txnId, txn);
+        }
+        transactionsMap.putAll(batch);
+    }
+
+    @Override
+    public void closeTransactions(List<Long> txnIds, String cordraServiceId) {
+        if (transactionLog != null) {
+            transactionLog.close(new ArrayList<>(txnIds));
+            return;
+        }
+        for (long txnId : txnIds) {
+            transactionsMap.remove(txnId);
+        }
+    }
+
     @Override
     public java.util.List<String> getCordraServiceIdsWithOpenTransactions() {
         return Collections.singletonList("0");
@@ -66,6 +150,7 @@ public class FileBasedTransactionManager implements TransactionManager {
 
     @Override
     public Iterator<Entry<Long, CordraTransaction>> iterateTransactions(String cordraServiceId) {
+        if (transactionLog != null) return transactionLog.iterator();
         return transactionsMap.entrySet().iterator();
     }
 
@@ -88,14 +173,34 @@ public class FileBasedTransactionManager implements TransactionManager {
         }
     }
 
+    @Override
+    public ReindexCheckpoint getReindexCheckpoint() {
+        return reindexCheckpoints.get(REINDEX_CHECKPOINT);
+    }
+
+    @Override
+    public void setReindexCheckpoint(ReindexCheckpoint checkpoint) {
+        if (checkpoint != null) {
+            reindexCheckpoints.put(REINDEX_CHECKPOINT, checkpoint);
+        } else {
+            reindexCheckpoints.remove(REINDEX_CHECKPOINT);
+        }
+    }
+
     @Override
     public void shutdown() {
+        if (transactionLog != null) {
+            try { transactionLog.close(); } catch (Exception e) { logger.error("Shutdown error", e); }
+        }
         if (transactionsMap instanceof Closeable) {
             try { ((Closeable)transactionsMap).close(); } catch (Exception e) { logger.error("Shutdown error", e); }
         }
         if (txnStatus instanceof Closeable) {
             try { ((Closeable)txnStatus).close(); } catch (Exception e) { logger.error("Shutdown error", e); }
         }
+        if (reindexCheckpoints instanceof Closeable) {
+            try { ((Closeable)reindexCheckpoints).close(); } catch (Exception e) { logger.error("Shutdown error", e); }
+        }
     }
 
 }
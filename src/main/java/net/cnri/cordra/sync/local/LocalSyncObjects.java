@@ -5,6 +5,7 @@ import java.nio.file.Path;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import net.cnri.cordra.model.CordraConfig;
 import net.cnri.cordra.sync.AllHandlesUpdaterSync;
 import net.cnri.cordra.sync.CheckableLocker;
 import net.cnri.cordra.sync.KeyPairAuthJtiChecker;
@@ -28,15 +29,18 @@ public class LocalSyncObjects implements SyncObjects {
     private final LeadershipManager leadershipManager;
     private final SingleThreadReadWriteCheckableLocker designLocker;
     private final SignalWatcher signalWatcher;
-    private final CheckableLocker schemaNameLocker;
-    private final CheckableLocker usernameLocker;
+    private final NameLocker uniqueNameLocker;
     private final NameLocker objectLocker;
     private final AllHandlesUpdaterSync allHandlesUpdaterSync;
     private final TransactionReprocessingQueue transactionReprocessingQueue;
     private final KeyPairAuthJtiChecker keyPairAuthJtiChecker;
 
     public LocalSyncObjects(Path basePath, boolean isReadOnly, Alerter alerter, boolean inMemoryOnly) {
-        this(repoInitProviderFromPath(basePath, isReadOnly), basePath, isReadOnly, alerter, inMemoryOnly);
+        this(repoInitProviderFromPath(basePath, isReadOnly), basePath, isReadOnly, alerter, inMemoryOnly, null);
+    }
+
+    public LocalSyncObjects(Path basePath, boolean isReadOnly, Alerter alerter, boolean inMemoryOnly, CordraConfig.TransactionLog transactionLogConfig) {
+        this(repoInitProviderFromPath(basePath, isReadOnly), basePath, isReadOnly, alerter, inMemoryOnly, transactionLogConfig);
     }
 
     private static RepoInitProvider repoInitProviderFromPath(Path basePath, boolean isReadOnly) {
@@ -46,14 +50,17 @@ public class LocalSyncObjects implements SyncObjects {
     }
 
     public LocalSyncObjects(RepoInitProvider repoInitProvider, Path basePath, boolean isReadOnly, Alerter alerter, boolean inMemoryOnly) {
+        this(repoInitProvider, basePath, isReadOnly, alerter, inMemoryOnly, null);
+    }
+
+    public LocalSyncObjects(RepoInitProvider repoInitProvider, Path basePath, boolean isReadOnly, Alerter alerter, boolean inMemoryOnly, CordraConfig.TransactionLog transactionLogConfig) {
         this.alerter = alerter;
         this.startupLocker = new NoopCheckableLocker();
         this.repoInitProvider = repoInitProvider;
         this.leadershipManager = new SingleInstanceLeadershipManager();
-        this.transactionManager = new FileBasedTransactionManager(isReadOnly || inMemoryOnly ? null : basePath);
+        this.transactionManager = new FileBasedTransactionManager(isReadOnly || inMemoryOnly ? null : basePath, transactionLogConfig);
         this.designLocker = new MemorySingleThreadReadWriteCheckableLocker();
-        this.schemaNameLocker = new MemoryCheckableLocker();
-        this.usernameLocker = new MemoryCheckableLocker();
+        this.uniqueNameLocker = new MemoryNameLocker();
         this.objectLocker = new MemoryNameLocker();
         this.allHandlesUpdaterSync = new MemoryAllHandlesUpdaterSync();
         if (isReadOnly) this.signalWatcher = new PollingSignalWatcher();
@@ -88,13 +95,8 @@ public class LocalSyncObjects implements SyncObjects {
     }
 
     @Override
-    public CheckableLocker getSchemaNameLocker() {
-        return schemaNameLocker;
-    }
-
-    @Override
-    public CheckableLocker getUsernameLocker() {
-        return usernameLocker;
+    public NameLocker getUniqueNameLocker() {
+        return uniqueNameLocker;
     }
 
     @Override
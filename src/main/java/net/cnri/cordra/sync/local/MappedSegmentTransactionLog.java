@@ -0,0 +1,373 @@
+package net.cnri.cordra.sync.local;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.cnri.cordra.indexer.CordraTransaction;
+
+/**
+ * Records open transactions as an append-only log of memory-mapped, fixed-size segment files.
+ *
+ * <p>Opening a transaction appends an open record and closing it appends a close record, each with a CRC, to the
+ * newest segment; when it is full a new segment is started.  Each segment counts its open records not yet closed.
+ * In the background, segments are deleted oldest first once they hold no open transactions; if the oldest segment
+ * still has some, they are first copied to the newest segment, so a long-running transaction does not keep old
+ * segments alive.  On startup the remaining segments are replayed in order to find the open transactions.
+ *
+ * <p>If forceWrites is set, each append returns only after the segment is forced to disk; appends which arrive while
+ * another thread is forcing are forced together.
+ */
+public class MappedSegmentTransactionLog {
+    private static final Logger logger = LoggerFactory.getLogger(MappedSegmentTransactionLog.class);
+
+    private static final int MAGIC = 0x43545853; // "CTXS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final byte END = 0;
+    private static final byte OPEN = 1;
+    private static final byte CLOSE = 2;
+    private static final String SEGMENT_PREFIX = "txns-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path dir;
+    private final int segmentSize;
+    private final boolean forceWrites;
+    private final ConcurrentSkipListMap<Long, CordraTransaction> openTxns = new ConcurrentSkipListMap<>();
+    // guarded by this
+    private final Map<Long, Segment> segmentOfTxn = new HashMap<>();
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final List<Path> undeletedFiles = new ArrayList<>();
+    // above the sequence of every segment file seen, including those not recovered, so that no file name is reused
+    private long nextSeq = 0;
+    private Segment current;
+    private boolean closed;
+    private final ScheduledExecutorService compactionExec;
+
+    private static class Segment {
+        final long seq;
+        final Path path;
+        final MappedByteBuffer buffer;
+        int liveCount;
+        volatile int forcedPosition;
+
+        Segment(long seq, Path path, MappedByteBuffer buffer) {
+            this.seq = seq;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    public MappedSegmentTransactionLog(Path dir, int segmentSize, boolean forceWrites, long compactionIntervalMs) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.forceWrites = forceWrites;
+        try {
+            Files.createDirectories(dir);
+            recover();
+            current = newSegment();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        compactionExec = Executors.newSingleThreadScheduledExecutor();
+        compactionExec.scheduleWithFixedDelay(this::compactAndLogErrors, compactionIntervalMs, compactionIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void recover() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                paths.add(path);
+            }
+        }
+        Collections.sort(paths);
+        for (Path path : paths) {
+            String name = path.getFileName().toString();
+            long seq = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            nextSeq = Math.max(nextSeq, seq + 1);
+            long size = Files.size(path);
+            if (size < HEADER_SIZE) {
+                undeletedFiles.add(path);
+                continue;
+            }
+            // the segment size may have been configured differently when the segment was written
+            Segment segment = new Segment(seq, path, map(path, (int) size));
+            if (segment.buffer.getInt(0) != MAGIC || segment.buffer.getInt(4) != VERSION) {
+                // deleted after compaction but the file could not be removed
+                undeletedFiles.add(path);
+                continue;
+            }
+            segment.buffer.position(HEADER_SIZE);
+            replay(segment);
+            segments.add(segment);
+        }
+        logger.info("Recovered " + openTxns.size() + " open transactions from " + segments.size() + " segments");
+    }
+
+    private void replay(Segment segment) {
+        ByteBuffer buffer = segment.buffer;
+        while (buffer.remaining() > 0) {
+            int start = buffer.position();
+            byte type = buffer.get();
+            if (type == END) break;
+            CordraTransaction txn;
+            try {
+                txn = readRecordBody(type, buffer);
+            } catch (RuntimeException e) {
+                txn = null;
+            }
+            if (txn == null || buffer.remaining() < 4 || crc(buffer, start, buffer.position() - start) != buffer.getInt()) {
+                logger.warn("Truncated transaction log " + segment.path + " at " + start);
+                break;
+            }
+            if (type == OPEN) {
+                Segment previous = segmentOfTxn.put(txn.txnId, segment);
+                if (previous != null) previous.liveCount--;
+                segment.liveCount++;
+                openTxns.put(txn.txnId, txn);
+            } else {
+                Segment previous = segmentOfTxn.remove(txn.txnId);
+                if (previous != null) previous.liveCount--;
+                openTxns.remove(txn.txnId);
+            }
+        }
+    }
+
+    private static CordraTransaction readRecordBody(byte type, ByteBuffer buffer) {
+        long txnId = buffer.getLong();
+        if (type == CLOSE) return new CordraTransaction(txnId, 0, null, null, false);
+        if (type != OPEN) return null;
+        long timestamp = buffer.getLong();
+        CordraTransaction.OP op = CordraTransaction.OP.values()[buffer.get()];
+        boolean isNeedToReplicate = buffer.get() != 0;
+        byte[] objectIdBytes = new byte[buffer.getChar()];
+        buffer.get(objectIdBytes);
+        return new CordraTransaction(txnId, timestamp, new String(objectIdBytes, StandardCharsets.UTF_8), op, isNeedToReplicate);
+    }
+
+    private static int crc(ByteBuffer buffer, int start, int length) {
+        CRC32 crc = new CRC32();
+        for (int i = start; i < start + length; i++) {
+            crc.update(buffer.get(i));
+        }
+        return (int) crc.getValue();
+    }
+
+    private static MappedByteBuffer map(Path path, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private Segment newSegment() throws IOException {
+        long seq = nextSeq++;
+        Path path = dir.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, seq, SEGMENT_SUFFIX));
+        if (Files.exists(path) || undeletedFiles.contains(path)) throw new IOException("Transaction log segment already exists: " + path);
+        Segment segment = new Segment(seq, path, map(path, segmentSize));
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putInt(4, VERSION);
+        segment.buffer.position(HEADER_SIZE);
+        segments.add(segment);
+        return segment;
+    }
+
+    private static byte[] encodeOpen(CordraTransaction txn) {
+        byte[] objectIdBytes = txn.objectId.getBytes(StandardCharsets.UTF_8);
+        if (objectIdBytes.length > Character.MAX_VALUE) throw new IllegalArgumentException("Object id too long for transaction log");
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + 8 + 1 + 1 + 2 + objectIdBytes.length + 4);
+        buffer.put(OPEN);
+        buffer.putLong(txn.txnId);
+        buffer.putLong(txn.timestamp);
+        buffer.put((byte) txn.op.ordinal());
+        buffer.put((byte) (txn.isNeedToReplicate ? 1 : 0));
+        buffer.putChar((char) objectIdBytes.length);
+        buffer.put(objectIdBytes);
+        return withCrc(buffer);
+    }
+
+    private static byte[] encodeClose(long txnId) {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + 4);
+        buffer.put(CLOSE);
+        buffer.putLong(txnId);
+        return withCrc(buffer);
+    }
+
+    private static byte[] withCrc(ByteBuffer buffer) {
+        buffer.putInt(crc(buffer, 0, buffer.position()));
+        return buffer.array();
+    }
+
+    // called while synchronized on this
+    private void append(byte[] record) throws IOException {
+        if (closed) throw new IllegalStateException("Transaction log is closed");
+        // leave room for the end marker
+        if (record.length + 1 > segmentSize - HEADER_SIZE) throw new IllegalArgumentException("Record too large for transaction log segment");
+        if (current.buffer.remaining() < record.length + 1) {
+            forceAll(current);
+            current = newSegment();
+        }
+        current.buffer.put(record);
+    }
+
+    public void open(List<CordraTransaction> txns) {
+        Segment segment;
+        int position;
+        synchronized (this) {
+            try {
+                for (CordraTransaction txn : txns) {
+                    append(encodeOpen(txn));
+                    Segment previous = segmentOfTxn.put(txn.txnId, current);
+                    if (previous != null) previous.liveCount--;
+                    current.liveCount++;
+                    openTxns.put(txn.txnId, txn);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            segment = current;
+            position = current.buffer.position();
+        }
+        force(segment, position);
+    }
+
+    public void close(List<Long> txnIds) {
+        Segment segment;
+        int position;
+        synchronized (this) {
+            try {
+                for (long txnId : txnIds) {
+                    Segment openSegment = segmentOfTxn.remove(txnId);
+                    if (openSegment == null) continue;
+                    openSegment.liveCount--;
+                    openTxns.remove(txnId);
+                    append(encodeClose(txnId));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            segment = current;
+            position = current.buffer.position();
+        }
+        force(segment, position);
+    }
+
+    // called while synchronized on this
+    private void forceAll(Segment segment) {
+        if (!forceWrites) return;
+        segment.buffer.force();
+        segment.forcedPosition = segment.buffer.position();
+    }
+
+    private void force(Segment segment, int position) {
+        if (!forceWrites || segment.forcedPosition >= position) return;
+        synchronized (segment) {
+            if (segment.forcedPosition >= position) return;
+            int forcingPosition;
+            synchronized (this) {
+                forcingPosition = segment.buffer.position();
+            }
+            segment.buffer.force();
+            segment.forcedPosition = forcingPosition;
+        }
+    }
+
+    /**
+     * Returns an iterator over the open transactions, in txnId order; it reflects concurrent opens and closes.
+     */
+    public Iterator<Map.Entry<Long, CordraTransaction>> iterator() {
+        return openTxns.entrySet().iterator();
+    }
+
+    public int getOpenCount() {
+        return openTxns.size();
+    }
+
+    private void compactAndLogErrors() {
+        try {
+            compact();
+        } catch (Throwable e) {
+            logger.error("Error compacting transaction log", e);
+        }
+    }
+
+    synchronized void compact() throws IOException {
+        if (closed) return;
+        while (segments.size() > 1) {
+            Segment oldest = segments.getFirst();
+            if (oldest.liveCount > 0) {
+                // move the transactions still open to the newest segment
+                List<CordraTransaction> live = new ArrayList<>();
+                for (Map.Entry<Long, Segment> entry : segmentOfTxn.entrySet()) {
+                    if (entry.getValue() == oldest) live.add(openTxns.get(entry.getKey()));
+                }
+                for (CordraTransaction txn : live) {
+                    append(encodeOpen(txn));
+                    segmentOfTxn.put(txn.txnId, current);
+                    current.liveCount++;
+                }
+                oldest.liveCount = 0;
+                forceAll(current);
+            }
+            segments.removeFirst();
+            delete(oldest);
+        }
+        for (Iterator<Path> iter = undeletedFiles.iterator(); iter.hasNext(); ) {
+            if (tryDelete(iter.next())) iter.remove();
+        }
+    }
+
+    private void delete(Segment segment) {
+        // a mapped file cannot be deleted on some platforms; invalidate it first so it is skipped on recovery
+        segment.buffer.putInt(0, 0);
+        if (forceWrites) segment.buffer.force();
+        if (!tryDelete(segment.path)) undeletedFiles.add(segment.path);
+    }
+
+    private static boolean tryDelete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+            return true;
+        } catch (IOException e) {
+            logger.debug("Unable to delete transaction log segment " + path, e);
+            return false;
+        }
+    }
+
+    public void close() {
+        compactionExec.shutdown();
+        try {
+            compactionExec.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            for (Segment segment : segments) {
+                segment.buffer.force();
+            }
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package net.cnri.cordra.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies, for reporting percentiles in metrics.
+ *
+ * <p>Latencies are counted in buckets of microseconds, four to each power of two, so that a reported percentile is
+ * the upper bound of its bucket and at most 25% above the true value.
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 4 * 40;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(bucketFor(micros));
+        totalCount.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        long max;
+        while (micros > (max = maxMicros.get())) {
+            if (maxMicros.compareAndSet(max, micros)) break;
+        }
+    }
+
+    static int bucketFor(long micros) {
+        if (micros < 4) return (int) micros;
+        int log = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) ((micros >>> (log - 2)) & 3);
+        return Math.min(BUCKETS - 1, 4 * (log - 1) + sub);
+    }
+
+    static long upperBoundMicros(int bucket) {
+        if (bucket < 4) return bucket;
+        int log = bucket / 4 + 1;
+        int sub = bucket % 4;
+        return ((4L + sub + 1) << (log - 2)) - 1;
+    }
+
+    public Stats getStats() {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        Stats stats = new Stats();
+        stats.count = count;
+        if (count == 0) return stats;
+        long max = maxMicros.get();
+        stats.meanMs = totalMicros.get() / 1000.0 / Math.max(1, totalCount.get());
+        stats.p50Ms = percentile(snapshot, count, 0.50, max);
+        stats.p90Ms = percentile(snapshot, count, 0.90, max);
+        stats.p99Ms = percentile(snapshot, count, 0.99, max);
+        stats.p999Ms = percentile(snapshot, count, 0.999, max);
+        stats.maxMs = max / 1000.0;
+        return stats;
+    }
+
+    private static double percentile(long[] snapshot, long count, double fraction, long max) {
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(upperBoundMicros(i), max) / 1000.0;
+        }
+        return max / 1000.0;
+    }
+
+    public static class Stats {
+        public long count;
+        public double meanMs;
+        public double p50Ms;
+        public double p90Ms;
+        public double p99Ms;
+        public double p999Ms;
+        public double maxMs;
+    }
+}
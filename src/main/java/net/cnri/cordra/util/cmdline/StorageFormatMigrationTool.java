@@ -0,0 +1,81 @@
+package net.cnri.cordra.util.cmdline;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.google.gson.JsonElement;
+
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import net.cnri.cordra.collections.JsonPersistentMapCodec;
+import net.cnri.cordra.collections.PersistentMap;
+import net.cnri.cordra.collections.PersistentMapCodec;
+import net.cnri.cordra.collections.SmilePersistentMapCodec;
+
+/**
+ * Rewrites the records of a {@link PersistentMap}, by default the objects of the bdbje storage module, in place
+ * into the binary format, or back into JSON.
+ */
+public class StorageFormatMigrationTool {
+
+    public static void main(String[] args) throws Exception {
+        OptionSet options = parseOptions(args);
+        File dataDir = new File((String) options.valueOf("d"));
+        String dbName = (String) options.valueOf("n");
+        File dir;
+        if (options.has("p")) {
+            dir = new File((String) options.valueOf("p"));
+        } else {
+            dir = new File(dataDir, "cordraStorage");
+        }
+        if (!new File(dir, "db").isDirectory()) {
+            System.out.println("Error. No database found at " + dir);
+            System.exit(1);
+        }
+        int batchSize = Integer.parseInt((String) options.valueOf("b"));
+        boolean progress = options.has("P");
+        PersistentMapCodec<JsonElement> codec;
+        if (options.has("json")) {
+            codec = new JsonPersistentMapCodec<>(JsonElement.class);
+        } else {
+            codec = new SmilePersistentMapCodec<>(JsonElement.class);
+        }
+        // keys are never decoded during migration, so the key class does not matter
+        try (PersistentMap<String, JsonElement> map = new PersistentMap<>(dir, dbName, String.class, codec, false)) {
+            long rewritten = map.reencodeValues(batchSize, examined -> {
+                if (progress) System.out.print("Progress: " + examined + " \r");
+            });
+            System.out.println("Rewrote " + rewritten + " records.");
+        }
+    }
+
+    private static OptionSet parseOptions(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        parser.acceptsAll(Arrays.asList("h", "help"), "Prints help").forHelp();
+        parser.acceptsAll(Arrays.asList("d", "data"), "Path to cordra data directory").withRequiredArg().required();
+        parser.acceptsAll(Arrays.asList("p", "path"), "Path to the database environment, if not the bdbje storage in the data directory").withRequiredArg();
+        parser.acceptsAll(Arrays.asList("n", "name"), "Name of the database to migrate").withRequiredArg().defaultsTo("objects");
+        parser.acceptsAll(Arrays.asList("b", "batch-size"), "Number of records rewritten per transaction").withRequiredArg().defaultsTo("1000");
+        parser.accepts("json", "Rewrite records as JSON text instead of the binary format");
+        parser.acceptsAll(Arrays.asList("P", "progress"), "Show progress");
+        OptionSet options;
+        try {
+            options = parser.parse(args);
+        } catch (OptionException e) {
+            System.out.println("Error parsing options: " + e.getMessage());
+            parser.printHelpOn(System.out);
+            System.exit(1);
+            return null;
+        }
+        if (options.has("h")) {
+            System.out.println("This tool rewrites the records of the bdbje storage module in place, converting JSON records " +
+                    "to the binary format (or back to JSON with --json).  Cordra must be shut down while it runs.");
+            parser.printHelpOn(System.out);
+            System.exit(1);
+            return null;
+        }
+        return options;
+    }
+}
@@ -11,6 +11,7 @@ import com.google.gson.*;
 import com.google.gson.reflect.TypeToken;
 import net.cnri.cordra.*;
 import net.cnri.cordra.api.*;
+import net.cnri.cordra.auth.AclEnforcer;
 import net.cnri.cordra.auth.QueryRestrictor;
 import net.cnri.cordra.model.*;
 import net.cnri.util.StreamUtil;
@@ -27,8 +28,10 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.Part;
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Writer;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.util.*;
@@ -41,6 +44,8 @@ public class ObjectServlet extends HttpServlet {
     private static final String CONTENT = "content";
     private static final String ACL = "acl";
     private static final String USER_METADATA = "userMetadata";
+    private static final String APPLICATION_X_NDJSON = "application/x-ndjson";
+    private static final int DEFAULT_BULK_BATCH_SIZE = 1000;
 
     private CordraService cordra;
     private Gson gson;
@@ -352,7 +357,14 @@ public class ObjectServlet extends HttpServlet {
 
     private void doSearch(HttpServletRequest req, HttpServletResponse resp, String query) throws IOException {
         try {
-            cordra.ensureIndexUpToDate();
+            Long txnId;
+            try {
+                txnId = ServletUtil.getTxnIdParameter(req);
+            } catch (BadRequestCordraException e) {
+                ServletErrorUtil.badRequest(resp, e.getMessage());
+                return;
+            }
+            cordra.ensureIndexUpToDateForSearch(txnId);
             String userId = (String) req.getAttribute("userId");
             boolean hasUserObject = ServletUtil.getBooleanAttribute(req, "hasUserObject");
             List<String> groupIds = cordra.getAclEnforcer().getGroupsForUser(userId);
@@ -363,6 +375,8 @@ public class ObjectServlet extends HttpServlet {
             String pageSizeString = req.getParameter("pageSize");
             if (pageSizeString == null) pageSizeString = "-1";
             String sortFieldsString = req.getParameter("sortFields");
+            String cursor = req.getParameter("cursor");
+            if (cursor != null && cursor.isEmpty()) cursor = null;
             boolean isHandles = ServletUtil.getBooleanParameter(req, "ids");
             int pageNum;
             int pageSize;
@@ -376,18 +390,29 @@ public class ObjectServlet extends HttpServlet {
             if (pageNum < 0) {
                 pageNum = 0;
             }
+            if (cursor != null && pageSize <= 0) {
+                ServletErrorUtil.badRequest(resp, "cursor requires a positive pageSize");
+                return;
+            }
+            List<FacetSpecification> facets;
+            try {
+                facets = getFacetsParameter(req);
+            } catch (BadRequestCordraException e) {
+                ServletErrorUtil.badRequest(resp, e.getMessage());
+                return;
+            }
             boolean isPostProcess = true;
             if (isHandles) {
-                cordra.searchHandles(restrictedQuery, pageNum, pageSize, sortFieldsString, resp.getWriter(), isPostProcess, userId);
+                cordra.searchHandles(restrictedQuery, pageNum, pageSize, sortFieldsString, cursor, facets, resp.getWriter(), isPostProcess, userId);
             } else {
                 boolean isFull = ServletUtil.getBooleanParameter(req, "full", true);
                 String filterJson = req.getParameter("filter");
                 Set<String> filter = null;
                 if (filterJson != null) {
                     filter = gson.fromJson(filterJson, new TypeToken<Set<String>>(){}.getType());
-                    cordra.search(restrictedQuery, pageNum, pageSize, sortFieldsString, resp.getWriter(), isPostProcess, userId, filter, isFull);
+                    cordra.search(restrictedQuery, pageNum, pageSize, sortFieldsString, cursor, facets, resp.getWriter(), isPostProcess, userId, filter, isFull);
                 } else {
-                    cordra.search(restrictedQuery, pageNum, pageSize, sortFieldsString, resp.getWriter(), isPostProcess, userId, isFull);
+                    cordra.search(restrictedQuery, pageNum, pageSize, sortFieldsString, cursor, facets, resp.getWriter(), isPostProcess, userId, null, isFull);
                 }
             }
         } catch (CordraException e) {
@@ -403,6 +428,28 @@ public class ObjectServlet extends HttpServlet {
         }
     }
 
+    // a JSON array of objects with "field" and optional "maxBuckets"
+    private List<FacetSpecification> getFacetsParameter(HttpServletRequest req) throws BadRequestCordraException {
+        String facetsJson = req.getParameter("facets");
+        if (facetsJson == null || facetsJson.isEmpty()) return null;
+        List<FacetSpecification> facets;
+        try {
+            facets = gson.fromJson(facetsJson, new TypeToken<List<FacetSpecification>>(){}.getType());
+        } catch (JsonParseException e) {
+            throw new BadRequestCordraException("Invalid facets");
+        }
+        if (facets == null) return null;
+        for (FacetSpecification facet : facets) {
+            if (facet == null || facet.getField() == null || facet.getMaxBuckets() <= 0) {
+                throw new BadRequestCordraException("Invalid facets");
+            }
+            if (facet.getMaxBuckets() > FacetSpecification.MAX_BUCKETS_LIMIT) {
+                throw new BadRequestCordraException("Invalid facets: maxBuckets may be at most " + FacetSpecification.MAX_BUCKETS_LIMIT);
+            }
+        }
+        return facets;
+    }
+
     public static boolean looksLikeParseFailure(CordraException e) {
         if (e.getCause() instanceof ElasticsearchStatusException) {
             for (Throwable t : e.getCause().getSuppressed()) {
@@ -446,6 +493,10 @@ public class ObjectServlet extends HttpServlet {
             ServletErrorUtil.badRequest(resp, "Unexpected object id in POST");
             return;
         }
+        if (objectId == null && isNdjson(req)) {
+            bulkWrite(req, resp, isCreate);
+            return;
+        }
         if (!isCreate && (objectId == null || objectId.isEmpty())) {
             ServletErrorUtil.badRequest(resp, "Missing object id in PUT");
             return;
@@ -528,6 +579,9 @@ public class ObjectServlet extends HttpServlet {
             resp.setStatus(HttpServletResponse.SC_OK);
             resp.setHeader("Location", StringUtils.encodeURLPath("/objects/" + co.id));
             resp.setHeader("X-Schema", co.type);
+            if (co.metadata != null && co.metadata.txnId != null) {
+                resp.setHeader("X-Txn-Id", String.valueOf(co.metadata.txnId));
+            }
             boolean isFull = ServletUtil.getBooleanParameter(req, "full");
             if (isFull) {
 //                if (co.metadata != null) co.metadata.internalMetadata = null;
@@ -584,6 +638,133 @@ public class ObjectServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Creates (POST) or updates (PUT) many objects from a body of newline-delimited JSON, one object per line,
+     * in the same form as returned with the "full" parameter.  Objects are written in batches of "batchSize",
+     * and the response has one line of JSON per object, in order, giving its id and status.
+     */
+    private void bulkWrite(HttpServletRequest req, HttpServletResponse resp, boolean isCreate) throws IOException {
+        String userId = (String) req.getAttribute("userId");
+        boolean hasUserObject = ServletUtil.getBooleanAttribute(req, "hasUserObject");
+        String defaultType = req.getParameter("type");
+        int batchSize = DEFAULT_BULK_BATCH_SIZE;
+        String batchSizeString = req.getParameter("batchSize");
+        if (batchSizeString != null) {
+            try {
+                batchSize = Integer.parseInt(batchSizeString);
+            } catch (NumberFormatException e) {
+                batchSize = 0;
+            }
+            if (batchSize <= 0) {
+                ServletErrorUtil.badRequest(resp, "Invalid batchSize");
+                return;
+            }
+        }
+        try (BufferedReader reader = req.getReader()) {
+            cordra.ensureIndexUpToDateWhenAuthChange();
+            int index = 0;
+            boolean isStarted = false;
+            while (true) {
+                List<String> lines = new ArrayList<>();
+                String line;
+                while (lines.size() < batchSize && (line = reader.readLine()) != null) {
+                    if (line.trim().isEmpty()) continue;
+                    lines.add(line);
+                }
+                if (lines.isEmpty()) break;
+                BulkWriteResult[] results = new BulkWriteResult[lines.size()];
+                List<CordraObject> objects = new ArrayList<>();
+                List<Integer> objectIndexes = new ArrayList<>();
+                for (int i = 0; i < lines.size(); i++) {
+                    CordraObject co;
+                    try {
+                        co = gson.fromJson(lines.get(i), CordraObject.class);
+                    } catch (JsonParseException e) {
+                        co = null;
+                    }
+                    String error = co == null ? "Invalid JSON" : checkBulkWritePermission(co, isCreate, defaultType, userId, hasUserObject);
+                    if (error != null) {
+                        results[i] = new BulkWriteResult();
+                        results[i].index = index + i;
+                        if (co != null) {
+                            results[i].id = co.id;
+                            results[i].type = co.type;
+                        }
+                        results[i].statusCode = co == null ? HttpServletResponse.SC_BAD_REQUEST : HttpServletResponse.SC_FORBIDDEN;
+                        results[i].message = error;
+                    } else {
+                        objects.add(co);
+                        objectIndexes.add(i);
+                    }
+                }
+                List<BulkWriteResult> written;
+                try {
+                    written = cordra.bulkWrite(objects, isCreate, userId, hasUserObject);
+                } catch (ReadOnlyCordraException e) {
+                    if (!isStarted) {
+                        ServletErrorUtil.badRequest(resp, "Cordra is read-only");
+                        return;
+                    }
+                    throw e;
+                }
+                for (int j = 0; j < written.size(); j++) {
+                    int i = objectIndexes.get(j);
+                    results[i] = written.get(j);
+                    results[i].index = index + i;
+                }
+                if (!isStarted) {
+                    resp.setStatus(HttpServletResponse.SC_OK);
+                    resp.setContentType(APPLICATION_X_NDJSON);
+                    isStarted = true;
+                }
+                Writer writer = resp.getWriter();
+                for (BulkWriteResult result : results) {
+                    writer.write(gson.toJson(result));
+                    writer.write("\n");
+                }
+                writer.flush();
+                index += lines.size();
+            }
+            if (!isStarted) {
+                resp.setStatus(HttpServletResponse.SC_OK);
+                resp.setContentType(APPLICATION_X_NDJSON);
+            }
+        } catch (Exception e) {
+            if (!resp.isCommitted()) {
+                resp.reset();
+                resp.setContentType("application/json");
+                resp.setCharacterEncoding("UTF-8");
+                ServletErrorUtil.internalServerError(resp);
+            }
+            logger.error("Unexpected exception in bulk write", e);
+        }
+    }
+
+    private String checkBulkWritePermission(CordraObject co, boolean isCreate, String defaultType, String userId, boolean hasUserObject) throws CordraException {
+        if (co.type == null) co.type = defaultType;
+        AclEnforcer aclEnforcer = cordra.getAclEnforcer();
+        if (isCreate) {
+            if (co.type == null || co.type.isEmpty()) return null; // reported as missing type
+            if (!aclEnforcer.isPermittedToCreate(userId, hasUserObject, co.type)) {
+                return "Forbidden";
+            }
+        } else {
+            if (co.id == null || co.id.isEmpty()) return null; // reported as missing id
+            AclEnforcer.Permission perm = aclEnforcer.permittedOperations(userId, hasUserObject, co.id);
+            if (!AclEnforcer.doesPermissionAllowOperation(perm, AclEnforcer.Permission.WRITE)) {
+                return "Forbidden";
+            }
+        }
+        return null;
+    }
+
+    private static boolean isNdjson(HttpServletRequest req) {
+        String contentType = req.getContentType();
+        if (contentType == null) return false;
+        contentType = contentType.toLowerCase(Locale.ENGLISH);
+        return contentType.startsWith(APPLICATION_X_NDJSON);
+    }
+
     private static class Request {
         String json;
         String acl;
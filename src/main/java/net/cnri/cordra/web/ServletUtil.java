@@ -1,5 +1,6 @@
 package net.cnri.cordra.web;
 
+import net.cnri.cordra.api.BadRequestCordraException;
 import net.cnri.util.StringUtils;
 import net.handle.hdllib.Util;
 
@@ -50,6 +51,19 @@ public class ServletUtil {
         return Boolean.parseBoolean(value);
     }
     
+    /**
+     * Returns the txnId param, which requests that the index reflect that transaction, or null if absent.
+     */
+    public static Long getTxnIdParameter(HttpServletRequest req) throws BadRequestCordraException {
+        String txnIdString = req.getParameter("txnId");
+        if (txnIdString == null || txnIdString.isEmpty()) return null;
+        try {
+            return Long.valueOf(txnIdString);
+        } catch (NumberFormatException e) {
+            throw new BadRequestCordraException("Invalid txnId");
+        }
+    }
+
     public static String getPath(HttpServletRequest servletReq) {
         String pathInfo = net.cnri.util.ServletUtil.pathExcluding(servletReq.getRequestURI(), servletReq.getContextPath() + servletReq.getServletPath());
         pathInfo = StringUtils.decodeURLIgnorePlus(pathInfo);
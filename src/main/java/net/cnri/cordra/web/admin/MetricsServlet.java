@@ -0,0 +1,44 @@
+package net.cnri.cordra.web.admin;
+
+import net.cnri.cordra.CordraService;
+import net.cnri.cordra.CordraServiceFactory;
+import net.cnri.cordra.GsonUtility;
+import net.cnri.cordra.web.ServletErrorUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+@WebServlet({"/metrics", "/metrics/"})
+public class MetricsServlet extends HttpServlet {
+    private static Logger logger = LoggerFactory.getLogger(MetricsServlet.class);
+
+    private CordraService cordra;
+
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        try {
+            cordra = CordraServiceFactory.getCordraService();
+        } catch (Exception e) {
+            throw new ServletException(e);
+        }
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        try {
+            resp.setContentType("application/json");
+            resp.setCharacterEncoding("UTF-8");
+            GsonUtility.getPrettyGson().toJson(cordra.getMetrics(), resp.getWriter());
+        } catch (Exception e) {
+            logger.error("Exception in GET /metrics", e);
+            ServletErrorUtil.internalServerError(resp);
+        }
+    }
+}
@@ -25,6 +25,7 @@ public class ObjectsUploadServlet extends HttpServlet {
 
     private static CordraService cordra;
     private static Gson gson = GsonUtility.getGson();
+    private static final int BATCH_SIZE = 1000;
 
     @Override
     public void init() throws ServletException {
@@ -70,6 +71,7 @@ public class ObjectsUploadServlet extends HttpServlet {
             List<JsonObject> input = parseInput(json);
             sortSchemasFirst(input);
             boolean schemasUploadFinished = false;
+            List<CordraObject> batch = new ArrayList<>();
             for (JsonObject obj : input) {
                 try {
                     String type = obj.get("type").getAsString();
@@ -88,14 +90,26 @@ public class ObjectsUploadServlet extends HttpServlet {
                     String jsonData = content.toString();
                     if ("CordraDesign".equals(type)) {
                         cordra.writeJsonAndPayloadsIntoCordraObjectIfValidAsUpdate(id, type, jsonData, acl, userMetadata, payloads, userId, hasUserObject, null, false);
+                    } else if ("Schema".equals(type)) {
+                        cordra.writeJsonAndPayloadsIntoCordraObjectIfValid(type, jsonData, acl, userMetadata, payloads, id, userId, false);
                     } else {
-                        if (!schemasUploadFinished && !"Schema".equals(type)) {
+                        if (!schemasUploadFinished) {
                             // We've finished uploading the schemas. Make sure index is up to date before continuing.
                             // This may not be necessary. Saw problems without, but could not duplicate.
                             cordra.ensureIndexUpToDate();
                             schemasUploadFinished = true;
                         }
-                        cordra.writeJsonAndPayloadsIntoCordraObjectIfValid(type, jsonData, acl, userMetadata, payloads, id, userId, false);
+                        CordraObject co = new CordraObject();
+                        co.id = id;
+                        co.type = type;
+                        co.content = content;
+                        co.acl = acl;
+                        co.userMetadata = userMetadata;
+                        batch.add(co);
+                        if (batch.size() >= BATCH_SIZE) {
+                            if (!writeBatch(batch, userId, hasUserObject, resp)) return;
+                            batch.clear();
+                        }
                     }
                 } catch (ReadOnlyCordraException e) {
                     ServletErrorUtil.badRequest(resp, "Cordra is read-only");
@@ -110,12 +124,42 @@ public class ObjectsUploadServlet extends HttpServlet {
                     return;
                 }
             }
+            try {
+                if (!writeBatch(batch, userId, hasUserObject, resp)) return;
+            } catch (ReadOnlyCordraException e) {
+                ServletErrorUtil.badRequest(resp, "Cordra is read-only");
+                return;
+            } catch (CordraException e) {
+                ServletErrorUtil.internalServerError(resp);
+                logger.error("Error loading objects", e);
+                return;
+            }
             resp.getWriter().println("{\"message\": \"success\"}");
         } catch(Exception e) {
             logger.error("Error loading objects", e);
         }
     }
 
+    /**
+     * Writes the objects with a single bulk create.  Returns false, having sent an error response, if any object failed.
+     */
+    private static boolean writeBatch(List<CordraObject> batch, String userId, boolean hasUserObject, HttpServletResponse resp) throws CordraException, ReadOnlyCordraException, IOException {
+        if (batch.isEmpty()) return true;
+        List<BulkWriteResult> results = cordra.bulkWrite(batch, true, userId, hasUserObject);
+        for (BulkWriteResult result : results) {
+            if (result.isSuccess()) continue;
+            if (result.statusCode >= 400 && result.statusCode < 500) {
+                ServletErrorUtil.badRequest(resp, result.message);
+                logger.info("Error loading object " + result.id + ": " + result.message);
+            } else {
+                ServletErrorUtil.internalServerError(resp);
+                logger.error("Error loading object " + result.id);
+            }
+            return false;
+        }
+        return true;
+    }
+
     @Override
     protected void doPut(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
         doPost(req, resp);
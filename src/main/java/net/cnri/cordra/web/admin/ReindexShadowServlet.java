@@ -0,0 +1,100 @@
+package net.cnri.cordra.web.admin;
+
+import com.google.gson.Gson;
+import net.cnri.cordra.CordraService;
+import net.cnri.cordra.CordraServiceFactory;
+import net.cnri.cordra.GsonUtility;
+import net.cnri.cordra.api.BadRequestCordraException;
+import net.cnri.cordra.api.ConflictCordraException;
+import net.cnri.cordra.api.CordraException;
+import net.cnri.cordra.web.ServletErrorUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Rebuilds the index into a shadow index which replaces the live index once complete (POST), reports whether a
+ * rebuild is in process (GET), or discards a shadow index left by an interrupted rebuild (DELETE).
+ */
+@WebServlet({"/reindexShadow", "/reindexShadow/"})
+public class ReindexShadowServlet extends HttpServlet {
+    private static Logger logger = LoggerFactory.getLogger(ReindexShadowServlet.class);
+
+    private CordraService cordra;
+    private Gson gson;
+
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        try {
+            gson = GsonUtility.getGson();
+            cordra = CordraServiceFactory.getCordraService();
+        } catch (Exception e) {
+            throw new ServletException(e);
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        try {
+            cordra.reindexEverythingIntoShadowIndex();
+            gson.toJson(getStatus(), resp.getWriter());
+        } catch (ConflictCordraException e) {
+            ServletErrorUtil.conflict(resp, e.getMessage());
+        } catch (BadRequestCordraException e) {
+            ServletErrorUtil.badRequest(resp, e.getMessage());
+        } catch (CordraException e) {
+            logger.error("Error starting shadow index rebuild", e);
+            ServletErrorUtil.internalServerError(resp);
+        }
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        try {
+            gson.toJson(getStatus(), resp.getWriter());
+        } catch (CordraException e) {
+            logger.error("Exception in GET /reindexShadow", e);
+            ServletErrorUtil.internalServerError(resp);
+        }
+    }
+
+    @Override
+    protected void doDelete(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        try {
+            cordra.discardShadowIndex();
+            gson.toJson(getStatus(), resp.getWriter());
+        } catch (ConflictCordraException e) {
+            ServletErrorUtil.conflict(resp, e.getMessage());
+        } catch (CordraException e) {
+            logger.error("Error discarding shadow index", e);
+            ServletErrorUtil.internalServerError(resp);
+        }
+    }
+
+    private Status getStatus() throws CordraException {
+        Status status = new Status();
+        status.supported = cordra.isShadowIndexSupported();
+        status.inProcess = cordra.isShadowReindexInProcess();
+        status.shadowIndexExists = status.supported && cordra.hasShadowIndex();
+        return status;
+    }
+
+    public static class Status {
+        public boolean supported;
+        public boolean inProcess;
+        public boolean shadowIndexExists;
+    }
+}